@@ -0,0 +1,153 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.protobuf.ByteString;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encode CPU against bytes saved for uploads. Every benchmark prepares ten seconds of audio for
+ * upload and reports {@code audioSeconds} (the real-time factor), {@code pcmBytes} and
+ * {@code uploadBytes}; the last two are rates too, their ratio is the compression ratio. The
+ * encoded size of the fixture is also printed once per trial.
+ * <p>
+ * {@code linear16} is today's upload, a copy into a ByteString. Fixtures are as in
+ * {@link DspBenchmark}: {@code -Djmh.args="AudioEncoder -p fixture=recordings/command.wav"}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class AudioEncoderBenchmark {
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+    private static final int FIXTURE_SECONDS = 10;
+    // A streamed upload is encoded as the capture engine delivers it, 20 ms at a time
+    private static final int CHUNK_BYTES = 640;
+
+    // "speech", "noise" or the path of a WAV file
+    @Param({"speech", "noise"})
+    public String fixture;
+
+    // 64 ms and 256 ms at 16 kHz
+    @Param({"1024", "4096"})
+    public int blockSize;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Upload {
+        public double audioSeconds;
+        public long pcmBytes;
+        public long uploadBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            audioSeconds = 0;
+            pcmBytes = 0;
+            uploadBytes = 0;
+        }
+
+        void add(double seconds, int pcm, long upload) {
+            audioSeconds += seconds;
+            pcmBytes += pcm;
+            uploadBytes += upload;
+        }
+    }
+
+    private AudioFormat format;
+    private byte[] audio;
+    private double audioSeconds;
+    private FlacEncoder flac;
+    private long streamed;
+
+    @Setup
+    public void setUp() throws IOException {
+        audio = switch (fixture) {
+            case "speech" -> syntheticSpeech();
+            case "noise" -> whiteNoise();
+            default -> recording(Path.of(fixture));
+        };
+        audioSeconds = (double) audio.length / format.getFrameSize() / format.getFrameRate();
+        flac = new FlacEncoder(format, blockSize);
+
+        int encoded = flac.encode(audio, 0, audio.length).length;
+        System.out.printf("%n%s, %d-sample blocks: %d -> %d bytes (%.1f%%), %.0f kbit/s%n", fixture, blockSize,
+                audio.length, encoded, 100.0 * encoded / audio.length, encoded * 8 / audioSeconds / 1000);
+    }
+
+    @Benchmark
+    public ByteString linear16(Upload upload) {
+        ByteString content = ByteString.copyFrom(audio);
+        upload.add(audioSeconds, audio.length, content.size());
+        return content;
+    }
+
+    // One utterance at a time, as GoogleRecognizer.recognize uploads it
+    @Benchmark
+    public ByteString flac(Upload upload) {
+        ByteString content = ByteString.copyFrom(flac.encode(audio, 0, audio.length));
+        upload.add(audioSeconds, audio.length, content.size());
+        return content;
+    }
+
+    // Capture-sized chunks, as StreamingTranscriber sends them
+    @Benchmark
+    public long flacStreaming(Upload upload) {
+        streamed = 0;
+        AudioEncoder.Stream stream = flac.newStream((buffer, offset, length) ->
+                streamed += ByteString.copyFrom(buffer, offset, length).size());
+        for (int offset = 0; offset < audio.length; offset += CHUNK_BYTES) {
+            stream.write(audio, offset, Math.min(CHUNK_BYTES, audio.length - offset));
+        }
+        stream.finish();
+        upload.add(audioSeconds, audio.length, streamed);
+        return streamed;
+    }
+
+    // 400 ms harmonic bursts with a pitch glide, 600 ms pauses, over quiet noise
+    private byte[] syntheticSpeech() {
+        format = FORMAT;
+        Random random = new Random(1);
+        int rate = (int) FORMAT.getSampleRate();
+        byte[] pcm = new byte[FIXTURE_SECONDS * rate * 2];
+        for (int i = 0; i < pcm.length / 2; i++) {
+            double t = (double) i / rate;
+            double value = random.nextGaussian() * 100;
+            if (i % rate < rate * 4 / 10) {
+                double pitch = 120 + 40 * Math.sin(2 * Math.PI * t);
+                for (int harmonic = 1; harmonic <= 8; harmonic++) {
+                    value += 4000.0 / harmonic * Math.sin(2 * Math.PI * pitch * harmonic * t);
+                }
+            }
+            SampleCodec.putSample(pcm, 2 * i, (short) Math.max(-32768, Math.min(32767, value)), false);
+        }
+        return pcm;
+    }
+
+    private byte[] whiteNoise() {
+        format = FORMAT;
+        Random random = new Random(1);
+        byte[] pcm = new byte[FIXTURE_SECONDS * (int) FORMAT.getSampleRate() * 2];
+        for (int i = 0; i < pcm.length / 2; i++) {
+            SampleCodec.putSample(pcm, 2 * i, (short) (random.nextGaussian() * 3000), false);
+        }
+        return pcm;
+    }
+
+    private byte[] recording(Path path) throws IOException {
+        try (WavFile wav = WavFile.open(path)) {
+            format = wav.getFormat();
+            SampleCodec.requireSupported(format);
+            byte[] pcm = new byte[(int) wav.dataLength()];
+            ByteBuffer data = wav.slice(0, pcm.length);
+            data.get(pcm);
+            return pcm;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of matching one transcript against a few thousand commands: an exact phrase, a phrase inside
+ * a longer sentence, a misrecognized phrase found by the fuzzy search, and a transcript with no command.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandIndexBenchmark {
+    @Param({"100", "5000"})
+    public int commands;
+
+    @Param({"open terminal", "could you open terminal please", "open termnal", "what is the weather like"})
+    public String transcript;
+
+    private CommandIndex index;
+
+    @Setup
+    public void setUp() {
+        List<Command> list = new ArrayList<>();
+        list.add(Command.parse("open terminal = key ctrl+alt+t"));
+        for (int i = 1; i < commands; i++) {
+            list.add(Command.parse("run task number " + Integer.toString(i * 7919, 36) + " = run true"));
+        }
+        index = new CommandIndex(list);
+    }
+
+    @Benchmark
+    public CommandIndex.Match match() {
+        return index.match(transcript);
+    }
+}
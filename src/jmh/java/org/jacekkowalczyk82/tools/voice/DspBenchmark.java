@@ -0,0 +1,231 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-chunk DSP and codec paths fed with ten seconds of audio in capture-sized buffers. Besides
+ * the raw score, every benchmark reports {@code audioSeconds}: seconds of audio processed per
+ * second, i.e. the real-time factor; 1000 means one core keeps up with a thousand microphones.
+ * <p>
+ * The fixture is synthetic speech (tone bursts between pauses), white noise, or a recorded
+ * 16-bit mono WAV file: {@code -Djmh.args="Dsp -p fixture=recordings/command.wav"}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DspBenchmark {
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+    private static final int FIXTURE_SECONDS = 10;
+
+    // 10 ms, 20 ms as delivered by the capture engine, 128 ms and 1 s at 16 kHz
+    @Param({"320", "640", "4096", "32000"})
+    public int bufferBytes;
+
+    // "speech", "noise" or the path of a WAV file
+    @Param({"speech", "noise"})
+    public String fixture;
+
+    /**
+     * Seconds of audio processed, reported as a rate, which makes it the real-time factor.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class RealTime {
+        public double audioSeconds;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            audioSeconds = 0;
+        }
+    }
+
+    private AudioFormat format;
+    private byte[] audio;
+    private double audioSeconds;
+    private float[] samples;
+    private Path directory;
+
+    private BandPassStage bandPass;
+    private FilterStage denoise;
+    private VoiceActivityDetector vad;
+    private FilterStage fullChain;
+    private long sink;
+
+    @Setup
+    public void setUp() throws IOException {
+        audio = switch (fixture) {
+            case "speech" -> syntheticSpeech();
+            case "noise" -> whiteNoise();
+            default -> recording(Path.of(fixture));
+        };
+        audioSeconds = (double) audio.length / format.getFrameSize() / format.getFrameRate();
+        samples = new float[SampleCodec.sampleCount(bufferBytes)];
+        directory = Files.createTempDirectory("dsp-benchmark");
+
+        AudioRingBuffer.Consumer drain = (buffer, offset, length) -> sink += length;
+        bandPass = new BandPassStage(format, 300, 3000, drain);
+        denoise = new FilterStage(format, SpectralDenoiser.forSampleRate(format.getSampleRate()), drain);
+        vad = new VoiceActivityDetector(format, utterance -> sink += utterance.length);
+        // As in SegmentingVoiceAssistant: denoise, band-pass, then the detector
+        VoiceActivityDetector chainVad = new VoiceActivityDetector(format, utterance -> sink += utterance.length);
+        BandPassStage chainBandPass = new BandPassStage(format, 300, 3000, chainVad::process);
+        fullChain = new FilterStage(format, SpectralDenoiser.forSampleRate(format.getSampleRate()),
+                chainBandPass::process);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Benchmark
+    public float decode(RealTime realTime) {
+        float last = 0;
+        for (int offset = 0; offset < audio.length; offset += bufferBytes) {
+            int count = SampleCodec.sampleCount(Math.min(bufferBytes, audio.length - offset));
+            SampleCodec.decode(audio, offset, samples, 0, count, format.isBigEndian());
+            last += samples[count - 1];
+        }
+        realTime.audioSeconds += audioSeconds;
+        return last;
+    }
+
+    // Replaces the applyLowPassFilter/applyHighPassFilter pair of the original assistants
+    @Benchmark
+    public long bandPass(RealTime realTime) {
+        feed(bandPass::process);
+        realTime.audioSeconds += audioSeconds;
+        return sink;
+    }
+
+    // Replaces applyNoiseGateFilter
+    @Benchmark
+    public long denoise(RealTime realTime) {
+        feed(denoise::process);
+        realTime.audioSeconds += audioSeconds;
+        return sink;
+    }
+
+    @Benchmark
+    public byte[] legacyNoiseGate(RealTime realTime) {
+        byte[] last = null;
+        for (int offset = 0; offset < audio.length; offset += bufferBytes) {
+            last = legacyNoiseGate(audio, offset, Math.min(bufferBytes, audio.length - offset));
+        }
+        realTime.audioSeconds += audioSeconds;
+        return last;
+    }
+
+    // Replaces isSilence
+    @Benchmark
+    public long voiceActivity(RealTime realTime) {
+        feed(vad::process);
+        realTime.audioSeconds += audioSeconds;
+        return sink;
+    }
+
+    @Benchmark
+    public long fullChain(RealTime realTime) {
+        feed(fullChain::process);
+        realTime.audioSeconds += audioSeconds;
+        return sink;
+    }
+
+    // A whole recording through the debug recorder, from opening the file to patching its header
+    @Benchmark
+    public long wavWrite(RealTime realTime) throws InterruptedException {
+        int chunks = audio.length / bufferBytes + 1;
+        WavRecorder recorder = new WavRecorder(directory, "benchmark", format, 0, 0, bufferBytes, chunks);
+        feed(recorder::record);
+        recorder.close();
+        realTime.audioSeconds += audioSeconds;
+        return recorder.droppedBytes();
+    }
+
+    private void feed(AudioRingBuffer.Consumer stage) {
+        for (int offset = 0; offset < audio.length; offset += bufferBytes) {
+            stage.accept(audio, offset, Math.min(bufferBytes, audio.length - offset));
+        }
+    }
+
+    // Copy of VoiceAssistantOld.applyNoiseGateFilter, one frame RMS per sample
+    private byte[] legacyNoiseGate(byte[] audioData, int offset, int length) {
+        float threshold = 0.02f;
+        int frameSize = format.getFrameSize();
+        int channels = format.getChannels();
+        float[] frame = new float[channels];
+        byte[] processed = new byte[length];
+        for (int i = 0; i + frameSize <= length; i += frameSize) {
+            SampleCodec.decode(audioData, offset + i, frame, 0, channels, format.isBigEndian());
+            float amplitude = 0;
+            for (float sample : frame) {
+                amplitude += sample * sample;
+            }
+            amplitude = (float) Math.sqrt(amplitude / channels);
+            if (amplitude > threshold) {
+                System.arraycopy(audioData, offset + i, processed, i, frameSize);
+            }
+        }
+        return processed;
+    }
+
+    // 400 ms harmonic bursts with a pitch glide, 600 ms pauses, over quiet noise
+    private byte[] syntheticSpeech() {
+        format = FORMAT;
+        Random random = new Random(1);
+        int rate = (int) FORMAT.getSampleRate();
+        byte[] pcm = new byte[FIXTURE_SECONDS * rate * 2];
+        for (int i = 0; i < pcm.length / 2; i++) {
+            double t = (double) i / rate;
+            double value = random.nextGaussian() * 100;
+            if (i % rate < rate * 4 / 10) {
+                double pitch = 120 + 40 * Math.sin(2 * Math.PI * t);
+                for (int harmonic = 1; harmonic <= 8; harmonic++) {
+                    value += 4000.0 / harmonic * Math.sin(2 * Math.PI * pitch * harmonic * t);
+                }
+            }
+            SampleCodec.putSample(pcm, 2 * i, (short) Math.max(-32768, Math.min(32767, value)), false);
+        }
+        return pcm;
+    }
+
+    private byte[] whiteNoise() {
+        format = FORMAT;
+        Random random = new Random(1);
+        byte[] pcm = new byte[FIXTURE_SECONDS * (int) FORMAT.getSampleRate() * 2];
+        for (int i = 0; i < pcm.length / 2; i++) {
+            SampleCodec.putSample(pcm, 2 * i, (short) (random.nextGaussian() * 3000), false);
+        }
+        return pcm;
+    }
+
+    private byte[] recording(Path path) throws IOException {
+        try (WavFile wav = WavFile.open(path)) {
+            format = wav.getFormat();
+            SampleCodec.requireSupported(format);
+            if (format.getChannels() != 1) {
+                throw new IllegalArgumentException("Benchmark fixture must be mono: " + path);
+            }
+            byte[] pcm = new byte[(int) wav.dataLength()];
+            ByteBuffer data = wav.slice(0, pcm.length);
+            data.get(pcm);
+            return pcm;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.openjdk.jmh.annotations.*;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU time the keyword spotter needs per second of 16 kHz audio: MFCC extraction plus one DTW
+ * column per enrolled recording for each 10 ms frame. The score is milliseconds of CPU per second
+ * of audio, so 10 means 1% of one core.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class KeywordSpotterBenchmark {
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+
+    // Enrolled recordings of the wake word, 0.8 s each
+    @Param({"1", "5"})
+    public int templates;
+
+    private final byte[] second = new byte[32000];
+    private KeywordSpotter spotter;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int i = 0; i < second.length / 2; i++) {
+            SampleCodec.putSample(second, 2 * i, (short) (random.nextGaussian() * 2000), false);
+        }
+        List<byte[]> recordings = new ArrayList<>();
+        for (int t = 0; t < templates; t++) {
+            byte[] recording = new byte[25600];
+            for (int i = 0; i < recording.length / 2; i++) {
+                SampleCodec.putSample(recording, 2 * i, (short) (random.nextGaussian() * 4000), false);
+            }
+            recordings.add(recording);
+        }
+        // Never fires on noise, so every frame runs the full match
+        spotter = new KeywordSpotter(FORMAT, recordings, 0, (template, score, sample) -> { });
+    }
+
+    @Benchmark
+    public long oneSecondOfAudio() {
+        // 20 ms chunks, as delivered by the capture engine
+        for (int offset = 0; offset < second.length; offset += 640) {
+            spotter.process(second, offset, 640);
+        }
+        return spotter.samplesProcessed();
+    }
+}
@@ -0,0 +1,86 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.jtransforms.fft.DoubleFFT_1D;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cached single-pass band-pass against the original two-pass filters, which built a new
+ * FFT plan and fresh arrays for the low-pass and again for the high-pass on every call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SpectralFilterBenchmark {
+    private static final float SAMPLE_RATE = 16000;
+
+    // 1 s, the 5 s capture window and an odd-sized buffer
+    @Param({"16000", "80000", "80001"})
+    public int samples;
+
+    private double[] input;
+    private double[] work;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        input = new double[samples];
+        for (int i = 0; i < samples; i++) {
+            input[i] = random.nextGaussian() * 0.1;
+        }
+        work = new double[samples];
+    }
+
+    @Benchmark
+    public double[] twoPassUncached() {
+        double[] lowPassed = legacyLowPass(input, 3000);
+        return legacyHighPass(lowPassed, 300);
+    }
+
+    @Benchmark
+    public double[] singlePassCached() {
+        System.arraycopy(input, 0, work, 0, samples);
+        SpectralFilter.bandPass(work, samples, SAMPLE_RATE, 300, 3000);
+        return work;
+    }
+
+    // Transform part of the original VoiceAssistant.applyLowPassFilter
+    private static double[] legacyLowPass(double[] samples, float cutoffFrequency) {
+        int dataSize = samples.length;
+        double[] input = samples.clone();
+        double[] output = new double[dataSize];
+
+        DoubleFFT_1D fft = new DoubleFFT_1D(dataSize);
+        fft.realForward(input);
+
+        double nyquist = 0.5 * SAMPLE_RATE;
+        int cutoffBin = (int) (cutoffFrequency / nyquist * (dataSize / 2));
+        Arrays.fill(input, cutoffBin, dataSize - cutoffBin, 0.0);
+
+        fft.realInverse(input, true);
+        return input;
+    }
+
+    // Transform part of the original VoiceAssistant.applyHighPassFilter
+    private static double[] legacyHighPass(double[] samples, float cutoffFrequency) {
+        int dataSize = samples.length;
+        double[] input = samples.clone();
+        double[] output = new double[dataSize];
+
+        DoubleFFT_1D fft = new DoubleFFT_1D(dataSize);
+        fft.realForward(input);
+
+        double nyquist = 0.5 * SAMPLE_RATE;
+        int cutoffBin = (int) (cutoffFrequency / nyquist * (dataSize / 2));
+        Arrays.fill(input, 0, cutoffBin, 0.0);
+
+        fft.realInverse(input, true);
+        return input;
+    }
+}
@@ -0,0 +1,58 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.RecognizeResponse;
+import com.google.cloud.speech.v1.SpeechClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one utterance when a client is created per request (the original entry points) against
+ * the shared long-lived {@link SpeechService}, both talking to a plaintext fake server on localhost.
+ * Real endpoints add credential loading and a TLS handshake on top of the per-request numbers.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SpeechServiceBenchmark {
+    private static final RecognitionConfig CONFIG = RecognitionConfig.newBuilder()
+            .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+            .setSampleRateHertz(16000)
+            .setLanguageCode("en-US")
+            .build();
+
+    // One second of 16 kHz mono audio
+    private final byte[] utterance = new byte[32000];
+
+    private FakeSpeechService server;
+    private SpeechService shared;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = FakeSpeechService.onLocalPort();
+        shared = new SpeechService(server.settings());
+        shared.recognize(CONFIG, utterance);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        shared.close();
+        server.close();
+    }
+
+    @Benchmark
+    public RecognizeResponse clientPerRequest() throws Exception {
+        try (SpeechClient client = SpeechClient.create(server.settings())) {
+            return new SpeechService(client).recognize(CONFIG, utterance);
+        }
+    }
+
+    @Benchmark
+    public RecognizeResponse sharedClient() {
+        return shared.recognize(CONFIG, utterance);
+    }
+}
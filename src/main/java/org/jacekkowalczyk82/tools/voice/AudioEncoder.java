@@ -0,0 +1,47 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Compresses PCM before it is uploaded to a recognizer, see {@link FlacEncoder}. The recognizer
+ * sends the encoder's {@link #encoding()} in its {@code RecognitionConfig} instead of LINEAR16.
+ * Encoders are shared between threads, each {@link Stream} belongs to one.
+ */
+public interface AudioEncoder {
+
+    RecognitionConfig.AudioEncoding encoding();
+
+    /**
+     * Starts an encoded stream. Encoded bytes go to {@code output} as soon as they are complete,
+     * so a streaming upload receives them while audio is still being written.
+     */
+    Stream newStream(AudioRingBuffer.Consumer output);
+
+    /**
+     * Encodes a whole utterance into one self-contained stream.
+     */
+    default byte[] encode(byte[] pcm, int offset, int length) {
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(length / 2 + 64);
+        Stream stream = newStream(encoded::write);
+        stream.write(pcm, offset, length);
+        stream.finish();
+        return encoded.toByteArray();
+    }
+
+    /**
+     * One encoded stream. Not thread-safe.
+     */
+    interface Stream {
+        /**
+         * Adds PCM in the encoder's format; may end in the middle of a frame.
+         */
+        void write(byte[] pcm, int offset, int length);
+
+        /**
+         * Encodes the audio still buffered; the stream is complete afterwards.
+         */
+        void finish();
+    }
+}
@@ -0,0 +1,128 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AudioFingerprint
+ * <p>
+ * Fixed-size spectral summary of a short utterance, meant to recognize the same command spoken
+ * again rather than the same bytes. The MFCCs of the utterance are cut to the frames within
+ * {@link #TRIM_DB} of its loudest frame and {@link #NOISE_MARGIN_DB} above its quietest one
+ * (dropping the detector's pre-roll and hangover), the mean of every coefficient is subtracted
+ * (removing the microphone and room colouring), c0 is dropped (loudness), and the result is
+ * resampled to {@link #FRAMES} frames so that a faster or slower repetition lines up with the original.
+ */
+public final class AudioFingerprint {
+    public static final int FRAMES = 20;
+    static final double TRIM_DB = 30;
+    static final double NOISE_MARGIN_DB = 10;
+
+    private final float[] values;
+    private final int coefficients;
+    private final long durationMillis;
+
+    AudioFingerprint(float[] values, int coefficients, long durationMillis) {
+        this.values = values;
+        this.coefficients = coefficients;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Fingerprints a complete utterance, or returns null when it holds too little sound to compare.
+     */
+    public static AudioFingerprint of(FeatureExtractor features, byte[] pcm) {
+        FeatureExtractor extractor = features.copy();
+        List<float[]> mfccs = new ArrayList<>();
+        List<Float> energies = new ArrayList<>();
+        extractor.addListener(frame -> {
+            mfccs.add(frame.mfcc().clone());
+            energies.add(frame.energy());
+        });
+        extractor.process(pcm, 0, pcm.length);
+
+        float peak = 0;
+        float quietest = Float.MAX_VALUE;
+        for (float energy : energies) {
+            peak = Math.max(peak, energy);
+            quietest = Math.min(quietest, energy);
+        }
+        if (peak <= 0) {
+            return null;
+        }
+        // Sound is what stands out of both the loudest frame's range and the background noise
+        float floor = (float) Math.max(peak * Math.pow(10, -TRIM_DB / 10),
+                quietest * Math.pow(10, NOISE_MARGIN_DB / 10));
+        if (peak < floor) {
+            return null;
+        }
+        int first = 0;
+        while (energies.get(first) < floor) {
+            first++;
+        }
+        int last = energies.size() - 1;
+        while (energies.get(last) < floor) {
+            last--;
+        }
+        int count = last - first + 1;
+        if (count < 3) {
+            return null;
+        }
+
+        int coefficients = extractor.getCepstra() - 1;
+        float[] mean = new float[coefficients];
+        for (int f = first; f <= last; f++) {
+            float[] mfcc = mfccs.get(f);
+            for (int c = 0; c < coefficients; c++) {
+                mean[c] += mfcc[c + 1] / count;
+            }
+        }
+        // Linear interpolation onto a fixed grid of frames
+        float[] values = new float[FRAMES * coefficients];
+        for (int i = 0; i < FRAMES; i++) {
+            float position = (float) i * (count - 1) / (FRAMES - 1);
+            int index = Math.min((int) position, count - 2);
+            float weight = position - index;
+            float[] a = mfccs.get(first + index);
+            float[] b = mfccs.get(first + index + 1);
+            for (int c = 0; c < coefficients; c++) {
+                values[i * coefficients + c] = (1 - weight) * a[c + 1] + weight * b[c + 1] - mean[c];
+            }
+        }
+        return new AudioFingerprint(values, coefficients, (long) count * features.getHopMillis());
+    }
+
+    /**
+     * Length of the sound the fingerprint was taken from, without leading and trailing silence.
+     */
+    public long durationMillis() {
+        return durationMillis;
+    }
+
+    float[] values() {
+        return values;
+    }
+
+    int coefficients() {
+        return coefficients;
+    }
+
+    /**
+     * Mean Euclidean distance between corresponding frames; 0 for identical audio.
+     */
+    public float distance(AudioFingerprint other) {
+        if (other.values.length != values.length) {
+            return Float.MAX_VALUE;
+        }
+        float total = 0;
+        for (int i = 0; i < FRAMES; i++) {
+            float sum = 0;
+            for (int c = 0; c < coefficients; c++) {
+                float d = values[i * coefficients + c] - other.values[i * coefficients + c];
+                sum += d * d;
+            }
+            total += (float) Math.sqrt(sum);
+        }
+        return total / FRAMES;
+    }
+}
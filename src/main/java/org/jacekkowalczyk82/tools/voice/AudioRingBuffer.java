@@ -0,0 +1,208 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AudioRingBuffer
+ * <p>
+ * Preallocated single-producer / multi-consumer byte ring for captured PCM.
+ * The producer never waits for consumers: a consumer that falls more than the ring capacity behind
+ * skips ahead and the skipped bytes are counted as dropped. Consumers get the captured bytes as
+ * regions of the backing array, so nothing is copied or allocated once the ring is running.
+ * <p>
+ * The backing store is a heap array rather than a direct buffer because {@code TargetDataLine.read}
+ * only fills {@code byte[]}; a direct buffer would need one more copy per chunk.
+ */
+public class AudioRingBuffer {
+    private final byte[] data;
+    private final int capacity;
+    private final int maxWrite;
+    // Copied on every new reader; iterating an array keeps signalling free of iterator garbage
+    private volatile Reader[] readers = new Reader[0];
+
+    // Total number of bytes ever published, written by the producer thread only
+    private volatile long writePosition;
+    private volatile boolean closed;
+
+    /**
+     * @param capacity bytes kept in the ring
+     * @param maxWrite the largest single write the producer makes, consumers treat this many bytes
+     *                 ahead of the published position as possibly being overwritten
+     */
+    public AudioRingBuffer(int capacity, int maxWrite) {
+        if (maxWrite <= 0 || capacity < 2 * maxWrite) {
+            throw new IllegalArgumentException("Capacity must hold at least two writes");
+        }
+        this.data = new byte[capacity];
+        this.capacity = capacity;
+        this.maxWrite = maxWrite;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long writePosition() {
+        return writePosition;
+    }
+
+    /**
+     * Producer side: fills the ring from the given source without an intermediate buffer.
+     *
+     * @return number of bytes published, or -1 when the source is exhausted
+     */
+    public int write(Source source) throws Exception {
+        long position = writePosition;
+        int index = (int) (position % capacity);
+        // Never wrap inside a single write, the source fills one contiguous region
+        int length = Math.min(maxWrite, capacity - index);
+        int n = source.read(data, index, length);
+        if (n < 0) {
+            return -1;
+        }
+        if (n > 0) {
+            writePosition = position + n;
+            signalReaders();
+        }
+        return n;
+    }
+
+    /**
+     * Producer side: copies bytes into the ring.
+     */
+    public void write(byte[] buffer, int offset, int length) {
+        while (length > 0) {
+            int index = (int) (writePosition % capacity);
+            int n = Math.min(Math.min(maxWrite, capacity - index), length);
+            System.arraycopy(buffer, offset, data, index, n);
+            writePosition += n;
+            offset += n;
+            length -= n;
+        }
+        signalReaders();
+    }
+
+    /**
+     * Marks the end of the stream; readers drain what is left and then see -1.
+     */
+    public void close() {
+        closed = true;
+        signalReaders();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Creates a consumer that starts at the current write position.
+     */
+    public synchronized Reader newReader() {
+        Reader reader = new Reader(writePosition);
+        Reader[] current = readers;
+        Reader[] next = Arrays.copyOf(current, current.length + 1);
+        next[current.length] = reader;
+        readers = next;
+        return reader;
+    }
+
+    private void signalReaders() {
+        for (Reader reader : readers) {
+            Thread waiter = reader.waiter;
+            if (waiter != null) {
+                LockSupport.unpark(waiter);
+            }
+        }
+    }
+
+    /**
+     * Fills a region of the ring, e.g. {@code TargetDataLine::read}.
+     */
+    @FunctionalInterface
+    public interface Source {
+        int read(byte[] buffer, int offset, int length) throws Exception;
+    }
+
+    /**
+     * Receives a region of the ring; the bytes are only valid until the method returns.
+     */
+    @FunctionalInterface
+    public interface Consumer {
+        void accept(byte[] buffer, int offset, int length);
+    }
+
+    /**
+     * One consumer's cursor. A reader must only be used by a single thread.
+     */
+    public class Reader {
+        private long position;
+        private long droppedBytes;
+        private volatile Thread waiter;
+
+        private Reader(long position) {
+            this.position = position;
+        }
+
+        public int available() {
+            return (int) Math.min(writePosition - position, capacity);
+        }
+
+        public long droppedBytes() {
+            return droppedBytes;
+        }
+
+        /**
+         * Waits for captured bytes and hands every available region to the consumer, in slices of at
+         * most one write. Slices the producer laps while the consumer is busy are skipped as dropped.
+         *
+         * @return number of bytes delivered, 0 on timeout, -1 once the ring is closed and drained
+         */
+        public int drain(Consumer consumer, long timeout, TimeUnit unit) {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            long published;
+            while ((published = writePosition) == position) {
+                if (closed) {
+                    return -1;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return 0;
+                }
+                waiter = Thread.currentThread();
+                // Re-check after registering so a signal between the check and the park is not lost
+                if (writePosition == position && !closed) {
+                    LockSupport.parkNanos(this, remaining);
+                }
+                waiter = null;
+                if (Thread.currentThread().isInterrupted()) {
+                    return 0;
+                }
+            }
+
+            int delivered = 0;
+            while (true) {
+                // Before every slice: the producer may have lapped us while the consumer read the last one
+                skipOverrun(writePosition);
+                if (position >= published) {
+                    return delivered;
+                }
+                int index = (int) (position % capacity);
+                // No longer than one write, so a slice is never handed on once it is being overwritten
+                int n = (int) Math.min(Math.min(published - position, capacity - index), maxWrite);
+                consumer.accept(data, index, n);
+                position += n;
+                delivered += n;
+            }
+        }
+
+        private void skipOverrun(long published) {
+            long oldest = published + maxWrite - capacity;
+            if (position < oldest) {
+                droppedBytes += oldest - position;
+                position = oldest;
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+
+/**
+ * Where the assistant's audio comes from: the microphone ({@link MicrophoneSource}) or a recording
+ * played back as if it were being spoken ({@link WavReplaySource}). A {@link CaptureEngine} reads
+ * the source on its capture thread.
+ */
+public interface AudioSource extends AutoCloseable {
+
+    AudioFormat getFormat();
+
+    void start();
+
+    /**
+     * Blocks until audio is available and copies up to {@code length} bytes, a whole number of
+     * frames. Returns -1 once the source has ended or was stopped.
+     */
+    int read(byte[] buffer, int offset, int length) throws IOException;
+
+    /**
+     * Ends the stream until the next {@link #start()}: a blocked read returns and further reads
+     * return -1. Safe to call from any thread, e.g. a shutdown hook.
+     */
+    void stop();
+
+    @Override
+    void close() throws IOException;
+}
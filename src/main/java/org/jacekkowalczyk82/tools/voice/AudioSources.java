@@ -0,0 +1,43 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Picks the {@link AudioSource} from the command line:
+ * <ul>
+ *     <li>{@code --replay <file.wav>} plays a recording in real time instead of listening, add
+ *     {@code --replay-fast} to play it without pacing (audio the DSP stage cannot keep up with is
+ *     dropped and counted) and {@code --replay-loops <n>} to repeat it (0 repeats until stopped)</li>
+ *     <li>otherwise the microphone, in the preferred format or the closest one the card offers</li>
+ * </ul>
+ */
+public final class AudioSources {
+
+    private AudioSources() {
+    }
+
+    public static AudioSource fromArgs(String[] args, AudioFormat preferred)
+            throws IOException, LineUnavailableException {
+        Path replay = null;
+        boolean realTime = true;
+        int loops = 1;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--replay") && i + 1 < args.length) {
+                replay = Path.of(args[i + 1]);
+            } else if (args[i].equals("--replay-fast")) {
+                realTime = false;
+            } else if (args[i].equals("--replay-loops") && i + 1 < args.length) {
+                loops = Integer.parseInt(args[i + 1]);
+            }
+        }
+        if (replay == null) {
+            return MicrophoneSource.open(preferred);
+        }
+        System.out.println("Replaying " + replay + (realTime ? " in real time" : " as fast as possible")
+                + (loops == 0 ? ", repeated until stopped" : loops > 1 ? ", " + loops + " times" : ""));
+        return new WavReplaySource(replay, realTime, loops, WavReplaySource.DEFAULT_GAP_MILLIS);
+    }
+}
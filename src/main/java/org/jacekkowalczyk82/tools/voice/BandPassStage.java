@@ -0,0 +1,15 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * BandPassStage
+ * <p>
+ * {@link FilterStage} running an {@link OverlapAddFilter} band-pass over PCM chunks.
+ */
+public class BandPassStage extends FilterStage {
+
+    public BandPassStage(AudioFormat format, float lowCutoff, float highCutoff, AudioRingBuffer.Consumer downstream) {
+        super(format, new OverlapAddFilter(format.getSampleRate(), lowCutoff, highCutoff), downstream);
+    }
+}
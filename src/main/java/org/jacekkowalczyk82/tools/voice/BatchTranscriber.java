@@ -0,0 +1,382 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * BatchTranscriber
+ * <p>
+ * Transcribes many audio files with a bounded pool of workers. Every file becomes one JSON line in
+ * the output with its transcript and timings; the line is flushed as soon as the file is done, so
+ * the output doubles as a checkpoint: files that already have an {@code "ok"} line are skipped when
+ * a batch is restarted. At most {@code 2 * parallelism} files are in flight, the producer blocks
+ * until a worker frees a slot. Recognitions that failed on a transient API error (see
+ * {@link #isRetryable}) are retried with exponential backoff, other errors fail the file at once.
+ * WAV files are memory-mapped with {@link WavFile}; files longer than the synchronous API takes are
+ * recognized in pieces, cut at a quiet moment, whose transcripts are joined. Each piece is copied
+ * out of the mapping, and converted with a {@link FormatConverter} if in another PCM format, only
+ * when it is recognized.
+ */
+public class BatchTranscriber {
+    public static final int DEFAULT_PARALLELISM = 16;
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+    static final long DEFAULT_BACKOFF_MILLIS = 500;
+    static final int MAX_PIECE_MILLIS = VoiceActivityDetector.DEFAULT_MAX_UTTERANCE_MILLIS;
+    // A piece ends at the quietest 20 ms of its last seconds, so words are rarely cut
+    private static final int CUT_SEARCH_MILLIS = 5000;
+
+    private static final Pattern OK_LINE = Pattern.compile("^\\{\"file\":\"((?:[^\"\\\\]|\\\\.)*)\",\"status\":\"ok\"");
+
+    private final Recognizer recognizer;
+    private final AudioFormat format;
+    private final int parallelism;
+    private final int maxAttempts;
+    private final long backoffMillis;
+
+    public record Summary(int transcribed, int skipped, int failed) {
+    }
+
+    /**
+     * @param format the audio format the recognizer expects, files in other formats are converted
+     */
+    public BatchTranscriber(Recognizer recognizer, AudioFormat format, int parallelism, int maxAttempts) {
+        this(recognizer, format, parallelism, maxAttempts, DEFAULT_BACKOFF_MILLIS);
+    }
+
+    BatchTranscriber(Recognizer recognizer, AudioFormat format, int parallelism, int maxAttempts, long backoffMillis) {
+        this.recognizer = recognizer;
+        this.format = format;
+        this.parallelism = parallelism;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * Expands files, directories (searched recursively for {@code .wav}) and glob patterns such as
+     * {@code recordings/**.wav} into a sorted list of files.
+     */
+    public static List<Path> collect(List<String> patterns) throws IOException {
+        TreeSet<Path> files = new TreeSet<>();
+        for (String pattern : patterns) {
+            int glob = indexOfGlob(pattern);
+            if (glob < 0) {
+                Path path = Paths.get(pattern);
+                if (Files.isDirectory(path)) {
+                    walk(path, p -> p.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".wav"), files);
+                } else {
+                    files.add(path);
+                }
+            } else {
+                // Walk from the last directory before the first wildcard
+                int slash = pattern.lastIndexOf('/', glob);
+                Path base = Paths.get(slash < 0 ? "." : pattern.substring(0, slash + 1));
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern.substring(slash + 1));
+                walk(base, p -> matcher.matches(base.relativize(p)), files);
+            }
+        }
+        return new ArrayList<>(files);
+    }
+
+    private static int indexOfGlob(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            if ("*?[{".indexOf(pattern.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void walk(Path base, java.util.function.Predicate<Path> filter, Set<Path> files) throws IOException {
+        try (Stream<Path> paths = Files.walk(base)) {
+            paths.filter(Files::isRegularFile).filter(filter).forEach(files::add);
+        }
+    }
+
+    /**
+     * Transcribes the files not yet recorded in {@code output}, appending one JSON line per file.
+     */
+    public Summary run(List<Path> files, Path output) throws IOException, InterruptedException {
+        Set<String> done = completedFiles(output);
+        ExecutorService workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread thread = new Thread(r, "batch-transcriber");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlight = new Semaphore(2 * parallelism);
+        AtomicInteger transcribed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        int skipped = 0;
+
+        try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Path file : files) {
+                if (done.contains(file.toString())) {
+                    skipped++;
+                    continue;
+                }
+                inFlight.acquire();
+                workers.execute(() -> {
+                    try {
+                        String line = transcribe(file);
+                        (line.contains("\"status\":\"ok\"") ? transcribed : failed).incrementAndGet();
+                        synchronized (writer) {
+                            writer.write(line);
+                            writer.newLine();
+                            writer.flush();
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                        failed.incrementAndGet();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+            workers.shutdown();
+            workers.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        } finally {
+            workers.shutdownNow();
+        }
+        return new Summary(transcribed.get(), skipped, failed.get());
+    }
+
+    private String transcribe(Path file) {
+        long start = System.nanoTime();
+        int attempts = 0;
+        // The file is mapped and split in place, only the piece being recognized is on the heap
+        try (WavFile wav = WavFile.open(file)) {
+            AudioFormat fileFormat = wav.getFormat();
+            if (!FormatConverter.isSupported(fileFormat)) {
+                return failure(file, "unsupported format " + fileFormat, 0, start);
+            }
+            List<ByteBuffer> pieces = split(wav, MAX_PIECE_MILLIS);
+            long readNanos = System.nanoTime() - start;
+
+            StringBuilder transcript = new StringBuilder();
+            double confidence = 0;
+            long recognizeNanos = 0;
+            long audioBytes = 0;
+            for (ByteBuffer piece : pieces) {
+                long readStart = System.nanoTime();
+                byte[] audio = read(piece, fileFormat);
+                readNanos += System.nanoTime() - readStart;
+                audioBytes += audio.length;
+                for (int attempt = 1; ; attempt++) {
+                    attempts++;
+                    long recognizeStart = System.nanoTime();
+                    try {
+                        RecognitionResult result = recognizer.recognize(audio);
+                        recognizeNanos += System.nanoTime() - recognizeStart;
+                        if (!result.isEmpty()) {
+                            transcript.append(transcript.length() > 0 ? " " : "").append(result.transcript());
+                        }
+                        // Weighted by the length of the piece
+                        confidence += pieces.size() == 1 ? result.confidence()
+                                : (double) result.confidence() * piece.remaining() / wav.dataLength();
+                        break;
+                    } catch (RuntimeException e) {
+                        if (!isRetryable(e) || attempt >= maxAttempts || !sleep(backoffMillis << (attempt - 1))) {
+                            return failure(file, String.valueOf(e), attempts, start);
+                        }
+                    }
+                }
+            }
+            long audioMillis = (long) (audioBytes / format.getFrameSize() * 1000 / format.getFrameRate());
+            long end = System.nanoTime();
+            return "{\"file\":" + quote(file.toString()) + ",\"status\":\"ok\""
+                    + ",\"transcript\":" + quote(transcript.toString())
+                    + ",\"confidence\":" + (float) confidence
+                    + ",\"attempts\":" + attempts
+                    + ",\"pieces\":" + pieces.size()
+                    + ",\"audioMs\":" + audioMillis
+                    + ",\"readMs\":" + millis(readNanos)
+                    + ",\"recognizeMs\":" + millis(recognizeNanos)
+                    + ",\"totalMs\":" + millis(end - start) + "}";
+        } catch (IOException e) {
+            return failure(file, e.toString(), attempts, start);
+        }
+    }
+
+    /**
+     * The piece in the recognizer's format; the recognizers take arrays, so this is its one copy.
+     */
+    private byte[] read(ByteBuffer piece, AudioFormat fileFormat) {
+        if (FormatConverter.isIdentity(fileFormat, format)) {
+            byte[] audio = new byte[piece.remaining()];
+            piece.duplicate().get(audio);
+            return audio;
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FormatConverter converter = new FormatConverter(fileFormat, format, out::write);
+        converter.process(piece.duplicate());
+        converter.flush();
+        return out.toByteArray();
+    }
+
+    /**
+     * Transient API errors only: retrying a request the API rejected, such as INVALID_ARGUMENT or
+     * PERMISSION_DENIED, fails the same way.
+     */
+    static boolean isRetryable(RuntimeException e) {
+        if (!(e instanceof ApiException api)) {
+            return false;
+        }
+        StatusCode.Code code = api.getStatusCode().getCode();
+        return api.isRetryable() || code == StatusCode.Code.UNAVAILABLE
+                || code == StatusCode.Code.DEADLINE_EXCEEDED || code == StatusCode.Code.RESOURCE_EXHAUSTED;
+    }
+
+    /**
+     * Splits audio longer than {@code maxPieceMillis} into zero-copy slices of at most that length,
+     * each ending in the middle of the quietest 20 ms window of its last seconds.
+     */
+    static List<ByteBuffer> split(WavFile wav, int maxPieceMillis) throws IOException {
+        AudioFormat format = wav.getFormat();
+        int frameSize = format.getFrameSize();
+        long frames = wav.dataLength() / frameSize;
+        int maxFrames = (int) (format.getFrameRate() * maxPieceMillis / 1000);
+        if (frames <= maxFrames) {
+            return List.of(wav.slice(0, (int) wav.dataLength()));
+        }
+        int windowFrames = Math.max(1, (int) (format.getFrameRate() * VoiceActivityDetector.FRAME_MILLIS / 1000));
+        int searchFrames = Math.min(maxFrames / 2, (int) (format.getFrameRate() * CUT_SEARCH_MILLIS / 1000));
+        // Windows are measured as 16-bit mono, whatever the file holds
+        double[] energy = new double[1];
+        FormatConverter meter = new FormatConverter(format,
+                new AudioFormat(format.getSampleRate(), 16, 1, true, false), (buffer, offset, length) -> {
+                    for (int i = offset; i + 1 < offset + length; i += SampleCodec.BYTES_PER_SAMPLE) {
+                        double sample = SampleCodec.getSample(buffer, i, false);
+                        energy[0] += sample * sample;
+                    }
+                });
+        List<ByteBuffer> pieces = new ArrayList<>();
+        long start = 0;
+        while (frames - start > maxFrames) {
+            long limit = start + maxFrames;
+            long cut = limit;
+            double quietest = Double.MAX_VALUE;
+            for (long frame = limit - searchFrames; frame + windowFrames <= limit; frame += windowFrames) {
+                energy[0] = 0;
+                meter.process(wav.slice(frame * frameSize, windowFrames * frameSize));
+                if (energy[0] < quietest) {
+                    quietest = energy[0];
+                    cut = frame + windowFrames / 2;
+                }
+            }
+            pieces.add(wav.slice(start * frameSize, (int) ((cut - start) * frameSize)));
+            start = cut;
+        }
+        pieces.add(wav.slice(start * frameSize, (int) ((frames - start) * frameSize)));
+        return pieces;
+    }
+
+    private static String failure(Path file, String error, int attempts, long start) {
+        return "{\"file\":" + quote(file.toString()) + ",\"status\":\"error\""
+                + ",\"error\":" + quote(error)
+                + ",\"attempts\":" + attempts
+                + ",\"totalMs\":" + millis(System.nanoTime() - start) + "}";
+    }
+
+    private static boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private static double millis(long nanos) {
+        return Math.round(nanos / 1e4) / 100.0;
+    }
+
+    /**
+     * Files with a successful line in an earlier run. A line cut short by a crash is ignored, and a
+     * newline is added so the next line starts clean.
+     */
+    static Set<String> completedFiles(Path output) throws IOException {
+        Set<String> done = new HashSet<>();
+        if (!Files.exists(output)) {
+            return done;
+        }
+        for (String line : Files.readAllLines(output, StandardCharsets.UTF_8)) {
+            Matcher matcher = OK_LINE.matcher(line);
+            if (matcher.find() && line.endsWith("}")) {
+                done.add(unquote(matcher.group(1)));
+            }
+        }
+        try (RandomAccessFile file = new RandomAccessFile(output.toFile(), "rw")) {
+            if (file.length() > 0) {
+                file.seek(file.length() - 1);
+                if (file.read() != '\n') {
+                    file.write('\n');
+                }
+            }
+        }
+        return done;
+    }
+
+    static String quote(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    private static String unquote(String value) {
+        StringBuilder text = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c != '\\' || i + 1 == value.length()) {
+                text.append(c);
+                continue;
+            }
+            char escaped = value.charAt(++i);
+            switch (escaped) {
+                case 'n' -> text.append('\n');
+                case 'r' -> text.append('\r');
+                case 't' -> text.append('\t');
+                case 'u' -> {
+                    text.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                    i += 4;
+                }
+                default -> text.append(escaped);
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,302 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * CachingRecognizer
+ * <p>
+ * {@link Recognizer} decorator that answers repeated short commands locally. Every short utterance
+ * is reduced to an {@link AudioFingerprint}; when a cached fingerprint of similar duration is
+ * within {@code maxDistance}, its transcript is returned without calling the backend, otherwise the
+ * backend's answer is cached. Entries expire after a TTL and the least recently used entry is
+ * evicted when the cache is full. Every entry remembers the language it was recognized in and only
+ * answers utterances in that language, so switching profiles never returns a transcript in the
+ * previous one. The cache can be kept in a file across runs; streaming sessions pass straight through.
+ * Hits, misses and evictions are counted in {@link Metrics}.
+ */
+public class CachingRecognizer implements Recognizer {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(7);
+    public static final float DEFAULT_MAX_DISTANCE = 6.0f;
+    // Longer utterances, including the detector's pre-roll and hangover, are dictation and not repeated
+    public static final long MAX_CACHED_MILLIS = 4000;
+    // Two repetitions of a command are at most this much longer or shorter than each other
+    static final float MAX_DURATION_RATIO = 1.5f;
+    private static final int STORE_MAGIC = 0x56434332; // "VCC2"
+
+    private record Entry(String language, AudioFingerprint fingerprint, RecognitionResult result, long createdAt) {
+    }
+
+    private final Recognizer delegate;
+    private final FeatureExtractor features;
+    private final long maxCachedBytes;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private final float maxDistance;
+    private final Path store;
+    private final Supplier<String> language;
+    private final LongSupplier clock;
+
+    // Access ordered, so the first entry is the least recently used
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long nextId;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final Metrics.Counter hitCount;
+    private final Metrics.Counter missCount;
+    private final Metrics.Counter evictionCount;
+
+    public CachingRecognizer(Recognizer delegate, AudioFormat format) {
+        this(delegate, format, DEFAULT_MAX_ENTRIES, DEFAULT_TTL_MILLIS, DEFAULT_MAX_DISTANCE, null);
+    }
+
+    /**
+     * @param store file the cache is loaded from and saved to on close, or null to keep it in memory
+     */
+    public CachingRecognizer(Recognizer delegate, AudioFormat format, int maxEntries, long ttlMillis,
+                             float maxDistance, Path store) {
+        this(delegate, format, maxEntries, ttlMillis, maxDistance, store, () -> "");
+    }
+
+    /**
+     * @param language the language the delegate recognizes right now, e.g. that of the active profile
+     */
+    public CachingRecognizer(Recognizer delegate, AudioFormat format, int maxEntries, long ttlMillis,
+                             float maxDistance, Path store, Supplier<String> language) {
+        this(delegate, format, maxEntries, ttlMillis, maxDistance, store, language, System::currentTimeMillis);
+    }
+
+    CachingRecognizer(Recognizer delegate, AudioFormat format, int maxEntries, long ttlMillis, float maxDistance,
+                      Path store, Supplier<String> language, LongSupplier clock) {
+        this.delegate = delegate;
+        this.features = new FeatureExtractor(format);
+        this.maxCachedBytes = (long) (format.getFrameRate() * format.getFrameSize() * MAX_CACHED_MILLIS / 1000);
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.maxDistance = maxDistance;
+        this.store = store;
+        this.language = language;
+        this.clock = clock;
+        Metrics metrics = Metrics.global();
+        this.hitCount = metrics.counter("transcript_cache_hits", "Utterances answered from the transcript cache");
+        this.missCount = metrics.counter("transcript_cache_misses", "Utterances the transcript cache sent on");
+        this.evictionCount = metrics.counter("transcript_cache_evictions",
+                "Cached transcripts dropped because they expired or the cache was full");
+        if (store != null && Files.exists(store)) {
+            try {
+                load(store);
+            } catch (IOException e) {
+                System.err.println("Ignoring unreadable transcript cache " + store + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Entries removed because the cache was full or they expired.
+     */
+    public long evictions() {
+        return evictions.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public double hitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double) hits.get() / total;
+    }
+
+    @Override
+    public RecognitionResult recognize(byte[] audio) {
+        String current = language.get();
+        AudioFingerprint fingerprint = fingerprint(audio);
+        RecognitionResult cached = lookup(current, fingerprint);
+        if (cached != null) {
+            return cached;
+        }
+        RecognitionResult result = delegate.recognize(audio);
+        remember(current, fingerprint, result);
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<RecognitionResult> recognizeAsync(byte[] audio) {
+        String current = language.get();
+        AudioFingerprint fingerprint = fingerprint(audio);
+        RecognitionResult cached = lookup(current, fingerprint);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return delegate.recognizeAsync(audio).thenApply(result -> {
+            remember(current, fingerprint, result);
+            return result;
+        });
+    }
+
+    @Override
+    public StreamingSession startStreaming(TranscriptListener listener) {
+        return delegate.startStreaming(listener);
+    }
+
+    private AudioFingerprint fingerprint(byte[] audio) {
+        return audio.length <= maxCachedBytes ? AudioFingerprint.of(features, audio) : null;
+    }
+
+    private RecognitionResult lookup(String language, AudioFingerprint fingerprint) {
+        if (fingerprint == null) {
+            misses.incrementAndGet();
+            missCount.increment();
+            return null;
+        }
+        synchronized (this) {
+            long now = clock.getAsLong();
+            Long bestId = null;
+            float best = maxDistance;
+            for (Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+                Map.Entry<Long, Entry> candidate = it.next();
+                Entry entry = candidate.getValue();
+                if (now - entry.createdAt() > ttlMillis) {
+                    it.remove();
+                    evictions.incrementAndGet();
+                    evictionCount.increment();
+                    continue;
+                }
+                if (!entry.language().equals(language) || !similarDuration(fingerprint, entry.fingerprint())) {
+                    continue;
+                }
+                float distance = fingerprint.distance(entry.fingerprint());
+                if (distance <= best) {
+                    best = distance;
+                    bestId = candidate.getKey();
+                }
+            }
+            if (bestId != null) {
+                hits.incrementAndGet();
+                hitCount.increment();
+                // get() moves the entry to the most recently used end
+                return entries.get(bestId).result();
+            }
+        }
+        misses.incrementAndGet();
+        missCount.increment();
+        return null;
+    }
+
+    private static boolean similarDuration(AudioFingerprint a, AudioFingerprint b) {
+        long longer = Math.max(a.durationMillis(), b.durationMillis());
+        long shorter = Math.min(a.durationMillis(), b.durationMillis());
+        return longer <= shorter * MAX_DURATION_RATIO;
+    }
+
+    private void remember(String language, AudioFingerprint fingerprint, RecognitionResult result) {
+        if (fingerprint != null && !result.isEmpty()) {
+            put(new Entry(language, fingerprint, result, clock.getAsLong()));
+        }
+    }
+
+    private synchronized void put(Entry entry) {
+        entries.put(nextId++, entry);
+        Iterator<Long> eldest = entries.keySet().iterator();
+        while (entries.size() > maxEntries) {
+            eldest.next();
+            eldest.remove();
+            evictions.incrementAndGet();
+            evictionCount.increment();
+        }
+    }
+
+    /**
+     * Writes the live entries to the store file, replacing it atomically.
+     */
+    public synchronized void save() throws IOException {
+        if (store == null) {
+            return;
+        }
+        Path parent = store.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, store.getFileName().toString(), ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            long now = clock.getAsLong();
+            out.writeInt(STORE_MAGIC);
+            out.writeInt(AudioFingerprint.FRAMES);
+            out.writeInt(features.getCepstra() - 1);
+            out.writeInt((int) entries.values().stream().filter(e -> now - e.createdAt() <= ttlMillis).count());
+            // Least recently used first, so loading restores the order
+            for (Entry entry : entries.values()) {
+                if (now - entry.createdAt() > ttlMillis) {
+                    continue;
+                }
+                out.writeLong(entry.createdAt());
+                out.writeUTF(entry.language());
+                out.writeLong(entry.fingerprint().durationMillis());
+                out.writeUTF(entry.result().transcript());
+                out.writeFloat(entry.result().confidence());
+                for (float value : entry.fingerprint().values()) {
+                    out.writeFloat(value);
+                }
+            }
+        }
+        Files.move(temp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int coefficients = features.getCepstra() - 1;
+            if (in.readInt() != STORE_MAGIC || in.readInt() != AudioFingerprint.FRAMES
+                    || in.readInt() != coefficients) {
+                throw new IOException("written by an incompatible version");
+            }
+            int count = in.readInt();
+            long now = clock.getAsLong();
+            for (int i = 0; i < count; i++) {
+                long createdAt = in.readLong();
+                String entryLanguage = in.readUTF();
+                long durationMillis = in.readLong();
+                RecognitionResult result = new RecognitionResult(in.readUTF(), in.readFloat());
+                float[] values = new float[AudioFingerprint.FRAMES * coefficients];
+                for (int v = 0; v < values.length; v++) {
+                    values[v] = in.readFloat();
+                }
+                if (now - createdAt <= ttlMillis) {
+                    put(new Entry(entryLanguage, new AudioFingerprint(values, coefficients, durationMillis), result,
+                            createdAt));
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            save();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        delegate.close();
+    }
+}
@@ -0,0 +1,132 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * CaptureEngine
+ * <p>
+ * Runs a dedicated capture thread that reads an {@link AudioSource}, normally the microphone's
+ * {@link TargetDataLine}, straight into an {@link AudioRingBuffer}. Downstream stages attach their
+ * own readers and never slow the capture thread down, so a slow consumer (or a GC pause on its
+ * side) cannot make the line overrun. The ring is closed when the source ends.
+ */
+public class CaptureEngine implements AutoCloseable {
+    public static final int DEFAULT_CHUNK_MILLIS = 20;
+    public static final int DEFAULT_RING_MILLIS = 10_000;
+
+    private final AudioSource source;
+    private final AudioRingBuffer ring;
+    // Created once, the capture loop passes them around without allocating
+    private final AudioRingBuffer.Source reader;
+    private final LongSupplier capturedBytesGauge;
+    private final int chunkBytes;
+    private Thread captureThread;
+    private volatile boolean running;
+
+    public CaptureEngine(TargetDataLine line) {
+        this(new MicrophoneSource(line));
+    }
+
+    public CaptureEngine(AudioSource source) {
+        this(source, DEFAULT_CHUNK_MILLIS, DEFAULT_RING_MILLIS);
+    }
+
+    public CaptureEngine(TargetDataLine line, int chunkMillis, int ringMillis) {
+        this(new MicrophoneSource(line), chunkMillis, ringMillis);
+    }
+
+    public CaptureEngine(AudioSource source, int chunkMillis, int ringMillis) {
+        AudioFormat format = source.getFormat();
+        int bytesPerMilli = (int) (format.getFrameRate() * format.getFrameSize() / 1000);
+        this.source = source;
+        // Chunks are whole frames and the ring a whole number of chunks, so no write wraps
+        this.chunkBytes = bytesPerMilli * chunkMillis / format.getFrameSize() * format.getFrameSize();
+        this.ring = new AudioRingBuffer(Math.max(2, ringMillis / chunkMillis) * chunkBytes, chunkBytes);
+        this.reader = source::read;
+        this.capturedBytesGauge = ring::writePosition;
+        Metrics.global().gauge("captured_bytes", "Audio read from the microphone or replayed", capturedBytesGauge);
+    }
+
+    /**
+     * Opens a microphone in the preferred format, or else in the closest 16-bit format the sound
+     * card offers (its usual 48 or 44.1 kHz, stereo, either byte order). When the line's format
+     * differs from the preferred one, put a {@link FormatConverter} in front of recognition.
+     */
+    public static TargetDataLine openMicrophone(AudioFormat preferred) throws LineUnavailableException {
+        List<AudioFormat> candidates = new ArrayList<>();
+        candidates.add(preferred);
+        for (float rate : new float[]{preferred.getSampleRate(), 48000, 44100, 32000, 22050}) {
+            for (int channels = 1; channels <= 2; channels++) {
+                for (boolean bigEndian : new boolean[]{preferred.isBigEndian(), !preferred.isBigEndian()}) {
+                    candidates.add(new AudioFormat(rate, 16, channels, true, bigEndian));
+                }
+            }
+        }
+        for (AudioFormat format : candidates) {
+            DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
+            if (AudioSystem.isLineSupported(info)) {
+                TargetDataLine line = (TargetDataLine) AudioSystem.getLine(info);
+                line.open(format);
+                return line;
+            }
+        }
+        throw new LineUnavailableException("No microphone supports " + preferred + " or a convertible format");
+    }
+
+    public AudioFormat getFormat() {
+        return source.getFormat();
+    }
+
+    public AudioRingBuffer.Reader newReader() {
+        return ring.newReader();
+    }
+
+    public long capturedBytes() {
+        return ring.writePosition();
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        source.start();
+        captureThread = new Thread(this::captureLoop, "audio-capture");
+        captureThread.setDaemon(true);
+        captureThread.setPriority(Thread.MAX_PRIORITY);
+        captureThread.start();
+    }
+
+    private void captureLoop() {
+        try {
+            while (running && ring.write(reader) >= 0) {
+                // until the source ends or capture is stopped
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            ring.close();
+        }
+    }
+
+    public synchronized void stop() throws InterruptedException {
+        if (!running) {
+            return;
+        }
+        running = false;
+        // A blocked read returns once the source is stopped
+        source.stop();
+        captureThread.join();
+    }
+
+    @Override
+    public void close() throws InterruptedException, IOException {
+        stop();
+        source.close();
+        Metrics.global().removeGauge("captured_bytes", capturedBytesGauge);
+    }
+}
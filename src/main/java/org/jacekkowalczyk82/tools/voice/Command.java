@@ -0,0 +1,65 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A spoken phrase and the desktop action it triggers.
+ * <ul>
+ *     <li>{@code RUN} runs the argument as a command line, split on whitespace</li>
+ *     <li>{@code OPEN} opens a file, URL or application with {@code xdg-open}</li>
+ *     <li>{@code KEY} sends a key combination such as {@code ctrl+alt+t} with {@code xdotool}</li>
+ * </ul>
+ */
+public record Command(String phrase, Kind kind, String argument) {
+
+    public enum Kind {
+        RUN, OPEN, KEY
+    }
+
+    /**
+     * Parses one line of a command file: {@code phrase = kind argument}, e.g.
+     * {@code open terminal = key ctrl+alt+t}.
+     */
+    public static Command parse(String line) {
+        int separator = line.indexOf('=');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Expected 'phrase = kind argument': " + line);
+        }
+        String phrase = line.substring(0, separator).trim();
+        String action = line.substring(separator + 1).trim();
+        int space = action.indexOf(' ');
+        if (phrase.isEmpty() || space < 0) {
+            throw new IllegalArgumentException("Expected 'phrase = kind argument': " + line);
+        }
+        Kind kind;
+        try {
+            kind = Kind.valueOf(action.substring(0, space).toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown action '" + action.substring(0, space) + "': " + line);
+        }
+        return new Command(phrase, kind, action.substring(space + 1).trim());
+    }
+
+    /**
+     * The process to start for this command.
+     */
+    public List<String> commandLine() {
+        List<String> commandLine = new ArrayList<>();
+        switch (kind) {
+            case OPEN -> commandLine.add("xdg-open");
+            case KEY -> {
+                commandLine.add("xdotool");
+                commandLine.add("key");
+            }
+            case RUN -> {
+                for (String part : argument.split("\\s+")) {
+                    commandLine.add(part);
+                }
+                return commandLine;
+            }
+        }
+        commandLine.add(argument);
+        return commandLine;
+    }
+}
@@ -0,0 +1,162 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * CommandDispatcher
+ * <p>
+ * Turns final transcripts into desktop actions. Matching runs against an immutable
+ * {@link CommandIndex} read through an {@link AtomicReference}; a reloaded command file is parsed
+ * and indexed on the watcher thread and swapped in with a single write, so dispatching never waits
+ * for a reload and always sees either the old or the new command set. Processes are started on
+ * their own thread so a slow launch does not hold up the next transcript.
+ */
+public class CommandDispatcher implements AutoCloseable {
+    static final long RELOAD_DELAY_MILLIS = FileWatcher.QUIET_MILLIS;
+
+    /**
+     * Starts the process for a matched command.
+     */
+    public interface Launcher {
+        void launch(List<String> commandLine) throws IOException;
+    }
+
+    private final AtomicReference<CommandIndex> index = new AtomicReference<>(new CommandIndex(List.of()));
+    private final Launcher launcher;
+    private final ExecutorService runner = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "command-runner");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private FileWatcher watcher;
+
+    public CommandDispatcher() {
+        this(commandLine -> new ProcessBuilder(commandLine).inheritIO().start());
+    }
+
+    public CommandDispatcher(Launcher launcher) {
+        this.launcher = launcher;
+    }
+
+    /**
+     * Reads a command file: one {@code phrase = kind argument} per line, {@code #} starts a comment.
+     */
+    public static List<Command> readCommands(Path file) throws IOException {
+        List<Command> commands = new ArrayList<>();
+        for (String line : Files.readAllLines(file)) {
+            String trimmed = line.trim();
+            if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                commands.add(Command.parse(trimmed));
+            }
+        }
+        return commands;
+    }
+
+    /**
+     * Dispatcher watching the file given with {@code --commands <file>}, or null without that option.
+     */
+    public static CommandDispatcher fromArgs(String[] args) throws IOException {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--commands")) {
+                CommandDispatcher dispatcher = new CommandDispatcher();
+                dispatcher.watch(Path.of(args[i + 1]));
+                System.out.println("Loaded " + dispatcher.index().size() + " commands from " + args[i + 1]);
+                return dispatcher;
+            }
+        }
+        return null;
+    }
+
+    public CommandIndex index() {
+        return index.get();
+    }
+
+    public void setCommands(List<Command> commands) {
+        index.set(new CommandIndex(commands));
+    }
+
+    /**
+     * Replaces the commands with the file's; on a parse error the current commands stay in place.
+     */
+    public void load(Path file) throws IOException {
+        setCommands(readCommands(file));
+    }
+
+    /**
+     * Loads the file and reloads it whenever it changes on disk.
+     */
+    public synchronized void watch(Path file) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        load(absolute);
+        if (watcher != null) {
+            throw new IllegalStateException("Already watching a command file");
+        }
+        watcher = FileWatcher.start(absolute, () -> reload(absolute));
+    }
+
+    /**
+     * Finds the command for a transcript and starts it in the background.
+     *
+     * @return the match, or null when no command is close enough
+     */
+    public CommandIndex.Match dispatch(String transcript) {
+        CommandIndex.Match match = index.get().match(transcript);
+        if (match != null) {
+            launch(match.command());
+        }
+        return match;
+    }
+
+    /**
+     * Starts an already matched command in the background.
+     */
+    public void launch(Command command) {
+        List<String> commandLine = command.commandLine();
+        runner.execute(() -> {
+            try {
+                launcher.launch(commandLine);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void reload(Path file) {
+        try {
+            load(file);
+            System.out.println("Reloaded " + index.get().size() + " commands from " + file);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Keeping the previous commands, cannot load " + file + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops watching and waits for commands already started. An interrupt cuts the wait short and is
+     * kept set for the caller.
+     */
+    @Override
+    public void close() {
+        FileWatcher closing;
+        synchronized (this) {
+            closing = watcher;
+            watcher = null;
+        }
+        runner.shutdown();
+        try {
+            if (closing != null) {
+                closing.close();
+            }
+            runner.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * CommandIndex
+ * <p>
+ * Immutable lookup structure from normalized phrases to {@link Command}s, built once per command
+ * file. Phrases are stored in a character trie, which answers three questions in order:
+ * <ol>
+ *     <li>is the whole transcript a phrase,</li>
+ *     <li>does the transcript contain a phrase starting and ending on word boundaries (the longest wins),</li>
+ *     <li>which phrase is within a small edit distance of the whole transcript.</li>
+ * </ol>
+ * The fuzzy step walks the trie with one Levenshtein row per depth, which is the bounded
+ * edit-distance automaton in table form: shared prefixes share their rows, and a branch is abandoned
+ * as soon as every cell of its row is over the limit. The cost depends on the transcript length
+ * and on how many phrases are close to it, not on the number of commands.
+ */
+public final class CommandIndex {
+    public static final int DEFAULT_MAX_EDITS = 2;
+    // One edit is tolerated for every this many characters of the transcript
+    static final int CHARS_PER_EDIT = 4;
+
+    /**
+     * A matched command; {@code distance} is 0 for exact and contained matches.
+     */
+    public record Match(Command command, int distance) {
+    }
+
+    private static final class Node {
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private Command command;
+
+        Node child(char label) {
+            int i = Arrays.binarySearch(labels, label);
+            return i >= 0 ? children[i] : null;
+        }
+
+        Node addChild(char label) {
+            int i = Arrays.binarySearch(labels, label);
+            if (i >= 0) {
+                return children[i];
+            }
+            int at = -i - 1;
+            char[] newLabels = new char[labels.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(labels, 0, newLabels, 0, at);
+            System.arraycopy(children, 0, newChildren, 0, at);
+            newLabels[at] = label;
+            newChildren[at] = new Node();
+            System.arraycopy(labels, at, newLabels, at + 1, labels.length - at);
+            System.arraycopy(children, at, newChildren, at + 1, children.length - at);
+            labels = newLabels;
+            children = newChildren;
+            return newChildren[at];
+        }
+    }
+
+    private final Node root = new Node();
+    private final int maxEdits;
+    private final int size;
+    private final int maxDepth;
+
+    public CommandIndex(List<Command> commands) {
+        this(commands, DEFAULT_MAX_EDITS);
+    }
+
+    public CommandIndex(List<Command> commands, int maxEdits) {
+        this.maxEdits = maxEdits;
+        int depth = 0;
+        for (Command command : commands) {
+            String phrase = normalize(command.phrase());
+            if (phrase.isEmpty()) {
+                throw new IllegalArgumentException("Empty phrase for " + command);
+            }
+            Node node = root;
+            for (int i = 0; i < phrase.length(); i++) {
+                node = node.addChild(phrase.charAt(i));
+            }
+            if (node.command != null) {
+                throw new IllegalArgumentException("Duplicate phrase '" + phrase + "'");
+            }
+            node.command = command;
+            depth = Math.max(depth, phrase.length());
+        }
+        this.size = commands.size();
+        this.maxDepth = depth;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Lower case letters and digits separated by single spaces; everything else is dropped.
+     */
+    public static String normalize(String text) {
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean space = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (space && normalized.length() > 0) {
+                    normalized.append(' ');
+                }
+                normalized.append(c);
+                space = false;
+            } else if (Character.isWhitespace(c) || c == '-' || c == '_') {
+                space = true;
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Best command for a transcript, or null when nothing is close enough.
+     */
+    public Match match(String transcript) {
+        String text = normalize(transcript);
+        if (text.isEmpty() || size == 0) {
+            return null;
+        }
+
+        Node exact = root;
+        for (int i = 0; i < text.length() && exact != null; i++) {
+            exact = exact.child(text.charAt(i));
+        }
+        if (exact != null && exact.command != null) {
+            return new Match(exact.command, 0);
+        }
+
+        Command contained = longestContained(text);
+        if (contained != null) {
+            return new Match(contained, 0);
+        }
+
+        int allowed = Math.min(maxEdits, text.length() / CHARS_PER_EDIT);
+        return allowed > 0 ? closest(text, allowed) : null;
+    }
+
+    /**
+     * Command whose phrase is the whole transcript, provided no longer phrase starts with it: an
+     * interim transcript matching it cannot grow into a different command. Null otherwise.
+     */
+    public Match matchUnambiguous(String transcript) {
+        String text = normalize(transcript);
+        Node node = text.isEmpty() ? null : root;
+        for (int i = 0; i < text.length() && node != null; i++) {
+            node = node.child(text.charAt(i));
+        }
+        return node != null && node.command != null && node.labels.length == 0 ? new Match(node.command, 0) : null;
+    }
+
+    private Command longestContained(String text) {
+        Command best = null;
+        int bestLength = 0;
+        for (int start = 0; start < text.length(); start++) {
+            if (start > 0 && text.charAt(start - 1) != ' ') {
+                continue;
+            }
+            Node node = root;
+            for (int i = start; i < text.length(); i++) {
+                node = node.child(text.charAt(i));
+                if (node == null) {
+                    break;
+                }
+                boolean wordEnd = i + 1 == text.length() || text.charAt(i + 1) == ' ';
+                if (node.command != null && wordEnd && i + 1 - start > bestLength) {
+                    best = node.command;
+                    bestLength = i + 1 - start;
+                }
+            }
+        }
+        return best;
+    }
+
+    private Match closest(String text, int allowed) {
+        int columns = text.length() + 1;
+        int[][] rows = new int[Math.min(maxDepth, text.length() + allowed) + 1][columns];
+        for (int j = 0; j < columns; j++) {
+            rows[0][j] = j;
+        }
+        Search search = new Search(text, rows, allowed);
+        search.visit(root, 1);
+        return search.best == null ? null : new Match(search.best, search.limit);
+    }
+
+    private static final class Search {
+        private final String text;
+        private final int[][] rows;
+        private Command best;
+        // Distance a phrase must not exceed; tightened whenever a closer phrase is found
+        private int limit;
+
+        Search(String text, int[][] rows, int allowed) {
+            this.text = text;
+            this.rows = rows;
+            this.limit = allowed;
+        }
+
+        void visit(Node node, int depth) {
+            if (depth >= rows.length) {
+                return;
+            }
+            int[] previous = rows[depth - 1];
+            int[] row = rows[depth];
+            for (int c = 0; c < node.labels.length; c++) {
+                char label = node.labels[c];
+                row[0] = depth;
+                int rowMin = row[0];
+                for (int j = 1; j < row.length; j++) {
+                    int cost = text.charAt(j - 1) == label ? 0 : 1;
+                    int value = Math.min(Math.min(previous[j] + 1, row[j - 1] + 1), previous[j - 1] + cost);
+                    row[j] = value;
+                    rowMin = Math.min(rowMin, value);
+                }
+                Node child = node.children[c];
+                int distance = row[row.length - 1];
+                if (child.command != null && (distance < limit || (distance == limit && best == null))) {
+                    best = child.command;
+                    limit = distance;
+                }
+                if (rowMin <= limit) {
+                    visit(child, depth + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.jacekkowalczyk82.tools.voice;
+
+/**
+ * EarlyCommandListener
+ * <p>
+ * Runs commands from a streaming recognition's interim results. Once the interim transcript is an
+ * unambiguous command (see {@link CommandIndex#matchUnambiguous}) that is stable, either by the
+ * backend's stability score or by coming back unchanged several times, the command is launched and
+ * the rest of the utterance is ignored; its final transcript only confirms it. Utterances that
+ * never settle on a command are matched on their final transcript as before.
+ * <p>
+ * Thread-safe; transcripts arrive on the recognizer's thread.
+ */
+public class EarlyCommandListener implements TranscriptListener {
+    public static final float DEFAULT_MIN_STABILITY = 0.8f;
+    public static final int DEFAULT_MIN_REPEATS = 3;
+
+    private static final Metrics.Counter EARLY_COMMANDS = Metrics.global().counter("early_commands",
+            "Commands run before the end of their utterance");
+    private static final Metrics.Counter MISMATCHES = Metrics.global().counter("early_command_mismatches",
+            "Commands run early whose final transcript matched another command or none");
+    private static final LatencyHistogram EARLY_LEAD = Metrics.global().histogram("early_command_lead",
+            "How long before the end of its utterance a command was run");
+
+    private final CommandDispatcher commands;
+    private final float minStability;
+    private final int minRepeats;
+
+    private Command candidate;
+    private int repeats;
+    private Command committed;
+    private long committedNanos;
+
+    public EarlyCommandListener(CommandDispatcher commands) {
+        this(commands, DEFAULT_MIN_STABILITY, DEFAULT_MIN_REPEATS);
+    }
+
+    /**
+     * @param minStability interim stability that commits at once
+     * @param minRepeats   consecutive interim results naming the same command that commit regardless
+     *                     of their stability, for backends that do not report one; Vosk repeats its
+     *                     partial result once per audio chunk, so this is how long it stays unchanged
+     */
+    public EarlyCommandListener(CommandDispatcher commands, float minStability, int minRepeats) {
+        this.commands = commands;
+        this.minStability = minStability;
+        this.minRepeats = minRepeats;
+    }
+
+    @Override
+    public synchronized void onTranscript(String transcript, boolean isFinal, float score) {
+        if (!isFinal) {
+            if (committed == null) {
+                offer(transcript, score);
+            }
+            return;
+        }
+        if (committed == null) {
+            SegmentingVoiceAssistant.runCommand(commands, transcript);
+        } else {
+            EARLY_LEAD.recordNanos(System.nanoTime() - committedNanos);
+            CommandIndex.Match heard = commands.index().match(transcript);
+            if (heard == null || !heard.command().equals(committed)) {
+                MISMATCHES.increment();
+                System.out.println("Ran \"" + committed.phrase() + "\" early, but the final transcript is \""
+                        + transcript + "\"");
+            }
+        }
+        candidate = null;
+        repeats = 0;
+        committed = null;
+    }
+
+    private void offer(String transcript, float stability) {
+        CommandIndex.Match match = commands.index().matchUnambiguous(transcript);
+        if (match == null) {
+            candidate = null;
+            repeats = 0;
+            return;
+        }
+        repeats = match.command().equals(candidate) ? repeats + 1 : 1;
+        candidate = match.command();
+        if (stability >= minStability || repeats >= minRepeats) {
+            committed = candidate;
+            committedNanos = System.nanoTime();
+            EARLY_COMMANDS.increment();
+            System.out.println("Running command \"" + committed.phrase() + "\" from the interim transcript");
+            commands.launch(committed);
+        }
+    }
+}
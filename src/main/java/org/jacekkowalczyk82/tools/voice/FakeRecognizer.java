@@ -0,0 +1,98 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * FakeRecognizer
+ * <p>
+ * Deterministic {@link Recognizer} for tests and for running the pipeline without a speech backend.
+ * It answers with scripted transcripts in order (cycling), or with the utterance length when no
+ * script is given, after an optional fixed latency.
+ */
+public class FakeRecognizer implements Recognizer {
+    private final AudioFormat format;
+    private final List<String> script;
+    private final long latencyMillis;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public FakeRecognizer(AudioFormat format) {
+        this(format, List.of(), 0);
+    }
+
+    public FakeRecognizer(AudioFormat format, List<String> script, long latencyMillis) {
+        this.format = format;
+        this.script = List.copyOf(script);
+        this.latencyMillis = latencyMillis;
+    }
+
+    /**
+     * Number of utterances and streams recognized so far.
+     */
+    public int requests() {
+        return requests.get();
+    }
+
+    @Override
+    public RecognitionResult recognize(byte[] audio) {
+        simulateLatency();
+        return new RecognitionResult(nextTranscript(audio.length), 1f);
+    }
+
+    @Override
+    public CompletableFuture<RecognitionResult> recognizeAsync(byte[] audio) {
+        Executor executor = latencyMillis > 0
+                ? CompletableFuture.delayedExecutor(latencyMillis, TimeUnit.MILLISECONDS)
+                : Runnable::run;
+        return CompletableFuture.supplyAsync(() -> new RecognitionResult(nextTranscript(audio.length), 1f), executor);
+    }
+
+    @Override
+    public StreamingSession startStreaming(TranscriptListener listener) {
+        return new StreamingSession() {
+            private long bytes;
+
+            @Override
+            public synchronized void send(byte[] buffer, int offset, int length) {
+                bytes += length;
+                listener.onTranscript("heard " + millis(bytes) + " ms", false, 0.5f);
+            }
+
+            @Override
+            public synchronized void close() {
+                simulateLatency();
+                listener.onTranscript(nextTranscript(bytes), true, 1f);
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private String nextTranscript(long audioBytes) {
+        int request = requests.getAndIncrement();
+        if (script.isEmpty()) {
+            return "heard " + millis(audioBytes) + " ms";
+        }
+        return script.get(request % script.size());
+    }
+
+    private long millis(long audioBytes) {
+        return (long) (audioBytes / format.getFrameSize() * 1000 / format.getFrameRate());
+    }
+
+    private void simulateLatency() {
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * FeatureExtractor
+ * <p>
+ * Frame-by-frame speech features from a PCM stream: every hop, the latest window of pre-emphasized
+ * samples goes through a Hamming window, one real FFT with a plan made up front, a triangular mel
+ * filterbank and a DCT. Each frame carries its energy, zero-crossing rate, log-mel energies and
+ * MFCCs, and is handed to every registered listener, so stages that need spectral features share
+ * one FFT per frame instead of each running their own. All buffers, including the frame passed to
+ * listeners, are allocated once and reused.
+ */
+public class FeatureExtractor {
+    public static final int DEFAULT_FRAME_MILLIS = 25;
+    public static final int DEFAULT_HOP_MILLIS = 10;
+    public static final int DEFAULT_MEL_FILTERS = 26;
+    public static final int DEFAULT_CEPSTRA = 13;
+    public static final float DEFAULT_LOW_HZ = 20;
+    static final float PRE_EMPHASIS = 0.97f;
+    private static final float LOG_FLOOR = 1e-10f;
+
+    /**
+     * Receives every feature frame; the frame and its arrays are reused for the next one.
+     */
+    public interface Listener {
+        void onFrame(Frame frame);
+    }
+
+    /**
+     * Features of one analysis window. Only valid while {@link Listener#onFrame} runs.
+     */
+    public static final class Frame {
+        private long index;
+        private long endSample;
+        private float energy;
+        private float zeroCrossingRate;
+        private final float[] logMel;
+        private final float[] mfcc;
+
+        Frame(int melFilters, int cepstra) {
+            logMel = new float[melFilters];
+            mfcc = new float[cepstra];
+        }
+
+        public long index() {
+            return index;
+        }
+
+        /**
+         * Stream position just past the last sample of this window.
+         */
+        public long endSample() {
+            return endSample;
+        }
+
+        /**
+         * Mean square of the window's samples, before pre-emphasis.
+         */
+        public float energy() {
+            return energy;
+        }
+
+        public float zeroCrossingRate() {
+            return zeroCrossingRate;
+        }
+
+        public float[] logMel() {
+            return logMel;
+        }
+
+        /**
+         * Cepstral coefficients c0..cN-1, c0 tracks the overall level.
+         */
+        public float[] mfcc() {
+            return mfcc;
+        }
+    }
+
+    private final AudioFormat format;
+    private final boolean bigEndian;
+    private final int frameMillis;
+    private final int hopMillis;
+    private final float lowHz;
+    private final float highHz;
+    private final int frameSamples;
+    private final int hopSamples;
+    private final int fftSize;
+    private final FloatFFT_1D fft;
+    private final float[] window;
+    private final float[][] melFilters;
+    private final int[] melStart;
+    private final float[][] dct;
+    // Copied on change; iterating an array keeps the per-frame path free of iterator garbage
+    private volatile Listener[] listeners = new Listener[0];
+
+    // Raw and pre-emphasized samples of the current window
+    private final float[] raw;
+    private final float[] emphasized;
+    private int fill;
+    private float previousSample;
+    private final byte[] partial = new byte[SampleCodec.BYTES_PER_SAMPLE];
+    private boolean hasPartial;
+    private final float[] spectrum;
+    private final Frame frame;
+    private long samples;
+    private long frames;
+
+    public FeatureExtractor(AudioFormat format) {
+        this(format, DEFAULT_FRAME_MILLIS, DEFAULT_HOP_MILLIS, DEFAULT_MEL_FILTERS, DEFAULT_CEPSTRA,
+                DEFAULT_LOW_HZ, format.getSampleRate() / 2);
+    }
+
+    public FeatureExtractor(AudioFormat format, int frameMillis, int hopMillis, int melFilterCount, int cepstra,
+                            float lowHz, float highHz) {
+        SampleCodec.requireSupported(format);
+        if (format.getChannels() != 1) {
+            throw new IllegalArgumentException("Feature extraction needs mono audio, got " + format);
+        }
+        if (hopMillis <= 0 || hopMillis > frameMillis || cepstra > melFilterCount
+                || lowHz < 0 || highHz <= lowHz || highHz > format.getSampleRate() / 2) {
+            throw new IllegalArgumentException("Invalid feature configuration");
+        }
+        float sampleRate = format.getSampleRate();
+        this.format = format;
+        this.bigEndian = format.isBigEndian();
+        this.frameMillis = frameMillis;
+        this.hopMillis = hopMillis;
+        this.lowHz = lowHz;
+        this.highHz = highHz;
+        this.frameSamples = Math.round(sampleRate * frameMillis / 1000);
+        this.hopSamples = Math.round(sampleRate * hopMillis / 1000);
+        this.fftSize = Integer.highestOneBit(frameSamples - 1) << 1;
+        this.fft = new FloatFFT_1D(fftSize);
+        this.window = new float[frameSamples];
+        for (int i = 0; i < frameSamples; i++) {
+            window[i] = (float) (0.54 - 0.46 * Math.cos(2 * Math.PI * i / (frameSamples - 1)));
+        }
+        this.melStart = new int[melFilterCount];
+        this.melFilters = melFilterbank(sampleRate, fftSize, melFilterCount, lowHz, highHz, melStart);
+        this.dct = new float[cepstra][melFilterCount];
+        for (int c = 0; c < cepstra; c++) {
+            double scale = Math.sqrt((c == 0 ? 1.0 : 2.0) / melFilterCount);
+            for (int m = 0; m < melFilterCount; m++) {
+                dct[c][m] = (float) (scale * Math.cos(Math.PI * c * (m + 0.5) / melFilterCount));
+            }
+        }
+        this.raw = new float[frameSamples];
+        this.emphasized = new float[frameSamples];
+        this.spectrum = new float[fftSize];
+        this.frame = new Frame(melFilterCount, cepstra);
+        reset();
+    }
+
+    /**
+     * Another extractor with the same configuration and no listeners, e.g. for enrolment recordings.
+     */
+    public FeatureExtractor copy() {
+        return new FeatureExtractor(format, frameMillis, hopMillis, frame.logMel.length, frame.mfcc.length, lowHz, highHz);
+    }
+
+    private static float[][] melFilterbank(float sampleRate, int fftSize, int count, float lowHz, float highHz,
+                                           int[] start) {
+        double lowMel = mel(lowHz);
+        double highMel = mel(highHz);
+        double[] edges = new double[count + 2];
+        for (int i = 0; i < edges.length; i++) {
+            double hz = 700 * (Math.pow(10, (lowMel + (highMel - lowMel) * i / (count + 1)) / 2595) - 1);
+            edges[i] = hz * fftSize / sampleRate;
+        }
+        float[][] filters = new float[count][];
+        for (int m = 0; m < count; m++) {
+            int first = (int) Math.ceil(edges[m]);
+            int last = Math.min(fftSize / 2, (int) Math.floor(edges[m + 2]));
+            start[m] = first;
+            filters[m] = new float[Math.max(0, last - first + 1)];
+            for (int bin = first; bin <= last; bin++) {
+                double weight = bin <= edges[m + 1]
+                        ? (bin - edges[m]) / (edges[m + 1] - edges[m])
+                        : (edges[m + 2] - bin) / (edges[m + 2] - edges[m + 1]);
+                filters[m][bin - first] = (float) Math.max(0, weight);
+            }
+        }
+        return filters;
+    }
+
+    private static double mel(double hz) {
+        return 2595 * Math.log10(1 + hz / 700);
+    }
+
+    public synchronized void addListener(Listener listener) {
+        Listener[] next = Arrays.copyOf(listeners, listeners.length + 1);
+        next[listeners.length] = listener;
+        listeners = next;
+    }
+
+    public synchronized void removeListener(Listener listener) {
+        List<Listener> remaining = new ArrayList<>(Arrays.asList(listeners));
+        remaining.remove(listener);
+        listeners = remaining.toArray(new Listener[0]);
+    }
+
+    public int getHopMillis() {
+        return hopMillis;
+    }
+
+    public int getHopSamples() {
+        return hopSamples;
+    }
+
+    public int getCepstra() {
+        return frame.mfcc.length;
+    }
+
+    public int getMelFilters() {
+        return frame.logMel.length;
+    }
+
+    public long samplesProcessed() {
+        return samples;
+    }
+
+    public void process(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        if (hasPartial && offset < end) {
+            partial[1] = buffer[offset++];
+            accept(SampleCodec.getSample(partial, 0, bigEndian) / 32768f);
+            hasPartial = false;
+        }
+        for (; offset + 1 < end; offset += SampleCodec.BYTES_PER_SAMPLE) {
+            accept(SampleCodec.getSample(buffer, offset, bigEndian) / 32768f);
+        }
+        if (offset < end) {
+            partial[0] = buffer[offset];
+            hasPartial = true;
+        }
+    }
+
+    /**
+     * MFCC sequence of a complete recording, computed on a separate extractor.
+     */
+    public List<float[]> mfccSequence(byte[] pcm) {
+        List<float[]> sequence = new ArrayList<>();
+        FeatureExtractor extractor = copy();
+        extractor.addListener(f -> sequence.add(f.mfcc().clone()));
+        extractor.process(pcm, 0, pcm.length);
+        return sequence;
+    }
+
+    /**
+     * Starts a new stream; the first window is padded with half a frame of silence like after reset.
+     */
+    public void reset() {
+        Arrays.fill(raw, 0f);
+        Arrays.fill(emphasized, 0f);
+        fill = frameSamples - hopSamples;
+        previousSample = 0;
+        hasPartial = false;
+    }
+
+    private void accept(float sample) {
+        samples++;
+        raw[fill] = sample;
+        emphasized[fill] = sample - PRE_EMPHASIS * previousSample;
+        previousSample = sample;
+        if (++fill == frameSamples) {
+            computeFrame();
+            System.arraycopy(raw, hopSamples, raw, 0, frameSamples - hopSamples);
+            System.arraycopy(emphasized, hopSamples, emphasized, 0, frameSamples - hopSamples);
+            fill = frameSamples - hopSamples;
+        }
+    }
+
+    private void computeFrame() {
+        float energy = 0;
+        int crossings = 0;
+        for (int i = 0; i < frameSamples; i++) {
+            energy += raw[i] * raw[i];
+            if (i > 0 && (raw[i] >= 0) != (raw[i - 1] >= 0)) {
+                crossings++;
+            }
+            spectrum[i] = emphasized[i] * window[i];
+        }
+        Arrays.fill(spectrum, frameSamples, fftSize, 0f);
+        fft.realForward(spectrum);
+
+        float[] logMel = frame.logMel;
+        for (int m = 0; m < logMel.length; m++) {
+            float[] filter = melFilters[m];
+            float melEnergy = 0;
+            for (int i = 0; i < filter.length; i++) {
+                melEnergy += filter[i] * power(melStart[m] + i);
+            }
+            logMel[m] = (float) Math.log(melEnergy + LOG_FLOOR);
+        }
+        float[] mfcc = frame.mfcc;
+        for (int c = 0; c < mfcc.length; c++) {
+            float[] basis = dct[c];
+            float sum = 0;
+            for (int m = 0; m < logMel.length; m++) {
+                sum += basis[m] * logMel[m];
+            }
+            mfcc[c] = sum;
+        }
+
+        frame.index = frames++;
+        frame.endSample = samples;
+        frame.energy = energy / frameSamples;
+        frame.zeroCrossingRate = (float) crossings / (frameSamples - 1);
+        for (Listener listener : listeners) {
+            listener.onFrame(frame);
+        }
+    }
+
+    // JTransforms' packed layout: DC and Nyquist are real
+    private float power(int bin) {
+        if (bin == 0) {
+            return spectrum[0] * spectrum[0];
+        }
+        if (bin == fftSize / 2) {
+            return spectrum[1] * spectrum[1];
+        }
+        return spectrum[2 * bin] * spectrum[2 * bin] + spectrum[2 * bin + 1] * spectrum[2 * bin + 1];
+    }
+}
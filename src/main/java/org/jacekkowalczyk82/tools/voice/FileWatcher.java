@@ -0,0 +1,75 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calls back on a daemon thread whenever a file changes on disk. Editors save in several steps
+ * (truncate, write, rename), so the callback runs once the file has been quiet for
+ * {@link #QUIET_MILLIS}.
+ */
+public final class FileWatcher implements AutoCloseable {
+    static final long QUIET_MILLIS = 100;
+
+    private final WatchService service;
+    private final Thread thread;
+
+    private FileWatcher(Path file, Runnable onChange) throws IOException {
+        Path absolute = file.toAbsolutePath();
+        service = FileSystems.getDefault().newWatchService();
+        absolute.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        thread = new Thread(() -> watchLoop(absolute, onChange), "watcher-" + absolute.getFileName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static FileWatcher start(Path file, Runnable onChange) throws IOException {
+        return new FileWatcher(file, onChange);
+    }
+
+    private void watchLoop(Path file, Runnable onChange) {
+        try {
+            while (true) {
+                boolean changed = isChanged(service.take(), file);
+                WatchKey next;
+                while ((next = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= isChanged(next, file);
+                }
+                if (changed) {
+                    onChange.run();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // closed
+        }
+    }
+
+    private static boolean isChanged(WatchKey key, Path file) {
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (file.getFileName().equals(event.context())) {
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        try {
+            service.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        thread.join();
+    }
+}
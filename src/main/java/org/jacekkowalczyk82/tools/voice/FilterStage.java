@@ -0,0 +1,86 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+
+/**
+ * FilterStage
+ * <p>
+ * Byte level front of a {@link SampleFilter}: decodes PCM chunks, filters them and passes the
+ * re-encoded result downstream in the same format. Scratch buffers grow to the largest chunk seen
+ * and are reused afterwards.
+ */
+public class FilterStage {
+    private final SampleFilter filter;
+    private final boolean bigEndian;
+    private final AudioRingBuffer.Consumer downstream;
+
+    private float[] input = new float[0];
+    private float[] output = new float[0];
+    private byte[] encoded = new byte[0];
+    // A chunk may end in the middle of a sample
+    private final byte[] partial = new byte[SampleCodec.BYTES_PER_SAMPLE];
+    private boolean hasPartial;
+
+    public FilterStage(AudioFormat format, SampleFilter filter, AudioRingBuffer.Consumer downstream) {
+        SampleCodec.requireSupported(format);
+        if (format.getChannels() != 1) {
+            throw new IllegalArgumentException("Filter stage needs mono audio, got " + format);
+        }
+        this.filter = filter;
+        this.bigEndian = format.isBigEndian();
+        this.downstream = downstream;
+    }
+
+    public void process(byte[] buffer, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int samples = SampleCodec.sampleCount(length + (hasPartial ? 1 : 0));
+        ensureCapacity(samples, filter.maxOutput(samples));
+
+        int decoded = 0;
+        if (hasPartial) {
+            partial[1] = buffer[offset];
+            SampleCodec.decode(partial, 0, input, 0, 1, bigEndian);
+            offset++;
+            length--;
+            decoded = 1;
+            hasPartial = false;
+        }
+        int whole = SampleCodec.sampleCount(length);
+        SampleCodec.decode(buffer, offset, input, decoded, whole, bigEndian);
+        decoded += whole;
+        if (length % 2 != 0) {
+            partial[0] = buffer[offset + length - 1];
+            hasPartial = true;
+        }
+
+        emit(filter.process(input, 0, decoded, output, 0));
+    }
+
+    /**
+     * Pushes out the filter's buffered audio, e.g. at the end of a recording.
+     */
+    public void flush() {
+        ensureCapacity(0, filter.maxFlush());
+        emit(filter.flush(output, 0));
+        hasPartial = false;
+    }
+
+    private void emit(int samples) {
+        if (samples > 0) {
+            SampleCodec.encode(output, 0, encoded, 0, samples, bigEndian);
+            downstream.accept(encoded, 0, samples * SampleCodec.BYTES_PER_SAMPLE);
+        }
+    }
+
+    private void ensureCapacity(int inputSamples, int outputSamples) {
+        if (input.length < inputSamples) {
+            input = new float[inputSamples];
+        }
+        if (output.length < outputSamples) {
+            output = new float[outputSamples];
+            encoded = new byte[outputSamples * SampleCodec.BYTES_PER_SAMPLE];
+        }
+    }
+}
@@ -0,0 +1,439 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.Arrays;
+
+/**
+ * FlacEncoder
+ * <p>
+ * Lossless FLAC encoder for 16-bit PCM, small enough to live next to the capture path. Every block
+ * of {@code blockSize} samples becomes one frame; each channel is stored as a constant, with the
+ * best of the fixed polynomial predictors of order 0 to 4 and partitioned Rice coded residuals, or
+ * verbatim, whichever is smallest. Speech usually shrinks to 40-60% of LINEAR16, silence to almost
+ * nothing. LPC and inter-channel decorrelation are left out: they cost much more CPU for a few
+ * percent on speech.
+ * <p>
+ * Streams start with a STREAMINFO block whose total length and MD5 are left unknown, so frames can
+ * be sent as soon as they are encoded.
+ */
+public class FlacEncoder implements AudioEncoder {
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+    static final int MAX_FIXED_ORDER = 4;
+    static final int MAX_PARTITION_ORDER = 8;
+    // 4-bit Rice parameters, 15 is the escape code
+    private static final int MAX_RICE_PARAMETER = 14;
+    private static final int BITS_PER_SAMPLE = 16;
+
+    private static final int[] CRC8 = new int[256];
+    private static final int[] CRC16 = new int[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int crc8 = i;
+            int crc16 = i << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc8 = (crc8 & 0x80) != 0 ? (crc8 << 1) ^ 0x07 : crc8 << 1;
+                crc16 = (crc16 & 0x8000) != 0 ? (crc16 << 1) ^ 0x8005 : crc16 << 1;
+            }
+            CRC8[i] = crc8 & 0xFF;
+            CRC16[i] = crc16 & 0xFFFF;
+        }
+    }
+
+    private final int channels;
+    private final int sampleRate;
+    private final boolean bigEndian;
+    private final int blockSize;
+
+    public FlacEncoder(AudioFormat format) {
+        this(format, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize samples per channel in a frame; smaller blocks cost compression but send
+     *                  audio sooner when streaming (4096 is 256 ms at 16 kHz)
+     */
+    public FlacEncoder(AudioFormat format, int blockSize) {
+        SampleCodec.requireSupported(format);
+        if (format.getChannels() < 1 || format.getChannels() > 8) {
+            throw new IllegalArgumentException("FLAC supports 1 to 8 channels, got " + format);
+        }
+        if (blockSize < 16 || blockSize > 65535) {
+            throw new IllegalArgumentException("Block size must be 16 to 65535 samples: " + blockSize);
+        }
+        this.channels = format.getChannels();
+        this.sampleRate = (int) format.getSampleRate();
+        this.bigEndian = format.isBigEndian();
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public RecognitionConfig.AudioEncoding encoding() {
+        return RecognitionConfig.AudioEncoding.FLAC;
+    }
+
+    @Override
+    public Stream newStream(AudioRingBuffer.Consumer output) {
+        return new FlacStream(output);
+    }
+
+    private final class FlacStream implements Stream {
+        private final AudioRingBuffer.Consumer output;
+        private final int[][] block = new int[channels][blockSize];
+        private final int[][] residuals = new int[MAX_FIXED_ORDER + 1][blockSize];
+        private final long[] partitionSums = new long[1 << MAX_PARTITION_ORDER];
+        private final int[] riceParameters = new int[1 << MAX_PARTITION_ORDER];
+        private final int[] candidateParameters = new int[1 << MAX_PARTITION_ORDER];
+        private int partitionOrder;
+        private final BitWriter bits = new BitWriter();
+        // A write may end inside a frame
+        private final byte[] partialFrame = new byte[channels * SampleCodec.BYTES_PER_SAMPLE];
+        private int partialFill;
+        private int filled;
+        private long frameNumber;
+        private boolean started;
+        private boolean finished;
+
+        FlacStream(AudioRingBuffer.Consumer output) {
+            this.output = output;
+        }
+
+        @Override
+        public void write(byte[] pcm, int offset, int length) {
+            if (finished) {
+                throw new IllegalStateException("Stream is finished");
+            }
+            if (!started) {
+                writeStreamInfo();
+            }
+            int end = offset + length;
+            if (partialFill > 0) {
+                int n = Math.min(partialFrame.length - partialFill, length);
+                System.arraycopy(pcm, offset, partialFrame, partialFill, n);
+                partialFill += n;
+                offset += n;
+                if (partialFill < partialFrame.length) {
+                    return;
+                }
+                addFrame(partialFrame, 0);
+                partialFill = 0;
+            }
+            for (; offset + partialFrame.length <= end; offset += partialFrame.length) {
+                addFrame(pcm, offset);
+            }
+            partialFill = end - offset;
+            System.arraycopy(pcm, offset, partialFrame, 0, partialFill);
+        }
+
+        private void addFrame(byte[] pcm, int offset) {
+            for (int channel = 0; channel < channels; channel++) {
+                block[channel][filled] = SampleCodec.getSample(pcm, offset + channel * SampleCodec.BYTES_PER_SAMPLE,
+                        bigEndian);
+            }
+            if (++filled == blockSize) {
+                writeFrame(filled);
+                filled = 0;
+            }
+        }
+
+        @Override
+        public void finish() {
+            if (finished) {
+                return;
+            }
+            if (!started) {
+                writeStreamInfo();
+            }
+            if (filled > 0) {
+                writeFrame(filled);
+                filled = 0;
+            }
+            finished = true;
+        }
+
+        private void writeStreamInfo() {
+            started = true;
+            bits.reset();
+            bits.write('f', 8);
+            bits.write('L', 8);
+            bits.write('a', 8);
+            bits.write('C', 8);
+            // Last metadata block, type STREAMINFO, 34 bytes
+            bits.write(0x80, 8);
+            bits.write(34, 24);
+            bits.write(blockSize, 16);
+            bits.write(blockSize, 16);
+            // Frame sizes, total samples and MD5 unknown
+            bits.write(0, 24);
+            bits.write(0, 24);
+            bits.write(sampleRate, 20);
+            bits.write(channels - 1, 3);
+            bits.write(BITS_PER_SAMPLE - 1, 5);
+            bits.write(0, 4);
+            bits.write(0, 32);
+            for (int i = 0; i < 4; i++) {
+                bits.write(0, 32);
+            }
+            bits.flushTo(output);
+        }
+
+        private void writeFrame(int samples) {
+            bits.reset();
+            bits.write(0b11111111111110, 14);
+            bits.write(0, 1);
+            // Fixed block size strategy, the last block may be shorter
+            bits.write(0, 1);
+            // Block size stored after the frame number
+            bits.write(0b0111, 4);
+            bits.write(sampleRateCode(sampleRate), 4);
+            // Independent channels
+            bits.write(channels - 1, 4);
+            bits.write(0b100, 3); // 16 bits per sample
+            bits.write(0, 1);
+            writeUtf8(frameNumber++);
+            bits.write(samples - 1, 16);
+            bits.write(bits.crc8(), 8);
+
+            for (int channel = 0; channel < channels; channel++) {
+                writeSubframe(block[channel], samples);
+            }
+            bits.alignToByte();
+            bits.write(bits.crc16(), 16);
+            bits.flushTo(output);
+        }
+
+        private void writeUtf8(long value) {
+            if (value < 0x80) {
+                bits.write((int) value, 8);
+                return;
+            }
+            int continuation = value < 0x800 ? 1 : value < 0x10000 ? 2 : value < 0x200000 ? 3
+                    : value < 0x4000000 ? 4 : value < 0x80000000L ? 5 : 6;
+            int lead = (0xFF00 >> (continuation + 1)) & 0xFF;
+            bits.write(lead | (int) (value >>> (6 * continuation)), 8);
+            for (int i = continuation - 1; i >= 0; i--) {
+                bits.write(0x80 | (int) ((value >>> (6 * i)) & 0x3F), 8);
+            }
+        }
+
+        private void writeSubframe(int[] samples, int count) {
+            boolean constant = true;
+            for (int i = 1; i < count && constant; i++) {
+                constant = samples[i] == samples[0];
+            }
+            if (constant) {
+                bits.write(0b00000000, 8);
+                bits.write(samples[0], BITS_PER_SAMPLE);
+                return;
+            }
+
+            int bestOrder = -1;
+            long bestBits = (long) count * BITS_PER_SAMPLE; // verbatim
+            for (int order = 0; order <= Math.min(MAX_FIXED_ORDER, count - 1); order++) {
+                computeResidual(samples, count, order, residuals[order]);
+                long cost = (long) order * BITS_PER_SAMPLE + searchPartitions(residuals[order], count, order);
+                if (cost < bestBits) {
+                    bestBits = cost;
+                    bestOrder = order;
+                }
+            }
+
+            if (bestOrder < 0) {
+                bits.write(0b00000010, 8);
+                for (int i = 0; i < count; i++) {
+                    bits.write(samples[i], BITS_PER_SAMPLE);
+                }
+                return;
+            }
+            bits.write((0b001000 | bestOrder) << 1, 8);
+            for (int i = 0; i < bestOrder; i++) {
+                bits.write(samples[i], BITS_PER_SAMPLE);
+            }
+            // The search for other orders overwrote the Rice parameters
+            searchPartitions(residuals[bestOrder], count, bestOrder);
+            writeResidual(residuals[bestOrder], count, bestOrder);
+        }
+
+        private void computeResidual(int[] x, int count, int order, int[] residual) {
+            switch (order) {
+                case 0 -> System.arraycopy(x, 0, residual, 0, count);
+                case 1 -> {
+                    for (int i = 1; i < count; i++) {
+                        residual[i] = x[i] - x[i - 1];
+                    }
+                }
+                case 2 -> {
+                    for (int i = 2; i < count; i++) {
+                        residual[i] = x[i] - 2 * x[i - 1] + x[i - 2];
+                    }
+                }
+                case 3 -> {
+                    for (int i = 3; i < count; i++) {
+                        residual[i] = x[i] - 3 * x[i - 1] + 3 * x[i - 2] - x[i - 3];
+                    }
+                }
+                default -> {
+                    for (int i = 4; i < count; i++) {
+                        residual[i] = x[i] - 4 * x[i - 1] + 6 * x[i - 2] - 4 * x[i - 3] + x[i - 4];
+                    }
+                }
+            }
+        }
+
+        /**
+         * Picks the partition order with the fewest estimated bits, leaving it in
+         * {@link #partitionOrder} and its Rice parameters in {@link #riceParameters}.
+         *
+         * @return the estimated size of the coded residual in bits
+         */
+        private long searchPartitions(int[] residual, int count, int order) {
+            int maxOrder = 0;
+            while (maxOrder < MAX_PARTITION_ORDER && count % (2 << maxOrder) == 0
+                    && (count >> (maxOrder + 1)) > order) {
+                maxOrder++;
+            }
+            // Sums of the folded residuals at the finest partitioning, merged pairwise for coarser ones
+            int size = count >> maxOrder;
+            for (int p = 0; p < 1 << maxOrder; p++) {
+                long sum = 0;
+                for (int i = p == 0 ? order : p * size, end = (p + 1) * size; i < end; i++) {
+                    sum += fold(residual[i]);
+                }
+                partitionSums[p] = sum;
+            }
+            long bestBits = Long.MAX_VALUE;
+            for (int candidate = maxOrder; candidate >= 0; candidate--) {
+                int partitions = 1 << candidate;
+                long total = 0;
+                for (int p = 0; p < partitions; p++) {
+                    int samples = (count >> candidate) - (p == 0 ? order : 0);
+                    int k = riceParameter(partitionSums[p], samples);
+                    candidateParameters[p] = k;
+                    total += 4 + riceCost(partitionSums[p], samples, k);
+                }
+                if (total < bestBits) {
+                    bestBits = total;
+                    partitionOrder = candidate;
+                    System.arraycopy(candidateParameters, 0, riceParameters, 0, partitions);
+                }
+                for (int p = 0; p < partitions / 2; p++) {
+                    partitionSums[p] = partitionSums[2 * p] + partitionSums[2 * p + 1];
+                }
+            }
+            return 6 + bestBits;
+        }
+
+        private void writeResidual(int[] residual, int count, int order) {
+            bits.write(0b00, 2); // Rice coding with 4-bit parameters
+            bits.write(partitionOrder, 4);
+            int size = count >> partitionOrder;
+            for (int p = 0; p < 1 << partitionOrder; p++) {
+                int k = riceParameters[p];
+                bits.write(k, 4);
+                for (int i = p == 0 ? order : p * size, end = (p + 1) * size; i < end; i++) {
+                    int folded = fold(residual[i]);
+                    bits.writeUnary(folded >>> k);
+                    if (k > 0) {
+                        bits.write(folded & ((1 << k) - 1), k);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int fold(int residual) {
+        return (residual << 1) ^ (residual >> 31);
+    }
+
+    // Parameter that minimizes the estimated size of samples with the given folded sum
+    private static int riceParameter(long sum, int samples) {
+        if (samples <= 0 || sum <= samples) {
+            return 0;
+        }
+        int k = 63 - Long.numberOfLeadingZeros(sum / samples);
+        return Math.min(k, MAX_RICE_PARAMETER);
+    }
+
+    private static long riceCost(long sum, int samples, int k) {
+        return (long) samples * (k + 1) + (sum >> k);
+    }
+
+    private static int sampleRateCode(int rate) {
+        return switch (rate) {
+            case 8000 -> 0b0100;
+            case 16000 -> 0b0101;
+            case 22050 -> 0b0110;
+            case 24000 -> 0b0111;
+            case 32000 -> 0b1000;
+            case 44100 -> 0b1001;
+            case 48000 -> 0b1010;
+            case 96000 -> 0b1011;
+            default -> 0b0000; // from STREAMINFO
+        };
+    }
+
+    /**
+     * MSB-first bit packer for one frame at a time, with the frame CRCs.
+     */
+    private static final class BitWriter {
+        private byte[] buffer = new byte[8192];
+        private int length;
+        private long accumulator;
+        private int pending;
+
+        void reset() {
+            length = 0;
+            accumulator = 0;
+            pending = 0;
+        }
+
+        void write(int value, int count) {
+            accumulator = (accumulator << count) | (value & ((1L << count) - 1));
+            pending += count;
+            while (pending >= 8) {
+                pending -= 8;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                buffer[length++] = (byte) (accumulator >>> pending);
+            }
+        }
+
+        void writeUnary(int zeros) {
+            while (zeros >= 31) {
+                write(0, 31);
+                zeros -= 31;
+            }
+            write(1, zeros + 1);
+        }
+
+        void alignToByte() {
+            if (pending > 0) {
+                write(0, 8 - pending);
+            }
+        }
+
+        int crc8() {
+            int crc = 0;
+            for (int i = 0; i < length; i++) {
+                crc = CRC8[(crc ^ buffer[i]) & 0xFF];
+            }
+            return crc;
+        }
+
+        int crc16() {
+            int crc = 0;
+            for (int i = 0; i < length; i++) {
+                crc = ((crc << 8) ^ CRC16[((crc >>> 8) ^ buffer[i]) & 0xFF]) & 0xFFFF;
+            }
+            return crc;
+        }
+
+        void flushTo(AudioRingBuffer.Consumer output) {
+            output.accept(buffer, 0, length);
+            length = 0;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * FormatConverter
+ * <p>
+ * Streaming front end that turns whatever a file or sound card delivers into the 16-bit mono PCM
+ * the recognizers expect: channels are averaged, 8/16/24/32-bit integer or 32-bit float samples of
+ * either byte order are normalized, and the rate is changed with a {@link PolyphaseResampler}.
+ * Like {@link BandPassStage} it is pushed chunks of any size and hands the converted audio
+ * downstream; scratch buffers grow to the largest chunk seen and are reused afterwards.
+ */
+public class FormatConverter {
+    private final AudioFormat source;
+    private final AudioFormat target;
+    private final AudioRingBuffer.Consumer downstream;
+    private final PolyphaseResampler resampler;
+    private final int frameSize;
+    private final int bytesPerSample;
+
+    private float[] mono = new float[0];
+    private float[] resampled = new float[0];
+    private byte[] encoded = new byte[0];
+    private byte[] copy = new byte[0];
+    // A chunk may end in the middle of a frame
+    private final byte[] partial;
+    private int partialLength;
+
+    /**
+     * @param target 16-bit signed mono PCM at any rate and byte order
+     */
+    public FormatConverter(AudioFormat source, AudioFormat target, AudioRingBuffer.Consumer downstream) {
+        if (!isSupported(source)) {
+            throw new IllegalArgumentException("Cannot convert from " + source);
+        }
+        SampleCodec.requireSupported(target);
+        if (target.getChannels() != 1) {
+            throw new IllegalArgumentException("Conversion target must be mono, got " + target);
+        }
+        this.source = source;
+        this.target = target;
+        this.downstream = downstream;
+        this.frameSize = source.getFrameSize();
+        this.bytesPerSample = source.getSampleSizeInBits() / 8;
+        this.partial = new byte[frameSize];
+        this.resampler = source.getSampleRate() == target.getSampleRate() ? null
+                : new PolyphaseResampler(Math.round(source.getSampleRate()), Math.round(target.getSampleRate()));
+    }
+
+    /**
+     * Linear PCM with whole-byte samples, integer or 32-bit float.
+     */
+    public static boolean isSupported(AudioFormat format) {
+        AudioFormat.Encoding encoding = format.getEncoding();
+        int bits = format.getSampleSizeInBits();
+        boolean integer = (encoding == AudioFormat.Encoding.PCM_SIGNED || encoding == AudioFormat.Encoding.PCM_UNSIGNED)
+                && (bits == 8 || bits == 16 || bits == 24 || bits == 32);
+        boolean floating = encoding == AudioFormat.Encoding.PCM_FLOAT && bits == 32;
+        return (integer || floating) && format.getChannels() > 0
+                && format.getFrameSize() == format.getChannels() * bits / 8;
+    }
+
+    /**
+     * True when audio in {@code format} can be handed to a recognizer expecting {@code target} as is.
+     */
+    public static boolean isIdentity(AudioFormat format, AudioFormat target) {
+        return format.matches(target) && format.getChannels() == target.getChannels();
+    }
+
+    /**
+     * Converts a complete recording in one go.
+     */
+    public static byte[] convert(AudioFormat source, AudioFormat target, byte[] audio) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FormatConverter converter = new FormatConverter(source, target, out::write);
+        converter.process(audio, 0, audio.length);
+        converter.flush();
+        return out.toByteArray();
+    }
+
+    public AudioFormat getTarget() {
+        return target;
+    }
+
+    public void process(byte[] buffer, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        int frames = (partialLength + length) / frameSize;
+        ensureCapacity(frames);
+
+        int decoded = 0;
+        if (partialLength > 0) {
+            int n = Math.min(frameSize - partialLength, length);
+            System.arraycopy(buffer, offset, partial, partialLength, n);
+            partialLength += n;
+            offset += n;
+            length -= n;
+            if (partialLength < frameSize) {
+                return;
+            }
+            decode(partial, 0, 1, 0);
+            partialLength = 0;
+            decoded = 1;
+        }
+        int whole = length / frameSize;
+        decode(buffer, offset, whole, decoded);
+        decoded += whole;
+        int rest = length - whole * frameSize;
+        if (rest > 0) {
+            System.arraycopy(buffer, offset + whole * frameSize, partial, 0, rest);
+            partialLength = rest;
+        }
+
+        if (resampler == null) {
+            emit(mono, decoded);
+        } else {
+            emit(resampled, resampler.process(mono, 0, decoded, resampled, 0));
+        }
+    }
+
+    /**
+     * Converts the remaining bytes of the buffer and consumes them, e.g. a {@link WavFile} slice.
+     */
+    public void process(ByteBuffer audio) {
+        if (audio.hasArray()) {
+            process(audio.array(), audio.arrayOffset() + audio.position(), audio.remaining());
+        } else {
+            int length = audio.remaining();
+            if (copy.length < length) {
+                copy = new byte[length];
+            }
+            audio.duplicate().get(copy, 0, length);
+            process(copy, 0, length);
+        }
+        audio.position(audio.limit());
+    }
+
+    /**
+     * Pushes the audio still held back by the resampler's filter, e.g. at the end of a file.
+     */
+    public void flush() {
+        partialLength = 0;
+        if (resampler != null) {
+            int delay = resampler.getGroupDelay();
+            ensureCapacity(delay);
+            Arrays.fill(mono, 0, delay, 0f);
+            emit(resampled, resampler.process(mono, 0, delay, resampled, 0));
+            resampler.reset();
+        }
+    }
+
+    private void decode(byte[] buffer, int offset, int frames, int mixOffset) {
+        int channels = source.getChannels();
+        if (channels == 1 && bytesPerSample == 2 && source.getEncoding() == AudioFormat.Encoding.PCM_SIGNED) {
+            SampleCodec.decode(buffer, offset, mono, mixOffset, frames, source.isBigEndian());
+            return;
+        }
+        float scale = 1f / channels;
+        for (int frame = 0; frame < frames; frame++) {
+            int position = offset + frame * frameSize;
+            float sum = 0;
+            for (int channel = 0; channel < channels; channel++) {
+                sum += sample(buffer, position + channel * bytesPerSample);
+            }
+            mono[mixOffset + frame] = sum * scale;
+        }
+    }
+
+    private float sample(byte[] buffer, int position) {
+        boolean bigEndian = source.isBigEndian();
+        int bits = 0;
+        for (int i = 0; i < bytesPerSample; i++) {
+            int b = buffer[position + (bigEndian ? i : bytesPerSample - 1 - i)] & 0xFF;
+            bits = bits << 8 | b;
+        }
+        if (source.getEncoding() == AudioFormat.Encoding.PCM_FLOAT) {
+            return Float.intBitsToFloat(bits);
+        }
+        int shift = 32 - 8 * bytesPerSample;
+        // Sign extend, or re-centre unsigned samples around zero
+        int value = source.getEncoding() == AudioFormat.Encoding.PCM_SIGNED
+                ? bits << shift >> shift
+                : bits - (1 << (8 * bytesPerSample - 1));
+        return value / (float) (1L << (8 * bytesPerSample - 1));
+    }
+
+    private void emit(float[] samples, int count) {
+        if (count > 0) {
+            SampleCodec.encode(samples, 0, encoded, 0, count, target.isBigEndian());
+            downstream.accept(encoded, 0, count * SampleCodec.BYTES_PER_SAMPLE);
+        }
+    }
+
+    private void ensureCapacity(int frames) {
+        if (mono.length < frames) {
+            mono = new float[frames];
+        }
+        int output = resampler == null ? frames : resampler.maxOutput(frames);
+        if (resampled.length < output || encoded.length < output * SampleCodec.BYTES_PER_SAMPLE) {
+            resampled = new float[output];
+            encoded = new byte[output * SampleCodec.BYTES_PER_SAMPLE];
+        }
+    }
+}
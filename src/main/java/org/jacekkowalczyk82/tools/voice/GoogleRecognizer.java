@@ -0,0 +1,129 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.cloud.speech.v1.*;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.protobuf.ByteString;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * GoogleRecognizer
+ * <p>
+ * {@link Recognizer} backed by Google Cloud Speech-to-Text through a shared {@link SpeechService}.
+ * Closing it leaves the service open, the service is owned by whoever created it.
+ * <p>
+ * With an {@link AudioEncoder} the audio is compressed before upload and the request says so in its
+ * encoding; {@code config} still describes the PCM the recognizer is given.
+ */
+public class GoogleRecognizer implements Recognizer {
+    private static final LatencyHistogram ENCODE_TIME = Metrics.global().histogram("upload_encode",
+            "Time to compress one utterance before upload");
+    private static final Metrics.Counter PCM_BYTES = Metrics.global().counter("upload_pcm_bytes",
+            "Audio given to the recognizer for upload, before compression");
+    private static final Metrics.Counter UPLOAD_BYTES = Metrics.global().counter("upload_bytes",
+            "Audio uploaded to the recognizer, after compression");
+
+    private final SpeechService speechService;
+    private final RecognitionConfig config;
+    private final AudioEncoder encoder;
+    private final RecognitionConfig uploadConfig;
+
+    public GoogleRecognizer(SpeechService speechService, RecognitionConfig config) {
+        this(speechService, config, null);
+    }
+
+    /**
+     * @param encoder compresses uploads, or {@code null} to send LINEAR16
+     */
+    public GoogleRecognizer(SpeechService speechService, RecognitionConfig config, AudioEncoder encoder) {
+        this.speechService = speechService;
+        this.config = config;
+        this.encoder = encoder;
+        this.uploadConfig = encoder == null ? config
+                : config.toBuilder().setEncoding(encoder.encoding()).build();
+    }
+
+    @Override
+    public RecognitionResult recognize(byte[] audio) {
+        return toResult(speechService.recognize(uploadConfig, upload(audio)));
+    }
+
+    @Override
+    public CompletableFuture<RecognitionResult> recognizeAsync(byte[] audio) {
+        RecognizeRequest request = RecognizeRequest.newBuilder()
+                .setConfig(uploadConfig)
+                .setAudio(RecognitionAudio.newBuilder().setContent(ByteString.copyFrom(upload(audio))))
+                .build();
+        ApiFuture<RecognizeResponse> call = speechService.client().recognizeCallable().futureCall(request);
+
+        CompletableFuture<RecognitionResult> result = new CompletableFuture<>();
+        ApiFutures.addCallback(call, new ApiFutureCallback<>() {
+            @Override
+            public void onFailure(Throwable t) {
+                result.completeExceptionally(t);
+            }
+
+            @Override
+            public void onSuccess(RecognizeResponse response) {
+                result.complete(toResult(response));
+            }
+        }, MoreExecutors.directExecutor());
+        // A speculative request that is no longer needed stops the call
+        result.whenComplete((response, error) -> {
+            if (result.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    @Override
+    public StreamingSession startStreaming(TranscriptListener listener) {
+        StreamingTranscriber transcriber = speechService.newStreamingTranscriber(config, true, listener, encoder);
+        transcriber.start();
+        return transcriber;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private byte[] upload(byte[] audio) {
+        PCM_BYTES.add(audio.length);
+        if (encoder == null) {
+            UPLOAD_BYTES.add(audio.length);
+            return audio;
+        }
+        long start = System.nanoTime();
+        byte[] encoded = encoder.encode(audio, 0, audio.length);
+        ENCODE_TIME.recordNanos(System.nanoTime() - start);
+        UPLOAD_BYTES.add(encoded.length);
+        return encoded;
+    }
+
+    /**
+     * Joins the best alternative of every result, the API splits long audio into several results.
+     */
+    static RecognitionResult toResult(RecognizeResponse response) {
+        StringBuilder transcript = new StringBuilder();
+        float confidence = 0;
+        int results = 0;
+        for (SpeechRecognitionResult result : response.getResultsList()) {
+            if (result.getAlternativesCount() == 0) {
+                continue;
+            }
+            SpeechRecognitionAlternative alternative = result.getAlternatives(0);
+            if (transcript.length() > 0) {
+                transcript.append(' ');
+            }
+            transcript.append(alternative.getTranscript().trim());
+            confidence += alternative.getConfidence();
+            results++;
+        }
+        return results == 0 ? RecognitionResult.EMPTY
+                : new RecognitionResult(transcript.toString(), confidence / results);
+    }
+}
@@ -0,0 +1,276 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * KeywordSpotter
+ * <p>
+ * Local wake-word detector. It listens to the MFCC frames of a {@link FeatureExtractor} (25 ms
+ * windows every 10 ms), and every frame advances one column of a subsequence DTW against each enrolled
+ * recording of the wake word, so a match can start at any frame and costs a few template lengths
+ * of work per frame. A detection fires when a path through a whole template has a mean frame
+ * distance below the threshold: lower thresholds reject more (fewer false accepts, more false
+ * rejects), higher ones accept more. All buffers are allocated up front.
+ */
+public class KeywordSpotter implements FeatureExtractor.Listener {
+    public static final float DEFAULT_THRESHOLD = 1.2f;
+    // No second detection while the wake word is still being spoken
+    public static final int REFRACTORY_MILLIS = 1000;
+
+    /**
+     * Receives wake word detections.
+     */
+    public interface DetectionListener {
+        /**
+         * @param template index of the matching enrolled recording
+         * @param score    mean frame distance of the match, lower is better
+         * @param sample   position in the stream where the wake word ended
+         */
+        void onKeyword(int template, float score, long sample);
+    }
+
+    private final FeatureExtractor features;
+    private final DetectionListener listener;
+    private volatile float threshold;
+
+    // Cepstral coefficients without c0, which only carries the loudness
+    private final float[] vector;
+    private final Template[] templates;
+    private final int refractoryFrames;
+    private long quietUntilFrame;
+    private long lastDetectionSample = -1;
+    private float bestScore = Float.MAX_VALUE;
+
+    /**
+     * Spotter with its own feature extractor, fed through {@link #process}.
+     */
+    public KeywordSpotter(AudioFormat format, List<byte[]> recordings, float threshold, DetectionListener listener) {
+        this(new FeatureExtractor(format), recordings, threshold, listener);
+    }
+
+    /**
+     * Spotter sharing the frames of an extractor that other stages listen to as well.
+     */
+    public KeywordSpotter(FeatureExtractor features, List<byte[]> recordings, float threshold,
+                          DetectionListener listener) {
+        if (recordings.isEmpty()) {
+            throw new IllegalArgumentException("At least one recording of the keyword is needed");
+        }
+        this.features = features;
+        this.threshold = threshold;
+        this.listener = listener;
+        this.vector = new float[features.getCepstra() - 1];
+        this.refractoryFrames = REFRACTORY_MILLIS / features.getHopMillis();
+
+        this.templates = new Template[recordings.size()];
+        for (int i = 0; i < templates.length; i++) {
+            List<float[]> sequence = features.mfccSequence(recordings.get(i));
+            if (sequence.size() < 2) {
+                throw new IllegalArgumentException("Keyword recording is too short");
+            }
+            float[][] frames = new float[sequence.size()][];
+            for (int f = 0; f < frames.length; f++) {
+                frames[f] = Arrays.copyOfRange(sequence.get(f), 1, features.getCepstra());
+            }
+            templates[i] = new Template(frames);
+        }
+        resetTemplates();
+        features.addListener(this);
+    }
+
+    /**
+     * Loads every {@code .wav} in a directory as a recording of the keyword, converted to the format.
+     */
+    public static List<byte[]> loadRecordings(Path directory, AudioFormat format)
+            throws IOException, UnsupportedAudioFileException {
+        List<byte[]> recordings = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.wav")) {
+            for (Path file : files) {
+                try (AudioInputStream in = AudioSystem.getAudioInputStream(file.toFile())) {
+                    byte[] audio = in.readAllBytes();
+                    recordings.add(FormatConverter.isIdentity(in.getFormat(), format) ? audio
+                            : FormatConverter.convert(in.getFormat(), format, audio));
+                }
+            }
+        }
+        return recordings;
+    }
+
+    public float getThreshold() {
+        return threshold;
+    }
+
+    public void setThreshold(float threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Lowest match score seen since the last call, for tuning the threshold on recorded audio.
+     */
+    public float takeBestScore() {
+        float best = bestScore;
+        bestScore = Float.MAX_VALUE;
+        return best;
+    }
+
+    public long samplesProcessed() {
+        return features.samplesProcessed();
+    }
+
+    /**
+     * Stream position where the wake word last ended, -1 if it has not been heard.
+     */
+    public long lastDetectionSample() {
+        return lastDetectionSample;
+    }
+
+    /**
+     * True when the wake word ended within the last {@code millis} of the stream.
+     */
+    public boolean detectedWithin(long millis) {
+        return lastDetectionSample >= 0
+                && features.samplesProcessed() - lastDetectionSample
+                <= millis * features.getHopSamples() / features.getHopMillis();
+    }
+
+    /**
+     * Feeds PCM to the underlying feature extractor.
+     */
+    public void process(byte[] buffer, int offset, int length) {
+        features.process(buffer, offset, length);
+    }
+
+    public void reset() {
+        features.reset();
+        resetTemplates();
+    }
+
+    private void resetTemplates() {
+        for (Template template : templates) {
+            template.reset();
+        }
+    }
+
+    @Override
+    public void onFrame(FeatureExtractor.Frame frame) {
+        System.arraycopy(frame.mfcc(), 1, vector, 0, vector.length);
+        long index = frame.index();
+        boolean quiet = index < quietUntilFrame;
+        for (int t = 0; t < templates.length; t++) {
+            float score = templates[t].advance(vector, index);
+            if (score < bestScore) {
+                bestScore = score;
+            }
+            if (!quiet && score < threshold) {
+                quietUntilFrame = index + refractoryFrames;
+                lastDetectionSample = frame.endSample();
+                listener.onKeyword(t, score, frame.endSample());
+                // Start over so the tail of the same wake word cannot match again
+                resetTemplates();
+                return;
+            }
+        }
+    }
+
+    /**
+     * One enrolled recording and its running DTW column.
+     */
+    private static final class Template {
+        private final float[][] frames;
+        private float[] cost;
+        private float[] nextCost;
+        private int[] length;
+        private int[] nextLength;
+        private long[] start;
+        private long[] nextStart;
+
+        Template(float[][] frames) {
+            this.frames = frames;
+            int n = frames.length;
+            cost = new float[n];
+            nextCost = new float[n];
+            length = new int[n];
+            nextLength = new int[n];
+            start = new long[n];
+            nextStart = new long[n];
+        }
+
+        void reset() {
+            Arrays.fill(cost, Float.POSITIVE_INFINITY);
+            Arrays.fill(length, 1);
+        }
+
+        /**
+         * Advances the subsequence DTW by one input frame and returns the normalized cost of the best
+         * path that has covered the whole template, or infinity when there is none of a plausible length.
+         */
+        float advance(float[] input, long frame) {
+            int n = frames.length;
+            for (int j = 0; j < n; j++) {
+                float d = distance(input, frames[j]);
+                float best;
+                int bestLength;
+                long bestStart;
+                if (j == 0) {
+                    // A match may start at any input frame
+                    best = 0;
+                    bestLength = 0;
+                    bestStart = frame;
+                } else {
+                    // Diagonal step, or the input running faster than the template
+                    best = cost[j - 1];
+                    bestLength = length[j - 1];
+                    bestStart = start[j - 1];
+                    if (j > 1 && cost[j - 2] < best) {
+                        best = cost[j - 2];
+                        bestLength = length[j - 2];
+                        bestStart = start[j - 2];
+                    }
+                }
+                // The input running slower than the template
+                if (cost[j] < best) {
+                    best = cost[j];
+                    bestLength = length[j];
+                    bestStart = start[j];
+                }
+                nextCost[j] = best + d;
+                nextLength[j] = bestLength + 1;
+                nextStart[j] = bestStart;
+            }
+            float[] swapCost = cost;
+            cost = nextCost;
+            nextCost = swapCost;
+            int[] swapLength = length;
+            length = nextLength;
+            nextLength = swapLength;
+            long[] swapStart = start;
+            start = nextStart;
+            nextStart = swapStart;
+
+            long duration = frame - start[n - 1] + 1;
+            if (duration < n / 2 || duration > 2L * n) {
+                return Float.POSITIVE_INFINITY;
+            }
+            return cost[n - 1] / length[n - 1];
+        }
+
+        private static float distance(float[] a, float[] b) {
+            float sum = 0;
+            for (int i = 0; i < a.length; i++) {
+                float d = a[i] - b[i];
+                sum += d * d;
+            }
+            return (float) Math.sqrt(sum / a.length);
+        }
+    }
+}
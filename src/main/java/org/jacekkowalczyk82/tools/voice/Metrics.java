@@ -0,0 +1,234 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Metrics
+ * <p>
+ * Registry of the assistant's latency histograms, counters and gauges. Stages look their metrics
+ * up once and keep the reference, so the hot path only touches preallocated atomics. The registry
+ * is readable as JMX attributes (one MBean, {@value #OBJECT_NAME}) and as Prometheus text, see
+ * {@link MetricsServer}.
+ */
+public final class Metrics implements DynamicMBean {
+    public static final String OBJECT_NAME = "org.jacekkowalczyk82.tools.voice:type=Metrics";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private static final Metrics GLOBAL = new Metrics();
+
+    /**
+     * A monotonically increasing count.
+     */
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public void add(long delta) {
+            value.addAndGet(delta);
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    private record Described<T>(T metric, String help) {
+    }
+
+    private final Map<String, Described<LatencyHistogram>> histograms = new ConcurrentSkipListMap<>();
+    private final Map<String, Described<Counter>> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Described<LongSupplier>> gauges = new ConcurrentSkipListMap<>();
+    private boolean registered;
+
+    /**
+     * The process wide registry every stage reports to.
+     */
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    public LatencyHistogram histogram(String name, String help) {
+        return histograms.computeIfAbsent(name, n -> new Described<>(new LatencyHistogram(), help)).metric();
+    }
+
+    public Counter counter(String name, String help) {
+        return counters.computeIfAbsent(name, n -> new Described<>(new Counter(), help)).metric();
+    }
+
+    /**
+     * Registers a value read on demand, e.g. a queue size; replaces an earlier gauge of the same name.
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        gauges.put(name, new Described<>(value, help));
+    }
+
+    /**
+     * Removes a gauge when it is still the one registered with {@code value}, so closing an old
+     * component does not remove the gauge of the one that replaced it.
+     */
+    public void removeGauge(String name, LongSupplier value) {
+        gauges.computeIfPresent(name, (n, described) -> described.metric() == value ? null : described);
+    }
+
+    /**
+     * Makes the metrics visible in JConsole, VisualVM and other JMX clients. Safe to call repeatedly.
+     */
+    public synchronized void registerMBean() {
+        if (registered) {
+            return;
+        }
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+            registered = true;
+        } catch (JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * All metrics in the Prometheus text exposition format; histograms are summaries in seconds.
+     */
+    public String prometheusText() {
+        StringBuilder out = new StringBuilder();
+        histograms.forEach((name, described) -> {
+            LatencyHistogram histogram = described.metric();
+            String metric = "voice_" + name + "_seconds";
+            header(out, metric, described.help(), "summary");
+            for (double quantile : QUANTILES) {
+                out.append(metric).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(seconds(histogram.percentileMicros(quantile))).append('\n');
+            }
+            out.append(metric).append("_sum ").append(seconds(histogram.sumMicros())).append('\n');
+            out.append(metric).append("_count ").append(histogram.count()).append('\n');
+        });
+        counters.forEach((name, described) -> {
+            String metric = "voice_" + name + "_total";
+            header(out, metric, described.help(), "counter");
+            out.append(metric).append(' ').append(described.metric().get()).append('\n');
+        });
+        gauges.forEach((name, described) -> {
+            String metric = "voice_" + name;
+            header(out, metric, described.help(), "gauge");
+            out.append(metric).append(' ').append(described.metric().getAsLong()).append('\n');
+        });
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String metric, String help, String type) {
+        out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+    }
+
+    private static String seconds(long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1e6);
+    }
+
+    // JMX: histograms appear as <name>.count, <name>.p50Millis ..., counters and gauges by name
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        int dot = attribute.indexOf('.');
+        if (dot > 0) {
+            Described<LatencyHistogram> described = histograms.get(attribute.substring(0, dot));
+            if (described != null) {
+                LatencyHistogram histogram = described.metric();
+                switch (attribute.substring(dot + 1)) {
+                    case "count":
+                        return histogram.count();
+                    case "meanMillis":
+                        return histogram.meanMicros() / 1000;
+                    case "maxMillis":
+                        return histogram.maxMicros() / 1000.0;
+                    case "p50Millis":
+                        return histogram.percentileMicros(0.5) / 1000.0;
+                    case "p90Millis":
+                        return histogram.percentileMicros(0.9) / 1000.0;
+                    case "p99Millis":
+                        return histogram.percentileMicros(0.99) / 1000.0;
+                    default:
+                        break;
+                }
+            }
+        }
+        Described<Counter> counter = counters.get(attribute);
+        if (counter != null) {
+            return counter.metric().get();
+        }
+        Described<LongSupplier> gauge = gauges.get(attribute);
+        if (gauge != null) {
+            return gauge.metric().getAsLong();
+        }
+        throw new AttributeNotFoundException(attribute);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Metrics are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // skipped, as the DynamicMBean contract allows
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        histograms.forEach((name, described) -> {
+            attributes.add(attribute(name + ".count", "long", described.help() + ", samples"));
+            for (String statistic : new String[]{"meanMillis", "maxMillis", "p50Millis", "p90Millis", "p99Millis"}) {
+                attributes.add(attribute(name + "." + statistic, "double", described.help()));
+            }
+        });
+        counters.forEach((name, described) -> attributes.add(attribute(name, "long", described.help())));
+        gauges.forEach((name, described) -> attributes.add(attribute(name, "long", described.help())));
+        return new MBeanInfo(getClass().getName(), "Voice assistant latency and throughput",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    private static MBeanAttributeInfo attribute(String name, String type, String help) {
+        return new MBeanAttributeInfo(name, type, help, true, false, false);
+    }
+}
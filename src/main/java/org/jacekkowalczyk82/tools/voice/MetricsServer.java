@@ -0,0 +1,81 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * MetricsServer
+ * <p>
+ * Serves {@link Metrics} in the Prometheus text format at {@code http://127.0.0.1:<port>/metrics}.
+ * It only listens on the loopback interface and answers on one daemon thread, so scraping never
+ * competes with the audio threads for more than a moment.
+ */
+public class MetricsServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    /**
+     * @param port port to listen on, 0 for any free port
+     */
+    public MetricsServer(Metrics metrics, int port) throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/metrics", exchange -> respond(exchange, metrics));
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * Registers the global metrics with JMX, and starts a server when {@code --metrics-port <port>} is given.
+     *
+     * @return the running server, or null without that option
+     */
+    public static MetricsServer fromArgs(String[] args) throws IOException {
+        Metrics.global().registerMBean();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--metrics-port")) {
+                MetricsServer server = new MetricsServer(Metrics.global(), Integer.parseInt(args[i + 1]));
+                System.out.println("Metrics at http://127.0.0.1:" + server.port() + "/metrics");
+                return server;
+            }
+        }
+        return null;
+    }
+
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, Metrics metrics) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET")) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = metrics.prometheusText().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+}
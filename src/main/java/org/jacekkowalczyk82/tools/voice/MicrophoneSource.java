@@ -0,0 +1,60 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.TargetDataLine;
+
+/**
+ * MicrophoneSource
+ * <p>
+ * {@link AudioSource} reading an open {@link TargetDataLine}.
+ */
+public class MicrophoneSource implements AudioSource {
+    private final TargetDataLine line;
+    private volatile boolean stopped;
+
+    public MicrophoneSource(TargetDataLine line) {
+        this.line = line;
+    }
+
+    /**
+     * Opens a microphone in the preferred format or the closest one the sound card offers, see
+     * {@link CaptureEngine#openMicrophone(AudioFormat)}.
+     */
+    public static MicrophoneSource open(AudioFormat preferred) throws LineUnavailableException {
+        return new MicrophoneSource(CaptureEngine.openMicrophone(preferred));
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return line.getFormat();
+    }
+
+    @Override
+    public void start() {
+        stopped = false;
+        line.start();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        int n = line.read(buffer, offset, length);
+        // A stopped or closed line returns what it had buffered and then nothing
+        if (n == 0 && (stopped || !line.isOpen())) {
+            return -1;
+        }
+        return n;
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        line.stop();
+    }
+
+    @Override
+    public void close() {
+        stop();
+        line.close();
+    }
+}
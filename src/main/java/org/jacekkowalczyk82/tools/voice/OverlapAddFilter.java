@@ -0,0 +1,172 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.util.Arrays;
+
+/**
+ * OverlapAddFilter
+ * <p>
+ * Streaming FIR band-pass using overlap-add block convolution. Input is collected into fixed
+ * power-of-two blocks, each block is convolved with a windowed-sinc kernel through one
+ * forward/inverse FFT of twice the block size, and the convolution tail is carried into the next
+ * block. Latency is bounded by the block size plus the kernel's group delay, independent of the
+ * length of the recording. All buffers are allocated up front.
+ */
+public class OverlapAddFilter implements SampleFilter {
+    public static final int DEFAULT_BLOCK_SIZE = 256; // 16 ms at 16 kHz
+
+    private final int blockSize;
+    private final int fftSize;
+    private final int taps;
+    private final FloatFFT_1D fft;
+    private final float[] kernelSpectrum;
+
+    private final float[] block;
+    private int blockFill;
+    private final float[] work;
+    private final float[] overlap;
+
+    public OverlapAddFilter(float sampleRate, float lowCutoff, float highCutoff) {
+        this(sampleRate, lowCutoff, highCutoff, DEFAULT_BLOCK_SIZE);
+    }
+
+    public OverlapAddFilter(float sampleRate, float lowCutoff, float highCutoff, int blockSize) {
+        if (blockSize < 16 || Integer.bitCount(blockSize) != 1) {
+            throw new IllegalArgumentException("Block size must be a power of two of at least 16, got " + blockSize);
+        }
+        if (lowCutoff < 0 || highCutoff <= lowCutoff || highCutoff > sampleRate / 2) {
+            throw new IllegalArgumentException("Invalid band " + lowCutoff + " - " + highCutoff + " Hz");
+        }
+        this.blockSize = blockSize;
+        this.fftSize = 2 * blockSize;
+        // Odd length keeps the kernel symmetric around a whole sample; block + taps - 1 fits the FFT
+        this.taps = blockSize - 1;
+        this.fft = new FloatFFT_1D(fftSize);
+
+        this.kernelSpectrum = new float[fftSize];
+        float[] kernel = designBandPass(taps, lowCutoff / sampleRate, highCutoff / sampleRate);
+        System.arraycopy(kernel, 0, kernelSpectrum, 0, taps);
+        fft.realForward(kernelSpectrum);
+
+        this.block = new float[blockSize];
+        this.work = new float[fftSize];
+        this.overlap = new float[fftSize - blockSize];
+    }
+
+    /**
+     * Windowed-sinc band-pass (difference of two low-pass kernels) with a Blackman window.
+     *
+     * @param low  lower cutoff as a fraction of the sample rate
+     * @param high upper cutoff as a fraction of the sample rate
+     */
+    static float[] designBandPass(int taps, double low, double high) {
+        float[] kernel = new float[taps];
+        int center = (taps - 1) / 2;
+        for (int n = 0; n < taps; n++) {
+            int m = n - center;
+            double ideal = m == 0
+                    ? 2 * (high - low)
+                    : (Math.sin(2 * Math.PI * high * m) - Math.sin(2 * Math.PI * low * m)) / (Math.PI * m);
+            double window = 0.42 - 0.5 * Math.cos(2 * Math.PI * n / (taps - 1))
+                    + 0.08 * Math.cos(4 * Math.PI * n / (taps - 1));
+            kernel[n] = (float) (ideal * window);
+        }
+        return kernel;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Delay of the filtered signal relative to the input, in samples, not counting block buffering.
+     */
+    public int getGroupDelay() {
+        return (taps - 1) / 2;
+    }
+
+    @Override
+    public int maxOutput(int inputLength) {
+        return (blockFill + inputLength) / blockSize * blockSize;
+    }
+
+    /**
+     * Filters a chunk of any length. Output is produced in whole blocks as soon as they are complete.
+     *
+     * @param output receives the filtered samples, needs room for {@link #maxOutput} samples
+     * @return number of samples written to output
+     */
+    @Override
+    public int process(float[] input, int offset, int length, float[] output, int outputOffset) {
+        int written = 0;
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(blockSize - blockFill, end - offset);
+            System.arraycopy(input, offset, block, blockFill, n);
+            blockFill += n;
+            offset += n;
+            if (blockFill == blockSize) {
+                convolveBlock(output, outputOffset + written);
+                written += blockSize;
+                blockFill = 0;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Emits the partially filled block and the remaining convolution tail, then resets the filter.
+     *
+     * @param output needs room for block size + group delay samples
+     * @return number of samples written to output
+     */
+    @Override
+    public int flush(float[] output, int outputOffset) {
+        // Everything up to the group delay past the last input sample, so no input is lost
+        int written = blockFill + getGroupDelay();
+        Arrays.fill(block, blockFill, blockSize, 0f);
+        convolveBlock(output, outputOffset);
+        if (written > blockSize) {
+            System.arraycopy(overlap, 0, output, outputOffset + blockSize, written - blockSize);
+        }
+        reset();
+        return written;
+    }
+
+    @Override
+    public int maxFlush() {
+        return blockSize + getGroupDelay();
+    }
+
+    @Override
+    public void reset() {
+        blockFill = 0;
+        Arrays.fill(overlap, 0f);
+    }
+
+    private void convolveBlock(float[] output, int outputOffset) {
+        System.arraycopy(block, 0, work, 0, blockSize);
+        Arrays.fill(work, blockSize, fftSize, 0f);
+        fft.realForward(work);
+
+        // Complex multiply in JTransforms' packed layout: DC and Nyquist are real
+        work[0] *= kernelSpectrum[0];
+        work[1] *= kernelSpectrum[1];
+        for (int i = 2; i < fftSize; i += 2) {
+            float re = work[i];
+            float im = work[i + 1];
+            float kernelRe = kernelSpectrum[i];
+            float kernelIm = kernelSpectrum[i + 1];
+            work[i] = re * kernelRe - im * kernelIm;
+            work[i + 1] = re * kernelIm + im * kernelRe;
+        }
+        fft.realInverse(work, true);
+
+        for (int i = 0; i < blockSize; i++) {
+            output[outputOffset + i] = work[i] + overlap[i];
+        }
+        // Carry the tail that spills past this block into the next one
+        System.arraycopy(work, blockSize, overlap, 0, overlap.length);
+    }
+}
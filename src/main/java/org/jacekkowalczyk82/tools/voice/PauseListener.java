@@ -0,0 +1,18 @@
+package org.jacekkowalczyk82.tools.voice;
+
+/**
+ * Receives short pauses inside an utterance from a {@link VoiceActivityDetector}, before the
+ * hangover has decided whether the utterance is over.
+ */
+public interface PauseListener {
+
+    /**
+     * @param speech the utterance so far without the pause, in the detector's format
+     */
+    void onPause(byte[] speech);
+
+    /**
+     * Speech went on after a pause, the utterance is not over.
+     */
+    void onResume();
+}
@@ -0,0 +1,119 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.util.Arrays;
+
+/**
+ * PolyphaseResampler
+ * <p>
+ * Streaming rational sample rate converter. The rate ratio is reduced to L/M, the anti-aliasing
+ * low-pass is designed once at L times the input rate and split into L phases, and every output
+ * sample is a single dot product of one phase with the most recent input history, so the
+ * zero-stuffed signal is never built. Input can arrive in chunks of any size; all buffers are
+ * allocated up front.
+ */
+public class PolyphaseResampler {
+    // Taps per phase when not decimating; scaled up with the decimation factor to keep the transition band narrow
+    static final int BASE_TAPS_PER_PHASE = 32;
+    // Cutoff relative to the lower Nyquist frequency, leaves room for the transition band
+    static final double CUTOFF = 0.9;
+
+    private final int inputRate;
+    private final int outputRate;
+    private final int up;
+    private final int down;
+    private final int tapsPerPhase;
+    private final float[] phases;
+
+    // Input history stored twice so the newest tapsPerPhase samples are always contiguous
+    private final float[] history;
+    private int historyPosition;
+    // Position of the next output in units of 1/up input samples, relative to the newest input sample
+    private int nextOutput;
+
+    public PolyphaseResampler(int inputRate, int outputRate) {
+        if (inputRate <= 0 || outputRate <= 0) {
+            throw new IllegalArgumentException("Invalid rates " + inputRate + " -> " + outputRate);
+        }
+        int gcd = gcd(inputRate, outputRate);
+        this.inputRate = inputRate;
+        this.outputRate = outputRate;
+        this.up = outputRate / gcd;
+        this.down = inputRate / gcd;
+        this.tapsPerPhase = (int) Math.ceil(BASE_TAPS_PER_PHASE * Math.max(1.0, (double) down / up));
+
+        // Low-pass at the upsampled rate, gain of L restores the level lost to zero stuffing
+        double cutoff = CUTOFF * 0.5 * Math.min(1.0, (double) up / down) / up;
+        float[] prototype = OverlapAddFilter.designBandPass(up * tapsPerPhase, 0, cutoff);
+        this.phases = new float[up * tapsPerPhase];
+        for (int phase = 0; phase < up; phase++) {
+            for (int tap = 0; tap < tapsPerPhase; tap++) {
+                // Stored newest-first so the dot product runs forward through the history
+                phases[phase * tapsPerPhase + tap] = prototype[phase + tap * up] * up;
+            }
+        }
+        this.history = new float[2 * tapsPerPhase];
+    }
+
+    private static int gcd(int a, int b) {
+        return b == 0 ? a : gcd(b, a % b);
+    }
+
+    public int getInputRate() {
+        return inputRate;
+    }
+
+    public int getOutputRate() {
+        return outputRate;
+    }
+
+    /**
+     * Upper bound of the samples {@link #process} produces for {@code inputSamples} input samples.
+     */
+    public int maxOutput(int inputSamples) {
+        return (int) (((long) inputSamples * up + down - 1) / down) + 1;
+    }
+
+    /**
+     * Input samples of delay introduced by the filter, feed this many zeros to flush the tail.
+     */
+    public int getGroupDelay() {
+        return (tapsPerPhase + 1) / 2;
+    }
+
+    /**
+     * Resamples {@code length} input samples and returns the number of output samples written.
+     */
+    public int process(float[] input, int offset, int length, float[] output, int outputOffset) {
+        int written = 0;
+        for (int i = 0; i < length; i++) {
+            push(input[offset + i]);
+            while (nextOutput < up) {
+                output[outputOffset + written++] = dot(nextOutput);
+                nextOutput += down;
+            }
+            nextOutput -= up;
+        }
+        return written;
+    }
+
+    private void push(float sample) {
+        historyPosition = historyPosition == 0 ? tapsPerPhase - 1 : historyPosition - 1;
+        history[historyPosition] = sample;
+        history[historyPosition + tapsPerPhase] = sample;
+    }
+
+    private float dot(int phase) {
+        int base = phase * tapsPerPhase;
+        float sum = 0;
+        for (int tap = 0; tap < tapsPerPhase; tap++) {
+            sum += phases[base + tap] * history[historyPosition + tap];
+        }
+        return sum;
+    }
+
+    public void reset() {
+        Arrays.fill(history, 0);
+        historyPosition = 0;
+        nextOutput = 0;
+    }
+}
@@ -0,0 +1,55 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * ProfileRecognizer
+ * <p>
+ * {@link Recognizer} that follows the active {@link RecognitionProfile} of a {@link VoiceConfig}:
+ * every utterance and every new stream goes to the backend for the profile's
+ * {@link RecognitionConfig}. Backends are created on first use and kept, so switching back and forth
+ * costs nothing; profiles with the same language share one.
+ */
+public class ProfileRecognizer implements Recognizer {
+    private final VoiceConfig config;
+    private final Function<RecognitionConfig, Recognizer> factory;
+    private final Map<RecognitionConfig, Recognizer> backends = new ConcurrentHashMap<>();
+
+    public ProfileRecognizer(VoiceConfig config, Function<RecognitionConfig, Recognizer> factory) {
+        this.config = config;
+        this.factory = factory;
+    }
+
+    private Recognizer current() {
+        return backends.computeIfAbsent(config.active().recognitionConfig(), factory);
+    }
+
+    @Override
+    public RecognitionResult recognize(byte[] audio) {
+        return current().recognize(audio);
+    }
+
+    @Override
+    public CompletableFuture<RecognitionResult> recognizeAsync(byte[] audio) {
+        return current().recognizeAsync(audio);
+    }
+
+    /**
+     * The stream keeps the profile it was started with; start a new one after a switch.
+     */
+    @Override
+    public StreamingSession startStreaming(TranscriptListener listener) {
+        return current().startStreaming(listener);
+    }
+
+    @Override
+    public void close() {
+        backends.values().forEach(Recognizer::close);
+        backends.clear();
+    }
+}
@@ -0,0 +1,147 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.regex.Pattern;
+
+/**
+ * RecognitionProfile
+ * <p>
+ * One named, immutable set of recognition and DSP settings, validated when it is created. The
+ * {@link RecognitionConfig} is built once here and shared by every request. Profiles come from a
+ * {@link VoiceConfig}, which also tracks the active one.
+ */
+public final class RecognitionProfile {
+    private static final Pattern LANGUAGE = Pattern.compile("[a-zA-Z]{2,3}(-[a-zA-Z0-9]{2,8})*");
+
+    private final String name;
+    private final String language;
+    private final int sampleRate;
+    private final int windowMillis;
+    private final int lowCutHz;
+    private final int highCutHz;
+    private final int vadLevel;
+    private final int hangoverMillis;
+    private final float noiseGate;
+    private final float wakeThreshold;
+    private final RecognitionConfig recognitionConfig;
+
+    /**
+     * @param language       BCP-47 language code sent to the recognizer, e.g. {@code en-US}
+     * @param windowMillis   capture length of the fixed-window assistants
+     * @param lowCutHz       lower edge of the speech band
+     * @param highCutHz      upper edge of the speech band
+     * @param vadLevel       RMS level on the 16-bit scale that opens an utterance
+     * @param hangoverMillis silence that closes an utterance
+     * @param noiseGate      amplitude (0 - 1) below which the legacy noise gate mutes a frame
+     * @param wakeThreshold  maximum template distance that counts as the wake word
+     * @throws IllegalArgumentException naming the first setting out of range
+     */
+    public RecognitionProfile(String name, String language, int sampleRate, int windowMillis, int lowCutHz,
+                              int highCutHz, int vadLevel, int hangoverMillis, float noiseGate, float wakeThreshold) {
+        require(name, "language", language != null && LANGUAGE.matcher(language).matches(),
+                "a language code such as en-US", language);
+        require(name, "sample-rate", sampleRate >= 8000 && sampleRate <= 48000, "8000 - 48000 Hz", sampleRate);
+        // The synchronous recognize API takes about a minute of audio at most
+        require(name, "window-millis", windowMillis >= 100 && windowMillis <= 55_000, "100 - 55000 ms", windowMillis);
+        require(name, "low-cut-hz", lowCutHz > 0 && lowCutHz < highCutHz, "above 0 and below high-cut-hz", lowCutHz);
+        require(name, "high-cut-hz", highCutHz < sampleRate / 2, "below half the sample rate", highCutHz);
+        require(name, "vad-level", vadLevel >= 1 && vadLevel <= 32767, "1 - 32767", vadLevel);
+        require(name, "hangover-millis", hangoverMillis >= VoiceActivityDetector.FRAME_MILLIS,
+                "at least " + VoiceActivityDetector.FRAME_MILLIS + " ms", hangoverMillis);
+        require(name, "noise-gate", noiseGate >= 0 && noiseGate < 1, "0 - 1", noiseGate);
+        require(name, "wake-threshold", wakeThreshold > 0, "above 0", wakeThreshold);
+        this.name = name;
+        this.language = language;
+        this.sampleRate = sampleRate;
+        this.windowMillis = windowMillis;
+        this.lowCutHz = lowCutHz;
+        this.highCutHz = highCutHz;
+        this.vadLevel = vadLevel;
+        this.hangoverMillis = hangoverMillis;
+        this.noiseGate = noiseGate;
+        this.wakeThreshold = wakeThreshold;
+        this.recognitionConfig = RecognitionConfig.newBuilder()
+                .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+                .setSampleRateHertz(sampleRate)
+                .setLanguageCode(language)
+                .build();
+    }
+
+    private static void require(String profile, String key, boolean valid, String expected, Object value) {
+        if (!valid) {
+            throw new IllegalArgumentException(profile + "." + key + " must be " + expected + ", got " + value);
+        }
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String language() {
+        return language;
+    }
+
+    public int sampleRate() {
+        return sampleRate;
+    }
+
+    public int windowMillis() {
+        return windowMillis;
+    }
+
+    public int lowCutHz() {
+        return lowCutHz;
+    }
+
+    public int highCutHz() {
+        return highCutHz;
+    }
+
+    public int vadLevel() {
+        return vadLevel;
+    }
+
+    public int hangoverMillis() {
+        return hangoverMillis;
+    }
+
+    public float noiseGate() {
+        return noiseGate;
+    }
+
+    public float wakeThreshold() {
+        return wakeThreshold;
+    }
+
+    /**
+     * LINEAR16 at the profile's sample rate in its language.
+     */
+    public RecognitionConfig recognitionConfig() {
+        return recognitionConfig;
+    }
+
+    /**
+     * 16-bit signed mono PCM at the profile's sample rate.
+     */
+    public AudioFormat format(boolean bigEndian) {
+        return new AudioFormat(sampleRate, 16, 1, true, bigEndian);
+    }
+
+    public BandPassStage newBandPass(AudioFormat format, AudioRingBuffer.Consumer downstream) {
+        return new BandPassStage(format, lowCutHz, highCutHz, downstream);
+    }
+
+    public VoiceActivityDetector newVoiceActivityDetector(AudioFormat format, UtteranceListener listener) {
+        double level = vadLevel / 32768.0;
+        return new VoiceActivityDetector(format, level * level, VoiceActivityDetector.DEFAULT_MAX_ZERO_CROSSING_RATE,
+                VoiceActivityDetector.DEFAULT_ONSET_MILLIS, hangoverMillis, VoiceActivityDetector.DEFAULT_PRE_ROLL_MILLIS,
+                VoiceActivityDetector.DEFAULT_MAX_UTTERANCE_MILLIS, listener);
+    }
+
+    @Override
+    public String toString() {
+        return name + " (" + language + ", " + sampleRate + " Hz, " + lowCutHz + "-" + highCutHz + " Hz)";
+    }
+}
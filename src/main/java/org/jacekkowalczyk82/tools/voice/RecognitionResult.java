@@ -0,0 +1,15 @@
+package org.jacekkowalczyk82.tools.voice;
+
+/**
+ * Best transcript of an utterance.
+ *
+ * @param transcript recognized text, empty when nothing was recognized
+ * @param confidence 0 - 1, or 0 when the backend does not report one
+ */
+public record RecognitionResult(String transcript, float confidence) {
+    public static final RecognitionResult EMPTY = new RecognitionResult("", 0);
+
+    public boolean isEmpty() {
+        return transcript.isEmpty();
+    }
+}
@@ -0,0 +1,29 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Speech recognition backend the assistant pipeline codes against.
+ * <p>
+ * A recognizer is created for one audio format and language; the audio passed in is raw PCM in that format.
+ */
+public interface Recognizer extends AutoCloseable {
+
+    /**
+     * Recognizes a complete utterance, blocking until the result is available.
+     */
+    RecognitionResult recognize(byte[] audio);
+
+    /**
+     * Recognizes a complete utterance without blocking the caller.
+     */
+    CompletableFuture<RecognitionResult> recognizeAsync(byte[] audio);
+
+    /**
+     * Opens a streaming session; interim and final transcripts go to the listener while audio is sent.
+     */
+    StreamingSession startStreaming(TranscriptListener listener);
+
+    @Override
+    void close();
+}
@@ -0,0 +1,107 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * Picks the {@link Recognizer} backend from the command line:
+ * <ul>
+ *     <li>{@code --offline <model-dir>} runs Vosk in-process, no network needed</li>
+ *     <li>{@code --fake} answers with the utterance length, for trying the pipeline without a backend</li>
+ *     <li>otherwise Google Cloud Speech-to-Text through the shared {@link SpeechService};
+ *     {@code --flac} compresses uploads losslessly with a {@link FlacEncoder}</li>
+ * </ul>
+ * With {@code --cache} repeated short commands are answered by a {@link CachingRecognizer};
+ * {@code --cache-file <file>} also keeps that cache on disk between runs. Cached transcripts are
+ * kept per language, the local backends count their model as the language.
+ */
+public final class Recognizers {
+    // 64 ms at 16 kHz: streamed frames are sent once a block is full, so keep blocks short
+    private static final int FLAC_BLOCK_SIZE = 1024;
+
+    private Recognizers() {
+    }
+
+    public static Recognizer fromArgs(String[] args, AudioFormat format, RecognitionConfig config) throws IOException {
+        Recognizer local = localBackendFromArgs(args, format);
+        if (local != null) {
+            return withCache(args, format, local, localLanguage(args));
+        }
+        return withCache(args, format, google(args, format, config), config::getLanguageCode);
+    }
+
+    /**
+     * As {@link #fromArgs(String[], AudioFormat, RecognitionConfig)}, with Google following the
+     * active profile's language; the local backends have their language in the model.
+     */
+    public static Recognizer fromArgs(String[] args, AudioFormat format, VoiceConfig profiles) throws IOException {
+        Recognizer local = localBackendFromArgs(args, format);
+        if (local != null) {
+            return withCache(args, format, local, localLanguage(args));
+        }
+        // Connection problems show up now rather than at the first utterance
+        SpeechService.shared();
+        return withCache(args, format, new ProfileRecognizer(profiles, config -> {
+            try {
+                return google(args, format, config);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }), () -> profiles.active().language());
+    }
+
+    private static Recognizer withCache(String[] args, AudioFormat format, Recognizer recognizer,
+                                        Supplier<String> language) {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--cache")) {
+                return new CachingRecognizer(recognizer, format, CachingRecognizer.DEFAULT_MAX_ENTRIES,
+                        CachingRecognizer.DEFAULT_TTL_MILLIS, CachingRecognizer.DEFAULT_MAX_DISTANCE, null, language);
+            }
+            if (args[i].equals("--cache-file") && i + 1 < args.length) {
+                System.out.println("Caching transcripts of repeated commands in " + args[i + 1]);
+                return new CachingRecognizer(recognizer, format, CachingRecognizer.DEFAULT_MAX_ENTRIES,
+                        CachingRecognizer.DEFAULT_TTL_MILLIS, CachingRecognizer.DEFAULT_MAX_DISTANCE,
+                        Path.of(args[i + 1]), language);
+            }
+        }
+        return recognizer;
+    }
+
+    private static Recognizer localBackendFromArgs(String[] args, AudioFormat format) throws IOException {
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--offline") && i + 1 < args.length) {
+                System.out.println("Using offline recognition with model " + args[i + 1]);
+                return new VoskRecognizer(Path.of(args[i + 1]), format);
+            }
+            if (args[i].equals("--fake")) {
+                return new FakeRecognizer(format);
+            }
+        }
+        return null;
+    }
+
+    private static Supplier<String> localLanguage(String[] args) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--offline")) {
+                String model = "vosk:" + Path.of(args[i + 1]).toAbsolutePath().normalize();
+                return () -> model;
+            }
+        }
+        return () -> "fake";
+    }
+
+    private static Recognizer google(String[] args, AudioFormat format, RecognitionConfig config) throws IOException {
+        for (String arg : args) {
+            if (arg.equals("--flac")) {
+                System.out.println("Compressing uploads with FLAC");
+                return new GoogleRecognizer(SpeechService.shared(), config, new FlacEncoder(format, FLAC_BLOCK_SIZE));
+            }
+        }
+        return new GoogleRecognizer(SpeechService.shared(), config);
+    }
+}
@@ -0,0 +1,103 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * SampleCodec
+ * <p>
+ * Conversion between 16-bit signed PCM bytes (big- or little-endian) and {@code short[]},
+ * {@code float[]} or {@code double[]} samples normalized to [-1, 1). Every DSP stage goes through
+ * here so a sample is always two bytes, never one.
+ * <p>
+ * Single samples are read with byte-array view handles, which the JIT compiles to plain 16-bit
+ * loads; {@code short[]} decoding goes through {@link ByteBuffer#asShortBuffer()} as one bulk copy.
+ */
+public final class SampleCodec {
+    public static final int BYTES_PER_SAMPLE = 2;
+
+    private static final VarHandle BIG_ENDIAN = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LITTLE_ENDIAN = MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final float SCALE = 1f / 32768f;
+
+    private SampleCodec() {
+    }
+
+    /**
+     * Checks that the format is one this codec understands: 16-bit signed PCM.
+     */
+    public static void requireSupported(AudioFormat format) {
+        if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED || format.getSampleSizeInBits() != 16) {
+            throw new IllegalArgumentException("Expected 16-bit signed PCM, got " + format);
+        }
+    }
+
+    public static int sampleCount(int byteCount) {
+        return byteCount / BYTES_PER_SAMPLE;
+    }
+
+    public static short getSample(byte[] src, int byteOffset, boolean bigEndian) {
+        return bigEndian ? (short) BIG_ENDIAN.get(src, byteOffset) : (short) LITTLE_ENDIAN.get(src, byteOffset);
+    }
+
+    public static void putSample(byte[] dst, int byteOffset, short sample, boolean bigEndian) {
+        if (bigEndian) {
+            BIG_ENDIAN.set(dst, byteOffset, sample);
+        } else {
+            LITTLE_ENDIAN.set(dst, byteOffset, sample);
+        }
+    }
+
+    public static void decode(byte[] src, int srcOffset, short[] dst, int dstOffset, int samples, boolean bigEndian) {
+        ByteBuffer.wrap(src, srcOffset, samples * BYTES_PER_SAMPLE)
+                .order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN)
+                .asShortBuffer()
+                .get(dst, dstOffset, samples);
+    }
+
+    public static void decode(byte[] src, int srcOffset, float[] dst, int dstOffset, int samples, boolean bigEndian) {
+        VarHandle handle = bigEndian ? BIG_ENDIAN : LITTLE_ENDIAN;
+        for (int i = 0; i < samples; i++) {
+            dst[dstOffset + i] = (short) handle.get(src, srcOffset + i * BYTES_PER_SAMPLE) * SCALE;
+        }
+    }
+
+    public static void decode(byte[] src, int srcOffset, double[] dst, int dstOffset, int samples, boolean bigEndian) {
+        VarHandle handle = bigEndian ? BIG_ENDIAN : LITTLE_ENDIAN;
+        for (int i = 0; i < samples; i++) {
+            dst[dstOffset + i] = (short) handle.get(src, srcOffset + i * BYTES_PER_SAMPLE) / 32768.0;
+        }
+    }
+
+    public static void encode(short[] src, int srcOffset, byte[] dst, int dstOffset, int samples, boolean bigEndian) {
+        ByteBuffer.wrap(dst, dstOffset, samples * BYTES_PER_SAMPLE)
+                .order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN)
+                .asShortBuffer()
+                .put(src, srcOffset, samples);
+    }
+
+    /**
+     * Encodes normalized samples, rounding to the nearest value and clipping to the 16-bit range.
+     */
+    public static void encode(float[] src, int srcOffset, byte[] dst, int dstOffset, int samples, boolean bigEndian) {
+        VarHandle handle = bigEndian ? BIG_ENDIAN : LITTLE_ENDIAN;
+        for (int i = 0; i < samples; i++) {
+            handle.set(dst, dstOffset + i * BYTES_PER_SAMPLE, toShort(src[srcOffset + i] * 32768f));
+        }
+    }
+
+    public static void encode(double[] src, int srcOffset, byte[] dst, int dstOffset, int samples, boolean bigEndian) {
+        VarHandle handle = bigEndian ? BIG_ENDIAN : LITTLE_ENDIAN;
+        for (int i = 0; i < samples; i++) {
+            handle.set(dst, dstOffset + i * BYTES_PER_SAMPLE, toShort((float) (src[srcOffset + i] * 32768.0)));
+        }
+    }
+
+    private static short toShort(float scaled) {
+        return (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(scaled)));
+    }
+}
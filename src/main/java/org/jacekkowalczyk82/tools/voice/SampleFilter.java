@@ -0,0 +1,29 @@
+package org.jacekkowalczyk82.tools.voice;
+
+/**
+ * Streaming filter over normalized float samples, fed chunks of any length.
+ */
+public interface SampleFilter {
+
+    /**
+     * Largest number of samples {@link #process} can emit for an input of the given length.
+     */
+    int maxOutput(int inputLength);
+
+    /**
+     * Filters a chunk and returns the number of samples written to output.
+     */
+    int process(float[] input, int offset, int length, float[] output, int outputOffset);
+
+    /**
+     * Largest number of samples {@link #flush} can emit.
+     */
+    int maxFlush();
+
+    /**
+     * Emits everything still buffered, e.g. at the end of a recording, then resets the filter.
+     */
+    int flush(float[] output, int outputOffset);
+
+    void reset();
+}
@@ -0,0 +1,210 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * SegmentingVoiceAssistant
+ * <p>
+ * Listens continuously and splits the microphone stream into utterances on silence.
+ * Only the detected speech is sent for recognition, silence never leaves the box. Capture, filtering,
+ * recognition and output run as separate stages of a {@link VoicePipeline}.
+ * Pass {@code --offline <model-dir>} to recognize locally instead of with Google, and
+ * {@code --wake-word <dir-of-wavs> [--wake-threshold <score>]} to only send utterances that
+ * contain the wake word. With {@code --commands <file>} transcripts that match a command run it, and
+ * {@code --metrics-port <port>} serves latency metrics for Prometheus (they are always in JMX).
+ * {@code --replay <file.wav> [--replay-fast] [--replay-loops <n>]} listens to a recording instead of
+ * the microphone, together with {@code --fake} the whole assistant runs without hardware or network.
+ * {@code --early-commit} recognizes the speech so far on every short pause, so a short command runs
+ * before the trailing silence has closed its utterance.
+ * Language, speech band and detector settings come from the active profile of {@code --config <file>},
+ * {@code --profile <name>} and {@code --set <key>=<value>} (see {@link VoiceConfig}); a profile switched
+ * while running applies from the next chunk on.
+ */
+public class SegmentingVoiceAssistant {
+    private static final long WAKE_WORD_GRACE_MILLIS = 3000;
+
+    public static void main(String[] args) {
+        MetricsServer metrics = null;
+        try (VoiceConfig profiles = VoiceConfig.fromArgs(args)) {
+            // Capture audio from the microphone, or replay a recording with --replay
+            AudioFormat format = profiles.active().format(true);
+            AudioSource source = AudioSources.fromArgs(args, format);
+            profiles.watch();
+
+            // Without --commands there is no dispatcher; a null resource is not closed
+            try (CommandDispatcher commands = CommandDispatcher.fromArgs(args);
+                 Recognizer recognizer = Recognizers.fromArgs(args, format, profiles);
+                 CaptureEngine capture = new CaptureEngine(source)) {
+                metrics = MetricsServer.fromArgs(args);
+                // Utterance N+1 is captured and filtered while utterance N is being recognized
+                VoicePipeline pipeline = new VoicePipeline(recognizer, (utterance, result) -> {
+                    printResult(utterance, result);
+                    if (commands != null && !result.isEmpty()) {
+                        runCommand(commands, result.transcript());
+                    }
+                });
+                KeywordSpotter spotter = wakeWordSpotter(args, format, profiles.active());
+                SpeculativeRecognizer speculative = earlyCommit(args, recognizer, commands, spotter);
+                int bytesPerMilli = (int) format.getSampleRate() * 2 / 1000;
+                SpeechStages speech = new SpeechStages(profiles, format, speculative, utterance -> {
+                    long utteranceMillis = utterance.length / bytesPerMilli;
+                    Command early = speculative != null ? speculative.utteranceEnded() : null;
+                    if (early != null) {
+                        System.out.println("Utterance of " + utteranceMillis + " ms already ran \"" + early.phrase() + "\"");
+                        return;
+                    }
+                    // The wake word is part of the utterance, or said just before it
+                    if (spotter != null && !spotter.detectedWithin(utteranceMillis + WAKE_WORD_GRACE_MILLIS)) {
+                        System.out.println("Utterance of " + utteranceMillis + " ms without wake word, not sent");
+                        return;
+                    }
+                    System.out.println("Utterance of " + utteranceMillis + " ms detected");
+                    pipeline.submit(utterance);
+                });
+                // Steady background noise is subtracted before the band-pass and the VAD see it
+                AudioRingBuffer.Consumer denoised = spotter == null ? speech::process : (buffer, offset, length) -> {
+                    spotter.process(buffer, offset, length);
+                    speech.process(buffer, offset, length);
+                };
+                FilterStage denoise = new FilterStage(format, SpectralDenoiser.forSampleRate(format.getSampleRate()),
+                        denoised);
+                // Sound cards that cannot do 16 kHz mono are converted on the fly
+                FormatConverter converter = !FormatConverter.isIdentity(source.getFormat(), format)
+                        ? new FormatConverter(source.getFormat(), format, denoise::process)
+                        : null;
+                if (converter != null) {
+                    System.out.println("Converting audio from " + source.getFormat());
+                }
+                AudioRingBuffer.Consumer input = converter != null ? converter::process : denoise::process;
+
+                // Capture, DSP, recognition and results each run on their own thread
+                pipeline.start(capture.newReader(), input, () -> {
+                    if (converter != null) {
+                        converter.flush();
+                    }
+                    denoise.flush();
+                    speech.flush();
+                });
+                Runtime.getRuntime().addShutdownHook(new Thread(source::stop));
+                capture.start();
+
+                System.out.println("Start speaking... (Ctrl+C to stop)");
+
+                // Returns once the microphone is closed or the replay has ended and the last utterance is transcribed
+                pipeline.join();
+            }
+        } catch (LineUnavailableException | UnsupportedAudioFileException | IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (metrics != null) {
+                metrics.close();
+            }
+        }
+    }
+
+    private static SpeculativeRecognizer earlyCommit(String[] args, Recognizer recognizer, CommandDispatcher commands,
+                                                     KeywordSpotter spotter) {
+        if (!List.of(args).contains("--early-commit")) {
+            return null;
+        }
+        if (commands == null || spotter != null) {
+            System.out.println("--early-commit needs --commands and does not work with --wake-word, ignoring it");
+            return null;
+        }
+        System.out.println("Running commands on pauses of " + SpeculativeRecognizer.DEFAULT_PAUSE_MILLIS + " ms");
+        return new SpeculativeRecognizer(recognizer, commands);
+    }
+
+    private static KeywordSpotter wakeWordSpotter(String[] args, AudioFormat format, RecognitionProfile profile)
+            throws IOException, UnsupportedAudioFileException {
+        Path recordings = null;
+        float threshold = profile.wakeThreshold();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--wake-word")) {
+                recordings = Paths.get(args[i + 1]);
+            } else if (args[i].equals("--wake-threshold")) {
+                threshold = Float.parseFloat(args[i + 1]);
+            }
+        }
+        if (recordings == null) {
+            return null;
+        }
+        List<byte[]> templates = KeywordSpotter.loadRecordings(recordings, format);
+        System.out.println("Listening for the wake word, " + templates.size() + " recordings, threshold " + threshold);
+        return new KeywordSpotter(format, templates, threshold,
+                (template, score, sample) -> System.out.println("Wake word detected (score " + score + ")"));
+    }
+
+    private static void printResult(VoicePipeline.Utterance utterance, RecognitionResult result) {
+        long latencyMillis = (System.nanoTime() - utterance.detectedNanos()) / 1_000_000;
+        if (result.isEmpty()) {
+            System.out.println("No speech recognized (" + latencyMillis + " ms).");
+        } else {
+            System.out.println("Transcript: " + result.transcript() + " (" + latencyMillis + " ms)");
+        }
+    }
+
+    /**
+     * Band-pass and voice activity detector of the active profile. When the profile is switched they
+     * are rebuilt between two chunks, after the utterance in progress has been closed; capture and
+     * the denoiser keep running.
+     */
+    private static final class SpeechStages {
+        private final VoiceConfig profiles;
+        private final AudioFormat format;
+        private final SpeculativeRecognizer speculative;
+        private final UtteranceListener listener;
+        private RecognitionProfile profile;
+        private BandPassStage bandPass;
+        private VoiceActivityDetector vad;
+
+        SpeechStages(VoiceConfig profiles, AudioFormat format, SpeculativeRecognizer speculative,
+                     UtteranceListener listener) {
+            this.profiles = profiles;
+            this.format = format;
+            this.speculative = speculative;
+            this.listener = listener;
+            build(profiles.active());
+        }
+
+        void process(byte[] buffer, int offset, int length) {
+            RecognitionProfile active = profiles.active();
+            if (active != profile) {
+                flush();
+                build(active);
+                System.out.println("Switched to profile " + active);
+            }
+            bandPass.process(buffer, offset, length);
+        }
+
+        void flush() {
+            bandPass.flush();
+            vad.flush();
+        }
+
+        private void build(RecognitionProfile active) {
+            profile = active;
+            vad = active.newVoiceActivityDetector(format, listener);
+            if (speculative != null) {
+                vad.setPauseListener(SpeculativeRecognizer.DEFAULT_PAUSE_MILLIS, speculative);
+            }
+            bandPass = active.newBandPass(format, vad::process);
+        }
+    }
+
+    static void runCommand(CommandDispatcher commands, String transcript) {
+        CommandIndex.Match match = commands.dispatch(transcript);
+        if (match == null) {
+            System.out.println("No command matches \"" + transcript + "\"");
+        } else {
+            System.out.println("Running command \"" + match.command().phrase() + "\""
+                    + (match.distance() > 0 ? " (heard \"" + transcript + "\")" : ""));
+        }
+    }
+}
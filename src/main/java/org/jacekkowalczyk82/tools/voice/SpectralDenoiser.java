@@ -0,0 +1,212 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.util.Arrays;
+
+/**
+ * SpectralDenoiser
+ * <p>
+ * Streaming STFT noise suppressor. Audio is analysed in half-overlapping frames of about 32 ms with
+ * a square-root Hann window on both analysis and synthesis, which reconstructs the input exactly
+ * when the gain is one. A noise power estimate is kept per frequency bin: it is initialised from
+ * the first frames, follows the spectrum during frames whose SNR says they are not speech, and may
+ * always fall. Each bin is scaled by a Wiener gain computed from a decision-directed a priori SNR,
+ * floored so the residual noise stays smooth instead of turning into musical tones. The per-frame
+ * cost is one forward and one inverse FFT; all buffers are allocated up front.
+ */
+public class SpectralDenoiser implements SampleFilter {
+    // Frames assumed to be noise while the estimate is initialised
+    static final int INIT_FRAMES = 8;
+    // Mean posterior SNR below which a frame counts as noise
+    static final float SPEECH_SNR = 3f;
+    static final float NOISE_SMOOTHING = 0.95f;
+    // Weight of the previous frame's clean estimate in the a priori SNR
+    static final float DECISION_DIRECTED = 0.98f;
+    static final float MIN_GAIN = 0.1f; // -20 dB
+
+    private final int frameSize;
+    private final int hop;
+    private final int bins;
+    private final FloatFFT_1D fft;
+    private final float[] window;
+
+    private final float[] frame;
+    private int fill;
+    private final float[] work;
+    private final float[] accumulator;
+
+    private final float[] noise;
+    private final float[] previousClean;
+    private final float[] power;
+    private long frames;
+
+    /**
+     * Denoiser with frames of about 32 ms at the given rate, 512 samples at 16 kHz.
+     */
+    public static SpectralDenoiser forSampleRate(float sampleRate) {
+        return new SpectralDenoiser(Integer.highestOneBit(Math.max(64, Math.round(sampleRate * 0.032f))));
+    }
+
+    /**
+     * @param frameSize analysis frame in samples, a power of two
+     */
+    public SpectralDenoiser(int frameSize) {
+        if (frameSize < 16 || Integer.bitCount(frameSize) != 1) {
+            throw new IllegalArgumentException("Frame size must be a power of two of at least 16, got " + frameSize);
+        }
+        this.frameSize = frameSize;
+        this.hop = frameSize / 2;
+        this.bins = frameSize / 2 + 1;
+        this.fft = new FloatFFT_1D(frameSize);
+        this.window = new float[frameSize];
+        for (int i = 0; i < frameSize; i++) {
+            // Periodic Hann, squared windows of half-overlapping frames sum to one
+            window[i] = (float) Math.sqrt(0.5 - 0.5 * Math.cos(2 * Math.PI * i / frameSize));
+        }
+        this.frame = new float[frameSize];
+        this.work = new float[frameSize];
+        this.accumulator = new float[frameSize];
+        this.noise = new float[bins];
+        this.previousClean = new float[bins];
+        this.power = new float[bins];
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Delay of the output relative to the input, in samples.
+     */
+    public int getGroupDelay() {
+        return hop;
+    }
+
+    float noiseFloor(int bin) {
+        return noise[bin];
+    }
+
+    @Override
+    public int maxOutput(int inputLength) {
+        return (fill + inputLength) / hop * hop;
+    }
+
+    @Override
+    public int process(float[] input, int offset, int length, float[] output, int outputOffset) {
+        int written = 0;
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(hop - fill, end - offset);
+            System.arraycopy(input, offset, frame, hop + fill, n);
+            fill += n;
+            offset += n;
+            if (fill == hop) {
+                processFrame(output, outputOffset + written);
+                written += hop;
+            }
+        }
+        return written;
+    }
+
+    @Override
+    public int maxFlush() {
+        return 2 * hop;
+    }
+
+    /**
+     * Pads the last partial hop with silence and emits it together with the overlap still pending.
+     */
+    @Override
+    public int flush(float[] output, int outputOffset) {
+        int written = 0;
+        if (fill > 0) {
+            Arrays.fill(frame, hop + fill, frameSize, 0f);
+            fill = hop;
+            processFrame(output, outputOffset);
+            written += hop;
+        }
+        Arrays.fill(frame, hop, frameSize, 0f);
+        fill = hop;
+        processFrame(output, outputOffset + written);
+        written += hop;
+        reset();
+        return written;
+    }
+
+    @Override
+    public void reset() {
+        fill = 0;
+        frames = 0;
+        Arrays.fill(frame, 0f);
+        Arrays.fill(accumulator, 0f);
+        Arrays.fill(noise, 0f);
+        Arrays.fill(previousClean, 0f);
+    }
+
+    private void processFrame(float[] output, int outputOffset) {
+        for (int i = 0; i < frameSize; i++) {
+            work[i] = frame[i] * window[i];
+        }
+        fft.realForward(work);
+
+        // Power per bin in JTransforms' packed layout: DC and Nyquist are real
+        power[0] = work[0] * work[0];
+        power[bins - 1] = work[1] * work[1];
+        for (int k = 1; k < bins - 1; k++) {
+            power[k] = work[2 * k] * work[2 * k] + work[2 * k + 1] * work[2 * k + 1];
+        }
+        updateNoise();
+
+        for (int k = 0; k < bins; k++) {
+            float noisePower = Math.max(noise[k], 1e-12f);
+            float posterior = power[k] / noisePower;
+            float prior = DECISION_DIRECTED * previousClean[k] / noisePower
+                    + (1 - DECISION_DIRECTED) * Math.max(posterior - 1, 0);
+            float gain = Math.max(prior / (1 + prior), MIN_GAIN);
+            previousClean[k] = gain * gain * power[k];
+            if (k == 0) {
+                work[0] *= gain;
+            } else if (k == bins - 1) {
+                work[1] *= gain;
+            } else {
+                work[2 * k] *= gain;
+                work[2 * k + 1] *= gain;
+            }
+        }
+        fft.realInverse(work, true);
+
+        for (int i = 0; i < frameSize; i++) {
+            accumulator[i] += work[i] * window[i];
+        }
+        System.arraycopy(accumulator, 0, output, outputOffset, hop);
+        System.arraycopy(accumulator, hop, accumulator, 0, frameSize - hop);
+        Arrays.fill(accumulator, frameSize - hop, frameSize, 0f);
+
+        // Slide the analysis frame by one hop
+        System.arraycopy(frame, hop, frame, 0, frameSize - hop);
+        fill = 0;
+        frames++;
+    }
+
+    private void updateNoise() {
+        if (frames < INIT_FRAMES) {
+            // Running mean over the first frames
+            float weight = 1f / (frames + 1);
+            for (int k = 0; k < bins; k++) {
+                noise[k] += (power[k] - noise[k]) * weight;
+            }
+            return;
+        }
+        float snr = 0;
+        for (int k = 0; k < bins; k++) {
+            snr += power[k] / Math.max(noise[k], 1e-12f);
+        }
+        boolean speech = snr / bins > SPEECH_SNR;
+        for (int k = 0; k < bins; k++) {
+            if (!speech || power[k] < noise[k]) {
+                noise[k] = NOISE_SMOOTHING * noise[k] + (1 - NOISE_SMOOTHING) * power[k];
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.jtransforms.fft.DoubleFFT_1D;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * SpectralFilter
+ * <p>
+ * Whole-buffer FFT filtering with cached transform plans. Creating a {@link DoubleFFT_1D} precomputes
+ * twiddle tables for its size, so plans are kept in a small LRU cache instead of being rebuilt for
+ * every buffer, and a band-pass is applied as one combined mask in a single forward/inverse pass.
+ */
+public final class SpectralFilter {
+    static final int MAX_CACHED_PLANS = 8;
+
+    private static final Map<Integer, DoubleFFT_1D> PLANS = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, DoubleFFT_1D> eldest) {
+            return size() > MAX_CACHED_PLANS;
+        }
+    };
+
+    private static final ThreadLocal<double[]> WORK_BUFFER = ThreadLocal.withInitial(() -> new double[0]);
+
+    private SpectralFilter() {
+    }
+
+    /**
+     * Returns the transform plan for the given size, creating it on first use.
+     */
+    static DoubleFFT_1D plan(int size) {
+        synchronized (PLANS) {
+            return PLANS.computeIfAbsent(size, DoubleFFT_1D::new);
+        }
+    }
+
+    static int cachedPlans() {
+        synchronized (PLANS) {
+            return PLANS.size();
+        }
+    }
+
+    /**
+     * Returns this thread's work buffer with room for at least {@code size} samples.
+     * The contents are left over from the previous use.
+     */
+    public static double[] workBuffer(int size) {
+        double[] buffer = WORK_BUFFER.get();
+        if (buffer.length < size) {
+            buffer = new double[size];
+            WORK_BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * Keeps only the frequencies between the two cutoffs, in place.
+     *
+     * @param samples buffer holding at least {@code length} samples; only the first {@code length} are filtered
+     */
+    public static void bandPass(double[] samples, int length, float sampleRate, float lowCutoff, float highCutoff) {
+        if (length < 2) {
+            return;
+        }
+        // The plan works on exactly length samples, so a larger work buffer is fine
+        DoubleFFT_1D fft = plan(length);
+        fft.realForward(samples);
+
+        int lowBin = (int) Math.ceil(lowCutoff * length / sampleRate);
+        int highBin = (int) Math.floor(highCutoff * length / sampleRate);
+        applyMask(samples, length, lowBin, highBin);
+
+        fft.realInverse(samples, true);
+    }
+
+    public static void lowPass(double[] samples, int length, float sampleRate, float cutoff) {
+        bandPass(samples, length, sampleRate, 0, cutoff);
+    }
+
+    public static void highPass(double[] samples, int length, float sampleRate, float cutoff) {
+        bandPass(samples, length, sampleRate, cutoff, sampleRate / 2);
+    }
+
+    /**
+     * Zeroes every bin outside [lowBin, highBin] of a spectrum in JTransforms' realForward layout:
+     * a[0] = Re[0], a[2k] = Re[k], a[2k+1] = Im[k]; for even n a[1] = Re[n/2], for odd n
+     * a[1] = Im[(n-1)/2] and a[n-1] = Re[(n-1)/2].
+     */
+    static void applyMask(double[] spectrum, int n, int lowBin, int highBin) {
+        int half = n / 2;
+        // Bins 1 .. half-1 are stored as (Re, Im) pairs starting at index 2
+        int pairsEnd = n % 2 == 0 ? n : n - 1;
+        if (lowBin > 0) {
+            spectrum[0] = 0;
+        }
+        int lowEnd = 2 * Math.min(Math.max(lowBin, 1), half);
+        if (lowEnd > 2) {
+            Arrays.fill(spectrum, 2, lowEnd, 0.0);
+        }
+        int highStart = 2 * Math.max(highBin + 1, 1);
+        if (highStart < pairsEnd) {
+            Arrays.fill(spectrum, highStart, pairsEnd, 0.0);
+        }
+        if (half > 0 && (half < lowBin || half > highBin)) {
+            spectrum[1] = 0;
+            if (n % 2 != 0) {
+                spectrum[n - 1] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * SpeculativeRecognizer
+ * <p>
+ * Runs short commands before their utterance is over. On every pause inside an utterance (see
+ * {@link VoiceActivityDetector#setPauseListener}) the speech so far is sent to the recognizer; when
+ * the answer is an unambiguous command (see {@link CommandIndex#matchUnambiguous}) with enough
+ * confidence, the command is launched right away instead of after the detector's hangover. A
+ * speculation is cancelled as soon as speech goes on or the utterance ends without it, and an
+ * utterance whose command already ran is not recognized again.
+ * <p>
+ * Thread-safe: pauses arrive on the DSP thread, results on the recognizer's.
+ */
+public class SpeculativeRecognizer implements PauseListener {
+    // Long enough to skip the gaps between words, well inside the detector's 1 s hangover
+    public static final int DEFAULT_PAUSE_MILLIS = 300;
+    public static final float DEFAULT_MIN_CONFIDENCE = 0.8f;
+
+    private static final Metrics.Counter SPECULATIONS = Metrics.global().counter("speculative_recognitions",
+            "Recognitions started on a pause inside an utterance");
+    private static final Metrics.Counter CANCELLED = Metrics.global().counter("speculative_cancelled",
+            "Speculative recognitions cancelled because speech went on or the utterance ended first");
+    private static final Metrics.Counter EARLY_COMMANDS = Metrics.global().counter("early_commands",
+            "Commands run before the end of their utterance");
+    private static final LatencyHistogram EARLY_LEAD = Metrics.global().histogram("early_command_lead",
+            "How long before the end of its utterance a command was run");
+
+    private final Recognizer recognizer;
+    private final CommandDispatcher commands;
+    private final float minConfidence;
+
+    private CompletableFuture<RecognitionResult> pending;
+    private long speculation;
+    private Command committed;
+    private long committedNanos;
+
+    public SpeculativeRecognizer(Recognizer recognizer, CommandDispatcher commands) {
+        this(recognizer, commands, DEFAULT_MIN_CONFIDENCE);
+    }
+
+    /**
+     * @param minConfidence results below it never commit; backends reporting no confidence (0) are
+     *                      trusted on the unambiguous match alone
+     */
+    public SpeculativeRecognizer(Recognizer recognizer, CommandDispatcher commands, float minConfidence) {
+        this.recognizer = recognizer;
+        this.commands = commands;
+        this.minConfidence = minConfidence;
+    }
+
+    @Override
+    public synchronized void onPause(byte[] speech) {
+        if (committed != null) {
+            return;
+        }
+        cancelPending();
+        long current = ++speculation;
+        SPECULATIONS.increment();
+        CompletableFuture<RecognitionResult> future = recognizer.recognizeAsync(speech);
+        pending = future;
+        future.whenComplete((result, error) -> completed(current, result, error));
+    }
+
+    @Override
+    public synchronized void onResume() {
+        cancelPending();
+        speculation++;
+    }
+
+    /**
+     * Ends the current utterance, cancelling a speculation that is still running.
+     *
+     * @return the command already run for the utterance, or null when it still has to be recognized
+     */
+    public synchronized Command utteranceEnded() {
+        cancelPending();
+        speculation++;
+        Command command = committed;
+        if (command != null) {
+            EARLY_LEAD.recordNanos(System.nanoTime() - committedNanos);
+        }
+        committed = null;
+        return command;
+    }
+
+    private synchronized void completed(long current, RecognitionResult result, Throwable error) {
+        if (current != speculation || committed != null) {
+            return; // superseded
+        }
+        pending = null;
+        if (error != null || result.isEmpty()
+                || (result.confidence() > 0 && result.confidence() < minConfidence)) {
+            return;
+        }
+        CommandIndex.Match match = commands.index().matchUnambiguous(result.transcript());
+        if (match == null) {
+            return;
+        }
+        committed = match.command();
+        committedNanos = System.nanoTime();
+        EARLY_COMMANDS.increment();
+        System.out.println("Running command \"" + committed.phrase() + "\" before the end of the utterance");
+        commands.launch(committed);
+    }
+
+    private void cancelPending() {
+        if (pending != null) {
+            if (pending.cancel(true)) {
+                CANCELLED.increment();
+            }
+            pending = null;
+        }
+    }
+}
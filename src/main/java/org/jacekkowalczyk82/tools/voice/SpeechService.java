@@ -0,0 +1,115 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.api.gax.grpc.ChannelPoolSettings;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.cloud.speech.v1.*;
+import com.google.protobuf.ByteString;
+import org.threeten.bp.Duration;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * SpeechService
+ * <p>
+ * Owns one long-lived {@link SpeechClient} that is shared by every utterance, so credentials,
+ * channel setup, the TLS handshake and HTTP/2 warm-up are paid once per process instead of once
+ * per request. The channels send keepalive pings while idle so the connection is still open when
+ * the next utterance arrives.
+ */
+public class SpeechService implements AutoCloseable {
+    static final Duration KEEP_ALIVE_TIME = Duration.ofSeconds(30);
+    static final Duration KEEP_ALIVE_TIMEOUT = Duration.ofSeconds(10);
+    static final int DEFAULT_POOL_SIZE = 1;
+
+    private static SpeechService shared;
+
+    private final SpeechClient client;
+
+    /**
+     * Returns the process wide service, creating it on first use. It is closed on JVM shutdown.
+     */
+    public static synchronized SpeechService shared() throws IOException {
+        if (shared == null) {
+            shared = new SpeechService(defaultSettings(DEFAULT_POOL_SIZE));
+            shared.warmUp();
+            SpeechService service = shared;
+            Runtime.getRuntime().addShutdownHook(new Thread(service::close));
+        }
+        return shared;
+    }
+
+    /**
+     * Default client settings with idle keepalives and a fixed number of channels.
+     */
+    public static SpeechSettings defaultSettings(int poolSize) throws IOException {
+        InstantiatingGrpcChannelProvider channelProvider = SpeechSettings.defaultGrpcTransportProviderBuilder()
+                .setKeepAliveTime(KEEP_ALIVE_TIME)
+                .setKeepAliveTimeout(KEEP_ALIVE_TIMEOUT)
+                .setKeepAliveWithoutCalls(true)
+                .setChannelPoolSettings(ChannelPoolSettings.staticallySized(poolSize))
+                .build();
+        return SpeechSettings.newBuilder()
+                .setTransportChannelProvider(channelProvider)
+                .build();
+    }
+
+    public SpeechService(SpeechSettings settings) throws IOException {
+        this(createClient(settings));
+    }
+
+    private static SpeechClient createClient(SpeechSettings settings) throws IOException {
+        long start = System.nanoTime();
+        SpeechClient client = SpeechClient.create(settings);
+        Metrics.global().histogram("client_create", "Time to create a Speech-to-Text client")
+                .recordNanos(System.nanoTime() - start);
+        return client;
+    }
+
+    public SpeechService(SpeechClient client) {
+        this.client = client;
+    }
+
+    public SpeechClient client() {
+        return client;
+    }
+
+    /**
+     * Opens the connection in the background with a cheap, unbilled call, so the first utterance
+     * does not pay for the handshake. The call is expected to fail with NOT_FOUND.
+     */
+    public CompletableFuture<Void> warmUp() {
+        return CompletableFuture.runAsync(() -> {
+            try {
+                client.getOperationsClient().getOperation("warm-up");
+            } catch (RuntimeException expected) {
+                // Any answer means the channel is connected
+            }
+        });
+    }
+
+    public RecognizeResponse recognize(RecognitionConfig config, byte[] audioData) {
+        RecognitionAudio audio = RecognitionAudio.newBuilder()
+                .setContent(ByteString.copyFrom(audioData))
+                .build();
+        return client.recognize(config, audio);
+    }
+
+    public StreamingTranscriber newStreamingTranscriber(RecognitionConfig config, boolean interimResults,
+                                                        TranscriptListener listener) {
+        return new StreamingTranscriber(client, config, interimResults, listener);
+    }
+
+    /**
+     * @param encoder compresses the stream, or {@code null} to send LINEAR16
+     */
+    public StreamingTranscriber newStreamingTranscriber(RecognitionConfig config, boolean interimResults,
+                                                        TranscriptListener listener, AudioEncoder encoder) {
+        return new StreamingTranscriber(client, config, interimResults, listener, encoder);
+    }
+
+    @Override
+    public void close() {
+        client.close();
+    }
+}
@@ -0,0 +1,32 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Audio input side of a streaming recognition started by {@link Recognizer#startStreaming}.
+ */
+public interface StreamingSession extends AutoCloseable {
+
+    void send(byte[] buffer, int offset, int length) throws InterruptedException;
+
+    /**
+     * Sends the remaining bytes of the buffer and consumes them. Implementations that can read
+     * a buffer directly, such as a slice of a memory-mapped file, override this to avoid the copy.
+     */
+    default void send(ByteBuffer audio) throws InterruptedException {
+        if (audio.hasArray()) {
+            send(audio.array(), audio.arrayOffset() + audio.position(), audio.remaining());
+        } else {
+            byte[] copy = new byte[audio.remaining()];
+            audio.duplicate().get(copy);
+            send(copy, 0, copy.length);
+        }
+        audio.position(audio.limit());
+    }
+
+    /**
+     * Ends the audio and waits for the last transcripts to be delivered.
+     */
+    @Override
+    void close() throws InterruptedException;
+}
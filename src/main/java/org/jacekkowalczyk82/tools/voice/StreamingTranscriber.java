@@ -0,0 +1,201 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.api.gax.rpc.ClientStream;
+import com.google.api.gax.rpc.ResponseObserver;
+import com.google.api.gax.rpc.StreamController;
+import com.google.cloud.speech.v1.*;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.UnsafeByteOperations;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StreamingTranscriber
+ * <p>
+ * Pushes audio chunks into a StreamingRecognize bidi stream as soon as they are captured
+ * and reports interim and final transcripts to a {@link TranscriptListener}.
+ * The stream is transparently reopened before the API's per-stream duration limit is hit, measured
+ * both in wall-clock time and in audio sent, since a file can be streamed faster than real time.
+ * A stream that failed, on a server or network error, is replaced by a new one with the next chunk.
+ * <p>
+ * With an {@link AudioEncoder} every stream carries one encoded stream, started with the call and
+ * finished before it is closed, so each reopened call gets its own header.
+ */
+public class StreamingTranscriber implements StreamingSession {
+    // Google closes a streaming call after ~305 s, reopen a bit earlier
+    static final long STREAM_LIMIT_MS = 290_000;
+
+    private final SpeechClient speechClient;
+    private final StreamingRecognitionConfig streamingConfig;
+    private final TranscriptListener listener;
+    private final long streamLimitMs;
+    private final long streamLimitBytes;
+    private final AudioEncoder encoder;
+
+    private ClientStream<StreamingRecognizeRequest> clientStream;
+    private AudioEncoder.Stream encodedStream;
+    private ListenerObserver observer;
+    private CountDownLatch streamDone;
+    private long streamStartTime;
+    private long streamBytes;
+
+    public StreamingTranscriber(SpeechClient speechClient, RecognitionConfig config, boolean interimResults,
+                                TranscriptListener listener) {
+        this(speechClient, config, interimResults, listener, null);
+    }
+
+    /**
+     * @param config  describes the PCM passed to {@code send}
+     * @param encoder compresses the audio before it is sent, or {@code null} to send LINEAR16
+     */
+    public StreamingTranscriber(SpeechClient speechClient, RecognitionConfig config, boolean interimResults,
+                                TranscriptListener listener, AudioEncoder encoder) {
+        this(speechClient, config, interimResults, listener, encoder, STREAM_LIMIT_MS);
+    }
+
+    StreamingTranscriber(SpeechClient speechClient, RecognitionConfig config, boolean interimResults,
+                         TranscriptListener listener, AudioEncoder encoder, long streamLimitMs) {
+        this.speechClient = speechClient;
+        this.encoder = encoder;
+        this.streamingConfig = StreamingRecognitionConfig.newBuilder()
+                .setConfig(encoder == null ? config : config.toBuilder().setEncoding(encoder.encoding()).build())
+                .setInterimResults(interimResults)
+                .build();
+        this.listener = listener;
+        this.streamLimitMs = streamLimitMs;
+        // Counted in PCM before encoding: two bytes per sample and channel
+        this.streamLimitBytes = streamLimitMs * config.getSampleRateHertz() / 1000
+                * 2 * Math.max(1, config.getAudioChannelCount());
+    }
+
+    public synchronized void start() {
+        streamDone = new CountDownLatch(1);
+        observer = new ListenerObserver(streamDone);
+        clientStream = speechClient.streamingRecognizeCallable().splitCall(observer);
+        streamStartTime = System.currentTimeMillis();
+        streamBytes = 0;
+
+        // The first request on every stream carries the configuration only
+        clientStream.send(StreamingRecognizeRequest.newBuilder()
+                .setStreamingConfig(streamingConfig)
+                .build());
+        if (encoder != null) {
+            // The encoder reuses its buffer, frames are copied
+            encodedStream = encoder.newStream((buffer, offset, length) ->
+                    sendContent(ByteString.copyFrom(buffer, offset, length)));
+        }
+    }
+
+    public synchronized void send(byte[] buffer, int offset, int length) throws InterruptedException {
+        beforeSend(length);
+        if (encodedStream != null) {
+            encodedStream.write(buffer, offset, length);
+        } else {
+            sendContent(ByteString.copyFrom(buffer, offset, length));
+        }
+        streamBytes += length;
+    }
+
+    /**
+     * Sends the buffer without copying it; it must not be modified afterwards.
+     */
+    @Override
+    public synchronized void send(ByteBuffer audio) throws InterruptedException {
+        if (encoder != null && audio.hasArray()) {
+            send(audio.array(), audio.arrayOffset() + audio.position(), audio.remaining());
+        } else if (encoder != null) {
+            byte[] copy = new byte[audio.remaining()];
+            audio.duplicate().get(copy);
+            send(copy, 0, copy.length);
+        } else {
+            beforeSend(audio.remaining());
+            sendContent(UnsafeByteOperations.unsafeWrap(audio.slice()));
+            streamBytes += audio.remaining();
+        }
+        audio.position(audio.limit());
+    }
+
+    private void beforeSend(int length) throws InterruptedException {
+        if (clientStream == null) {
+            throw new IllegalStateException("Transcriber is not started");
+        }
+        if (observer.failed) {
+            // The call is over, there is nothing to close or wait for
+            encodedStream = null;
+            start();
+        } else if (System.currentTimeMillis() - streamStartTime >= streamLimitMs
+                || (streamLimitBytes > 0 && streamBytes + length > streamLimitBytes)) {
+            restart();
+        }
+    }
+
+    private void sendContent(ByteString content) {
+        clientStream.send(StreamingRecognizeRequest.newBuilder()
+                .setAudioContent(content)
+                .build());
+    }
+
+    private void restart() throws InterruptedException {
+        finishStream();
+        start();
+    }
+
+    private void finishStream() throws InterruptedException {
+        if (encodedStream != null) {
+            encodedStream.finish();
+            encodedStream = null;
+        }
+        clientStream.closeSend();
+        // Wait for the final results of the closed stream before opening the next one
+        if (!streamDone.await(30, TimeUnit.SECONDS)) {
+            System.err.println("Timed out waiting for the streaming recognition to complete");
+        }
+        clientStream = null;
+    }
+
+    @Override
+    public synchronized void close() throws InterruptedException {
+        if (clientStream != null) {
+            finishStream();
+        }
+    }
+
+    private class ListenerObserver implements ResponseObserver<StreamingRecognizeResponse> {
+        private final CountDownLatch done;
+        private volatile boolean failed;
+
+        ListenerObserver(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void onStart(StreamController controller) {
+        }
+
+        @Override
+        public void onResponse(StreamingRecognizeResponse response) {
+            for (StreamingRecognitionResult result : response.getResultsList()) {
+                if (result.getAlternativesCount() == 0) {
+                    continue;
+                }
+                SpeechRecognitionAlternative alternative = result.getAlternatives(0);
+                listener.onTranscript(alternative.getTranscript(), result.getIsFinal(),
+                        result.getIsFinal() ? alternative.getConfidence() : result.getStability());
+            }
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            failed = true;
+            listener.onError(t);
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
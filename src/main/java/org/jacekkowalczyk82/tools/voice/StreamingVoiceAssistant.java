@@ -0,0 +1,135 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.*;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StreamingVoiceAssistant
+ * <p>
+ * Long-running mode: microphone chunks are streamed to Speech-to-Text while they are captured,
+ * so transcripts arrive while the user is still speaking instead of after a fixed window.
+ * Pass {@code --offline <model-dir>} to recognize locally instead of with Google, and
+ * {@code --commands <file>} to run the command matching each final transcript. Metrics are in JMX and,
+ * with {@code --metrics-port <port>}, served for Prometheus. {@code --replay <file.wav>} streams a
+ * recording instead of the microphone. With {@code --early-commit} a command runs as soon as a stable
+ * interim transcript names it, before the recognizer has decided the utterance is over.
+ * The language comes from the active profile of {@code --config <file>}, {@code --profile <name>} and
+ * {@code --set <key>=<value>} (see {@link VoiceConfig}); when it is switched while running, the stream
+ * is closed and a new one started for the new language, while capture goes on.
+ */
+public class StreamingVoiceAssistant {
+    private static final int CHUNK_MILLIS = 100; // recommended streaming chunk length
+
+    public static void main(String[] args) {
+        MetricsServer metrics = null;
+        try (VoiceConfig profiles = VoiceConfig.fromArgs(args)) {
+            // Capture audio from the microphone, or replay a recording with --replay
+            AudioFormat format = profiles.active().format(false);
+            AudioSource source = AudioSources.fromArgs(args, format);
+            profiles.watch();
+
+            // Without --commands there is no dispatcher; a null resource is not closed
+            try (CommandDispatcher commands = CommandDispatcher.fromArgs(args);
+                 Recognizer recognizer = Recognizers.fromArgs(args, format, profiles);
+                 ProfileStream transcriber = new ProfileStream(profiles, recognizer, listener(args, commands));
+                 CaptureEngine capture = new CaptureEngine(source, CHUNK_MILLIS, CaptureEngine.DEFAULT_RING_MILLIS)) {
+                metrics = MetricsServer.fromArgs(args);
+
+                AudioRingBuffer.Reader reader = capture.newReader();
+                Runtime.getRuntime().addShutdownHook(new Thread(source::stop));
+
+                capture.start();
+                System.out.println("Start speaking... (Ctrl+C to stop)");
+
+                AudioRingBuffer.Consumer send = (buffer, offset, length) -> {
+                    try {
+                        transcriber.send(buffer, offset, length);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                };
+                // Sound cards that cannot do 16 kHz mono are converted on the fly
+                if (!FormatConverter.isIdentity(source.getFormat(), format)) {
+                    System.out.println("Converting audio from " + source.getFormat());
+                    send = new FormatConverter(source.getFormat(), format, send)::process;
+                }
+                while (!Thread.currentThread().isInterrupted() && reader.drain(send, 1, TimeUnit.SECONDS) >= 0) {
+                    // keep streaming until the microphone is closed or the replay ends
+                }
+            }
+        } catch (LineUnavailableException | IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (metrics != null) {
+                metrics.close();
+            }
+        }
+    }
+
+    /**
+     * Streaming session that is restarted, between two chunks, when the active profile asks for a
+     * different {@link com.google.cloud.speech.v1.RecognitionConfig}. Used by the capture thread only.
+     */
+    private static final class ProfileStream implements StreamingSession {
+        private final VoiceConfig profiles;
+        private final Recognizer recognizer;
+        private final TranscriptListener listener;
+        private RecognitionProfile profile;
+        private StreamingSession session;
+
+        ProfileStream(VoiceConfig profiles, Recognizer recognizer, TranscriptListener listener) {
+            this.profiles = profiles;
+            this.recognizer = recognizer;
+            this.listener = listener;
+            this.profile = profiles.active();
+            this.session = recognizer.startStreaming(listener);
+        }
+
+        @Override
+        public void send(byte[] buffer, int offset, int length) throws InterruptedException {
+            RecognitionProfile active = profiles.active();
+            if (!active.recognitionConfig().equals(profile.recognitionConfig())) {
+                // The last transcripts of the old language arrive before the new stream starts
+                session.close();
+                session = recognizer.startStreaming(listener);
+                System.out.println("Switched to profile " + active);
+            }
+            profile = active;
+            session.send(buffer, offset, length);
+        }
+
+        @Override
+        public void close() throws InterruptedException {
+            session.close();
+        }
+    }
+
+    /**
+     * Prints every transcript and, given a dispatcher, runs the commands they name.
+     */
+    private static TranscriptListener listener(String[] args, CommandDispatcher commands) {
+        TranscriptListener early = commands != null && List.of(args).contains("--early-commit")
+                ? new EarlyCommandListener(commands)
+                : null;
+        return (transcript, isFinal, score) -> {
+            printTranscript(transcript, isFinal, score);
+            if (early != null) {
+                early.onTranscript(transcript, isFinal, score);
+            } else if (isFinal && commands != null) {
+                SegmentingVoiceAssistant.runCommand(commands, transcript);
+            }
+        };
+    }
+
+    private static void printTranscript(String transcript, boolean isFinal, float score) {
+        if (isFinal) {
+            System.out.println("Transcript: " + transcript + " (confidence " + score + ")");
+        } else {
+            System.out.println("Interim: " + transcript);
+        }
+    }
+}
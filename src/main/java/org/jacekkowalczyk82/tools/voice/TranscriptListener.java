@@ -0,0 +1,18 @@
+package org.jacekkowalczyk82.tools.voice;
+
+/**
+ * Receives transcripts produced by a streaming recognition.
+ */
+public interface TranscriptListener {
+
+    /**
+     * @param transcript recognized text
+     * @param isFinal    false for interim hypotheses that may still change
+     * @param score      confidence for final results, stability for interim ones
+     */
+    void onTranscript(String transcript, boolean isFinal, float score);
+
+    default void onError(Throwable t) {
+        t.printStackTrace();
+    }
+}
@@ -0,0 +1,12 @@
+package org.jacekkowalczyk82.tools.voice;
+
+/**
+ * Receives utterances closed by a {@link VoiceActivityDetector}.
+ */
+public interface UtteranceListener {
+
+    /**
+     * @param pcm the utterance audio, in the same format the detector was created with
+     */
+    void onUtterance(byte[] pcm);
+}
@@ -0,0 +1,235 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * VoiceActivityDetector
+ * <p>
+ * Frame based voice activity detection on 16-bit mono PCM. Every frame is classified using its
+ * short-time energy and zero-crossing rate; speech has to persist for a few frames to open an
+ * utterance and silence has to last for the hangover time to close it, while an open utterance
+ * is held by a lower energy threshold than the one needed to open it.
+ * Closed utterances are handed to an {@link UtteranceListener} as soon as they end; an optional
+ * {@link PauseListener} hears about shorter pauses inside an utterance.
+ */
+public class VoiceActivityDetector {
+    public static final int FRAME_MILLIS = 20;
+    // RMS level of 1000 on the 16-bit scale, about -30 dBFS
+    public static final double DEFAULT_ENERGY_THRESHOLD = (1000.0 / 32768.0) * (1000.0 / 32768.0);
+    // Unvoiced fricatives are noisy, so loud frames are speech regardless of their ZCR
+    public static final double DEFAULT_MAX_ZERO_CROSSING_RATE = 0.35;
+    public static final int DEFAULT_ONSET_MILLIS = 60;
+    public static final int DEFAULT_HANGOVER_MILLIS = 1000;
+    public static final int DEFAULT_PRE_ROLL_MILLIS = 200;
+    // The synchronous recognize API rejects audio longer than about one minute
+    public static final int DEFAULT_MAX_UTTERANCE_MILLIS = 55_000;
+
+    private final boolean bigEndian;
+    private final int frameSamples;
+    private final int frameBytes;
+    private final double energyThreshold;
+    private final double maxZeroCrossingRate;
+    private final int onsetFrames;
+    private final int hangoverFrames;
+    private final int maxUtteranceFrames;
+    private final UtteranceListener listener;
+
+    private final byte[] frame;
+    private final short[] samples;
+    private int frameFill;
+
+    // Frames kept from before the onset so the first syllable is not cut off
+    private final byte[][] preRoll;
+    private int preRollStart;
+    private int preRollCount;
+
+    private final UtteranceBuffer utterance = new UtteranceBuffer();
+    private boolean inSpeech;
+    private int speechRun;
+    private int silenceRun;
+    private int utteranceFrames;
+
+    private PauseListener pauseListener;
+    private int pauseFrames;
+    private boolean paused;
+
+    public VoiceActivityDetector(AudioFormat format, UtteranceListener listener) {
+        this(format, DEFAULT_ENERGY_THRESHOLD, DEFAULT_MAX_ZERO_CROSSING_RATE,
+                DEFAULT_ONSET_MILLIS, DEFAULT_HANGOVER_MILLIS, DEFAULT_PRE_ROLL_MILLIS,
+                DEFAULT_MAX_UTTERANCE_MILLIS, listener);
+    }
+
+    public VoiceActivityDetector(AudioFormat format, double energyThreshold, double maxZeroCrossingRate,
+                                 int onsetMillis, int hangoverMillis, int preRollMillis, int maxUtteranceMillis,
+                                 UtteranceListener listener) {
+        SampleCodec.requireSupported(format);
+        if (format.getChannels() != 1) {
+            throw new IllegalArgumentException("Voice activity detection needs mono audio, got " + format);
+        }
+        this.bigEndian = format.isBigEndian();
+        this.frameSamples = (int) format.getSampleRate() * FRAME_MILLIS / 1000;
+        this.frameBytes = frameSamples * SampleCodec.BYTES_PER_SAMPLE;
+        this.energyThreshold = energyThreshold;
+        this.maxZeroCrossingRate = maxZeroCrossingRate;
+        this.onsetFrames = Math.max(1, onsetMillis / FRAME_MILLIS);
+        this.hangoverFrames = Math.max(1, hangoverMillis / FRAME_MILLIS);
+        this.maxUtteranceFrames = Math.max(1, maxUtteranceMillis / FRAME_MILLIS);
+        this.listener = listener;
+
+        this.frame = new byte[frameBytes];
+        this.samples = new short[frameSamples];
+        this.preRoll = new byte[Math.max(onsetFrames, preRollMillis / FRAME_MILLIS)][frameBytes];
+    }
+
+    /**
+     * Feeds captured audio; may be called with chunks of any length.
+     */
+    public void process(byte[] buffer, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            int n = Math.min(frameBytes - frameFill, end - offset);
+            System.arraycopy(buffer, offset, frame, frameFill, n);
+            frameFill += n;
+            offset += n;
+            if (frameFill == frameBytes) {
+                processFrame();
+                frameFill = 0;
+            }
+        }
+    }
+
+    /**
+     * Closes the utterance in progress, e.g. when capture stops.
+     */
+    public void flush() {
+        if (inSpeech) {
+            // A partial frame of speech ends the trailing silence; a silent one would be trimmed with it
+            int partialSamples = frameFill / SampleCodec.BYTES_PER_SAMPLE;
+            if (partialSamples > 1 && isSpeech(frame, partialSamples)) {
+                utterance.write(frame, 0, partialSamples * SampleCodec.BYTES_PER_SAMPLE);
+                silenceRun = 0;
+            }
+            closeUtterance();
+        }
+        frameFill = 0;
+        preRollCount = 0;
+        speechRun = 0;
+    }
+
+    /**
+     * Reports every pause of {@code pauseMillis} inside an utterance, e.g. to start recognizing what
+     * was said so far while the hangover runs. Pauses as long as the hangover close the utterance
+     * instead.
+     */
+    public void setPauseListener(int pauseMillis, PauseListener listener) {
+        this.pauseFrames = Math.max(1, pauseMillis / FRAME_MILLIS);
+        this.pauseListener = listener;
+    }
+
+    public boolean isInSpeech() {
+        return inSpeech;
+    }
+
+    private void processFrame() {
+        boolean speech = isSpeech(frame, frameSamples);
+
+        if (!inSpeech) {
+            speechRun = speech ? speechRun + 1 : 0;
+            if (speechRun < onsetFrames) {
+                pushPreRoll();
+                return;
+            }
+            // Onset confirmed: the utterance starts with the buffered frames
+            inSpeech = true;
+            silenceRun = 0;
+            utteranceFrames = 0;
+            for (int i = 0; i < preRollCount; i++) {
+                utterance.write(preRoll[(preRollStart + i) % preRoll.length], 0, frameBytes);
+                utteranceFrames++;
+            }
+            preRollCount = 0;
+        }
+
+        utterance.write(frame, 0, frameBytes);
+        utteranceFrames++;
+        silenceRun = speech ? 0 : silenceRun + 1;
+
+        if (silenceRun >= hangoverFrames || utteranceFrames >= maxUtteranceFrames) {
+            closeUtterance();
+        } else if (pauseListener != null) {
+            notifyPause(speech);
+        }
+    }
+
+    private void notifyPause(boolean speech) {
+        if (speech && paused) {
+            paused = false;
+            pauseListener.onResume();
+        } else if (silenceRun == pauseFrames) {
+            paused = true;
+            pauseListener.onPause(utterance.copyOf(utterance.size() - silenceRun * frameBytes));
+        }
+    }
+
+    private void pushPreRoll() {
+        int slot = (preRollStart + preRollCount) % preRoll.length;
+        System.arraycopy(frame, 0, preRoll[slot], 0, frameBytes);
+        if (preRollCount < preRoll.length) {
+            preRollCount++;
+        } else {
+            preRollStart = (preRollStart + 1) % preRoll.length;
+        }
+    }
+
+    private void closeUtterance() {
+        // Trailing silence of the hangover carries no speech, leave it out
+        int trailing = Math.min(silenceRun, hangoverFrames) * frameBytes;
+        int length = Math.max(0, utterance.size() - trailing);
+        byte[] pcm = length > 0 ? utterance.copyOf(length) : null;
+        utterance.reset();
+        inSpeech = false;
+        paused = false;
+        speechRun = 0;
+        silenceRun = 0;
+        if (length > 0) {
+            listener.onUtterance(pcm);
+        }
+    }
+
+    private boolean isSpeech(byte[] frame, int sampleCount) {
+        double energy = 0;
+        int zeroCrossings = 0;
+        int previous = 0;
+        SampleCodec.decode(frame, 0, samples, 0, sampleCount, bigEndian);
+        for (int i = 0; i < sampleCount; i++) {
+            int sample = samples[i];
+            double normalized = sample / 32768.0;
+            energy += normalized * normalized;
+            if (i > 0 && (sample >= 0) != (previous >= 0)) {
+                zeroCrossings++;
+            }
+            previous = sample;
+        }
+        energy /= sampleCount;
+        double zeroCrossingRate = zeroCrossings / (double) (sampleCount - 1);
+
+        // Level hysteresis: an open utterance is kept alive by quieter frames than it takes to open one
+        double threshold = inSpeech ? energyThreshold / 2 : energyThreshold;
+        if (energy < threshold) {
+            return false;
+        }
+        // Broadband noise crosses zero far more often than voiced speech
+        return zeroCrossingRate <= maxZeroCrossingRate || energy >= 4 * threshold;
+    }
+
+    /**
+     * Hands out the first bytes of the utterance with a single copy.
+     */
+    private static final class UtteranceBuffer extends ByteArrayOutputStream {
+        byte[] copyOf(int length) {
+            return Arrays.copyOf(buf, length);
+        }
+    }
+}
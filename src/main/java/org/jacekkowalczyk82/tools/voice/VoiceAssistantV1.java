@@ -1,94 +1,70 @@
 package org.jacekkowalczyk82.tools.voice;
 
 import com.google.cloud.speech.v1.*;
-import com.google.protobuf.ByteString;
 
 import javax.sound.sampled.*;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 
 
 /**
  * VoiceAssistant
  */
 public class VoiceAssistantV1 {
-    private static final int SAMPLE_RATE = 16000; // 16 kHz
-    private static final int SILENCE_THRESHOLD = 1000; // Próg ciszy
-    private static final int SILENCE_DURATION = 1000; // Minimalny czas ciszy (ms)
 
 
     public static void main(String[] args) {
-        try {
-            // Capture audio from microphone
-            AudioFormat format = new AudioFormat(16000, 16, 1, true, true);
-            // Ensure the audio format is LINEAR16 and 16000 Hz
-            if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED || format.getSampleRate() != 16000) {
-                System.err.println("Unsupported audio format. Please provide a LINEAR16, 16000 Hz audio file.");
-                return;
-            }
+        try (VoiceConfig profiles = VoiceConfig.fromArgs(args)) {
+            RecognitionProfile profile = profiles.active();
+            // Capture audio from microphone, LINEAR16 at the profile's validated sample rate
+            AudioFormat format = profile.format(true);
 
             DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
             TargetDataLine microphone = (TargetDataLine) AudioSystem.getLine(info);
             microphone.open(format);
             microphone.start();
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-
-            System.out.println("Start speaking...");
-
-            // Capture 5 seconds of audio
-            long endTime = System.currentTimeMillis() + 5000;
-            while (System.currentTimeMillis() < endTime) {
-                bytesRead = microphone.read(buffer, 0, buffer.length);
-                out.write(buffer, 0, bytesRead);
-            }
+            try (WavRecorder capturedRecorder = new WavRecorder(Path.of("."), "captured_audio", format);
+                 WavRecorder processedRecorder = new WavRecorder(Path.of("."), "processed_audio", format)) {
 
-            microphone.close();
-            byte[] audioData = out.toByteArray();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int bytesRead;
 
-            // Convert to AudioInputStream
-            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(audioData);
-            AudioInputStream audioInputStream = new AudioInputStream(byteArrayInputStream, format, audioData.length / format.getFrameSize());
+                System.out.println("Start speaking...");
 
-            // Save captured audio to a file in WAV format for debugging
-            File wavFile = new File("captured_audio.wav");
-            AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, wavFile);
+                // Capture one window of audio, 5 seconds unless the profile says otherwise
+                long endTime = System.currentTimeMillis() + profile.windowMillis();
+                while (System.currentTimeMillis() < endTime) {
+                    bytesRead = microphone.read(buffer, 0, buffer.length);
+                    out.write(buffer, 0, bytesRead);
+                }
 
-            System.out.println("Audio captured and saved to captured_audio.wav");
+                microphone.close();
+                byte[] audioData = out.toByteArray();
 
+                // Save captured audio to a file in WAV format for debugging, written in the background
+                capturedRecorder.record(audioData);
+                System.out.println("Audio captured, saving to captured_audio.wav");
 
-            // Apply noise reduction (simple noise gate filter)
-            byte[] processedAudioData = applyNoiseGateFilter(audioData, format);
 
-            // Save processed audio to a file for debugging
-            ByteArrayInputStream byteArrayInputStream1 = new ByteArrayInputStream(processedAudioData);
-            AudioInputStream processedAudioInputStream = new AudioInputStream(byteArrayInputStream1, format, processedAudioData.length / format.getFrameSize());
-            File processedWavFile = new File("processed_audio.wav");
-            AudioSystem.write(processedAudioInputStream, AudioFileFormat.Type.WAVE, processedWavFile);
-            System.out.println("Processed audio saved to processed_audio.wav");
+                // Apply noise reduction, the first moments of the capture teach it the noise floor
+                byte[] processedAudioData = applyNoiseReduction(audioData, format);
 
+                // Save processed audio to a file for debugging, written in the background
+                processedRecorder.record(processedAudioData);
+                System.out.println("Saving processed audio to processed_audio.wav");
 
 
 
-            // Send audio data to Google Cloud Speech-to-Text API
-            try (SpeechClient speechClient = SpeechClient.create()) {
-                ByteString audioBytes = ByteString.copyFrom(processedAudioData);
 
-                RecognitionConfig config = RecognitionConfig.newBuilder()
-                        .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
-                        .setSampleRateHertz(16000)
-                        .setLanguageCode("en-US")
-                        .build();
+                // Send audio data to Google Cloud Speech-to-Text API
+                SpeechService speechService = SpeechService.shared();
 
-                RecognitionAudio audio = RecognitionAudio.newBuilder()
-                        .setContent(audioBytes)
-                        .build();
+                RecognitionConfig config = profile.recognitionConfig();
 
-                RecognizeResponse response = speechClient.recognize(config, audio);
+                RecognizeResponse response = speechService.recognize(config, processedAudioData);
 
                 // Check for errors in the response and print the full response
                 if (response.getResultsList().isEmpty()) {
@@ -108,29 +84,22 @@ public class VoiceAssistantV1 {
     }
 
 
-    private static byte[] applyNoiseGateFilter(byte[] audioData, AudioFormat format) {
-        // A simple noise gate filter implementation
-        // This example uses a fixed threshold to reduce noise
-        float threshold = 0.02f;
-        ByteArrayOutputStream processedOut = new ByteArrayOutputStream();
-        for (int i = 0; i < audioData.length; i += format.getFrameSize()) {
-            float amplitude = 0;
-            for (int j = 0; j < format.getFrameSize(); j++) {
-                amplitude += audioData[i + j] * audioData[i + j];
-            }
-            amplitude = (float) Math.sqrt(amplitude / format.getFrameSize());
-            if (amplitude > threshold) {
-                for (int j = 0; j < format.getFrameSize(); j++) {
-                    processedOut.write(audioData[i + j]);
-                }
-            } else {
-                for (int j = 0; j < format.getFrameSize(); j++) {
-                    processedOut.write(0);
-                }
-            }
-        }
-        return processedOut.toByteArray();
-    }
+    private static byte[] applyNoiseReduction(byte[] audioData, AudioFormat format) {
+        // Spectral denoiser: learns the noise floor per frequency bin and applies a Wiener gain
+        SampleCodec.requireSupported(format);
+        int samples = SampleCodec.sampleCount(audioData.length);
+        float[] input = new float[samples];
+        SampleCodec.decode(audioData, 0, input, 0, samples, format.isBigEndian());
 
+        SpectralDenoiser denoiser = SpectralDenoiser.forSampleRate(format.getSampleRate());
+        float[] output = new float[denoiser.maxOutput(samples) + denoiser.maxFlush()];
+        int written = denoiser.process(input, 0, samples, output, 0);
+        written += denoiser.flush(output, written);
 
+        // Drop the analysis delay so the result lines up with the capture
+        int delay = denoiser.getGroupDelay();
+        byte[] processed = new byte[audioData.length];
+        SampleCodec.encode(output, delay, processed, 0, Math.min(samples, written - delay), format.isBigEndian());
+        return processed;
+    }
 }
@@ -1,77 +1,62 @@
 package org.jacekkowalczyk82.tools.voice;
 
 import com.google.cloud.speech.v1.*;
-import com.google.protobuf.ByteString;
 
 import javax.sound.sampled.*;
 import java.io.*;
+import java.nio.file.Path;
 
 /**
  * VoiceAssistant
  */
 public class VoiceAssistantV2 {
-    private static final int SAMPLE_RATE = 16000; // 16 kHz
 
     public static void main(String[] args) {
-        try {
+        try (VoiceConfig profiles = VoiceConfig.fromArgs(args)) {
+            RecognitionProfile profile = profiles.active();
             // Capture audio from microphone
-            AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, true);
+            AudioFormat format = profile.format(true);
             DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
             TargetDataLine microphone = (TargetDataLine) AudioSystem.getLine(info);
             microphone.open(format);
             microphone.start();
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            byte[] buffer = new byte[4096];
-            int bytesRead;
+            try (WavRecorder capturedRecorder = new WavRecorder(Path.of("."), "captured_audio", format);
+                 WavRecorder processedRecorder = new WavRecorder(Path.of("."), "processed_audio", format)) {
 
-            System.out.println("Start speaking...");
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int bytesRead;
 
-            // Capture 5 seconds of audio
-            long endTime = System.currentTimeMillis() + 5000;
-            while (System.currentTimeMillis() < endTime) {
-                bytesRead = microphone.read(buffer, 0, buffer.length);
-                out.write(buffer, 0, bytesRead);
-            }
-
-            microphone.close();
-            byte[] audioData = out.toByteArray();
+                System.out.println("Start speaking...");
 
-            // Convert to AudioInputStream
-            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(audioData);
-            AudioInputStream audioInputStream = new AudioInputStream(byteArrayInputStream, format, audioData.length / format.getFrameSize());
-
-            // Save captured audio to a file in WAV format for debugging
-            File wavFile = new File("captured_audio.wav");
-            AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, wavFile);
+                // Capture one window of audio, 5 seconds unless the profile says otherwise
+                long endTime = System.currentTimeMillis() + profile.windowMillis();
+                while (System.currentTimeMillis() < endTime) {
+                    bytesRead = microphone.read(buffer, 0, buffer.length);
+                    out.write(buffer, 0, bytesRead);
+                }
 
-            System.out.println("Audio captured and saved to captured_audio.wav");
+                microphone.close();
+                byte[] audioData = out.toByteArray();
 
-            // Apply noise reduction
-            byte[] processedAudioData = applyNoiseReduction(audioData, format);
+                // Save captured audio to a file in WAV format for debugging, written in the background
+                capturedRecorder.record(audioData);
+                System.out.println("Audio captured, saving to captured_audio.wav");
 
-            // Save processed audio to a file for debugging
-            ByteArrayInputStream byteArrayInputStream1 = new ByteArrayInputStream(processedAudioData);
-            AudioInputStream processedAudioInputStream = new AudioInputStream(byteArrayInputStream1, format, processedAudioData.length / format.getFrameSize());
-            File processedWavFile = new File("processed_audio.wav");
-            AudioSystem.write(processedAudioInputStream, AudioFileFormat.Type.WAVE, processedWavFile);
-            System.out.println("Processed audio saved to processed_audio.wav");
+                // Apply noise reduction
+                byte[] processedAudioData = applyNoiseReduction(audioData, format, profile);
 
-            // Send audio data to Google Cloud Speech-to-Text API
-            try (SpeechClient speechClient = SpeechClient.create()) {
-                ByteString audioBytes = ByteString.copyFrom(processedAudioData);
+                // Save processed audio to a file for debugging, written in the background
+                processedRecorder.record(processedAudioData);
+                System.out.println("Saving processed audio to processed_audio.wav");
 
-                RecognitionConfig config = RecognitionConfig.newBuilder()
-                        .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
-                        .setSampleRateHertz(SAMPLE_RATE)
-                        .setLanguageCode("en-US")
-                        .build();
+                // Send audio data to Google Cloud Speech-to-Text API
+                SpeechService speechService = SpeechService.shared();
 
-                RecognitionAudio audio = RecognitionAudio.newBuilder()
-                        .setContent(audioBytes)
-                        .build();
+                RecognitionConfig config = profile.recognitionConfig();
 
-                RecognizeResponse response = speechClient.recognize(config, audio);
+                RecognizeResponse response = speechService.recognize(config, processedAudioData);
 
                 // Check for errors in the response and print the full response
                 if (response.getResultsList().isEmpty()) {
@@ -90,12 +75,12 @@ public class VoiceAssistantV2 {
         }
     }
 
-    private static byte[] applyNoiseReduction(byte[] audioData, AudioFormat format) {
+    private static byte[] applyNoiseReduction(byte[] audioData, AudioFormat format, RecognitionProfile profile) {
         // Apply a low-pass filter
-        byte[] lowPassFilteredData = applyLowPassFilter(audioData, format, 3000); // 3 kHz cutoff
+        byte[] lowPassFilteredData = applyLowPassFilter(audioData, format, profile.highCutHz());
 
         // Apply a high-pass filter
-        byte[] highPassFilteredData = applyHighPassFilter(lowPassFilteredData, format, 300); // 300 Hz cutoff
+        byte[] highPassFilteredData = applyHighPassFilter(lowPassFilteredData, format, profile.lowCutHz());
 
         return highPassFilteredData;
     }
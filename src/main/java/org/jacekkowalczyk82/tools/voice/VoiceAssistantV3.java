@@ -1,82 +1,63 @@
 package org.jacekkowalczyk82.tools.voice;
 
 import com.google.cloud.speech.v1.*;
-import com.google.protobuf.ByteString;
-import org.jtransforms.fft.DoubleFFT_1D;
 
 import javax.sound.sampled.*;
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
-import java.util.Arrays;
+import java.nio.file.Path;
 
 /**
  * VoiceAssistant
  */
 public class VoiceAssistantV3 {
-    private static final int SAMPLE_RATE = 16000; // 16 kHz
 
     public static void main(String[] args) {
-        try {
+        try (VoiceConfig profiles = VoiceConfig.fromArgs(args)) {
+            RecognitionProfile profile = profiles.active();
             // Capture audio from microphone
-            AudioFormat format = new AudioFormat(SAMPLE_RATE, 16, 1, true, true);
+            AudioFormat format = profile.format(true);
             DataLine.Info info = new DataLine.Info(TargetDataLine.class, format);
             TargetDataLine microphone = (TargetDataLine) AudioSystem.getLine(info);
             microphone.open(format);
             microphone.start();
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            byte[] buffer = new byte[4096];
-            int bytesRead;
+            try (WavRecorder capturedRecorder = new WavRecorder(Path.of("."), "captured_audio", format);
+                 WavRecorder processedRecorder = new WavRecorder(Path.of("."), "processed_audio", format)) {
 
-            System.out.println("Start speaking...");
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] buffer = new byte[4096];
+                int bytesRead;
 
-            // Capture 5 seconds of audio
-            long endTime = System.currentTimeMillis() + 5000;
-            while (System.currentTimeMillis() < endTime) {
-                bytesRead = microphone.read(buffer, 0, buffer.length);
-                out.write(buffer, 0, bytesRead);
-            }
-
-            microphone.close();
-            byte[] audioData = out.toByteArray();
+                System.out.println("Start speaking...");
 
-            // Convert to AudioInputStream
-            ByteArrayInputStream byteArrayInputStream = new ByteArrayInputStream(audioData);
-            AudioInputStream audioInputStream = new AudioInputStream(byteArrayInputStream, format, audioData.length / format.getFrameSize());
-
-            // Save captured audio to a file in WAV format for debugging
-            File wavFile = new File("captured_audio.wav");
-            AudioSystem.write(audioInputStream, AudioFileFormat.Type.WAVE, wavFile);
+                // Capture one window of audio, 5 seconds unless the profile says otherwise
+                long endTime = System.currentTimeMillis() + profile.windowMillis();
+                while (System.currentTimeMillis() < endTime) {
+                    bytesRead = microphone.read(buffer, 0, buffer.length);
+                    out.write(buffer, 0, bytesRead);
+                }
 
-            System.out.println("Audio captured and saved to captured_audio.wav");
+                microphone.close();
+                byte[] audioData = out.toByteArray();
 
-            // Apply noise reduction
-            byte[] processedAudioData = applyNoiseReduction(audioData, format);
+                // Save captured audio to a file in WAV format for debugging, written in the background
+                capturedRecorder.record(audioData);
+                System.out.println("Audio captured, saving to captured_audio.wav");
 
-            // Save processed audio to a file for debugging
-            ByteArrayInputStream byteArrayInputStream1 = new ByteArrayInputStream(processedAudioData);
-            AudioInputStream processedAudioInputStream = new AudioInputStream(byteArrayInputStream1, format, processedAudioData.length / format.getFrameSize());
-            File processedWavFile = new File("processed_audio.wav");
-            AudioSystem.write(processedAudioInputStream, AudioFileFormat.Type.WAVE, processedWavFile);
-            System.out.println("Processed audio saved to processed_audio.wav");
+                // Apply noise reduction
+                byte[] processedAudioData = applyNoiseReduction(audioData, format, profile);
 
-            // Send audio data to Google Cloud Speech-to-Text API
-            try (SpeechClient speechClient = SpeechClient.create()) {
-                ByteString audioBytes = ByteString.copyFrom(processedAudioData);
+                // Save processed audio to a file for debugging, written in the background
+                processedRecorder.record(processedAudioData);
+                System.out.println("Saving processed audio to processed_audio.wav");
 
-                RecognitionConfig config = RecognitionConfig.newBuilder()
-                        .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
-                        .setSampleRateHertz(SAMPLE_RATE)
-                        .setLanguageCode("en-US")
-                        .build();
+                // Send audio data to Google Cloud Speech-to-Text API
+                SpeechService speechService = SpeechService.shared();
 
-                RecognitionAudio audio = RecognitionAudio.newBuilder()
-                        .setContent(audioBytes)
-                        .build();
+                RecognitionConfig config = profile.recognitionConfig();
 
-                RecognizeResponse response = speechClient.recognize(config, audio);
+                RecognizeResponse response = speechService.recognize(config, processedAudioData);
 
                 // Check for errors in the response and print the full response
                 if (response.getResultsList().isEmpty()) {
@@ -95,78 +76,22 @@ public class VoiceAssistantV3 {
         }
     }
 
-    private static byte[] applyNoiseReduction(byte[] audioData, AudioFormat format) {
-        // Apply a low-pass filter
-        byte[] lowPassFilteredData = applyLowPassFilter(audioData, format, 3000); // 3 kHz cutoff
-
-        // Apply a high-pass filter
-        byte[] highPassFilteredData = applyHighPassFilter(lowPassFilteredData, format, 300); // 300 Hz cutoff
-
-        return highPassFilteredData;
-    }
-
-    private static byte[] applyLowPassFilter(byte[] audioData, AudioFormat format, float cutoffFrequency) {
+    private static byte[] applyNoiseReduction(byte[] audioData, AudioFormat format, RecognitionProfile profile) {
+        SampleCodec.requireSupported(format);
         int sampleRate = (int) format.getSampleRate();
-        int dataSize = audioData.length / format.getFrameSize();
-        double[] input = new double[dataSize];
-        double[] output = new double[dataSize];
-
-        // Convert byte array to double array
-        for (int i = 0; i < dataSize; i++) {
-            input[i] = audioData[i] / 32768.0; // Normalize to -1.0 to 1.0
-        }
+        int dataSize = SampleCodec.sampleCount(audioData.length);
+        double[] input = SpectralFilter.workBuffer(dataSize);
 
-        // FFT
-        DoubleFFT_1D fft = new DoubleFFT_1D(dataSize);
-        fft.realForward(input);
+        // Decode 16-bit samples, normalized to -1.0 to 1.0
+        SampleCodec.decode(audioData, 0, input, 0, dataSize, format.isBigEndian());
 
-        // Apply low-pass filter
-        double nyquist = 0.5 * sampleRate;
-        int cutoffBin = (int) (cutoffFrequency / nyquist * (dataSize / 2));
-        Arrays.fill(input, cutoffBin, dataSize - cutoffBin, 0.0);
+        // Keep the profile's speech band, 300 Hz - 3 kHz by default: low-pass and high-pass as one
+        // mask in a single FFT pass
+        SpectralFilter.bandPass(input, dataSize, sampleRate, profile.lowCutHz(), profile.highCutHz());
 
-        // Inverse FFT
-        fft.realInverse(input, true);
-
-        // Convert double array back to byte array
+        // Encode back to 16-bit samples in the original byte order
         byte[] filteredData = new byte[audioData.length];
-        for (int i = 0; i < dataSize; i++) {
-            int sample = (int) (input[i] * 32768.0);
-            filteredData[i] = (byte) (sample & 0xFF);
-        }
-
-        return filteredData;
-    }
-
-    private static byte[] applyHighPassFilter(byte[] audioData, AudioFormat format, float cutoffFrequency) {
-        int sampleRate = (int) format.getSampleRate();
-        int dataSize = audioData.length / format.getFrameSize();
-        double[] input = new double[dataSize];
-        double[] output = new double[dataSize];
-
-        // Convert byte array to double array
-        for (int i = 0; i < dataSize; i++) {
-            input[i] = audioData[i] / 32768.0; // Normalize to -1.0 to 1.0
-        }
-
-        // FFT
-        DoubleFFT_1D fft = new DoubleFFT_1D(dataSize);
-        fft.realForward(input);
-
-        // Apply high-pass filter
-        double nyquist = 0.5 * sampleRate;
-        int cutoffBin = (int) (cutoffFrequency / nyquist * (dataSize / 2));
-        Arrays.fill(input, 0, cutoffBin, 0.0);
-
-        // Inverse FFT
-        fft.realInverse(input, true);
-
-        // Convert double array back to byte array
-        byte[] filteredData = new byte[audioData.length];
-        for (int i = 0; i < dataSize; i++) {
-            int sample = (int) (input[i] * 32768.0);
-            filteredData[i] = (byte) (sample & 0xFF);
-        }
+        SampleCodec.encode(input, 0, filteredData, 0, dataSize, format.isBigEndian());
 
         return filteredData;
     }
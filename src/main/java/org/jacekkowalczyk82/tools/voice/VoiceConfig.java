@@ -0,0 +1,296 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * VoiceConfig
+ * <p>
+ * The assistants' settings, read once at startup into immutable, validated
+ * {@link RecognitionProfile}s. Every setting is a key in one flat namespace, resolved in order:
+ * <ol>
+ *     <li>built-in defaults, with a {@code default} (en-US) and a {@code polish} (pl-PL) profile,</li>
+ *     <li>a properties file given with {@code --config <file>} or {@code VOICE_CONFIG},</li>
+ *     <li>environment variables: {@code VOICE_} and the key in upper case with {@code _} for
+ *     {@code .} and {@code -}, e.g. {@code VOICE_POLISH_HIGH_CUT_HZ},</li>
+ *     <li>the command line: {@code --profile <name>} and {@code --set <key>=<value>}.</li>
+ * </ol>
+ * Keys are {@code profile} (the active one), {@code sample-rate} (the capture rate, shared by all
+ * profiles) and {@code <profile>.<setting>}; a setting missing from a profile is taken from
+ * {@code default}:
+ * <pre>
+ * profile = office
+ * office.language = en-GB
+ * office.high-cut-hz = 3400
+ * office.vad-level = 1500
+ * </pre>
+ * The active profile is read through an {@link AtomicReference} and can be switched at runtime,
+ * with {@link #switchTo} or, once {@link #watch} is running, by editing the file. A reload builds
+ * and validates all profiles on the watcher thread and swaps them in with a single write; a broken
+ * file keeps the previous profiles.
+ */
+public final class VoiceConfig implements AutoCloseable {
+    public static final String DEFAULT_PROFILE = "default";
+    static final String PROFILE = "profile";
+    static final String SAMPLE_RATE = "sample-rate";
+    static final List<String> SETTINGS = List.of("language", "window-millis", "low-cut-hz", "high-cut-hz",
+            "vad-level", "hangover-millis", "noise-gate", "wake-threshold");
+    private static final Map<String, String> BUILT_IN = Map.ofEntries(
+            Map.entry(PROFILE, DEFAULT_PROFILE),
+            Map.entry(SAMPLE_RATE, "16000"),
+            Map.entry("default.language", "en-US"),
+            Map.entry("default.window-millis", "5000"),
+            Map.entry("default.low-cut-hz", "300"),
+            Map.entry("default.high-cut-hz", "3000"),
+            Map.entry("default.vad-level", "1000"),
+            Map.entry("default.hangover-millis", String.valueOf(VoiceActivityDetector.DEFAULT_HANGOVER_MILLIS)),
+            Map.entry("default.noise-gate", "0.02"),
+            Map.entry("default.wake-threshold", String.valueOf(KeywordSpotter.DEFAULT_THRESHOLD)),
+            Map.entry("polish.language", "pl-PL"));
+
+    /**
+     * All profiles of one load and the active one among them.
+     */
+    private record Profiles(Map<String, RecognitionProfile> byName, RecognitionProfile active, String requested) {
+    }
+
+    private final Path file;
+    private final Map<String, String> environment;
+    private final List<String> overrides;
+    private final AtomicReference<Profiles> profiles = new AtomicReference<>();
+    private FileWatcher watcher;
+
+    /**
+     * @param file        properties file, or null
+     * @param environment usually {@link System#getenv()}
+     * @param overrides   {@code key=value} settings from the command line
+     * @throws IllegalArgumentException when a setting is unknown or out of range
+     */
+    public VoiceConfig(Path file, Map<String, String> environment, List<String> overrides) throws IOException {
+        this.file = file;
+        this.environment = Map.copyOf(environment);
+        this.overrides = List.copyOf(overrides);
+        profiles.set(load());
+    }
+
+    /**
+     * Configuration from {@code --config}, the environment, {@code --profile} and {@code --set}.
+     */
+    public static VoiceConfig fromArgs(String[] args) throws IOException {
+        String file = System.getenv("VOICE_CONFIG");
+        List<String> overrides = new ArrayList<>();
+        for (int i = 0; i + 1 < args.length; i++) {
+            switch (args[i]) {
+                case "--config" -> file = args[++i];
+                case "--profile" -> overrides.add(PROFILE + "=" + args[++i]);
+                case "--set" -> overrides.add(args[++i]);
+                default -> {
+                }
+            }
+        }
+        VoiceConfig config = new VoiceConfig(file != null ? Path.of(file) : null, System.getenv(), overrides);
+        System.out.println("Using profile " + config.active());
+        return config;
+    }
+
+    public RecognitionProfile active() {
+        return profiles.get().active();
+    }
+
+    /**
+     * Profiles by name, sorted.
+     */
+    public Map<String, RecognitionProfile> profiles() {
+        return profiles.get().byName();
+    }
+
+    /**
+     * Makes another profile active; components pick it up with their next chunk or utterance.
+     *
+     * @throws IllegalArgumentException when there is no such profile
+     */
+    public RecognitionProfile switchTo(String name) {
+        while (true) {
+            Profiles current = profiles.get();
+            RecognitionProfile profile = current.byName().get(name);
+            if (profile == null) {
+                throw new IllegalArgumentException("No profile '" + name + "', known: " + current.byName().keySet());
+            }
+            if (profiles.compareAndSet(current, new Profiles(current.byName(), profile, current.requested()))) {
+                return profile;
+            }
+        }
+    }
+
+    /**
+     * Reloads the file whenever it changes. Does nothing without a file.
+     */
+    public synchronized void watch() throws IOException {
+        if (file != null && watcher == null) {
+            watcher = FileWatcher.start(file, this::reload);
+        }
+    }
+
+    /**
+     * Reads all sources again. The active profile follows a changed {@code profile} setting and
+     * otherwise stays the same, with its new values. On an error the current profiles stay.
+     */
+    public void reload() {
+        try {
+            Profiles current = profiles.get();
+            Profiles loaded = load();
+            if (loaded.active().sampleRate() != current.active().sampleRate()) {
+                throw new IllegalArgumentException(SAMPLE_RATE + " cannot change while capturing, restart to apply it");
+            }
+            RecognitionProfile kept = loaded.byName().get(current.active().name());
+            if (loaded.requested().equals(current.requested()) && kept != null) {
+                loaded = new Profiles(loaded.byName(), kept, loaded.requested());
+            }
+            profiles.set(loaded);
+            System.out.println("Reloaded " + loaded.byName().size() + " profiles from " + file
+                    + ", using " + loaded.active());
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Keeping the previous profiles, cannot load " + file + ": " + e.getMessage());
+        }
+    }
+
+    private Profiles load() throws IOException {
+        Map<String, String> settings = new HashMap<>(BUILT_IN);
+        if (file != null) {
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file)) {
+                properties.load(reader);
+            }
+            for (String key : properties.stringPropertyNames()) {
+                settings.put(key.trim(), properties.getProperty(key).trim());
+            }
+        }
+        for (String key : knownKeys(settings)) {
+            String value = environment.get(environmentName(key));
+            if (value != null) {
+                settings.put(key, value.trim());
+            }
+        }
+        for (String override : overrides) {
+            int separator = override.indexOf('=');
+            if (separator < 0) {
+                throw new IllegalArgumentException("Expected key=value: " + override);
+            }
+            settings.put(override.substring(0, separator).trim(), override.substring(separator + 1).trim());
+        }
+        return build(settings);
+    }
+
+    private static List<String> knownKeys(Map<String, String> settings) {
+        List<String> keys = new ArrayList<>(List.of(PROFILE, SAMPLE_RATE));
+        for (String profile : profileNames(settings)) {
+            for (String setting : SETTINGS) {
+                keys.add(profile + "." + setting);
+            }
+        }
+        return keys;
+    }
+
+    static String environmentName(String key) {
+        return "VOICE_" + key.toUpperCase(Locale.ROOT).replace('.', '_').replace('-', '_');
+    }
+
+    private static TreeSet<String> profileNames(Map<String, String> settings) {
+        TreeSet<String> names = new TreeSet<>();
+        for (String key : settings.keySet()) {
+            int dot = key.indexOf('.');
+            if (dot > 0) {
+                names.add(key.substring(0, dot));
+            }
+        }
+        return names;
+    }
+
+    private static Profiles build(Map<String, String> settings) {
+        for (String key : settings.keySet()) {
+            int dot = key.indexOf('.');
+            boolean known = dot > 0 ? SETTINGS.contains(key.substring(dot + 1))
+                    : key.equals(PROFILE) || key.equals(SAMPLE_RATE);
+            if (!known) {
+                throw new IllegalArgumentException("Unknown setting '" + key + "'");
+            }
+        }
+        int sampleRate = number(settings, SAMPLE_RATE, null);
+        Map<String, RecognitionProfile> byName = new LinkedHashMap<>();
+        for (String name : profileNames(settings)) {
+            byName.put(name, new RecognitionProfile(name,
+                    setting(settings, name, "language"),
+                    sampleRate,
+                    number(settings, "window-millis", name),
+                    number(settings, "low-cut-hz", name),
+                    number(settings, "high-cut-hz", name),
+                    number(settings, "vad-level", name),
+                    number(settings, "hangover-millis", name),
+                    fraction(settings, "noise-gate", name),
+                    fraction(settings, "wake-threshold", name)));
+        }
+        String requested = settings.get(PROFILE);
+        RecognitionProfile active = byName.get(requested);
+        if (active == null) {
+            throw new IllegalArgumentException("No profile '" + requested + "', known: " + byName.keySet());
+        }
+        return new Profiles(Collections.unmodifiableMap(new TreeMap<>(byName)), active, requested);
+    }
+
+    private static String setting(Map<String, String> settings, String profile, String key) {
+        String value = settings.get(profile + "." + key);
+        return value != null ? value : settings.get(DEFAULT_PROFILE + "." + key);
+    }
+
+    private static int number(Map<String, String> settings, String key, String profile) {
+        String value = profile == null ? settings.get(key) : setting(settings, profile, key);
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException((profile == null ? "" : profile + ".") + key
+                    + " must be a whole number, got " + value);
+        }
+    }
+
+    private static float fraction(Map<String, String> settings, String key, String profile) {
+        String value = setting(settings, profile, key);
+        try {
+            return Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(profile + "." + key + " must be a number, got " + value);
+        }
+    }
+
+    /**
+     * Stops watching the config file. An interrupt cuts the wait for the watcher short and is kept
+     * set for the caller.
+     */
+    @Override
+    public void close() {
+        FileWatcher closing;
+        synchronized (this) {
+            closing = watcher;
+            watcher = null;
+        }
+        if (closing != null) {
+            try {
+                closing.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder events of the assistant, recorded with
+ * {@code -XX:StartFlightRecording:filename=voice.jfr} and shown under "Voice Assistant" in JDK
+ * Mission Control. When no recording is running, the events cost a disabled check.
+ */
+public final class VoiceEvents {
+
+    private VoiceEvents() {
+    }
+
+    @Name("org.jacekkowalczyk82.voice.Recognition")
+    @Label("Utterance Recognition")
+    @Description("One utterance from the request to the recognizer until its result")
+    @Category("Voice Assistant")
+    @StackTrace(false)
+    public static class Recognition extends Event {
+        @Label("Sequence")
+        public long sequence;
+
+        @Label("Audio")
+        @DataAmount
+        public int audioBytes;
+
+        @Label("Queued")
+        @Description("Time between the end of the utterance and the request")
+        @Timespan(Timespan.MILLISECONDS)
+        public long queuedMillis;
+
+        @Label("Transcript Length")
+        public int transcriptLength;
+
+        @Label("Failed")
+        public boolean failed;
+    }
+
+    @Name("org.jacekkowalczyk82.voice.Dsp")
+    @Label("DSP Chunk")
+    @Description("Audio drained from the capture ring through the filter chain and the detector")
+    @Category("Voice Assistant")
+    @StackTrace(false)
+    public static class Dsp extends Event {
+        @Label("Audio")
+        @DataAmount
+        public int bytes;
+    }
+}
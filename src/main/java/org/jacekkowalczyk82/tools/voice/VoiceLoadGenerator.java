@@ -0,0 +1,180 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * VoiceLoadGenerator
+ * <p>
+ * Load test client for {@link VoiceServer}: opens many sessions at once, each streaming a WAV
+ * fixture through its own {@link WavReplaySource} (in real time unless {@code --fast}), and reports
+ * how many transcripts came back and the server's end-of-utterance to transcript latency.
+ * <p>
+ * Usage: {@code VoiceLoadGenerator --replay <file.wav> [--sessions <n>] [--loops <n>] [--fast]
+ * [--ramp-millis <ms>] [--host <host>] [--port <port>]}
+ */
+public class VoiceLoadGenerator {
+    private static final int CHUNK_BYTES = 3200; // 100 ms
+
+    /**
+     * Outcome of a run; latencies are the ones the server reported per utterance.
+     */
+    public record Report(int sessions, int failedSessions, long utterances, long audioMillis, long elapsedMillis,
+                         LatencyHistogram latency) {
+
+        /**
+         * Seconds of audio the server took in per second, over all sessions.
+         */
+        public double realTimeFactor() {
+            return elapsedMillis == 0 ? 0 : (double) audioMillis / elapsedMillis;
+        }
+    }
+
+    private final String host;
+    private final int port;
+    private final Path fixture;
+    private final boolean realTime;
+    private final int loops;
+
+    public VoiceLoadGenerator(String host, int port, Path fixture, boolean realTime, int loops) {
+        this.host = host;
+        this.port = port;
+        this.fixture = fixture;
+        this.realTime = realTime;
+        this.loops = loops;
+    }
+
+    public static void main(String[] args) {
+        String host = "localhost";
+        int port = VoiceServer.DEFAULT_PORT;
+        Path fixture = null;
+        int sessions = 100;
+        int loops = 1;
+        boolean realTime = true;
+        long rampMillis = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--host" -> host = args[++i];
+                case "--port" -> port = Integer.parseInt(args[++i]);
+                case "--replay" -> fixture = Path.of(args[++i]);
+                case "--sessions" -> sessions = Integer.parseInt(args[++i]);
+                case "--loops" -> loops = Integer.parseInt(args[++i]);
+                case "--ramp-millis" -> rampMillis = Long.parseLong(args[++i]);
+                case "--fast" -> realTime = false;
+                default -> System.out.println("Ignoring unknown argument " + args[i]);
+            }
+        }
+        if (fixture == null) {
+            System.out.println("Usage: java VoiceLoadGenerator --replay <file.wav> [--sessions <n>] [--loops <n>]"
+                    + " [--fast] [--ramp-millis <ms>] [--host <host>] [--port <port>]");
+            return;
+        }
+        try {
+            System.out.println("Starting " + sessions + " sessions against " + host + ":" + port);
+            Report report = new VoiceLoadGenerator(host, port, fixture, realTime, loops).run(sessions, rampMillis);
+            LatencyHistogram latency = report.latency();
+            System.out.printf("%d sessions (%d failed), %d transcripts in %.1f s, %.1fx real time%n",
+                    report.sessions(), report.failedSessions(), report.utterances(), report.elapsedMillis() / 1000.0,
+                    report.realTimeFactor());
+            System.out.printf("Latency ms: mean %.0f, p50 %d, p90 %d, p99 %d, max %d%n",
+                    latency.meanMicros() / 1000, latency.percentileMicros(0.5) / 1000,
+                    latency.percentileMicros(0.9) / 1000, latency.percentileMicros(0.99) / 1000,
+                    latency.maxMicros() / 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Runs {@code sessions} concurrent sessions, started evenly over {@code rampMillis}, and waits
+     * for all of them to end.
+     */
+    public Report run(int sessions, long rampMillis) throws InterruptedException {
+        LatencyHistogram latency = new LatencyHistogram();
+        AtomicInteger failed = new AtomicInteger();
+        AtomicLong utterances = new AtomicLong();
+        AtomicLong audioBytes = new AtomicLong();
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < sessions; i++) {
+            long delayMillis = sessions > 1 ? rampMillis * i / (sessions - 1) : 0;
+            Thread thread = new Thread(() -> {
+                try {
+                    Thread.sleep(delayMillis);
+                    audioBytes.addAndGet(session(latency, utterances));
+                } catch (IOException | UncheckedIOException e) {
+                    failed.incrementAndGet();
+                    System.err.println("Session failed: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "load-session-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        long bytesPerSecond = (long) (VoiceServer.FORMAT.getFrameRate() * VoiceServer.FORMAT.getFrameSize());
+        return new Report(sessions, failed.get(), utterances.get(), audioBytes.get() * 1000 / bytesPerSecond,
+                elapsedMillis, latency);
+    }
+
+    // Streams the fixture, then reads the transcripts until the server closes; returns the bytes sent
+    private long session(LatencyHistogram latency, AtomicLong utterances) throws IOException {
+        try (Socket socket = new Socket(host, port);
+             WavReplaySource source = new WavReplaySource(fixture, realTime, loops, WavReplaySource.DEFAULT_GAP_MILLIS)) {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            AudioRingBuffer.Consumer send = (buffer, offset, length) -> {
+                try {
+                    out.write(buffer, offset, length);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            FormatConverter converter = !FormatConverter.isIdentity(source.getFormat(), VoiceServer.FORMAT)
+                    ? new FormatConverter(source.getFormat(), VoiceServer.FORMAT, send)
+                    : null;
+            byte[] chunk = new byte[CHUNK_BYTES];
+            long sent = 0;
+            int n;
+            source.start();
+            while ((n = source.read(chunk, 0, chunk.length)) >= 0) {
+                if (converter != null) {
+                    converter.process(chunk, 0, n);
+                } else {
+                    send.accept(chunk, 0, n);
+                }
+                sent += n;
+            }
+            if (converter != null) {
+                converter.flush();
+            }
+            socket.shutdownOutput();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                latency.recordMicros(Long.parseLong(fields[1]) * 1000);
+                utterances.incrementAndGet();
+            }
+            // Bytes in the server's format
+            return sent * (long) (VoiceServer.FORMAT.getFrameRate() * VoiceServer.FORMAT.getFrameSize())
+                    / (long) (source.getFormat().getFrameRate() * source.getFormat().getFrameSize());
+        }
+    }
+}
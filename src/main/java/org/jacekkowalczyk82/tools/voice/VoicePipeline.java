@@ -0,0 +1,300 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * VoicePipeline
+ * <p>
+ * Runs the assistant as stages on their own threads, connected by bounded queues:
+ * capture writes into an {@link AudioRingBuffer} (see {@link CaptureEngine}), a DSP thread drains
+ * it through the filter chain and the voice activity detector, a recognition thread sends the
+ * utterances asynchronously, and a result thread hands the transcripts to a listener in the
+ * order the utterances were spoken. While one utterance is being recognized, the next one is
+ * already captured and preprocessed.
+ * <p>
+ * Only the utterance queue may overflow; its oldest entries are kept and new ones are dropped and
+ * counted, so the DSP thread never waits for recognition. Once {@code maxInFlight} utterances are
+ * being recognized, further utterances wait in the queue.
+ * <p>
+ * Stage timings, drops and the queue depth are reported to {@link Metrics#global()}, and every
+ * utterance is a {@link VoiceEvents.Recognition} flight recorder event.
+ */
+public class VoicePipeline implements AutoCloseable {
+    public static final int DEFAULT_QUEUED_UTTERANCES = 8;
+    public static final int DEFAULT_IN_FLIGHT = 2;
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * An utterance closed by the DSP stage, numbered in the order it was spoken.
+     */
+    public record Utterance(long sequence, byte[] audio, long detectedNanos) {
+    }
+
+    /**
+     * Receives results on the result thread, one at a time and in utterance order.
+     */
+    public interface ResultListener {
+        void onResult(Utterance utterance, RecognitionResult result);
+
+        default void onError(Utterance utterance, Throwable error) {
+            error.printStackTrace();
+        }
+    }
+
+    private record Pending(Utterance utterance, CompletableFuture<RecognitionResult> result) {
+    }
+
+    private static final Utterance END_OF_UTTERANCES = new Utterance(-1, new byte[0], 0);
+    private static final Pending END_OF_RESULTS = new Pending(END_OF_UTTERANCES, null);
+
+    private final Recognizer recognizer;
+    private final ResultListener listener;
+    private final BlockingQueue<Utterance> utterances;
+    private final BlockingQueue<Pending> results;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong droppedUtterances = new AtomicLong();
+
+    private final LatencyHistogram dspTime;
+    private final LatencyHistogram recognizeTime;
+    private final LatencyHistogram utteranceLatency;
+    private final Metrics.Counter droppedAudio;
+    private final Metrics.Counter droppedUtteranceCount;
+    private final LongSupplier queueDepthGauge;
+    private final LongSupplier inFlightGauge;
+
+    private volatile boolean running;
+    private volatile long droppedBytes;
+    private Thread dspThread;
+    private Thread recognitionThread;
+    private Thread resultThread;
+
+    public VoicePipeline(Recognizer recognizer, ResultListener listener) {
+        this(recognizer, listener, DEFAULT_QUEUED_UTTERANCES, DEFAULT_IN_FLIGHT);
+    }
+
+    /**
+     * @param maxQueuedUtterances utterances waiting for recognition before new ones are dropped
+     * @param maxInFlight         utterances recognized concurrently
+     */
+    public VoicePipeline(Recognizer recognizer, ResultListener listener, int maxQueuedUtterances, int maxInFlight) {
+        this.recognizer = recognizer;
+        this.listener = listener;
+        this.utterances = new ArrayBlockingQueue<>(maxQueuedUtterances);
+        this.results = new ArrayBlockingQueue<>(maxInFlight);
+        this.queueDepthGauge = utterances::size;
+        this.inFlightGauge = results::size;
+
+        Metrics metrics = Metrics.global();
+        this.dspTime = metrics.histogram("dsp", "Time to filter and segment one chunk of captured audio");
+        this.recognizeTime = metrics.histogram("recognize", "Time from the recognizer request to its result");
+        this.utteranceLatency = metrics.histogram("utterance_latency",
+                "Time from the end of an utterance to its transcript");
+        this.droppedAudio = metrics.counter("dropped_audio_bytes", "Captured audio lost because DSP fell behind");
+        this.droppedUtteranceCount = metrics.counter("dropped_utterances",
+                "Utterances dropped because recognition fell behind");
+        metrics.gauge("utterance_queue_depth", "Utterances waiting for recognition", queueDepthGauge);
+        metrics.gauge("recognitions_in_flight", "Utterances being recognized", inFlightGauge);
+    }
+
+    /**
+     * Queues an utterance for recognition without blocking, meant as the detector's
+     * {@link UtteranceListener}. Returns false when the queue is full and the utterance was dropped.
+     */
+    public boolean submit(byte[] pcm) {
+        Utterance utterance = new Utterance(sequence.getAndIncrement(), pcm, System.nanoTime());
+        if (!utterances.offer(utterance)) {
+            droppedUtterances.incrementAndGet();
+            droppedUtteranceCount.increment();
+            System.err.println("Recognition fell behind, dropped utterance " + utterance.sequence());
+            return false;
+        }
+        return true;
+    }
+
+    public long droppedUtterances() {
+        return droppedUtterances.get();
+    }
+
+    /**
+     * Audio the DSP stage lost because it fell a whole ring behind capture.
+     */
+    public long droppedBytes() {
+        return droppedBytes;
+    }
+
+    public int queuedUtterances() {
+        return utterances.size();
+    }
+
+    /**
+     * Starts the stages. The DSP thread drains the reader into {@code dsp} until the ring is closed
+     * or the pipeline is closed, then runs {@code endOfStream} to flush the chain.
+     */
+    public synchronized void start(AudioRingBuffer.Reader source, AudioRingBuffer.Consumer dsp, Runnable endOfStream) {
+        if (running) {
+            throw new IllegalStateException("Pipeline is already running");
+        }
+        running = true;
+        dspThread = new Thread(() -> dspLoop(source, dsp, endOfStream), "voice-dsp");
+        recognitionThread = new Thread(this::recognitionLoop, "voice-recognition");
+        resultThread = new Thread(this::resultLoop, "voice-results");
+        for (Thread thread : new Thread[]{resultThread, recognitionThread, dspThread}) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Waits until the source has ended and every queued utterance has been delivered, then drops the
+     * pipeline's gauges.
+     */
+    public void join() throws InterruptedException {
+        Thread dsp;
+        Thread recognition;
+        Thread result;
+        synchronized (this) {
+            dsp = dspThread;
+            recognition = recognitionThread;
+            result = resultThread;
+        }
+        if (dsp != null) {
+            dsp.join();
+            recognition.join();
+            result.join();
+        }
+        Metrics.global().removeGauge("utterance_queue_depth", queueDepthGauge);
+        Metrics.global().removeGauge("recognitions_in_flight", inFlightGauge);
+    }
+
+    /**
+     * Stops reading new audio, then finishes the audio already captured and every queued utterance.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        running = false;
+        join();
+    }
+
+    private void dspLoop(AudioRingBuffer.Reader source, AudioRingBuffer.Consumer chain, Runnable endOfStream) {
+        // Times the chain itself, not the wait for audio. Chunk events are only allocated while a
+        // recording has them enabled, which the cached one tells
+        VoiceEvents.Dsp enabled = new VoiceEvents.Dsp();
+        AudioRingBuffer.Consumer dsp = (buffer, offset, length) -> {
+            VoiceEvents.Dsp event = enabled.isEnabled() ? new VoiceEvents.Dsp() : null;
+            if (event != null) {
+                event.begin();
+            }
+            long start = System.nanoTime();
+            chain.accept(buffer, offset, length);
+            dspTime.recordNanos(System.nanoTime() - start);
+            if (event != null) {
+                event.bytes = length;
+                event.commit();
+            }
+        };
+        try {
+            int delivered = 0;
+            while (running && (delivered = source.drain(dsp, POLL_MILLIS, TimeUnit.MILLISECONDS)) >= 0) {
+                if (source.droppedBytes() != droppedBytes) {
+                    droppedAudio.add(source.droppedBytes() - droppedBytes);
+                    droppedBytes = source.droppedBytes();
+                    System.err.println("Processing fell behind, dropped " + droppedBytes + " bytes of audio so far");
+                }
+            }
+            // Stopped by close(): take what was captured up to now
+            if (delivered >= 0) {
+                source.drain(dsp, 0, TimeUnit.MILLISECONDS);
+            }
+            endOfStream.run();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            putUninterruptibly(utterances, END_OF_UTTERANCES);
+        }
+    }
+
+    private void recognitionLoop() {
+        try {
+            while (true) {
+                Utterance utterance = utterances.take();
+                if (utterance == END_OF_UTTERANCES) {
+                    break;
+                }
+                CompletableFuture<RecognitionResult> result = new CompletableFuture<>();
+                // Blocks while maxInFlight results are outstanding
+                results.put(new Pending(utterance, result));
+                VoiceEvents.Recognition event = new VoiceEvents.Recognition();
+                event.begin();
+                long start = System.nanoTime();
+                try {
+                    recognizer.recognizeAsync(utterance.audio()).whenComplete((value, error) -> {
+                        recognizeTime.recordNanos(System.nanoTime() - start);
+                        event.end();
+                        if (event.shouldCommit()) {
+                            event.sequence = utterance.sequence();
+                            event.audioBytes = utterance.audio().length;
+                            event.queuedMillis = (start - utterance.detectedNanos()) / 1_000_000;
+                            event.transcriptLength = value == null ? 0 : value.transcript().length();
+                            event.failed = error != null;
+                            event.commit();
+                        }
+                        if (error != null) {
+                            result.completeExceptionally(error);
+                        } else {
+                            result.complete(value);
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            putUninterruptibly(results, END_OF_RESULTS);
+        }
+    }
+
+    private void resultLoop() {
+        try {
+            while (true) {
+                Pending pending = results.take();
+                if (pending == END_OF_RESULTS) {
+                    break;
+                }
+                try {
+                    RecognitionResult result = pending.result().get();
+                    utteranceLatency.recordNanos(System.nanoTime() - pending.utterance().detectedNanos());
+                    listener.onResult(pending.utterance(), result);
+                } catch (ExecutionException e) {
+                    listener.onError(pending.utterance(), e.getCause());
+                } catch (RuntimeException e) {
+                    listener.onError(pending.utterance(), e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T item) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(item);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,82 +1,141 @@
 package org.jacekkowalczyk82.tools.voice;
 
-import com.google.cloud.speech.v1.RecognitionAudio;
-import com.google.cloud.speech.v1.RecognitionConfig;
-import com.google.cloud.speech.v1.SpeechClient;
-import com.google.cloud.speech.v1.SpeechRecognitionResult;
-import com.google.cloud.speech.v1.RecognizeResponse;
-import com.google.protobuf.ByteString;
-
-import javax.sound.sampled.*;
-import java.io.ByteArrayOutputStream;
-import java.io.File;
-import java.io.FileInputStream;
+import javax.sound.sampled.AudioFormat;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 public class VoiceRecognition {
+    private static final int CHUNK_MILLIS = 100; // recommended streaming chunk length
+
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java VoiceRecognition <path-to-audio-file>");
+        if (args.length > 0 && args[0].equals("--batch")) {
+            batch(args);
             return;
         }
-
-        String audioFilePath = args[0];
-
-        try {
-            // Read audio data from the provided file
-            File audioFile = new File(audioFilePath);
-            AudioInputStream audioInputStream = AudioSystem.getAudioInputStream(audioFile);
-            AudioFormat format = audioInputStream.getFormat();
-
-            // Ensure the audio format is LINEAR16 and 16000 Hz
-            if (format.getEncoding() != AudioFormat.Encoding.PCM_SIGNED || format.getSampleRate() != 16000) {
-                System.err.println("Unsupported audio format. Please provide a LINEAR16, 16000 Hz audio file.");
-                return;
+        String audioFilePath = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--offline") || args[i].equals("--cache-file")) {
+                i++; // picked up by Recognizers
+            } else if (args[i].equals("--config") || args[i].equals("--profile") || args[i].equals("--set")) {
+                i++; // picked up by VoiceConfig
+            } else if (!args[i].startsWith("--")) {
+                audioFilePath = args[i];
             }
+        }
+        if (audioFilePath == null) {
+            System.out.println("Usage: java VoiceRecognition [--offline <model-dir>] [--profile <name>] <path-to-audio-file>");
+            System.out.println("       java VoiceRecognition --batch <output.jsonl> [--parallel N] [--retries N]"
+                    + " [--offline <model-dir>] [--cache | --cache-file <file>] [--flac] <file|directory|glob>...");
+            return;
+        }
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            byte[] buffer = new byte[4096];
-            int bytesRead;
+        // The file is memory-mapped and streamed in chunks, so any length works in constant memory
+        try (VoiceConfig profiles = VoiceConfig.fromArgs(args);
+             WavFile wav = WavFile.open(Paths.get(audioFilePath))) {
+            RecognitionProfile profile = profiles.active();
+            AudioFormat format = wav.getFormat();
 
-            while ((bytesRead = audioInputStream.read(buffer)) != -1) {
-                out.write(buffer, 0, bytesRead);
+            // Anything linear PCM is downmixed and resampled to 16 kHz mono on the fly
+            if (!FormatConverter.isSupported(format)) {
+                System.err.println("Unsupported audio format " + format + ". Please provide a PCM WAV file.");
+                return;
             }
 
-            audioInputStream.close();
-            byte[] audioData = out.toByteArray();
+            System.out.println("Audio data length: " + wav.dataLength() + " bytes, " + wav.durationMillis() + " ms");
 
-            // Send audio data to Google Cloud Speech-to-Text API
-            try (SpeechClient speechClient = SpeechClient.create()) {
-                ByteString audioBytes = ByteString.copyFrom(audioData);
+            AudioFormat speechFormat = profile.format(false);
 
-                System.out.println("Audio data length: " + audioData.length);
-
-                RecognitionConfig config = RecognitionConfig.newBuilder()
-                        .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
-                        .setSampleRateHertz(16000)
-                        .setLanguageCode("en-US")
-                        .build();
-
-                RecognitionAudio audio = RecognitionAudio.newBuilder()
-                        .setContent(audioBytes)
-                        .build();
+            int chunkBytes = (int) (format.getFrameRate() * CHUNK_MILLIS / 1000) * format.getFrameSize();
+            int[] finals = new int[1];
+            try (Recognizer recognizer = Recognizers.fromArgs(args, speechFormat, profile.recognitionConfig())) {
+                try (StreamingSession session = recognizer.startStreaming((transcript, isFinal, score) -> {
+                    if (isFinal) {
+                        finals[0]++;
+                        System.out.println("Transcript: " + transcript);
+                    }
+                })) {
+                    if (FormatConverter.isIdentity(format, speechFormat)) {
+                        for (ByteBuffer chunk : wav.chunks(chunkBytes)) {
+                            session.send(chunk);
+                        }
+                    } else {
+                        System.out.println("Converting from " + format);
+                        FormatConverter converter = new FormatConverter(format, speechFormat, (buffer, offset, length) -> {
+                            try {
+                                session.send(buffer, offset, length);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                        });
+                        for (ByteBuffer chunk : wav.chunks(chunkBytes)) {
+                            converter.process(chunk);
+                        }
+                        converter.flush();
+                    }
+                }
+            }
 
-                RecognizeResponse response = speechClient.recognize(config, audio);
+            if (finals[0] == 0) {
+                System.out.println("No speech recognized. Please check the audio input and configuration.");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-                // Check for errors in the response and print the full response
-                if (response.getResultsList().isEmpty()) {
-                    System.out.println("No speech recognized. Please check the audio input and configuration.");
-                } else {
-                    for (SpeechRecognitionResult result : response.getResultsList()) {
-                        System.out.println("Transcript: " + result.getAlternativesList().get(0).getTranscript());
+    /**
+     * Transcribes directories and globs of WAV files into JSON Lines, resuming from the output file.
+     */
+    private static void batch(String[] args) {
+        if (args.length < 3) {
+            System.out.println("Usage: java VoiceRecognition --batch <output.jsonl> [--parallel N] [--retries N]"
+                    + " [--offline <model-dir>] [--cache | --cache-file <file>] [--flac] <file|directory|glob>...");
+            return;
+        }
+        Path output = Paths.get(args[1]);
+        int parallelism = BatchTranscriber.DEFAULT_PARALLELISM;
+        int attempts = BatchTranscriber.DEFAULT_MAX_ATTEMPTS;
+        List<String> inputs = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            switch (args[i]) {
+                case "--parallel" -> parallelism = Integer.parseInt(args[++i]);
+                case "--retries" -> attempts = Integer.parseInt(args[++i]) + 1;
+                case "--offline", "--cache-file" -> i++; // picked up by Recognizers
+                case "--config", "--profile", "--set" -> i++; // picked up by VoiceConfig
+                case "--fake", "--cache", "--flac" -> { }
+                default -> {
+                    if (args[i].startsWith("--")) {
+                        System.err.println("Unknown option " + args[i]);
+                        return;
                     }
+                    inputs.add(args[i]);
                 }
-
-                // Print the full response for debugging
-                System.out.println("Full API response: " + response);
             }
-        } catch (UnsupportedAudioFileException | IOException e) {
+        }
+
+        try (VoiceConfig profiles = VoiceConfig.fromArgs(args);
+             Recognizer recognizer = Recognizers.fromArgs(args, profiles.active().format(false),
+                     profiles.active().recognitionConfig())) {
+            AudioFormat format = profiles.active().format(false);
+            List<Path> files = BatchTranscriber.collect(inputs);
+            System.out.println("Transcribing " + files.size() + " files with " + parallelism + " workers");
+
+            long start = System.currentTimeMillis();
+            BatchTranscriber.Summary summary = new BatchTranscriber(recognizer, format, parallelism, attempts)
+                    .run(files, output);
+            System.out.println("Transcribed " + summary.transcribed() + ", skipped " + summary.skipped()
+                    + " already done, failed " + summary.failed() + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        } catch (IOException e) {
             e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,539 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * VoiceServer
+ * <p>
+ * Runs the assistant for many clients in one JVM. Every TCP connection is a session: the client
+ * streams raw {@link #FORMAT} PCM, the server runs it through the session's own denoiser, band-pass
+ * and voice activity detector, and writes one line per utterance back, in spoken order:
+ * {@code <sequence>\t<milliseconds from end of utterance to transcript>\t<transcript>}. When the
+ * client shuts down its output, the last utterance is closed, the remaining transcripts are sent
+ * and the server closes the connection.
+ * <p>
+ * One selector thread does all socket I/O. The DSP of all sessions shares a fixed worker pool, a
+ * session being processed by at most one worker at a time, and all sessions share one
+ * {@link Recognizer} (so one pooled {@code SpeechClient}). Each session is flow controlled on its
+ * own: while it has more unprocessed audio than {@code maxBufferedBytes}, or utterances waiting
+ * because {@code maxInFlight} of its utterances are being recognized, the server stops reading its
+ * socket and TCP pushes back on that client only.
+ * <p>
+ * Run with {@code [--port <port>] [--workers <n>]} and the usual recognizer and profile options
+ * ({@code --config}, {@code --profile}, {@code --set}, see {@link VoiceConfig}); see
+ * {@link VoiceLoadGenerator} for a matching client. A new session takes the speech band and detector
+ * settings of the profile active when it connects, and every utterance goes to the recognizer of the
+ * profile active when it ends.
+ */
+public class VoiceServer implements AutoCloseable {
+    public static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+    public static final int DEFAULT_PORT = 7070;
+    public static final int DEFAULT_MAX_BUFFERED_BYTES = 32000; // 1 s
+    public static final int DEFAULT_IN_FLIGHT = 2;
+    // 100 ms per socket read
+    private static final int READ_BYTES = 3200;
+    // Chunks a worker processes before giving other sessions a turn
+    private static final int CHUNKS_PER_TURN = 10;
+
+    private final Recognizer recognizer;
+    private final VoiceConfig profiles;
+    private final int maxBufferedBytes;
+    private final int maxInFlight;
+    private final ServerSocketChannel server;
+    private final Selector selector;
+    private final ExecutorService workers;
+    private final Queue<Runnable> selectorTasks = new ConcurrentLinkedQueue<>();
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BYTES);
+    private final Thread selectorThread;
+    private volatile boolean running = true;
+
+    private final LatencyHistogram latency;
+    private final Metrics.Counter sessionsOpened;
+    private final Metrics.Counter pausedReads;
+    private final Metrics.Counter recognitionErrors;
+    private final AtomicInteger bufferedBytes = new AtomicInteger();
+    private final AtomicLong pausedReadCount = new AtomicLong();
+    private final LongSupplier activeSessionsGauge = sessions::size;
+    private final LongSupplier bufferedBytesGauge = bufferedBytes::get;
+
+    public VoiceServer(Recognizer recognizer, int port) throws IOException {
+        this(recognizer, port, Runtime.getRuntime().availableProcessors(), DEFAULT_MAX_BUFFERED_BYTES,
+                DEFAULT_IN_FLIGHT);
+    }
+
+    /**
+     * @param port             0 for any free port
+     * @param workers          threads shared by the DSP of all sessions
+     * @param maxBufferedBytes unprocessed audio per session before its socket is no longer read
+     * @param maxInFlight      utterances per session recognized concurrently
+     */
+    public VoiceServer(Recognizer recognizer, int port, int workers, int maxBufferedBytes, int maxInFlight)
+            throws IOException {
+        this(recognizer, new VoiceConfig(null, Map.of(), List.of()), port, workers, maxBufferedBytes, maxInFlight);
+    }
+
+    /**
+     * @param profiles supply the DSP settings of new sessions; their sample rate must be that of {@link #FORMAT}
+     * @throws IllegalArgumentException when the profiles are for another sample rate
+     */
+    public VoiceServer(Recognizer recognizer, VoiceConfig profiles, int port, int workers, int maxBufferedBytes,
+                       int maxInFlight) throws IOException {
+        if (profiles.active().sampleRate() != (int) FORMAT.getSampleRate()) {
+            throw new IllegalArgumentException("Clients send " + FORMAT + ", the profiles are for "
+                    + profiles.active().sampleRate() + " Hz");
+        }
+        this.recognizer = recognizer;
+        this.profiles = profiles;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.maxInFlight = maxInFlight;
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "voice-server-worker-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), 256);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+
+        Metrics metrics = Metrics.global();
+        this.latency = metrics.histogram("server_utterance_latency",
+                "Time from the end of a client's utterance to its transcript");
+        this.sessionsOpened = metrics.counter("server_sessions", "Client sessions accepted");
+        this.pausedReads = metrics.counter("server_paused_reads",
+                "Times a session's socket was no longer read because the session fell behind");
+        this.recognitionErrors = metrics.counter("server_recognition_errors", "Utterances that failed to recognize");
+        metrics.gauge("server_active_sessions", "Connected client sessions", activeSessionsGauge);
+        metrics.gauge("server_buffered_bytes", "Received audio not yet processed, all sessions", bufferedBytesGauge);
+
+        this.selectorThread = new Thread(this::selectorLoop, "voice-server-selector");
+        selectorThread.setDaemon(true);
+        selectorThread.start();
+    }
+
+    public static void main(String[] args) {
+        int port = DEFAULT_PORT;
+        int workers = Runtime.getRuntime().availableProcessors();
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals("--port")) {
+                port = Integer.parseInt(args[i + 1]);
+            } else if (args[i].equals("--workers")) {
+                workers = Integer.parseInt(args[i + 1]);
+            }
+        }
+        MetricsServer metrics = null;
+        try (VoiceConfig profiles = VoiceConfig.fromArgs(args);
+             Recognizer recognizer = Recognizers.fromArgs(args, FORMAT, profiles);
+             VoiceServer server = new VoiceServer(recognizer, profiles, port, workers, DEFAULT_MAX_BUFFERED_BYTES,
+                     DEFAULT_IN_FLIGHT)) {
+            metrics = MetricsServer.fromArgs(args);
+            profiles.watch();
+            System.out.println("Listening on port " + server.port() + " with " + workers + " workers"
+                    + " for 16 kHz 16-bit mono little-endian PCM (Ctrl+C to stop)");
+            // Serves until the process is stopped
+            server.selectorThread.join();
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (metrics != null) {
+                metrics.close();
+            }
+        }
+    }
+
+    public int port() {
+        return server.socket().getLocalPort();
+    }
+
+    public int activeSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * Times a session's socket stopped being read because the session fell behind.
+     */
+    public long pausedReads() {
+        return pausedReadCount.get();
+    }
+
+    private void selectorLoop() {
+        try {
+            while (running) {
+                selector.select(1000);
+                Runnable task;
+                while ((task = selectorTasks.poll()) != null) {
+                    task.run();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Session session = (Session) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            session.read(key);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            session.write(key);
+                        }
+                    } catch (IOException e) {
+                        // Client went away, its audio and transcripts are dropped
+                        session.abort();
+                    }
+                }
+                selector.selectedKeys().clear();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (Session session : sessions) {
+                session.abort();
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Session session = new Session(channel);
+            session.key = channel.register(selector, SelectionKey.OP_READ, session);
+            sessions.add(session);
+            sessionsOpened.increment();
+        }
+    }
+
+    private void onSelector(Runnable task) {
+        selectorTasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Stops serving and waits for the sessions' work in progress. An interrupt cuts the wait short and
+     * is kept set for the caller.
+     */
+    @Override
+    public void close() throws IOException {
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join();
+            workers.shutdown();
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            workers.shutdown();
+            Thread.currentThread().interrupt();
+        }
+        server.close();
+        selector.close();
+        Metrics.global().removeGauge("server_active_sessions", activeSessionsGauge);
+        Metrics.global().removeGauge("server_buffered_bytes", bufferedBytesGauge);
+    }
+
+    private record Pending(long sequence, byte[] audio, long detectedNanos,
+                           CompletableFuture<RecognitionResult> result) {
+    }
+
+    /**
+     * One client connection. Socket I/O happens on the selector thread, DSP on one worker at a
+     * time, and results arrive on the recognizer's threads; the fields shared between them are
+     * guarded by the session's lock.
+     */
+    private final class Session implements Runnable {
+        private final SocketChannel channel;
+        private final FilterStage denoise;
+        private final BandPassStage bandPass;
+        private final VoiceActivityDetector vad;
+        private SelectionKey key;
+
+        private final ArrayDeque<byte[]> input = new ArrayDeque<>();
+        private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+        private final ArrayDeque<ByteBuffer> output = new ArrayDeque<>();
+        private int buffered;
+        private int inFlight;
+        private long sequence;
+        // Utterances up to this one have been handed to the recognizer
+        private long started = -1;
+        private boolean scheduled;
+        private boolean inputEnded;
+        private boolean flushed;
+        private boolean readPaused;
+        private boolean closed;
+
+        Session(SocketChannel channel) {
+            this.channel = channel;
+            // The chain is only used by the worker currently processing the session
+            RecognitionProfile profile = profiles.active();
+            this.vad = profile.newVoiceActivityDetector(FORMAT, this::onUtterance);
+            this.bandPass = profile.newBandPass(FORMAT, vad::process);
+            this.denoise = new FilterStage(FORMAT, SpectralDenoiser.forSampleRate(FORMAT.getSampleRate()),
+                    bandPass::process);
+        }
+
+        // Selector thread
+        void read(SelectionKey key) throws IOException {
+            readBuffer.clear();
+            int n = channel.read(readBuffer);
+            if (n < 0) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                synchronized (this) {
+                    inputEnded = true;
+                }
+                schedule();
+                return;
+            }
+            if (n == 0) {
+                return;
+            }
+            byte[] chunk = new byte[n];
+            readBuffer.flip().get(chunk);
+            boolean pause;
+            synchronized (this) {
+                input.add(chunk);
+                buffered += n;
+                pause = congested();
+                readPaused = pause;
+            }
+            bufferedBytes.addAndGet(n);
+            if (pause) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                pausedReadCount.incrementAndGet();
+                pausedReads.increment();
+            }
+            schedule();
+        }
+
+        // Selector thread
+        void write(SelectionKey key) throws IOException {
+            boolean close;
+            synchronized (this) {
+                while (!output.isEmpty()) {
+                    ByteBuffer line = output.peek();
+                    channel.write(line);
+                    if (line.hasRemaining()) {
+                        return;
+                    }
+                    output.poll();
+                }
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                close = finished();
+            }
+            if (close) {
+                abort();
+            }
+        }
+
+        private boolean congested() {
+            return buffered >= maxBufferedBytes || started < sequence - 1;
+        }
+
+        private boolean finished() {
+            return flushed && pending.isEmpty() && output.isEmpty();
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                if (scheduled || closed) {
+                    return;
+                }
+                scheduled = true;
+            }
+            workers.execute(this);
+        }
+
+        // Worker thread, one at a time per session
+        @Override
+        public void run() {
+            for (int turn = 0; turn < CHUNKS_PER_TURN; turn++) {
+                byte[] chunk;
+                synchronized (this) {
+                    chunk = input.poll();
+                    if (chunk == null) {
+                        break;
+                    }
+                    buffered -= chunk.length;
+                }
+                bufferedBytes.addAndGet(-chunk.length);
+                denoise.process(chunk, 0, chunk.length);
+                resumeIfCaughtUp();
+            }
+            boolean flush;
+            synchronized (this) {
+                flush = input.isEmpty() && inputEnded && !flushed;
+            }
+            if (flush) {
+                denoise.flush();
+                bandPass.flush();
+                vad.flush();
+                synchronized (this) {
+                    flushed = true;
+                }
+                // Nothing may be left to deliver
+                onSelector(this::requestWrite);
+            }
+            boolean again;
+            synchronized (this) {
+                scheduled = false;
+                again = !input.isEmpty() && !closed;
+            }
+            if (again) {
+                schedule();
+            }
+        }
+
+        private void onUtterance(byte[] pcm) {
+            synchronized (this) {
+                pending.add(new Pending(sequence++, pcm, System.nanoTime(), new CompletableFuture<>()));
+            }
+            startRecognitions();
+        }
+
+        private void startRecognitions() {
+            while (true) {
+                Pending next = null;
+                synchronized (this) {
+                    if (inFlight >= maxInFlight || closed || started == sequence - 1) {
+                        return;
+                    }
+                    for (Pending p : pending) {
+                        if (p.sequence() > started) {
+                            next = p;
+                            break;
+                        }
+                    }
+                    inFlight++;
+                    started = next.sequence();
+                }
+                Pending utterance = next;
+                CompletableFuture<RecognitionResult> call;
+                try {
+                    call = recognizer.recognizeAsync(utterance.audio());
+                } catch (RuntimeException e) {
+                    call = CompletableFuture.failedFuture(e);
+                }
+                call.whenComplete((result, error) -> {
+                    if (error != null) {
+                        utterance.result().completeExceptionally(error);
+                    } else {
+                        utterance.result().complete(result);
+                    }
+                    delivered();
+                });
+            }
+        }
+
+        private void delivered() {
+            synchronized (this) {
+                inFlight--;
+                // Transcripts leave in spoken order, a finished later one waits for the earlier
+                while (!pending.isEmpty() && pending.peek().result().isDone()) {
+                    Pending done = pending.poll();
+                    output.add(ByteBuffer.wrap(line(done).getBytes(StandardCharsets.UTF_8)));
+                }
+            }
+            startRecognitions();
+            resumeIfCaughtUp();
+            onSelector(this::requestWrite);
+        }
+
+        private String line(Pending done) {
+            long nanos = System.nanoTime() - done.detectedNanos();
+            latency.recordNanos(nanos);
+            String transcript;
+            try {
+                transcript = done.result().join().transcript();
+            } catch (RuntimeException e) {
+                recognitionErrors.increment();
+                transcript = "";
+            }
+            // Keeps one transcript per line
+            transcript = transcript.replace('\n', ' ').replace('\t', ' ');
+            return done.sequence() + "\t" + nanos / 1_000_000 + "\t" + transcript + "\n";
+        }
+
+        private void resumeIfCaughtUp() {
+            synchronized (this) {
+                if (!readPaused || congested()) {
+                    return;
+                }
+                readPaused = false;
+            }
+            onSelector(() -> {
+                if (key.isValid()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            });
+        }
+
+        // Selector thread
+        private void requestWrite() {
+            if (!key.isValid()) {
+                return;
+            }
+            boolean close;
+            synchronized (this) {
+                if (!output.isEmpty()) {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                close = finished();
+            }
+            if (close) {
+                abort();
+            }
+        }
+
+        void abort() {
+            int dropped;
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                dropped = buffered;
+                buffered = 0;
+                input.clear();
+            }
+            bufferedBytes.addAndGet(-dropped);
+            sessions.remove(this);
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
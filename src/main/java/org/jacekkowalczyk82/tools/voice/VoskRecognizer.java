@@ -0,0 +1,176 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.vosk.LibVosk;
+import org.vosk.LogLevel;
+import org.vosk.Model;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * VoskRecognizer
+ * <p>
+ * Offline {@link Recognizer} running the Vosk (Kaldi) engine in-process, so recognition needs
+ * no network at all. The model is loaded once and shared by every utterance and stream; models
+ * can be downloaded from https://alphacephei.com/vosk/models and are passed as a directory.
+ * Audio must be 16-bit mono PCM at the rate the recognizer was created with.
+ */
+public class VoskRecognizer implements Recognizer {
+    static final Pattern TEXT = Pattern.compile("\"text\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+    static final Pattern PARTIAL = Pattern.compile("\"partial\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final Model model;
+    private final float sampleRate;
+    private final boolean bigEndian;
+    private final org.vosk.Recognizer utteranceRecognizer;
+    private final ExecutorService executor;
+    private short[] samples = new short[0];
+
+    public VoskRecognizer(Path modelDirectory, AudioFormat format) throws IOException {
+        SampleCodec.requireSupported(format);
+        if (format.getChannels() != 1) {
+            throw new IllegalArgumentException("Vosk expects mono audio, got " + format);
+        }
+        LibVosk.setLogLevel(LogLevel.WARNINGS);
+        this.model = new Model(modelDirectory.toString());
+        this.sampleRate = format.getSampleRate();
+        this.bigEndian = format.isBigEndian();
+        this.utteranceRecognizer = new org.vosk.Recognizer(model, sampleRate);
+        // Decoding is CPU bound and the engine is not thread safe, one utterance at a time
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "vosk-recognizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public synchronized RecognitionResult recognize(byte[] audio) {
+        utteranceRecognizer.reset();
+        int count = decode(audio, 0, audio.length);
+        utteranceRecognizer.acceptWaveForm(samples, count);
+        // Vosk only reports word confidences when asked for word timings
+        String text = field(TEXT, utteranceRecognizer.getFinalResult());
+        return text.isEmpty() ? RecognitionResult.EMPTY : new RecognitionResult(text, 0);
+    }
+
+    @Override
+    public CompletableFuture<RecognitionResult> recognizeAsync(byte[] audio) {
+        return CompletableFuture.supplyAsync(() -> recognize(audio), executor);
+    }
+
+    @Override
+    public StreamingSession startStreaming(TranscriptListener listener) {
+        try {
+            return new Session(new org.vosk.Recognizer(model, sampleRate), listener);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to create a Vosk recognizer", e);
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        synchronized (this) {
+            utteranceRecognizer.close();
+        }
+        model.close();
+    }
+
+    private int decode(byte[] audio, int offset, int length) {
+        int count = SampleCodec.sampleCount(length);
+        if (samples.length < count) {
+            samples = new short[count];
+        }
+        SampleCodec.decode(audio, offset, samples, 0, count, bigEndian);
+        return count;
+    }
+
+    /**
+     * Pulls one string field out of the small JSON documents Vosk returns.
+     */
+    static String field(Pattern pattern, String json) {
+        Matcher matcher = pattern.matcher(json);
+        if (!matcher.find()) {
+            return "";
+        }
+        return matcher.group(1).replace("\\\"", "\"").replace("\\\\", "\\").trim();
+    }
+
+    /**
+     * Reports the partial result after every chunk, also when it has not changed: Vosk has no
+     * stability score, so listeners such as {@link EarlyCommandListener} count the repeats instead.
+     */
+    static void emitPartial(TranscriptListener listener, String json) {
+        String partial = field(PARTIAL, json);
+        if (!partial.isEmpty()) {
+            listener.onTranscript(partial, false, 0);
+        }
+    }
+
+    private class Session implements StreamingSession {
+        private final org.vosk.Recognizer recognizer;
+        private final TranscriptListener listener;
+        private short[] buffer = new short[0];
+
+        Session(org.vosk.Recognizer recognizer, TranscriptListener listener) {
+            this.recognizer = recognizer;
+            this.listener = listener;
+        }
+
+        @Override
+        public synchronized void send(byte[] audio, int offset, int length) {
+            int count = SampleCodec.sampleCount(length);
+            if (buffer.length < count) {
+                buffer = new short[count];
+            }
+            SampleCodec.decode(audio, offset, buffer, 0, count, bigEndian);
+            accept(count);
+        }
+
+        /**
+         * Decodes straight from the buffer, no intermediate byte array.
+         */
+        @Override
+        public synchronized void send(ByteBuffer audio) {
+            int count = SampleCodec.sampleCount(audio.remaining());
+            if (buffer.length < count) {
+                buffer = new short[count];
+            }
+            audio.slice().order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN)
+                    .asShortBuffer().get(buffer, 0, count);
+            audio.position(audio.limit());
+            accept(count);
+        }
+
+        private void accept(int count) {
+            if (recognizer.acceptWaveForm(buffer, count)) {
+                // Vosk found the end of an utterance
+                emitFinal(recognizer.getResult());
+            } else {
+                emitPartial(listener, recognizer.getPartialResult());
+            }
+        }
+
+        private void emitFinal(String json) {
+            String text = field(TEXT, json);
+            if (!text.isEmpty()) {
+                listener.onTranscript(text, true, 0);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            emitFinal(recognizer.getFinalResult());
+            recognizer.close();
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * WavFile
+ * <p>
+ * Read-only view of a PCM WAV file that memory-maps the audio instead of reading it onto the heap.
+ * The RIFF chunks are parsed directly from the file, and the audio is handed out as zero-copy
+ * {@link ByteBuffer} slices of the mapping, so memory use does not grow with the file. The data is
+ * mapped in windows of at most {@link #DEFAULT_WINDOW_BYTES}, which also lifts the 2 GB limit of a
+ * single mapping.
+ */
+public class WavFile implements AutoCloseable {
+    static final int DEFAULT_WINDOW_BYTES = 256 * 1024 * 1024;
+
+    private static final int WAVE_FORMAT_PCM = 1;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    private final FileChannel channel;
+    private final AudioFormat format;
+    private final long dataOffset;
+    private final long dataLength;
+    private final int windowBytes;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    public static WavFile open(Path path) throws IOException {
+        return new WavFile(path, DEFAULT_WINDOW_BYTES);
+    }
+
+    WavFile(Path path, int windowBytes) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(header, 0);
+            if (header.getInt(0) != fourCc("RIFF") || header.getInt(8) != fourCc("WAVE")) {
+                throw new IOException("Not a RIFF/WAVE file: " + path);
+            }
+
+            AudioFormat parsedFormat = null;
+            long dataStart;
+            long dataSize;
+            long position = 12;
+            ByteBuffer chunkHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            while (true) {
+                chunkHeader.clear();
+                readFully(chunkHeader, position);
+                int id = chunkHeader.getInt(0);
+                long size = Integer.toUnsignedLong(chunkHeader.getInt(4));
+                long body = position + 8;
+                if (id == fourCc("fmt ")) {
+                    parsedFormat = parseFormat(body, size);
+                } else if (id == fourCc("data")) {
+                    if (parsedFormat == null) {
+                        throw new IOException("WAV data chunk before fmt chunk: " + path);
+                    }
+                    // Recorders that were killed leave the size at 0 or 0xFFFFFFFF, trust the file length
+                    long available = channel.size() - body;
+                    if (size == 0 || size > available) {
+                        size = available;
+                    }
+                    dataStart = body;
+                    dataSize = size;
+                    break;
+                }
+                // Chunks are padded to an even size
+                position = body + size + (size & 1);
+            }
+            int frameSize = parsedFormat.getFrameSize();
+            format = parsedFormat;
+            dataOffset = dataStart;
+            dataLength = dataSize / frameSize * frameSize;
+            // Windows hold whole frames so a slice never splits a sample
+            this.windowBytes = Math.max(frameSize, windowBytes / frameSize * frameSize);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private AudioFormat parseFormat(long position, long size) throws IOException {
+        if (size < 16) {
+            throw new IOException("WAV fmt chunk too short: " + size);
+        }
+        ByteBuffer fmt = ByteBuffer.allocate((int) Math.min(size, 40)).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(fmt, position);
+        int formatTag = Short.toUnsignedInt(fmt.getShort(0));
+        int channels = Short.toUnsignedInt(fmt.getShort(2));
+        int sampleRate = fmt.getInt(4);
+        int bitsPerSample = Short.toUnsignedInt(fmt.getShort(14));
+        if (formatTag == WAVE_FORMAT_EXTENSIBLE && size >= 26) {
+            // The first two bytes of the sub-format GUID carry the real format tag
+            formatTag = Short.toUnsignedInt(fmt.getShort(24));
+        }
+        if (formatTag != WAVE_FORMAT_PCM) {
+            throw new IOException("Only PCM WAV files are supported, format tag " + formatTag);
+        }
+        // WAV stores 8-bit audio unsigned and everything else signed little-endian
+        return new AudioFormat(bitsPerSample == 8 ? AudioFormat.Encoding.PCM_UNSIGNED : AudioFormat.Encoding.PCM_SIGNED,
+                sampleRate, bitsPerSample, channels, channels * ((bitsPerSample + 7) / 8), sampleRate, false);
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Truncated WAV file");
+            }
+            position += n;
+        }
+    }
+
+    private static int fourCc(String id) {
+        return id.charAt(0) | id.charAt(1) << 8 | id.charAt(2) << 16 | id.charAt(3) << 24;
+    }
+
+    public AudioFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * Number of audio bytes, always a whole number of frames.
+     */
+    public long dataLength() {
+        return dataLength;
+    }
+
+    public long durationMillis() {
+        return (long) (dataLength / format.getFrameSize() * 1000 / format.getFrameRate());
+    }
+
+    /**
+     * Zero-copy view of {@code length} audio bytes starting {@code offset} bytes into the data.
+     * The slice is little-endian and stays valid after the file is closed.
+     */
+    public ByteBuffer slice(long offset, int length) throws IOException {
+        if (offset < 0 || length < 0 || offset + length > dataLength) {
+            throw new IndexOutOfBoundsException("Slice " + offset + "+" + length + " outside " + dataLength + " bytes");
+        }
+        if (window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+            long start = offset / format.getFrameSize() * format.getFrameSize();
+            long size = Math.min(Math.max(windowBytes, offset + length - start), dataLength - start);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + start, size);
+            windowStart = start;
+        }
+        return window.slice((int) (offset - windowStart), length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * The whole data as consecutive slices of {@code chunkBytes} (rounded down to whole frames),
+     * the last one may be shorter.
+     */
+    public Iterable<ByteBuffer> chunks(int chunkBytes) {
+        int frameSize = format.getFrameSize();
+        int size = Math.max(frameSize, chunkBytes / frameSize * frameSize);
+        return () -> new Iterator<>() {
+            private long offset;
+
+            @Override
+            public boolean hasNext() {
+                return offset < dataLength;
+            }
+
+            @Override
+            public ByteBuffer next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int length = (int) Math.min(size, dataLength - offset);
+                try {
+                    ByteBuffer chunk = slice(offset, length);
+                    offset += length;
+                    return chunk;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
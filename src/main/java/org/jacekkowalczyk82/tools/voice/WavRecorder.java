@@ -0,0 +1,290 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * WavRecorder
+ * <p>
+ * Debug recorder that writes PCM to WAV files on a background thread, so disk I/O never sits on the
+ * capture or recognition path. Callers copy audio into pooled chunks and return immediately; when no
+ * chunk is free the audio is dropped and counted instead of blocking. The data is streamed through a
+ * {@link FileChannel} and the RIFF sizes are patched into the header when a file is closed.
+ * Files rotate by size and age, and recording can be switched off or sampled at runtime.
+ */
+public class WavRecorder implements AutoCloseable {
+    public static final int DEFAULT_CHUNK_BYTES = 32 * 1024;
+    public static final int DEFAULT_CHUNKS = 64;
+    private static final int HEADER_BYTES = 44;
+    private static final LatencyHistogram WRITE_TIME = Metrics.global().histogram("wav_write",
+            "Time to write one chunk of debug audio to disk");
+    private static final Metrics.Counter DROPPED = Metrics.global().counter("wav_dropped_bytes",
+            "Debug audio dropped because the recorder's chunk pool was empty");
+
+    private final Path directory;
+    private final String name;
+    private final AudioFormat format;
+    private final long maxFileBytes;
+    private final long maxFileMillis;
+    private final int chunkBytes;
+
+    private final BlockingQueue<Chunk> free;
+    private final BlockingQueue<Chunk> pending;
+    private final Chunk endOfStream = new Chunk(0);
+    private final Thread writerThread;
+
+    private volatile boolean enabled = true;
+    private volatile int sampleEvery = 1;
+    private long calls;
+    private final AtomicLong droppedBytes = new AtomicLong();
+    private volatile boolean closed;
+
+    // Writer thread state
+    private FileChannel channel;
+    private Path currentFile;
+    private long fileBytes;
+    private long fileOpenedAt;
+    private int fileIndex;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Single file recorder, written to {@code <directory>/<name>.wav}.
+     */
+    public WavRecorder(Path directory, String name, AudioFormat format) {
+        this(directory, name, format, 0, 0, DEFAULT_CHUNK_BYTES, DEFAULT_CHUNKS);
+    }
+
+    /**
+     * @param maxFileBytes  rotate once a file holds this much audio, 0 for no limit
+     * @param maxFileMillis rotate once a file is this old, 0 for no limit
+     */
+    public WavRecorder(Path directory, String name, AudioFormat format, long maxFileBytes, long maxFileMillis,
+                       int chunkBytes, int chunks) {
+        SampleCodec.requireSupported(format);
+        this.directory = directory;
+        this.name = name;
+        this.format = format;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileMillis = maxFileMillis;
+        // Chunks hold whole frames so byte swapping never splits a sample
+        this.chunkBytes = Math.max(format.getFrameSize(), chunkBytes / format.getFrameSize() * format.getFrameSize());
+        this.free = new ArrayBlockingQueue<>(chunks);
+        this.pending = new ArrayBlockingQueue<>(chunks + 1);
+        for (int i = 0; i < chunks; i++) {
+            free.add(new Chunk(this.chunkBytes));
+        }
+        this.writerThread = new Thread(this::writeLoop, "wav-recorder-" + name);
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Keeps only one of every {@code n} {@link #record} calls, meant for recording whole utterances.
+     */
+    public void setSampleEvery(int n) {
+        this.sampleEvery = Math.max(1, n);
+    }
+
+    public long droppedBytes() {
+        return droppedBytes.get();
+    }
+
+    /**
+     * Queues audio for writing; never blocks. The length should be a whole number of frames.
+     */
+    public synchronized void record(byte[] buffer, int offset, int length) {
+        if (!enabled || closed || calls++ % sampleEvery != 0) {
+            return;
+        }
+        while (length > 0) {
+            Chunk chunk = free.poll();
+            if (chunk == null) {
+                droppedBytes.addAndGet(length);
+                DROPPED.add(length);
+                return;
+            }
+            int n = Math.min(length, chunkBytes);
+            System.arraycopy(buffer, offset, chunk.data, 0, n);
+            chunk.length = n;
+            pending.add(chunk);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    public void record(byte[] audioData) {
+        record(audioData, 0, audioData.length);
+    }
+
+    /**
+     * Finishes the current file; the next recorded audio goes to a new one.
+     */
+    public synchronized void rotate() {
+        if (!closed) {
+            Chunk marker = free.poll();
+            if (marker != null) {
+                marker.length = -1;
+                pending.add(marker);
+            }
+        }
+    }
+
+    /**
+     * Waits until the queued audio is written and the file closed. An interrupt cuts the wait short,
+     * the writer still finishes in the background, and is kept set for the caller.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pending.add(endOfStream);
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeLoop() {
+        try {
+            while (true) {
+                Chunk chunk = pending.take();
+                if (chunk == endOfStream) {
+                    break;
+                }
+                try {
+                    if (chunk.length < 0) {
+                        closeFile();
+                    } else {
+                        write(chunk);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    closeQuietly();
+                } finally {
+                    free.add(chunk);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeQuietly();
+        }
+    }
+
+    private void write(Chunk chunk) throws IOException {
+        long start = System.nanoTime();
+        if (channel != null && shouldRotate()) {
+            closeFile();
+        }
+        if (channel == null) {
+            openFile();
+        }
+        // WAV stores 16-bit samples little-endian
+        if (format.isBigEndian()) {
+            byte[] data = chunk.data;
+            for (int i = 0; i + 1 < chunk.length; i += 2) {
+                byte high = data[i];
+                data[i] = data[i + 1];
+                data[i + 1] = high;
+            }
+        }
+        ByteBuffer buffer = chunk.buffer;
+        buffer.clear().limit(chunk.length);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        fileBytes += chunk.length;
+        WRITE_TIME.recordNanos(System.nanoTime() - start);
+    }
+
+    private boolean shouldRotate() {
+        return (maxFileBytes > 0 && fileBytes >= maxFileBytes)
+                || (maxFileMillis > 0 && System.currentTimeMillis() - fileOpenedAt >= maxFileMillis);
+    }
+
+    private void openFile() throws IOException {
+        boolean rotating = maxFileBytes > 0 || maxFileMillis > 0 || fileIndex > 0;
+        currentFile = directory.resolve(rotating ? name + "-" + fileIndex + ".wav" : name + ".wav");
+        fileIndex++;
+        channel = FileChannel.open(currentFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        fileBytes = 0;
+        fileOpenedAt = System.currentTimeMillis();
+        // Sizes are unknown until the file is closed
+        writeHeader(0);
+        channel.position(HEADER_BYTES);
+    }
+
+    private void closeFile() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        try {
+            writeHeader(fileBytes);
+        } finally {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            closeFile();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void writeHeader(long dataBytes) throws IOException {
+        int channels = format.getChannels();
+        int sampleRate = (int) format.getSampleRate();
+        int blockAlign = format.getFrameSize();
+        header.clear();
+        header.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        header.putInt((int) Math.min(0xFFFFFFFFL, 36 + dataBytes));
+        header.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        header.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        header.putInt(16);
+        header.putShort((short) 1); // PCM
+        header.putShort((short) channels);
+        header.putInt(sampleRate);
+        header.putInt(sampleRate * blockAlign);
+        header.putShort((short) blockAlign);
+        header.putShort((short) format.getSampleSizeInBits());
+        header.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        header.putInt((int) Math.min(0xFFFFFFFFL, dataBytes));
+        header.flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+    }
+
+    private static final class Chunk {
+        final byte[] data;
+        final ByteBuffer buffer;
+        int length;
+
+        Chunk(int size) {
+            data = new byte[size];
+            buffer = ByteBuffer.wrap(data);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * WavReplaySource
+ * <p>
+ * {@link AudioSource} that plays a WAV recording into the pipeline instead of a microphone, so the
+ * assistant runs on machines without a sound card. In real time mode audio is handed out no faster
+ * than it would be spoken, which keeps end-to-end latencies comparable with live use; otherwise as
+ * fast as the capture thread reads. The recording can be repeated, with silence in between, for
+ * soak tests; the stream ends after the last repetition.
+ */
+public class WavReplaySource implements AudioSource {
+    // Longer than the detector's hangover, so every repetition is an utterance of its own
+    public static final int DEFAULT_GAP_MILLIS = VoiceActivityDetector.DEFAULT_HANGOVER_MILLIS + 500;
+
+    private final WavFile wav;
+    private final boolean realTime;
+    private final int loops;
+    private final long gapBytes;
+    private final double bytesPerNano;
+
+    private volatile boolean stopped = true;
+    private volatile Thread reader;
+    private long startNanos;
+    private long delivered;
+    private long position;
+    private long gapRemaining;
+    private int loopsCompleted;
+
+    public WavReplaySource(Path file, boolean realTime) throws IOException {
+        this(file, realTime, 1, DEFAULT_GAP_MILLIS);
+    }
+
+    /**
+     * @param loops     times the recording is played, 0 to repeat until stopped
+     * @param gapMillis silence between two repetitions
+     */
+    public WavReplaySource(Path file, boolean realTime, int loops, int gapMillis) throws IOException {
+        this.wav = WavFile.open(file);
+        AudioFormat format = wav.getFormat();
+        SampleCodec.requireSupported(format);
+        this.realTime = realTime;
+        this.loops = loops;
+        double bytesPerMilli = format.getFrameRate() * format.getFrameSize() / 1000;
+        this.gapBytes = (long) (bytesPerMilli * gapMillis) / format.getFrameSize() * format.getFrameSize();
+        this.bytesPerNano = bytesPerMilli / 1_000_000;
+    }
+
+    @Override
+    public AudioFormat getFormat() {
+        return wav.getFormat();
+    }
+
+    /**
+     * Repetitions played to the end so far.
+     */
+    public synchronized int loopsCompleted() {
+        return loopsCompleted;
+    }
+
+    @Override
+    public synchronized void start() {
+        // Real time is measured from here, pauses between stop and start are not caught up
+        startNanos = System.nanoTime() - (long) (delivered / bytesPerNano);
+        stopped = false;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int frameSize = wav.getFormat().getFrameSize();
+        int n;
+        synchronized (this) {
+            if (stopped) {
+                return -1;
+            }
+            n = length / frameSize * frameSize;
+            if (gapRemaining == 0 && position == wav.dataLength()) {
+                loopsCompleted++;
+                if (loops > 0 && loopsCompleted >= loops) {
+                    return -1;
+                }
+                position = 0;
+                gapRemaining = gapBytes;
+            }
+            if (gapRemaining > 0) {
+                n = (int) Math.min(n, gapRemaining);
+                Arrays.fill(buffer, offset, offset + n, (byte) 0);
+                gapRemaining -= n;
+            } else {
+                n = (int) Math.min(n, wav.dataLength() - position);
+                wav.slice(position, n).get(buffer, offset, n);
+                position += n;
+            }
+            delivered += n;
+        }
+        if (realTime && !awaitSpoken()) {
+            return -1;
+        }
+        return n;
+    }
+
+    // Waits until everything delivered so far would have been spoken; false when stopped meanwhile
+    private boolean awaitSpoken() {
+        long due;
+        synchronized (this) {
+            due = startNanos + (long) (delivered / bytesPerNano);
+        }
+        reader = Thread.currentThread();
+        try {
+            long wait;
+            while (!stopped && (wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+        } finally {
+            reader = null;
+        }
+        return !stopped;
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        Thread waiting = reader;
+        if (waiting != null) {
+            LockSupport.unpark(waiting);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        stop();
+        wav.close();
+    }
+}
@@ -0,0 +1,162 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AudioRingBufferTest {
+
+    private static byte[] sequence(int start, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) (start + i);
+        }
+        return bytes;
+    }
+
+    @Test
+    public void shouldDeliverSameBytesToEveryReaderAcrossWrapAround() {
+        AudioRingBuffer ring = new AudioRingBuffer(64, 16);
+        AudioRingBuffer.Reader first = ring.newReader();
+        AudioRingBuffer.Reader second = ring.newReader();
+        ByteArrayOutputStream firstOut = new ByteArrayOutputStream();
+        ByteArrayOutputStream secondOut = new ByteArrayOutputStream();
+
+        for (int i = 0; i < 10; i++) {
+            ring.write(sequence(i * 10, 10), 0, 10);
+            first.drain(firstOut::write, 0, TimeUnit.MILLISECONDS);
+            if (i % 2 == 1) {
+                second.drain(secondOut::write, 0, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        assertArrayEquals(sequence(0, 100), firstOut.toByteArray());
+        assertArrayEquals(sequence(0, 100), secondOut.toByteArray());
+        assertEquals(0, first.droppedBytes());
+        assertEquals(0, second.droppedBytes());
+    }
+
+    @Test
+    public void shouldFillRingDirectlyFromSource() throws Exception {
+        AudioRingBuffer ring = new AudioRingBuffer(64, 16);
+        AudioRingBuffer.Reader reader = ring.newReader();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int[] counter = {0};
+        AudioRingBuffer.Source source = (buffer, offset, length) -> {
+            for (int i = 0; i < length; i++) {
+                buffer[offset + i] = (byte) counter[0]++;
+            }
+            return length;
+        };
+
+        for (int i = 0; i < 6; i++) {
+            assertEquals(16, ring.write(source));
+            reader.drain(out::write, 0, TimeUnit.MILLISECONDS);
+        }
+
+        assertArrayEquals(sequence(0, 96), out.toByteArray());
+    }
+
+    @Test
+    public void shouldSkipAheadAndCountDroppedBytesWhenReaderFallsBehind() {
+        AudioRingBuffer ring = new AudioRingBuffer(64, 16);
+        AudioRingBuffer.Reader reader = ring.newReader();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        ring.write(sequence(0, 128), 0, 128);
+        int delivered = reader.drain(out::write, 0, TimeUnit.MILLISECONDS);
+
+        // The newest capacity minus one write is still safe to read
+        assertEquals(48, delivered);
+        assertEquals(80, reader.droppedBytes());
+        assertArrayEquals(sequence(80, 48), out.toByteArray());
+    }
+
+    @Test
+    public void shouldSkipSlicesTheProducerLapsWhileTheConsumerReads() {
+        AudioRingBuffer ring = new AudioRingBuffer(64, 16);
+        AudioRingBuffer.Reader reader = ring.newReader();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        boolean[] lapped = {false};
+
+        ring.write(sequence(0, 48), 0, 48);
+        int delivered = reader.drain((buffer, offset, length) -> {
+            out.write(buffer, offset, length);
+            if (!lapped[0]) {
+                // A slow consumer: a whole ring is captured while it handles the first slice
+                lapped[0] = true;
+                ring.write(sequence(48, 64), 0, 64);
+            }
+        }, 0, TimeUnit.MILLISECONDS);
+
+        // The rest of the first drain now holds newer audio and is not handed on
+        assertEquals(16, delivered);
+        assertEquals(48, reader.droppedBytes());
+        assertEquals(48, reader.drain(out::write, 0, TimeUnit.MILLISECONDS));
+        byte[] expected = new byte[64];
+        System.arraycopy(sequence(0, 16), 0, expected, 0, 16);
+        System.arraycopy(sequence(64, 48), 0, expected, 16, 48);
+        assertArrayEquals(expected, out.toByteArray());
+    }
+
+    @Test
+    public void shouldReturnMinusOneOnceClosedAndDrained() {
+        AudioRingBuffer ring = new AudioRingBuffer(64, 16);
+        AudioRingBuffer.Reader reader = ring.newReader();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertEquals(0, reader.drain(out::write, 10, TimeUnit.MILLISECONDS));
+        ring.write(sequence(0, 8), 0, 8);
+        ring.close();
+
+        assertEquals(8, reader.drain(out::write, 10, TimeUnit.MILLISECONDS));
+        assertEquals(-1, reader.drain(out::write, 10, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void shouldWakeUpWaitingReader() throws Exception {
+        AudioRingBuffer ring = new AudioRingBuffer(64, 16);
+        AudioRingBuffer.Reader reader = ring.newReader();
+        int[] delivered = new int[1];
+
+        Thread consumer = new Thread(() -> delivered[0] = reader.drain((b, o, l) -> { }, 10, TimeUnit.SECONDS));
+        consumer.start();
+        Thread.sleep(50);
+        ring.write(sequence(0, 12), 0, 12);
+        consumer.join(5000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals(12, delivered[0]);
+    }
+
+    @Test
+    public void shouldNotAllocateInSteadyState() throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        AudioRingBuffer ring = new AudioRingBuffer(6400, 640);
+        AudioRingBuffer.Reader reader = ring.newReader();
+        AudioRingBuffer.Source source = (buffer, offset, length) -> length;
+        AudioRingBuffer.Consumer consumer = (buffer, offset, length) -> { };
+
+        for (int i = 0; i < 100_000; i++) {
+            ring.write(source);
+            reader.drain(consumer, 0, TimeUnit.MILLISECONDS);
+        }
+        // Best of a few rounds, a JIT recompilation can land in any single one
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < 100_000; i++) {
+                ring.write(source);
+                reader.drain(consumer, 0, TimeUnit.MILLISECONDS);
+            }
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before);
+        }
+
+        // Allow for the measurement itself, but nothing per chunk
+        assertTrue(allocated < 10_000, "allocated " + allocated + " bytes");
+    }
+}
@@ -0,0 +1,212 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.api.gax.grpc.GrpcStatusCode;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.ApiExceptionFactory;
+import io.grpc.Status;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BatchTranscriberTest {
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+
+    @TempDir
+    Path directory;
+
+    private Path wav(String name, int samples) throws Exception {
+        Path file = directory.resolve(name);
+        Files.createDirectories(file.getParent());
+        byte[] pcm = new byte[samples * 2];
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(pcm), FORMAT, samples)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, file.toFile());
+        }
+        return file;
+    }
+
+    @Test
+    public void shouldCollectDirectoriesAndGlobs() throws Exception {
+        Path a = wav("day1/a.wav", 10);
+        Path b = wav("day1/b.wav", 10);
+        Path c = wav("day2/c.wav", 10);
+        Files.writeString(directory.resolve("day2/notes.txt"), "not audio");
+
+        assertEquals(List.of(a, b), BatchTranscriber.collect(List.of(directory.resolve("day1").toString())));
+        assertEquals(List.of(a, b, c), BatchTranscriber.collect(List.of(directory + "/day*/*.wav")));
+    }
+
+    @Test
+    public void shouldWriteOneLinePerFileAndResume() throws Exception {
+        List<Path> files = List.of(wav("a.wav", 8000), wav("b.wav", 16000), wav("c.wav", 1600));
+        Path output = directory.resolve("out.jsonl");
+        // A previous run finished a.wav and crashed while writing b.wav
+        Files.writeString(output, "{\"file\":" + BatchTranscriber.quote(files.get(0).toString())
+                + ",\"status\":\"ok\",\"transcript\":\"earlier\"}\n{\"file\":\"" + files.get(1), StandardCharsets.UTF_8);
+
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT)) {
+            BatchTranscriber.Summary summary = new BatchTranscriber(recognizer, FORMAT, 2, 1).run(files, output);
+
+            assertEquals(new BatchTranscriber.Summary(2, 1, 0), summary);
+            assertEquals(2, recognizer.requests());
+        }
+        List<String> lines = Files.readAllLines(output);
+        assertEquals(4, lines.size());
+        assertTrue(lines.stream().anyMatch(l -> l.contains("b.wav\",\"status\":\"ok\",\"transcript\":\"heard 1000 ms\"")));
+        assertTrue(lines.stream().anyMatch(l -> l.contains("c.wav\",\"status\":\"ok\",\"transcript\":\"heard 100 ms\"")));
+        assertTrue(lines.get(3).contains("\"recognizeMs\":"));
+
+        // Everything is done now
+        assertEquals(3, BatchTranscriber.completedFiles(output).size());
+    }
+
+    private static ApiException apiException(Status.Code code) {
+        return ApiExceptionFactory.createException(new RuntimeException(code.name()), GrpcStatusCode.of(code), false);
+    }
+
+    /**
+     * Fails the first call, and every call for audio of {@code brokenLength} bytes, with {@code error}.
+     */
+    private static Recognizer failing(AtomicInteger calls, int brokenLength, RuntimeException error) {
+        FakeRecognizer fake = new FakeRecognizer(FORMAT, List.of("ok"), 0);
+        return new Recognizer() {
+            @Override
+            public RecognitionResult recognize(byte[] audio) {
+                calls.incrementAndGet();
+                if (audio.length == brokenLength || calls.get() == 1) {
+                    throw error;
+                }
+                return fake.recognize(audio);
+            }
+
+            @Override
+            public CompletableFuture<RecognitionResult> recognizeAsync(byte[] audio) {
+                return CompletableFuture.completedFuture(recognize(audio));
+            }
+
+            @Override
+            public StreamingSession startStreaming(TranscriptListener listener) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void shouldRetryTransientErrorsAndReportFailures() throws Exception {
+        Path flaky = wav("flaky.wav", 160);
+        Path broken = wav("broken.wav", 320);
+        AtomicInteger calls = new AtomicInteger();
+        Recognizer recognizer = failing(calls, 640, apiException(Status.Code.UNAVAILABLE));
+
+        Path output = directory.resolve("out.jsonl");
+        BatchTranscriber.Summary summary = new BatchTranscriber(recognizer, FORMAT, 1, 3, 1)
+                .run(List.of(flaky, broken), output);
+
+        assertEquals(new BatchTranscriber.Summary(1, 0, 1), summary);
+        assertEquals(5, calls.get());
+        List<String> lines = Files.readAllLines(output);
+        assertTrue(lines.get(0).contains("\"status\":\"ok\",\"transcript\":\"ok\",\"confidence\":1.0,\"attempts\":2"));
+        assertTrue(lines.get(1).contains("\"status\":\"error\",\"error\":\"com.google.api.gax.rpc.UnavailableException:"));
+        assertTrue(lines.get(1).contains("\"attempts\":3"));
+    }
+
+    @Test
+    public void shouldNotRetryErrorsThatWouldRepeat() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        Recognizer recognizer = failing(calls, -1, apiException(Status.Code.INVALID_ARGUMENT));
+
+        Path output = directory.resolve("out.jsonl");
+        BatchTranscriber.Summary summary = new BatchTranscriber(recognizer, FORMAT, 1, 3, 1)
+                .run(List.of(wav("a.wav", 160)), output);
+
+        assertEquals(new BatchTranscriber.Summary(0, 0, 1), summary);
+        assertEquals(1, calls.get());
+        assertTrue(Files.readString(output).contains("\"attempts\":1"));
+        assertFalse(BatchTranscriber.isRetryable(new IllegalStateException("UNAVAILABLE")));
+    }
+
+    @Test
+    public void shouldRecognizeLongFilesInPieces() throws Exception {
+        Path output = directory.resolve("out.jsonl");
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT)) {
+            BatchTranscriber.Summary summary = new BatchTranscriber(recognizer, FORMAT, 1, 1)
+                    .run(List.of(wav("long.wav", 16000 * 70)), output);
+
+            assertEquals(new BatchTranscriber.Summary(1, 0, 0), summary);
+            assertEquals(2, recognizer.requests());
+        }
+        String line = Files.readString(output);
+        assertTrue(line.contains("\"pieces\":2,\"audioMs\":70000"), line);
+    }
+
+    @Test
+    public void shouldCutPiecesAtTheQuietestMoment() throws Exception {
+        // 3 s of a loud tone with a 20 ms gap 2.5 s in
+        byte[] audio = new byte[16000 * 3 * 2];
+        for (int i = 0; i < audio.length / 2; i++) {
+            boolean gap = i >= 40000 && i < 40320;
+            SampleCodec.putSample(audio, 2 * i, (short) (gap ? 0 : 8000 * Math.sin(i / 5.0)), false);
+        }
+        Path file = directory.resolve("gap.wav");
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(audio), FORMAT, audio.length / 2)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, file.toFile());
+        }
+
+        try (WavFile wav = WavFile.open(file)) {
+            List<ByteBuffer> pieces = BatchTranscriber.split(wav, 2800);
+
+            assertEquals(2, pieces.size());
+            assertEquals(2 * 40160, pieces.get(0).remaining());
+            assertEquals(audio.length, pieces.get(0).remaining() + pieces.get(1).remaining());
+            assertEquals(SampleCodec.getSample(audio, 2 * 40160, false), pieces.get(1).getShort(0));
+            assertEquals(1, BatchTranscriber.split(wav, 3000).size());
+        }
+    }
+
+    @Test
+    public void shouldConvertFilesInAnotherFormat() throws Exception {
+        Path file = directory.resolve("stereo.wav");
+        AudioFormat stereo = new AudioFormat(48000, 16, 2, true, false);
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(new byte[48000 * 4]), stereo, 48000)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, file.toFile());
+        }
+        Path output = directory.resolve("out.jsonl");
+
+        BatchTranscriber.Summary summary = new BatchTranscriber(new FakeRecognizer(FORMAT), FORMAT, 1, 1)
+                .run(List.of(file), output);
+
+        assertEquals(1, summary.transcribed());
+        // One second of audio after downmixing and resampling to 16 kHz, plus the resampler tail
+        assertTrue(Files.readString(output).contains("\"audioMs\":1001"), Files.readString(output));
+    }
+
+    @Test
+    public void shouldReportFilesThatAreNotAudio() throws Exception {
+        Path file = directory.resolve("notes.wav");
+        Files.writeString(file, "not audio");
+        Path output = directory.resolve("out.jsonl");
+
+        BatchTranscriber.Summary summary = new BatchTranscriber(new FakeRecognizer(FORMAT), FORMAT, 1, 1)
+                .run(List.of(file), output);
+
+        assertEquals(1, summary.failed());
+        assertTrue(Files.readString(output).contains("\"status\":\"error\""));
+    }
+}
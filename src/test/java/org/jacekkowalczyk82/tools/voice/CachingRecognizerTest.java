@@ -0,0 +1,180 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CachingRecognizerTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+
+    // Syllables as pairs of formant-like tones, see KeywordSpotterTest
+    private static final double[][] VOLUME_UP = {{500, 1500}, {900, 2500}, {700, 1100}};
+    private static final double[][] NEXT = {{700, 1100}, {400, 2200}};
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(11);
+
+    /**
+     * A command as the detector delivers it: pre-roll silence, the word, then hangover silence.
+     */
+    private byte[] utterance(double[][] syllables, double stretch, double gain, double noise) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        silence(out, 0.2, noise);
+        int samples = (int) (0.2 * SAMPLE_RATE * stretch);
+        byte[] pcm = new byte[2];
+        for (double[] syllable : syllables) {
+            for (int i = 0; i < samples; i++) {
+                double envelope = Math.sin(Math.PI * i / samples);
+                double value = gain * envelope * (0.3 * Math.sin(2 * Math.PI * syllable[0] * i / SAMPLE_RATE)
+                        + 0.2 * Math.sin(2 * Math.PI * syllable[1] * i / SAMPLE_RATE))
+                        + random.nextGaussian() * noise;
+                SampleCodec.putSample(pcm, 0, (short) Math.round(value * 32767), false);
+                out.write(pcm, 0, 2);
+            }
+        }
+        silence(out, 1.0, noise);
+        return out.toByteArray();
+    }
+
+    private void silence(ByteArrayOutputStream out, double seconds, double noise) {
+        byte[] pcm = new byte[2];
+        for (int i = 0; i < seconds * SAMPLE_RATE; i++) {
+            SampleCodec.putSample(pcm, 0, (short) Math.round(random.nextGaussian() * noise * 32767), false);
+            out.write(pcm, 0, 2);
+        }
+    }
+
+    @Test
+    public void shouldFingerprintRepetitionsCloserThanOtherCommands() {
+        FeatureExtractor features = new FeatureExtractor(FORMAT);
+        AudioFingerprint original = AudioFingerprint.of(features, utterance(VOLUME_UP, 1.0, 1.0, 0.002));
+        AudioFingerprint again = AudioFingerprint.of(features, utterance(VOLUME_UP, 1.2, 0.4, 0.004));
+        AudioFingerprint other = AudioFingerprint.of(features, utterance(NEXT, 1.0, 1.0, 0.002));
+
+        assertEquals(600, original.durationMillis(), 60);
+        assertEquals(0f, original.distance(original), 1e-6f);
+        assertTrue(original.distance(again) < CachingRecognizer.DEFAULT_MAX_DISTANCE);
+        assertTrue(original.distance(other) > CachingRecognizer.DEFAULT_MAX_DISTANCE);
+        assertNull(AudioFingerprint.of(features, new byte[32000]));
+    }
+
+    @Test
+    public void shouldAnswerRepeatedCommandsFromCache() throws Exception {
+        Metrics.Counter hits = Metrics.global().counter("transcript_cache_hits", "");
+        Metrics.Counter misses = Metrics.global().counter("transcript_cache_misses", "");
+        long hitsBefore = hits.get();
+        long missesBefore = misses.get();
+        FakeRecognizer backend = new FakeRecognizer(FORMAT, List.of("volume up", "next"), 0);
+        try (CachingRecognizer recognizer = new CachingRecognizer(backend, FORMAT)) {
+            assertEquals("volume up", recognizer.recognize(utterance(VOLUME_UP, 1.0, 1.0, 0.002)).transcript());
+            assertEquals("next", recognizer.recognize(utterance(NEXT, 1.0, 1.0, 0.002)).transcript());
+            assertEquals("volume up", recognizer.recognize(utterance(VOLUME_UP, 1.2, 0.4, 0.004)).transcript());
+            assertEquals("next", recognizer.recognizeAsync(utterance(NEXT, 0.9, 0.7, 0.002)).get().transcript());
+
+            assertEquals(2, backend.requests());
+            assertEquals(2, recognizer.hits());
+            assertEquals(2, recognizer.misses());
+            assertEquals(0.5, recognizer.hitRate(), 1e-9);
+        }
+        assertEquals(2, hits.get() - hitsBefore);
+        assertEquals(2, misses.get() - missesBefore);
+    }
+
+    @Test
+    public void shouldNotCacheLongOrEmptyUtterances() {
+        FakeRecognizer backend = new FakeRecognizer(FORMAT, List.of("dictation", "", ""), 0);
+        try (CachingRecognizer recognizer = new CachingRecognizer(backend, FORMAT)) {
+            // Five seconds of audio is dictation, not a command
+            byte[] longUtterance = new byte[5 * SAMPLE_RATE * 2];
+            System.arraycopy(utterance(VOLUME_UP, 1.0, 1.0, 0.002), 0, longUtterance, 0, 32000);
+            recognizer.recognize(longUtterance);
+            recognizer.recognize(utterance(NEXT, 1.0, 1.0, 0.002));
+            recognizer.recognize(utterance(NEXT, 1.0, 1.0, 0.002));
+
+            assertEquals(3, backend.requests());
+            assertEquals(0, recognizer.size());
+        }
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedAndExpiredEntries() {
+        long[] now = {0};
+        FakeRecognizer backend = new FakeRecognizer(FORMAT, List.of("volume up", "next"), 0);
+        try (CachingRecognizer recognizer = new CachingRecognizer(backend, FORMAT, 1, 60_000,
+                CachingRecognizer.DEFAULT_MAX_DISTANCE, null, () -> "", () -> now[0])) {
+            recognizer.recognize(utterance(VOLUME_UP, 1.0, 1.0, 0.002));
+            recognizer.recognize(utterance(NEXT, 1.0, 1.0, 0.002));
+            assertEquals(1, recognizer.size());
+            assertEquals(1, recognizer.evictions());
+
+            // "next" is still cached, "volume up" was pushed out
+            assertEquals("next", recognizer.recognize(utterance(NEXT, 1.0, 1.0, 0.002)).transcript());
+            assertEquals(2, backend.requests());
+
+            now[0] = 61_000;
+            recognizer.recognize(utterance(NEXT, 1.0, 1.0, 0.002));
+            assertEquals(3, backend.requests());
+            assertEquals(2, recognizer.evictions());
+        }
+    }
+
+    @Test
+    public void shouldKeepCacheOnDiskAcrossRuns() throws Exception {
+        Path store = directory.resolve("transcripts.cache");
+        FakeRecognizer first = new FakeRecognizer(FORMAT, List.of("volume up"), 0);
+        try (CachingRecognizer recognizer = new CachingRecognizer(first, FORMAT, 16,
+                CachingRecognizer.DEFAULT_TTL_MILLIS, CachingRecognizer.DEFAULT_MAX_DISTANCE, store)) {
+            recognizer.recognize(utterance(VOLUME_UP, 1.0, 1.0, 0.002));
+        }
+
+        FakeRecognizer second = new FakeRecognizer(FORMAT, List.of("wrong"), 0);
+        try (CachingRecognizer recognizer = new CachingRecognizer(second, FORMAT, 16,
+                CachingRecognizer.DEFAULT_TTL_MILLIS, CachingRecognizer.DEFAULT_MAX_DISTANCE, store)) {
+            assertEquals(1, recognizer.size());
+            assertEquals("volume up", recognizer.recognize(utterance(VOLUME_UP, 1.1, 0.8, 0.003)).transcript());
+            assertEquals(0, second.requests());
+        }
+    }
+
+    @Test
+    public void shouldMissAfterSwitchingToAProfileInAnotherLanguage() throws Exception {
+        Path store = directory.resolve("transcripts.cache");
+        VoiceConfig config = new VoiceConfig(null, Map.of(), List.of());
+        FakeRecognizer english = new FakeRecognizer(FORMAT, List.of("volume up"), 0);
+        FakeRecognizer polish = new FakeRecognizer(FORMAT, List.of("głośniej"), 0);
+        ProfileRecognizer profiles = new ProfileRecognizer(config, recognition ->
+                recognition.getLanguageCode().equals("pl-PL") ? polish : english);
+        try (CachingRecognizer recognizer = new CachingRecognizer(profiles, FORMAT, 16,
+                CachingRecognizer.DEFAULT_TTL_MILLIS, CachingRecognizer.DEFAULT_MAX_DISTANCE, store,
+                () -> config.active().language())) {
+            assertEquals("volume up", recognizer.recognize(utterance(VOLUME_UP, 1.0, 1.0, 0.002)).transcript());
+            config.switchTo("polish");
+            assertEquals("głośniej", recognizer.recognize(utterance(VOLUME_UP, 1.0, 1.0, 0.002)).transcript());
+            assertEquals(1, polish.requests());
+            assertEquals(2, recognizer.size());
+            config.switchTo("default");
+            assertEquals("volume up", recognizer.recognize(utterance(VOLUME_UP, 1.1, 0.8, 0.003)).transcript());
+            assertEquals(1, english.requests());
+        }
+
+        // The language is kept on disk as well
+        FakeRecognizer german = new FakeRecognizer(FORMAT, List.of("lauter"), 0);
+        try (CachingRecognizer recognizer = new CachingRecognizer(german, FORMAT, 16,
+                CachingRecognizer.DEFAULT_TTL_MILLIS, CachingRecognizer.DEFAULT_MAX_DISTANCE, store, () -> "de-DE")) {
+            assertEquals(2, recognizer.size());
+            assertEquals("lauter", recognizer.recognize(utterance(VOLUME_UP, 1.0, 1.0, 0.002)).transcript());
+            assertEquals(1, german.requests());
+        }
+    }
+}
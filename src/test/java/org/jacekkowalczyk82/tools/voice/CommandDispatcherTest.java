@@ -0,0 +1,144 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CommandDispatcherTest {
+    private static final List<Command> COMMANDS = List.of(
+            Command.parse("open terminal = key ctrl+alt+t"),
+            Command.parse("open browser = open https://example.com"),
+            Command.parse("lock screen = run loginctl lock-session"),
+            Command.parse("volume up = key XF86AudioRaiseVolume"),
+            Command.parse("volume up a lot = run amixer set Master 20%+"));
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void shouldParseCommandLines() {
+        assertEquals(List.of("xdotool", "key", "ctrl+alt+t"), COMMANDS.get(0).commandLine());
+        assertEquals(List.of("xdg-open", "https://example.com"), COMMANDS.get(1).commandLine());
+        assertEquals(List.of("loginctl", "lock-session"), COMMANDS.get(2).commandLine());
+        assertThrows(IllegalArgumentException.class, () -> Command.parse("no action here"));
+        assertThrows(IllegalArgumentException.class, () -> Command.parse("beep = shout loudly"));
+    }
+
+    @Test
+    public void shouldMatchExactlyAfterNormalizing() {
+        CommandIndex index = new CommandIndex(COMMANDS);
+
+        CommandIndex.Match match = index.match("Open Terminal.");
+        assertEquals("open terminal", match.command().phrase());
+        assertEquals(0, match.distance());
+        assertEquals("lock screen", index.match("  lock   SCREEN!").command().phrase());
+    }
+
+    @Test
+    public void shouldPreferLongestPhraseInsideTranscript() {
+        CommandIndex index = new CommandIndex(COMMANDS);
+
+        assertEquals("volume up a lot", index.match("please turn the volume up a lot now").command().phrase());
+        assertEquals("volume up", index.match("computer volume up").command().phrase());
+        // Phrases only match on word boundaries
+        assertNull(index.match("unlock screensaver settings"));
+    }
+
+    @Test
+    public void shouldMatchMisrecognizedPhrasesWithinEditDistance() {
+        CommandIndex index = new CommandIndex(COMMANDS);
+
+        CommandIndex.Match match = index.match("open terminals");
+        assertEquals("open terminal", match.command().phrase());
+        assertEquals(1, match.distance());
+        assertEquals("lock screen", index.match("lok scren").command().phrase());
+        assertNull(index.match("what is the weather"));
+        // Short transcripts get no edits at all
+        assertNull(new CommandIndex(List.of(Command.parse("go = key g"))).match("no"));
+    }
+
+    @Test
+    public void shouldOnlyMatchUnambiguousWholePhrasesForEarlyCommits() {
+        CommandIndex index = new CommandIndex(COMMANDS);
+
+        assertEquals("open terminal", index.matchUnambiguous("Open terminal").command().phrase());
+        assertEquals("volume up a lot", index.matchUnambiguous("volume up a lot").command().phrase());
+        // "volume up" may still become "volume up a lot"
+        assertNull(index.matchUnambiguous("volume up"));
+        assertNull(index.matchUnambiguous("open"));
+        assertNull(index.matchUnambiguous("please open terminal"));
+        assertNull(index.matchUnambiguous("open terminl"));
+        assertNull(index.matchUnambiguous(""));
+    }
+
+    @Test
+    public void shouldStayFastWithThousandsOfCommands() {
+        List<Command> commands = new ArrayList<>(COMMANDS);
+        for (int i = 0; i < 5000; i++) {
+            commands.add(Command.parse("run task number " + Integer.toString(i * 7919, 36) + " = run true"));
+        }
+        CommandIndex index = new CommandIndex(commands);
+        assertEquals(5005, index.size());
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 1000; i++) {
+            assertNotNull(index.match("open terminl"));
+        }
+        long micros = (System.nanoTime() - start) / 1000 / 1000;
+        assertTrue(micros < 1000, "fuzzy lookup took " + micros + " us");
+    }
+
+    @Test
+    public void shouldLaunchMatchedCommandInBackground() throws Exception {
+        List<List<String>> launched = new CopyOnWriteArrayList<>();
+        CommandDispatcher dispatcher = new CommandDispatcher(launched::add);
+        dispatcher.setCommands(COMMANDS);
+
+        assertNotNull(dispatcher.dispatch("lock screen"));
+        assertNull(dispatcher.dispatch("sing a song"));
+        dispatcher.close();
+
+        assertEquals(List.of(List.of("loginctl", "lock-session")), launched);
+    }
+
+    @Test
+    public void shouldReloadChangedCommandFileAndKeepOldOnError() throws Exception {
+        Path file = directory.resolve("commands.txt");
+        Files.writeString(file, "# desktop\nopen terminal = key ctrl+alt+t\n");
+        try (CommandDispatcher dispatcher = new CommandDispatcher(commandLine -> {
+        })) {
+            dispatcher.watch(file);
+            assertEquals(1, dispatcher.index().size());
+            assertNull(dispatcher.index().match("lock screen"));
+
+            Files.writeString(file, "open terminal = key ctrl+alt+t\nlock screen = run loginctl lock-session\n");
+            assertTrue(waitFor(() -> dispatcher.index().size() == 2), "command file was not reloaded");
+            assertNotNull(dispatcher.index().match("lock screen"));
+
+            Files.writeString(file, "lock screen\n");
+            Thread.sleep(10 * CommandDispatcher.RELOAD_DELAY_MILLIS);
+            assertEquals(2, dispatcher.index().size());
+            assertNotNull(dispatcher.index().match("open terminal"));
+        }
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        // inotify based on Linux, polling on some other platforms
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+}
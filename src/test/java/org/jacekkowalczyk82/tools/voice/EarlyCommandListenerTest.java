@@ -0,0 +1,87 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class EarlyCommandListenerTest {
+    private static final List<Command> COMMANDS = List.of(
+            Command.parse("open terminal = key ctrl+alt+t"),
+            Command.parse("lock screen = run loginctl lock-session"),
+            Command.parse("volume up = key XF86AudioRaiseVolume"),
+            Command.parse("volume up a lot = run amixer set Master 20%+"));
+
+    private final List<List<String>> launched = new CopyOnWriteArrayList<>();
+
+    private CommandDispatcher dispatcher() {
+        CommandDispatcher dispatcher = new CommandDispatcher(launched::add);
+        dispatcher.setCommands(COMMANDS);
+        return dispatcher;
+    }
+
+    @Test
+    public void shouldRunAStableInterimCommandOnce() throws Exception {
+        CommandDispatcher commands = dispatcher();
+        EarlyCommandListener listener = new EarlyCommandListener(commands);
+
+        listener.onTranscript("lock", false, 0.01f);
+        listener.onTranscript("lock screen", false, 0.9f);
+        // Later results of the same utterance change nothing
+        listener.onTranscript("lock screen", false, 0.9f);
+        listener.onTranscript("lock screen", true, 0.95f);
+        commands.close();
+
+        assertEquals(List.of(List.of("loginctl", "lock-session")), launched);
+    }
+
+    @Test
+    public void shouldCommitOnRepeatedUnstableInterims() throws Exception {
+        CommandDispatcher commands = dispatcher();
+        EarlyCommandListener listener = new EarlyCommandListener(commands, 0.8f, 3);
+
+        listener.onTranscript("open terminal", false, 0.1f);
+        listener.onTranscript("open terminal", false, 0.1f);
+        assertTrue(launched.isEmpty());
+        listener.onTranscript("open terminal", false, 0.1f);
+        Thread.sleep(100);
+        assertEquals(List.of(List.of("xdotool", "key", "ctrl+alt+t")), launched);
+
+        listener.onTranscript("open terminal", true, 0.9f);
+        commands.close();
+        assertEquals(1, launched.size());
+    }
+
+    @Test
+    public void shouldWaitForTheFinalTranscriptWhenAPhraseMayGrow() throws Exception {
+        CommandDispatcher commands = dispatcher();
+        EarlyCommandListener listener = new EarlyCommandListener(commands);
+
+        listener.onTranscript("volume up", false, 0.9f);
+        listener.onTranscript("volume up", false, 0.9f);
+        listener.onTranscript("volume up", false, 0.9f);
+        listener.onTranscript("volume up a lot", true, 0.9f);
+        // Next utterance, matched on its final transcript only
+        listener.onTranscript("please lock the screen", false, 0.9f);
+        listener.onTranscript("please lock screen", true, 0.9f);
+        commands.close();
+
+        assertEquals(List.of(List.of("amixer", "set", "Master", "20%+"), List.of("loginctl", "lock-session")), launched);
+    }
+
+    @Test
+    public void shouldCommitOnVoskPartialsThatStopChanging() throws Exception {
+        CommandDispatcher commands = dispatcher();
+        EarlyCommandListener listener = new EarlyCommandListener(commands);
+
+        // What a Vosk session reports after each chunk: growing partials without stability, then repeats
+        for (String partial : List.of("open", "open terminal", "open terminal", "open terminal")) {
+            VoskRecognizer.emitPartial(listener, "{\n  \"partial\" : \"" + partial + "\"\n}");
+        }
+        commands.close();
+
+        assertEquals(List.of(List.of("xdotool", "key", "ctrl+alt+t")), launched);
+    }
+}
@@ -0,0 +1,194 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.grpc.InstantiatingGrpcChannelProvider;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.cloud.speech.v1.*;
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Server;
+import io.grpc.ServerBuilder;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.protobuf.ProtoUtils;
+import io.grpc.stub.ServerCalls;
+import io.grpc.stub.StreamObserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process fake of the Speech-to-Text gRPC service.
+ * <p>
+ * Recognize answers with the number of received bytes. Streaming calls answer every audio chunk
+ * with an interim result and send one final result with the total number of received bytes
+ * when the client half-closes. The first {@link #failingStreams} streaming calls fail with
+ * UNAVAILABLE on their first audio chunk instead.
+ */
+class FakeSpeechService implements AutoCloseable {
+    private static final String SERVICE_NAME = "google.cloud.speech.v1.Speech";
+
+    final List<RecognizeRequest> recognizeRequests = new CopyOnWriteArrayList<>();
+    final List<StreamingRecognitionConfig> streamingConfigs = new CopyOnWriteArrayList<>();
+    final ByteArrayOutputStream streamedAudio = new ByteArrayOutputStream();
+    final AtomicInteger failingStreams = new AtomicInteger();
+
+    private final Server server;
+    private final String inProcessName;
+    private final List<ManagedChannel> channels = new CopyOnWriteArrayList<>();
+
+    /**
+     * In-process server, no sockets involved.
+     */
+    FakeSpeechService() throws IOException {
+        inProcessName = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(inProcessName).directExecutor().addService(definition()).build().start();
+    }
+
+    /**
+     * Plaintext server on a free localhost port, so clients pay for real connection setup.
+     */
+    static FakeSpeechService onLocalPort() throws IOException {
+        return new FakeSpeechService(ServerBuilder.forPort(0));
+    }
+
+    private FakeSpeechService(ServerBuilder<?> builder) throws IOException {
+        inProcessName = null;
+        server = builder.addService(definition()).build().start();
+    }
+
+    /**
+     * Client settings pointing at this server; every call creates a new channel.
+     */
+    SpeechSettings settings() throws IOException {
+        TransportChannelProvider channelProvider;
+        if (inProcessName != null) {
+            ManagedChannel channel = InProcessChannelBuilder.forName(inProcessName).directExecutor().build();
+            channels.add(channel);
+            channelProvider = FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel));
+        } else {
+            channelProvider = InstantiatingGrpcChannelProvider.newBuilder()
+                    .setEndpoint("localhost:" + server.getPort())
+                    .setChannelConfigurator(builder -> builder.usePlaintext())
+                    .build();
+        }
+        return SpeechSettings.newBuilder()
+                .setTransportChannelProvider(channelProvider)
+                .setCredentialsProvider(NoCredentialsProvider.create())
+                .build();
+    }
+
+    SpeechClient createClient() throws IOException {
+        return SpeechClient.create(settings());
+    }
+
+    // Built by hand because the generated grpc-google-cloud-speech-v1 stubs are not published for this client version
+    private ServerServiceDefinition definition() {
+        MethodDescriptor<RecognizeRequest, RecognizeResponse> recognize =
+                MethodDescriptor.<RecognizeRequest, RecognizeResponse>newBuilder()
+                        .setType(MethodDescriptor.MethodType.UNARY)
+                        .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "Recognize"))
+                        .setRequestMarshaller(ProtoUtils.marshaller(RecognizeRequest.getDefaultInstance()))
+                        .setResponseMarshaller(ProtoUtils.marshaller(RecognizeResponse.getDefaultInstance()))
+                        .build();
+        MethodDescriptor<StreamingRecognizeRequest, StreamingRecognizeResponse> streamingRecognize =
+                MethodDescriptor.<StreamingRecognizeRequest, StreamingRecognizeResponse>newBuilder()
+                        .setType(MethodDescriptor.MethodType.BIDI_STREAMING)
+                        .setFullMethodName(MethodDescriptor.generateFullMethodName(SERVICE_NAME, "StreamingRecognize"))
+                        .setRequestMarshaller(ProtoUtils.marshaller(StreamingRecognizeRequest.getDefaultInstance()))
+                        .setResponseMarshaller(ProtoUtils.marshaller(StreamingRecognizeResponse.getDefaultInstance()))
+                        .build();
+        return ServerServiceDefinition.builder(SERVICE_NAME)
+                .addMethod(recognize, ServerCalls.asyncUnaryCall(this::recognize))
+                .addMethod(streamingRecognize, ServerCalls.asyncBidiStreamingCall(this::streamingRecognize))
+                .build();
+    }
+
+    private void recognize(RecognizeRequest request, StreamObserver<RecognizeResponse> responseObserver) {
+        recognizeRequests.add(request);
+        int bytes = request.getAudio().getContent().size();
+        responseObserver.onNext(RecognizeResponse.newBuilder()
+                .addResults(SpeechRecognitionResult.newBuilder()
+                        .addAlternatives(SpeechRecognitionAlternative.newBuilder()
+                                .setTranscript("received " + bytes + " bytes")
+                                .setConfidence(0.9f)))
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    private StreamObserver<StreamingRecognizeRequest> streamingRecognize(StreamObserver<StreamingRecognizeResponse> responseObserver) {
+        boolean fail = failingStreams.getAndUpdate(n -> Math.max(0, n - 1)) > 0;
+        return new StreamObserver<>() {
+            private int chunks;
+            private int bytes;
+            private boolean failed;
+
+            @Override
+            public void onNext(StreamingRecognizeRequest request) {
+                if (request.hasStreamingConfig()) {
+                    streamingConfigs.add(request.getStreamingConfig());
+                    return;
+                }
+                if (failed) {
+                    return;
+                }
+                if (fail) {
+                    failed = true;
+                    responseObserver.onError(Status.UNAVAILABLE.withDescription("stream reset").asRuntimeException());
+                    return;
+                }
+                ByteString audio = request.getAudioContent();
+                synchronized (streamedAudio) {
+                    streamedAudio.writeBytes(audio.toByteArray());
+                }
+                chunks++;
+                bytes += audio.size();
+                responseObserver.onNext(response("chunk " + chunks, false, 0.5f));
+            }
+
+            @Override
+            public void onError(Throwable t) {
+            }
+
+            @Override
+            public void onCompleted() {
+                if (failed) {
+                    return;
+                }
+                responseObserver.onNext(response("received " + bytes + " bytes", true, 0.9f));
+                responseObserver.onCompleted();
+            }
+        };
+    }
+
+    private static StreamingRecognizeResponse response(String transcript, boolean isFinal, float score) {
+        SpeechRecognitionAlternative.Builder alternative = SpeechRecognitionAlternative.newBuilder()
+                .setTranscript(transcript);
+        StreamingRecognitionResult.Builder result = StreamingRecognitionResult.newBuilder().setIsFinal(isFinal);
+        if (isFinal) {
+            alternative.setConfidence(score);
+        } else {
+            result.setStability(score);
+        }
+        return StreamingRecognizeResponse.newBuilder()
+                .addResults(result.addAlternatives(alternative))
+                .build();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        for (ManagedChannel channel : channels) {
+            channel.shutdownNow();
+        }
+        server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+    }
+}
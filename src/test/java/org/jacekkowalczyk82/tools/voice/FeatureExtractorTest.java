@@ -0,0 +1,117 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FeatureExtractorTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+
+    private static byte[] sine(double hz, double amplitude, int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            double value = amplitude * Math.sin(2 * Math.PI * hz * i / SAMPLE_RATE);
+            SampleCodec.putSample(pcm, 2 * i, (short) Math.round(value * 32767), false);
+        }
+        return pcm;
+    }
+
+    @Test
+    public void shouldEmitOneFrameEveryHop() {
+        FeatureExtractor extractor = new FeatureExtractor(FORMAT);
+        List<Long> ends = new ArrayList<>();
+        extractor.addListener(frame -> ends.add(frame.endSample()));
+
+        extractor.process(sine(440, 0.5, SAMPLE_RATE), 0, SAMPLE_RATE * 2);
+
+        assertEquals(160, extractor.getHopSamples());
+        assertEquals(100, ends.size());
+        assertEquals(160L, ends.get(0));
+        assertEquals(SAMPLE_RATE, (long) ends.get(99));
+        assertEquals(SAMPLE_RATE, extractor.samplesProcessed());
+    }
+
+    @Test
+    public void shouldNotDependOnChunking() {
+        byte[] pcm = sine(1000, 0.3, 8000);
+        List<float[]> whole = new FeatureExtractor(FORMAT).mfccSequence(pcm);
+
+        FeatureExtractor extractor = new FeatureExtractor(FORMAT);
+        List<float[]> chunked = new ArrayList<>();
+        extractor.addListener(frame -> chunked.add(frame.mfcc().clone()));
+        // Odd chunk sizes split samples between calls
+        for (int offset = 0; offset < pcm.length; offset += 333) {
+            extractor.process(pcm, offset, Math.min(333, pcm.length - offset));
+        }
+
+        assertEquals(whole.size(), chunked.size());
+        for (int i = 0; i < whole.size(); i++) {
+            assertArrayEquals(whole.get(i), chunked.get(i), 1e-4f);
+        }
+    }
+
+    @Test
+    public void shouldPutToneEnergyInMatchingMelBand() {
+        FeatureExtractor extractor = new FeatureExtractor(FORMAT);
+        int[] lowPeak = new int[1];
+        extractor.addListener(frame -> lowPeak[0] = argMax(frame.logMel()));
+        extractor.process(sine(300, 0.5, 4000), 0, 8000);
+
+        FeatureExtractor other = extractor.copy();
+        int[] highPeak = new int[1];
+        other.addListener(frame -> highPeak[0] = argMax(frame.logMel()));
+        other.process(sine(3000, 0.5, 4000), 0, 8000);
+
+        assertTrue(lowPeak[0] < 8, "300 Hz peaks in band " + lowPeak[0]);
+        assertTrue(highPeak[0] > 12, "3 kHz peaks in band " + highPeak[0]);
+    }
+
+    @Test
+    public void shouldReportEnergyAndZeroCrossingRate() {
+        FeatureExtractor extractor = new FeatureExtractor(FORMAT);
+        float[] last = new float[2];
+        extractor.addListener(frame -> {
+            last[0] = frame.energy();
+            last[1] = frame.zeroCrossingRate();
+        });
+        extractor.process(sine(1000, 0.5, 4000), 0, 8000);
+
+        // A sine of amplitude a has mean square a^2 / 2 and crosses zero twice per period
+        assertEquals(0.125f, last[0], 0.01f);
+        assertEquals(2 * 1000f / SAMPLE_RATE, last[1], 0.01f);
+    }
+
+    @Test
+    public void shouldShareOneFrameBetweenListeners() {
+        FeatureExtractor extractor = new FeatureExtractor(FORMAT);
+        List<FeatureExtractor.Frame> seen = new ArrayList<>();
+        FeatureExtractor.Listener first = seen::add;
+        FeatureExtractor.Listener second = seen::add;
+        extractor.addListener(first);
+        extractor.addListener(second);
+        extractor.process(sine(440, 0.5, 320), 0, 640);
+
+        assertEquals(4, seen.size());
+        assertSame(seen.get(0), seen.get(1));
+        assertSame(seen.get(0), seen.get(3));
+
+        extractor.removeListener(second);
+        extractor.process(sine(440, 0.5, 160), 0, 320);
+        assertEquals(5, seen.size());
+    }
+
+    private static int argMax(float[] values) {
+        int best = 0;
+        for (int i = 1; i < values.length; i++) {
+            if (values[i] > values[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+}
@@ -0,0 +1,245 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FlacEncoderTest {
+    private static final AudioFormat MONO = new AudioFormat(16000, 16, 1, true, false);
+
+    private static byte[] speechLike(int samples, AudioFormat format) {
+        Random random = new Random(7);
+        int channels = format.getChannels();
+        byte[] pcm = new byte[samples * channels * 2];
+        for (int i = 0; i < samples; i++) {
+            for (int channel = 0; channel < channels; channel++) {
+                double value = 6000 * Math.sin(2 * Math.PI * (440 + 200 * channel) * i / 16000.0)
+                        + 2000 * Math.sin(2 * Math.PI * 1300 * i / 16000.0) + random.nextGaussian() * 50;
+                SampleCodec.putSample(pcm, (i * channels + channel) * 2, (short) value, format.isBigEndian());
+            }
+        }
+        return pcm;
+    }
+
+    @Test
+    public void shouldRoundTripLosslessly() {
+        byte[] pcm = speechLike(16000 * 3 + 123, MONO);
+        byte[] flac = new FlacEncoder(MONO).encode(pcm, 0, pcm.length);
+
+        assertArrayEquals(pcm, FlacDecoder.decode(flac, MONO));
+        assertTrue(flac.length < pcm.length * 0.7, "Encoded to " + flac.length + " of " + pcm.length + " bytes");
+    }
+
+    @Test
+    public void shouldRoundTripStereoBigEndianAndExtremes() {
+        AudioFormat stereo = new AudioFormat(44100, 16, 2, true, true);
+        byte[] pcm = speechLike(5000, stereo);
+        Random random = new Random(3);
+        // Full scale noise and square waves leave verbatim subframes and large residuals
+        for (int i = 2000; i < 3000; i++) {
+            SampleCodec.putSample(pcm, i * 4, (short) random.nextInt(), true);
+            SampleCodec.putSample(pcm, i * 4 + 2, (i / 7) % 2 == 0 ? Short.MAX_VALUE : Short.MIN_VALUE, true);
+        }
+
+        byte[] flac = new FlacEncoder(stereo, 1024).encode(pcm, 0, pcm.length);
+
+        assertArrayEquals(pcm, FlacDecoder.decode(flac, stereo));
+    }
+
+    @Test
+    public void shouldStreamTheSameBytesWhateverTheChunking() {
+        byte[] pcm = speechLike(9000, MONO);
+        byte[] whole = new FlacEncoder(MONO, 1024).encode(pcm, 0, pcm.length);
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        AudioEncoder.Stream stream = new FlacEncoder(MONO, 1024).newStream(streamed::write);
+        int offset = 0;
+        for (int chunk = 1; offset < pcm.length; chunk = chunk * 3 % 1001) {
+            int n = Math.min(chunk, pcm.length - offset);
+            stream.write(pcm, offset, n);
+            offset += n;
+        }
+        // Full frames are emitted before finish
+        assertTrue(streamed.size() > whole.length / 2);
+        stream.finish();
+
+        assertArrayEquals(whole, streamed.toByteArray());
+    }
+
+    @Test
+    public void shouldShrinkSilenceToConstantSubframes() {
+        byte[] pcm = new byte[32000];
+        byte[] flac = new FlacEncoder(MONO).encode(pcm, 0, pcm.length);
+
+        assertTrue(flac.length < 100, "Encoded to " + flac.length + " bytes");
+        assertArrayEquals(pcm, FlacDecoder.decode(flac, MONO));
+    }
+
+    /**
+     * Decodes the subset of FLAC the encoder writes, checking every sync code and CRC.
+     */
+    static final class FlacDecoder {
+        private final byte[] data;
+        private int bitPosition;
+
+        private FlacDecoder(byte[] data) {
+            this.data = data;
+        }
+
+        static byte[] decode(byte[] flac, AudioFormat format) {
+            FlacDecoder in = new FlacDecoder(flac);
+            assertEquals(0x664C6143, in.read(32), "fLaC marker");
+            boolean last = false;
+            int channels = 0;
+            while (!last) {
+                last = in.read(1) == 1;
+                int type = in.read(7);
+                int length = in.read(24);
+                if (type == 0) {
+                    in.read(16 + 16 + 24 + 24);
+                    assertEquals((int) format.getSampleRate(), in.read(20));
+                    channels = in.read(3) + 1;
+                    assertEquals(15, in.read(5));
+                    in.bitPosition += (36 + 128);
+                } else {
+                    in.bitPosition += length * 8;
+                }
+            }
+            assertEquals(format.getChannels(), channels);
+
+            ByteArrayOutputStream pcm = new ByteArrayOutputStream();
+            long expectedFrame = 0;
+            while (in.bitPosition < flac.length * 8) {
+                int frameStart = in.bitPosition / 8;
+                assertEquals(0b11111111111110, in.read(14), "sync code");
+                in.read(2);
+                int blockSizeCode = in.read(4);
+                in.read(4);
+                assertEquals(channels - 1, in.read(4));
+                assertEquals(0b100, in.read(3));
+                in.read(1);
+                assertEquals(expectedFrame++, in.readUtf8());
+                int samples = blockSizeCode == 0b0111 ? in.read(16) + 1 : in.read(8) + 1;
+                int headerCrc = crc8(flac, frameStart, in.bitPosition / 8);
+                assertEquals(headerCrc, in.read(8), "header CRC");
+
+                int[][] block = new int[channels][];
+                for (int channel = 0; channel < channels; channel++) {
+                    block[channel] = in.readSubframe(samples);
+                }
+                in.bitPosition = (in.bitPosition + 7) / 8 * 8;
+                int frameCrc = crc16(flac, frameStart, in.bitPosition / 8);
+                assertEquals(frameCrc, in.read(16), "frame CRC");
+                for (int i = 0; i < samples; i++) {
+                    for (int channel = 0; channel < channels; channel++) {
+                        byte[] sample = new byte[2];
+                        SampleCodec.putSample(sample, 0, (short) block[channel][i], format.isBigEndian());
+                        pcm.write(sample, 0, 2);
+                    }
+                }
+            }
+            return pcm.toByteArray();
+        }
+
+        private int[] readSubframe(int samples) {
+            assertEquals(0, read(1));
+            int type = read(6);
+            assertEquals(0, read(1), "wasted bits");
+            int[] x = new int[samples];
+            if (type == 0) {
+                Arrays.fill(x, readSigned(16));
+            } else if (type == 1) {
+                for (int i = 0; i < samples; i++) {
+                    x[i] = readSigned(16);
+                }
+            } else {
+                assertEquals(0b001000, type & 0b111000, "fixed predictor");
+                int order = type & 0b111;
+                for (int i = 0; i < order; i++) {
+                    x[i] = readSigned(16);
+                }
+                assertEquals(0, read(2), "Rice coding method");
+                int partitionOrder = read(4);
+                int size = samples >> partitionOrder;
+                int i = order;
+                for (int p = 0; p < 1 << partitionOrder; p++) {
+                    int k = read(4);
+                    for (int end = (p + 1) * size; i < end; i++) {
+                        int q = 0;
+                        while (read(1) == 0) {
+                            q++;
+                        }
+                        int folded = (q << k) | read(k);
+                        int residual = (folded >>> 1) ^ -(folded & 1);
+                        x[i] = residual + predict(x, i, order);
+                    }
+                }
+            }
+            return x;
+        }
+
+        private static int predict(int[] x, int i, int order) {
+            return switch (order) {
+                case 0 -> 0;
+                case 1 -> x[i - 1];
+                case 2 -> 2 * x[i - 1] - x[i - 2];
+                case 3 -> 3 * x[i - 1] - 3 * x[i - 2] + x[i - 3];
+                default -> 4 * x[i - 1] - 6 * x[i - 2] + 4 * x[i - 3] - x[i - 4];
+            };
+        }
+
+        private long readUtf8() {
+            int lead = read(8);
+            if (lead < 0x80) {
+                return lead;
+            }
+            int continuation = Integer.numberOfLeadingZeros(~lead << 24) - 1;
+            long value = lead & (0x3F >> continuation);
+            for (int i = 0; i < continuation; i++) {
+                int next = read(8);
+                assertEquals(0x80, next & 0xC0);
+                value = (value << 6) | (next & 0x3F);
+            }
+            return value;
+        }
+
+        private int readSigned(int bits) {
+            return read(bits) << (32 - bits) >> (32 - bits);
+        }
+
+        private int read(int bits) {
+            long value = 0;
+            for (int i = 0; i < bits; i++, bitPosition++) {
+                value = (value << 1) | ((data[bitPosition >> 3] >> (7 - (bitPosition & 7))) & 1);
+            }
+            return (int) value;
+        }
+
+        private static int crc8(byte[] data, int from, int to) {
+            int crc = 0;
+            for (int i = from; i < to; i++) {
+                crc ^= data[i] & 0xFF;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 0x80) != 0 ? ((crc << 1) ^ 0x07) & 0xFF : (crc << 1) & 0xFF;
+                }
+            }
+            return crc;
+        }
+
+        private static int crc16(byte[] data, int from, int to) {
+            int crc = 0;
+            for (int i = from; i < to; i++) {
+                crc ^= (data[i] & 0xFF) << 8;
+                for (int bit = 0; bit < 8; bit++) {
+                    crc = (crc & 0x8000) != 0 ? ((crc << 1) ^ 0x8005) & 0xFFFF : (crc << 1) & 0xFFFF;
+                }
+            }
+            return crc;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class FormatConverterTest {
+    private static final AudioFormat SPEECH = new AudioFormat(16000, 16, 1, true, false);
+
+    private static short[] samples(byte[] pcm, boolean bigEndian) {
+        short[] samples = new short[pcm.length / 2];
+        SampleCodec.decode(pcm, 0, samples, 0, samples.length, bigEndian);
+        return samples;
+    }
+
+    @Test
+    public void shouldDownmixAndResample24BitBigEndianStereo() {
+        AudioFormat source = new AudioFormat(48000, 24, 2, true, true);
+        int frames = 4800;
+        ByteBuffer pcm = ByteBuffer.allocate(frames * 6);
+        for (int i = 0; i < frames; i++) {
+            int left = (int) (0.6 * 8388607 * Math.sin(2 * Math.PI * 1000 * i / 48000));
+            // Right channel is silent, the mix is half the left channel
+            pcm.put((byte) (left >> 16)).put((byte) (left >> 8)).put((byte) left);
+            pcm.put((byte) 0).put((byte) 0).put((byte) 0);
+        }
+
+        short[] out = samples(FormatConverter.convert(source, SPEECH, pcm.array()), false);
+
+        // 100 ms at 16 kHz plus the flushed filter tail
+        assertTrue(out.length >= 1600 && out.length <= 1600 + 32, "got " + out.length);
+        int peak = 0;
+        for (int i = 200; i < 1500; i++) {
+            peak = Math.max(peak, Math.abs(out[i]));
+        }
+        assertEquals(0.3 * 32767, peak, 400);
+    }
+
+    @Test
+    public void shouldGiveTheSameResultWhenChunksSplitFrames() {
+        AudioFormat source = new AudioFormat(44100, 16, 2, true, false);
+        byte[] pcm = new byte[44100 / 10 * 4];
+        for (int i = 0; i < pcm.length / 2; i++) {
+            SampleCodec.putSample(pcm, 2 * i, (short) (10000 * Math.sin(i * 0.01)), false);
+        }
+
+        byte[] whole = FormatConverter.convert(source, SPEECH, pcm);
+        ByteArrayOutputStream chunked = new ByteArrayOutputStream();
+        FormatConverter converter = new FormatConverter(source, SPEECH, chunked::write);
+        for (int offset = 0; offset < pcm.length; offset += 333) {
+            converter.process(pcm, offset, Math.min(333, pcm.length - offset));
+        }
+        converter.flush();
+
+        assertArrayEquals(whole, chunked.toByteArray());
+    }
+
+    @Test
+    public void shouldConvertUnsigned8BitAndFloatSamples() {
+        AudioFormat unsigned8 = new AudioFormat(AudioFormat.Encoding.PCM_UNSIGNED, 16000, 8, 1, 1, 16000, false);
+        short[] fromBytes = samples(FormatConverter.convert(unsigned8, SPEECH, new byte[]{(byte) 128, (byte) 192, 0}), false);
+        assertArrayEquals(new short[]{0, 16384, -32768}, fromBytes);
+
+        AudioFormat float32 = new AudioFormat(AudioFormat.Encoding.PCM_FLOAT, 16000, 32, 1, 4, 16000, false);
+        ByteBuffer floats = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putFloat(0.5f).putFloat(-0.25f);
+        short[] fromFloats = samples(FormatConverter.convert(float32, SPEECH, floats.array()), false);
+        assertArrayEquals(new short[]{16384, -8192}, fromFloats);
+    }
+
+    @Test
+    public void shouldOnlySwapBytesWhenRateAndChannelsMatch() {
+        AudioFormat bigEndian = new AudioFormat(16000, 16, 1, true, true);
+        byte[] pcm = {0x12, 0x34, (byte) 0xAB, (byte) 0xCD};
+
+        assertArrayEquals(new byte[]{0x34, 0x12, (byte) 0xCD, (byte) 0xAB}, FormatConverter.convert(bigEndian, SPEECH, pcm));
+        assertTrue(FormatConverter.isIdentity(SPEECH, new AudioFormat(16000, 16, 1, true, false)));
+        assertFalse(FormatConverter.isIdentity(bigEndian, SPEECH));
+    }
+
+    @Test
+    public void shouldRejectCompressedFormats() {
+        AudioFormat ulaw = new AudioFormat(AudioFormat.Encoding.ULAW, 8000, 8, 1, 1, 8000, false);
+
+        assertFalse(FormatConverter.isSupported(ulaw));
+        assertThrows(IllegalArgumentException.class, () -> new FormatConverter(ulaw, SPEECH, (b, o, l) -> { }));
+    }
+}
@@ -0,0 +1,117 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class KeywordSpotterTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, false);
+
+    // Three "syllables", each a pair of formant-like tones
+    private static final double[][] KEYWORD = {{500, 1500}, {900, 2500}, {700, 1100}};
+    private static final double[][] OTHER_WORD = {{700, 1100}, {900, 2500}, {500, 1500}};
+
+    private final Random random = new Random(7);
+
+    private void word(ByteArrayOutputStream out, double[][] syllables, double stretch, double gain) {
+        int samples = (int) (0.2 * SAMPLE_RATE * stretch);
+        byte[] pcm = new byte[2];
+        for (double[] syllable : syllables) {
+            for (int i = 0; i < samples; i++) {
+                double envelope = Math.sin(Math.PI * i / samples);
+                double value = gain * envelope * (0.3 * Math.sin(2 * Math.PI * syllable[0] * i / SAMPLE_RATE)
+                        + 0.2 * Math.sin(2 * Math.PI * syllable[1] * i / SAMPLE_RATE))
+                        + random.nextGaussian() * 0.003;
+                SampleCodec.putSample(pcm, 0, (short) Math.round(value * 32767), false);
+                out.write(pcm, 0, 2);
+            }
+        }
+    }
+
+    private void silence(ByteArrayOutputStream out, double seconds) {
+        byte[] pcm = new byte[2];
+        for (int i = 0; i < seconds * SAMPLE_RATE; i++) {
+            SampleCodec.putSample(pcm, 0, (short) Math.round(random.nextGaussian() * 0.003 * 32767), false);
+            out.write(pcm, 0, 2);
+        }
+    }
+
+    private byte[] enrolment() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        word(out, KEYWORD, 1.0, 1.0);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void shouldSpotTheKeywordSpokenSlowerAndQuieter() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        silence(stream, 0.5);
+        word(stream, OTHER_WORD, 1.0, 1.0);
+        silence(stream, 0.5);
+        word(stream, KEYWORD, 1.2, 0.4);
+        int keywordEnd = stream.size() / 2;
+        silence(stream, 0.5);
+        byte[] audio = stream.toByteArray();
+
+        List<Long> detections = new ArrayList<>();
+        KeywordSpotter spotter = new KeywordSpotter(FORMAT, List.of(enrolment()), KeywordSpotter.DEFAULT_THRESHOLD,
+                (template, score, sample) -> detections.add(sample));
+        // Odd chunk size so samples are split across calls
+        for (int offset = 0; offset < audio.length; offset += 321) {
+            spotter.process(audio, offset, Math.min(321, audio.length - offset));
+        }
+
+        assertEquals(1, detections.size(), "detections " + detections);
+        // Fires as soon as the path is good enough, which can be before the last syllable has faded
+        assertEquals(keywordEnd, detections.get(0), 0.25 * SAMPLE_RATE);
+        assertTrue(spotter.detectedWithin(1000));
+        assertFalse(spotter.detectedWithin(400));
+    }
+
+    @Test
+    public void shouldIgnoreOtherWordsAndNoise() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < 3; i++) {
+            silence(stream, 0.3);
+            word(stream, OTHER_WORD, 1.0 + 0.1 * i, 1.0);
+        }
+        byte[] audio = stream.toByteArray();
+
+        List<Long> detections = new ArrayList<>();
+        KeywordSpotter spotter = new KeywordSpotter(FORMAT, List.of(enrolment()), KeywordSpotter.DEFAULT_THRESHOLD,
+                (template, score, sample) -> detections.add(sample));
+        spotter.process(audio, 0, audio.length);
+
+        assertEquals(List.of(), detections);
+        assertEquals(-1, spotter.lastDetectionSample());
+        assertTrue(spotter.takeBestScore() > KeywordSpotter.DEFAULT_THRESHOLD);
+    }
+
+    @Test
+    public void shouldTradeFalseAcceptsForFalseRejectsWithTheThreshold() {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        silence(stream, 0.3);
+        word(stream, KEYWORD, 1.1, 0.5);
+        silence(stream, 0.3);
+        byte[] audio = stream.toByteArray();
+
+        List<Float> scores = new ArrayList<>();
+        KeywordSpotter strict = new KeywordSpotter(FORMAT, List.of(enrolment()), 0.01f,
+                (template, score, sample) -> scores.add(score));
+        strict.process(audio, 0, audio.length);
+        float best = strict.takeBestScore();
+        assertEquals(List.of(), scores);
+
+        strict.reset();
+        strict.setThreshold(best + 0.01f);
+        strict.process(audio, 0, audio.length);
+        assertEquals(1, scores.size());
+    }
+}
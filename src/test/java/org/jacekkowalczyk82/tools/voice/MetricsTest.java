@@ -0,0 +1,137 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MetricsTest {
+
+    @Test
+    public void shouldReportPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 10_000; micros++) {
+            histogram.recordMicros(micros);
+        }
+
+        assertEquals(10_000, histogram.count());
+        assertEquals(10_000, histogram.maxMicros());
+        assertEquals(5000.5, histogram.meanMicros(), 1e-9);
+        assertEquals(5000, histogram.percentileMicros(0.5), 5000 * 0.07);
+        assertEquals(9900, histogram.percentileMicros(0.99), 9900 * 0.07);
+        assertEquals(10_000, histogram.percentileMicros(1.0));
+        assertEquals(0, new LatencyHistogram().percentileMicros(0.5));
+    }
+
+    @Test
+    public void shouldPutEveryValueInsideItsBucket() {
+        for (long value = 0; value < 1_000_000; value += 1 + value / 50) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value <= LatencyHistogram.upperBound(bucket), "value " + value);
+            assertTrue(bucket == 0 || value > LatencyHistogram.upperBound(bucket - 1), "value " + value);
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldRecordWithoutAllocating() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        LatencyHistogram histogram = new LatencyHistogram();
+        Metrics.Counter counter = new Metrics().counter("events", "Events");
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            for (int i = 0; i < 100_000; i++) {
+                histogram.recordNanos(i * 1_000L);
+                counter.increment();
+            }
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before);
+        }
+        assertTrue(allocated < 10_000, "allocated " + allocated + " bytes");
+    }
+
+    @Test
+    public void shouldCountConcurrentRecordings() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 50_000; i++) {
+                    histogram.recordMicros(i % 1000);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(200_000, histogram.count());
+        assertEquals(999, histogram.maxMicros());
+    }
+
+    @Test
+    public void shouldServePrometheusText() throws Exception {
+        Metrics metrics = new Metrics();
+        metrics.histogram("recognize", "Recognition time").recordMicros(250_000);
+        metrics.counter("dropped_utterances", "Dropped utterances").add(3);
+        AtomicLong depth = new AtomicLong(2);
+        metrics.gauge("utterance_queue_depth", "Queued utterances", depth::get);
+
+        try (MetricsServer server = new MetricsServer(metrics, 0)) {
+            HttpResponse<String> response = HttpClient.newHttpClient().send(
+                    HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + server.port() + "/metrics")).build(),
+                    HttpResponse.BodyHandlers.ofString());
+
+            assertEquals(200, response.statusCode());
+            String body = response.body();
+            assertTrue(body.contains("# TYPE voice_recognize_seconds summary\n"), body);
+            assertTrue(body.contains("voice_recognize_seconds_count 1\n"), body);
+            assertTrue(body.contains("voice_recognize_seconds_sum 0.250000\n"), body);
+            assertTrue(body.contains("voice_recognize_seconds{quantile=\"0.99\"} 0.250000\n"), body);
+            assertTrue(body.contains("voice_dropped_utterances_total 3\n"), body);
+            assertTrue(body.contains("# TYPE voice_utterance_queue_depth gauge\nvoice_utterance_queue_depth 2\n"), body);
+        }
+    }
+
+    @Test
+    public void shouldRemoveOnlyTheGaugeItRegistered() throws Exception {
+        Metrics metrics = new Metrics();
+        LongSupplier first = () -> 1;
+        LongSupplier second = () -> 2;
+        metrics.gauge("captured_bytes", "Captured", first);
+        metrics.gauge("captured_bytes", "Captured", second);
+
+        // The first owner closing leaves the replacement alone
+        metrics.removeGauge("captured_bytes", first);
+        assertEquals(2L, metrics.getAttribute("captured_bytes"));
+
+        metrics.removeGauge("captured_bytes", second);
+        assertThrows(AttributeNotFoundException.class, () -> metrics.getAttribute("captured_bytes"));
+    }
+
+    @Test
+    public void shouldExposeMetricsThroughJmx() throws Exception {
+        Metrics.global().histogram("test_stage", "Stage used by MetricsTest").recordMicros(1500);
+        Metrics.global().registerMBean();
+        Metrics.global().registerMBean();
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        assertTrue((Long) server.getAttribute(name, "test_stage.count") >= 1);
+        assertEquals(1.5, (Double) server.getAttribute(name, "test_stage.maxMillis"), 0.1);
+        assertTrue(Arrays.stream(server.getMBeanInfo(name).getAttributes())
+                .anyMatch(attribute -> attribute.getName().equals("test_stage.p99Millis")));
+    }
+}
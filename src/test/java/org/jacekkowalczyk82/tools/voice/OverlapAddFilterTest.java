@@ -0,0 +1,85 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OverlapAddFilterTest {
+    private static final float SAMPLE_RATE = 16000;
+
+    private static float[] tone(int length, double frequency) {
+        float[] samples = new float[length];
+        for (int i = 0; i < length; i++) {
+            samples[i] = (float) (0.3 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE));
+        }
+        return samples;
+    }
+
+    // Streams the input through the filter in uneven chunks and returns everything it emitted
+    private static float[] filterInChunks(OverlapAddFilter filter, float[] input, int chunk) {
+        float[] output = new float[input.length + filter.getBlockSize() + filter.getGroupDelay()];
+        int written = 0;
+        for (int offset = 0; offset < input.length; offset += chunk) {
+            int length = Math.min(chunk, input.length - offset);
+            assertTrue(filter.maxOutput(length) <= output.length - written);
+            written += filter.process(input, offset, length, output, written);
+        }
+        written += filter.flush(output, written);
+        assertEquals(input.length + filter.getGroupDelay(), written);
+        return output;
+    }
+
+    private static double rms(float[] samples, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += samples[i] * samples[i];
+        }
+        return Math.sqrt(sum / (to - from));
+    }
+
+    @Test
+    public void shouldMatchDirectConvolution() {
+        Random random = new Random(7);
+        float[] input = new float[3000];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (float) random.nextGaussian() * 0.1f;
+        }
+        OverlapAddFilter filter = new OverlapAddFilter(SAMPLE_RATE, 300, 3000, 64);
+        float[] kernel = OverlapAddFilter.designBandPass(63, 300 / SAMPLE_RATE, 3000 / SAMPLE_RATE);
+
+        float[] output = filterInChunks(filter, input, 97);
+
+        for (int n = 0; n < input.length + filter.getGroupDelay(); n++) {
+            double expected = 0;
+            for (int k = 0; k < kernel.length; k++) {
+                if (n - k >= 0 && n - k < input.length) {
+                    expected += kernel[k] * input[n - k];
+                }
+            }
+            assertEquals(expected, output[n], 1e-4, "sample " + n);
+        }
+    }
+
+    @Test
+    public void shouldPassSpeechBandAndAttenuateOutsideIt() {
+        int length = 16000;
+        OverlapAddFilter filter = new OverlapAddFilter(SAMPLE_RATE, 300, 3000);
+        int settled = filter.getBlockSize();
+
+        double inBand = rms(filterInChunks(filter, tone(length, 1000), 320), settled, length);
+        double low = rms(filterInChunks(filter, tone(length, 50), 320), settled, length);
+        double high = rms(filterInChunks(filter, tone(length, 6000), 320), settled, length);
+
+        double input = 0.3 / Math.sqrt(2);
+        assertEquals(input, inBand, input * 0.05);
+        assertTrue(low < input * 0.01, "50 Hz leaked: " + low);
+        assertTrue(high < input * 0.01, "6 kHz leaked: " + high);
+    }
+
+    @Test
+    public void shouldRejectBlockSizesThatAreNotPowersOfTwo() {
+        assertThrows(IllegalArgumentException.class, () -> new OverlapAddFilter(SAMPLE_RATE, 300, 3000, 300));
+    }
+}
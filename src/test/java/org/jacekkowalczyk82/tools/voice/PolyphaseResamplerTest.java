@@ -0,0 +1,86 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PolyphaseResamplerTest {
+
+    private static float[] sine(float frequency, int rate, int samples) {
+        float[] signal = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            signal[i] = (float) (0.5 * Math.sin(2 * Math.PI * frequency * i / rate));
+        }
+        return signal;
+    }
+
+    private static float[] resample(PolyphaseResampler resampler, float[] input, int chunk) {
+        float[] output = new float[resampler.maxOutput(input.length)];
+        int written = 0;
+        for (int offset = 0; offset < input.length; offset += chunk) {
+            int length = Math.min(chunk, input.length - offset);
+            written += resampler.process(input, offset, length, output, written);
+        }
+        return Arrays.copyOf(output, written);
+    }
+
+    private static double rms(float[] signal, int from) {
+        double sum = 0;
+        for (int i = from; i < signal.length; i++) {
+            sum += signal[i] * signal[i];
+        }
+        return Math.sqrt(sum / (signal.length - from));
+    }
+
+    @Test
+    public void shouldKeepToneInPassbandWhenDecimating() {
+        float[] output = resample(new PolyphaseResampler(48000, 16000), sine(1000, 48000, 48000), 480);
+
+        assertEquals(16000, output.length);
+        // Skip the filter's start-up transient
+        assertEquals(0.5 / Math.sqrt(2), rms(output, 200), 0.01);
+        // Compare with the ideal tone, delayed by the centre of the 96 tap prototype filter at 48 kHz
+        double delaySeconds = (PolyphaseResampler.BASE_TAPS_PER_PHASE * 3 - 1) / 2 / 48000.0;
+        double error = 0;
+        for (int i = 1000; i < 2000; i++) {
+            error += Math.abs(output[i] - 0.5 * Math.sin(2 * Math.PI * 1000 * (i / 16000.0 - delaySeconds)));
+        }
+        assertTrue(error / 1000 < 0.01, "mean error " + error / 1000);
+    }
+
+    @Test
+    public void shouldRejectTonesAboveTheNewNyquistFrequency() {
+        // 12 kHz would alias to 4 kHz at 16 kHz
+        float[] output = resample(new PolyphaseResampler(48000, 16000), sine(12000, 48000, 48000), 1024);
+
+        assertTrue(rms(output, 200) < 0.001, "aliased rms " + rms(output, 200));
+    }
+
+    @Test
+    public void shouldHandleIrrationalLookingRatios() {
+        float[] output = resample(new PolyphaseResampler(44100, 16000), sine(440, 44100, 44100), 441);
+
+        assertTrue(Math.abs(output.length - 16000) <= 1, "got " + output.length);
+        assertEquals(0.5 / Math.sqrt(2), rms(output, 200), 0.01);
+    }
+
+    @Test
+    public void shouldProduceTheSameOutputForAnyChunking() {
+        float[] input = sine(700, 22050, 5000);
+
+        float[] whole = resample(new PolyphaseResampler(22050, 16000), input, input.length);
+        float[] chunked = resample(new PolyphaseResampler(22050, 16000), input, 7);
+
+        assertArrayEquals(whole, chunked, 1e-6f);
+    }
+
+    @Test
+    public void shouldUpsample() {
+        float[] output = resample(new PolyphaseResampler(8000, 16000), sine(500, 8000, 8000), 160);
+
+        assertEquals(16000, output.length);
+        assertEquals(0.5 / Math.sqrt(2), rms(output, 200), 0.01);
+    }
+}
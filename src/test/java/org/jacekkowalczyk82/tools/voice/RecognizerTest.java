@@ -0,0 +1,76 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RecognizerTest {
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+    private static final RecognitionConfig CONFIG = RecognitionConfig.newBuilder()
+            .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+            .setSampleRateHertz(16000)
+            .setLanguageCode("en-US")
+            .build();
+
+    @Test
+    public void shouldRecognizeThroughGoogleBackend() throws Exception {
+        FakeSpeechService server = new FakeSpeechService();
+        try (SpeechService service = new SpeechService(server.settings());
+             Recognizer recognizer = new GoogleRecognizer(service, CONFIG)) {
+            RecognitionResult sync = recognizer.recognize(new byte[640]);
+            RecognitionResult async = recognizer.recognizeAsync(new byte[320]).get(10, TimeUnit.SECONDS);
+
+            assertEquals("received 640 bytes", sync.transcript());
+            assertEquals(0.9f, sync.confidence(), 1e-6);
+            assertEquals("received 320 bytes", async.transcript());
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void shouldStreamThroughGoogleBackend() throws Exception {
+        FakeSpeechService server = new FakeSpeechService();
+        List<String> transcripts = new CopyOnWriteArrayList<>();
+        try (SpeechService service = new SpeechService(server.settings());
+             Recognizer recognizer = new GoogleRecognizer(service, CONFIG)) {
+            try (StreamingSession session = recognizer.startStreaming(
+                    (transcript, isFinal, score) -> transcripts.add((isFinal ? "final: " : "interim: ") + transcript))) {
+                session.send(new byte[320], 0, 320);
+                session.send(new byte[320], 0, 320);
+            }
+        } finally {
+            server.close();
+        }
+
+        assertEquals(List.of("interim: chunk 1", "interim: chunk 2", "final: received 640 bytes"), transcripts);
+    }
+
+    @Test
+    public void shouldAnswerDeterministicallyFromFake() throws Exception {
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT)) {
+            // 16 kHz, 2 bytes per sample
+            assertEquals("heard 500 ms", recognizer.recognize(new byte[16000]).transcript());
+            assertEquals("heard 500 ms", recognizer.recognizeAsync(new byte[16000]).get().transcript());
+            assertEquals(2, recognizer.requests());
+        }
+
+        try (FakeRecognizer scripted = new FakeRecognizer(FORMAT, List.of("lights on", "lights off"), 0)) {
+            assertEquals("lights on", scripted.recognize(new byte[2]).transcript());
+            assertEquals("lights off", scripted.recognize(new byte[2]).transcript());
+            assertEquals("lights on", scripted.recognize(new byte[2]).transcript());
+        }
+    }
+
+    @Test
+    public void shouldReadVoskResultFields() {
+        String result = "{\n  \"text\" : \"turn the \\\"lights\\\" on\"\n}";
+        assertEquals("turn the \"lights\" on", VoskRecognizer.field(VoskRecognizer.TEXT, result));
+    }
+}
@@ -0,0 +1,74 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SampleCodecTest {
+
+    @Test
+    public void shouldDecodeBothByteOrders() {
+        byte[] bigEndian = {0x12, 0x34, (byte) 0x80, 0x00, 0x7F, (byte) 0xFF};
+        byte[] littleEndian = {0x34, 0x12, 0x00, (byte) 0x80, (byte) 0xFF, 0x7F};
+        short[] expected = {0x1234, Short.MIN_VALUE, Short.MAX_VALUE};
+
+        short[] fromBig = new short[3];
+        short[] fromLittle = new short[3];
+        SampleCodec.decode(bigEndian, 0, fromBig, 0, 3, true);
+        SampleCodec.decode(littleEndian, 0, fromLittle, 0, 3, false);
+
+        assertArrayEquals(expected, fromBig);
+        assertArrayEquals(expected, fromLittle);
+        assertEquals(0x1234, SampleCodec.getSample(bigEndian, 0, true));
+        assertEquals(-1.0f, decodeFloat(bigEndian, true)[1]);
+    }
+
+    private static float[] decodeFloat(byte[] pcm, boolean bigEndian) {
+        float[] samples = new float[pcm.length / 2];
+        SampleCodec.decode(pcm, 0, samples, 0, samples.length, bigEndian);
+        return samples;
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void shouldRoundTripEverySampleValue(boolean bigEndian) {
+        short[] all = new short[65536];
+        for (int i = 0; i < all.length; i++) {
+            all[i] = (short) (i + Short.MIN_VALUE);
+        }
+        byte[] pcm = new byte[all.length * 2];
+        SampleCodec.encode(all, 0, pcm, 0, all.length, bigEndian);
+
+        float[] floats = decodeFloat(pcm, bigEndian);
+        double[] doubles = new double[all.length];
+        SampleCodec.decode(pcm, 0, doubles, 0, all.length, bigEndian);
+
+        byte[] fromFloats = new byte[pcm.length];
+        byte[] fromDoubles = new byte[pcm.length];
+        SampleCodec.encode(floats, 0, fromFloats, 0, all.length, bigEndian);
+        SampleCodec.encode(doubles, 0, fromDoubles, 0, all.length, bigEndian);
+
+        assertArrayEquals(pcm, fromFloats);
+        assertArrayEquals(pcm, fromDoubles);
+    }
+
+    @Test
+    public void shouldClipOutOfRangeSamples() {
+        byte[] pcm = new byte[4];
+        SampleCodec.encode(new float[]{1.5f, -2f}, 0, pcm, 0, 2, true);
+
+        assertEquals(Short.MAX_VALUE, SampleCodec.getSample(pcm, 0, true));
+        assertEquals(Short.MIN_VALUE, SampleCodec.getSample(pcm, 2, true));
+    }
+
+    @Test
+    public void shouldHonourOffsets() {
+        byte[] pcm = {9, 0, 1, 0, 2, 9};
+        short[] samples = new short[4];
+        SampleCodec.decode(pcm, 1, samples, 1, 2, false);
+
+        assertArrayEquals(new short[]{0, 256, 512, 0}, samples);
+    }
+}
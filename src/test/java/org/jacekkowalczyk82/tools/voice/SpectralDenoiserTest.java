@@ -0,0 +1,98 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpectralDenoiserTest {
+    private static final int SAMPLE_RATE = 16000;
+
+    private static float[] noise(int samples, float level, long seed) {
+        Random random = new Random(seed);
+        float[] signal = new float[samples];
+        for (int i = 0; i < samples; i++) {
+            signal[i] = (float) (random.nextGaussian() * level);
+        }
+        return signal;
+    }
+
+    private static float[] denoise(SpectralDenoiser denoiser, float[] input, int chunk) {
+        float[] output = new float[input.length + denoiser.maxFlush() + denoiser.getFrameSize()];
+        int written = 0;
+        for (int offset = 0; offset < input.length; offset += chunk) {
+            written += denoiser.process(input, offset, Math.min(chunk, input.length - offset), output, written);
+        }
+        written += denoiser.flush(output, written);
+        // Line the output up with the input
+        return Arrays.copyOfRange(output, denoiser.getGroupDelay(), denoiser.getGroupDelay() + input.length);
+    }
+
+    private static double power(float[] signal, int from, int to) {
+        double sum = 0;
+        for (int i = from; i < to; i++) {
+            sum += signal[i] * signal[i];
+        }
+        return sum / (to - from);
+    }
+
+    @Test
+    public void shouldSuppressNoiseAndKeepSpeechLikeTone() {
+        // One second of noise, then one second of a loud tone on top of the same noise
+        float[] input = noise(2 * SAMPLE_RATE, 0.01f, 1);
+        for (int i = SAMPLE_RATE; i < input.length; i++) {
+            input[i] += (float) (0.3 * Math.sin(2 * Math.PI * 440 * i / SAMPLE_RATE));
+        }
+
+        float[] output = denoise(SpectralDenoiser.forSampleRate(SAMPLE_RATE), input, 320);
+
+        double noiseBefore = power(input, SAMPLE_RATE / 2, SAMPLE_RATE);
+        double noiseAfter = power(output, SAMPLE_RATE / 2, SAMPLE_RATE);
+        assertTrue(noiseAfter < noiseBefore / 10, "noise " + noiseBefore + " -> " + noiseAfter);
+
+        double toneBefore = power(input, SAMPLE_RATE + 1600, 2 * SAMPLE_RATE - 1600);
+        double toneAfter = power(output, SAMPLE_RATE + 1600, 2 * SAMPLE_RATE - 1600);
+        assertEquals(toneBefore, toneAfter, toneBefore * 0.1);
+    }
+
+    @Test
+    public void shouldEstimateTheNoiseFloorPerBin() {
+        SpectralDenoiser denoiser = new SpectralDenoiser(512);
+        float[] input = noise(SAMPLE_RATE, 0.02f, 2);
+        float[] output = new float[input.length];
+        denoiser.process(input, 0, input.length, output, 0);
+
+        // White noise: variance times the window energy (frame / 2 for squared sqrt-Hann) in every bin
+        double expected = 0.02 * 0.02 * 256;
+        double mean = 0;
+        for (int k = 10; k < 250; k++) {
+            mean += denoiser.noiseFloor(k);
+        }
+        mean /= 240;
+        assertEquals(expected, mean, expected * 0.25);
+    }
+
+    @Test
+    public void shouldNotDependOnChunking() {
+        float[] input = noise(8000, 0.05f, 3);
+
+        float[] whole = denoise(SpectralDenoiser.forSampleRate(SAMPLE_RATE), input, input.length);
+        float[] chunked = denoise(SpectralDenoiser.forSampleRate(SAMPLE_RATE), input, 77);
+
+        assertArrayEquals(whole, chunked, 1e-6f);
+    }
+
+    @Test
+    public void shouldEmitEveryInputSampleAfterFlush() {
+        SpectralDenoiser denoiser = new SpectralDenoiser(512);
+        float[] output = new float[2000];
+
+        int written = denoiser.process(new float[1000], 0, 1000, output, 0);
+        written += denoiser.flush(output, written);
+
+        assertTrue(written >= 1000 + denoiser.getGroupDelay(), "written " + written);
+        assertThrows(IllegalArgumentException.class, () -> new SpectralDenoiser(500));
+    }
+}
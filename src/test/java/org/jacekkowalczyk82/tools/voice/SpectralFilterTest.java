@@ -0,0 +1,67 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpectralFilterTest {
+    private static final float SAMPLE_RATE = 16000;
+
+    private static double[] tones(int length, double... frequencies) {
+        double[] samples = new double[length];
+        for (double frequency : frequencies) {
+            for (int i = 0; i < length; i++) {
+                samples[i] += 0.2 * Math.sin(2 * Math.PI * frequency * i / SAMPLE_RATE);
+            }
+        }
+        return samples;
+    }
+
+    private static double rms(double[] samples, int length) {
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += samples[i] * samples[i];
+        }
+        return Math.sqrt(sum / length);
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {16000, 16001})
+    public void shouldKeepInBandToneAndRemoveOutOfBandTones(int length) {
+        double[] inBand = tones(length, 1000);
+        double[] mixed = tones(length, 100, 1000, 6000);
+
+        SpectralFilter.bandPass(mixed, length, SAMPLE_RATE, 300, 3000);
+
+        double[] error = new double[length];
+        for (int i = 0; i < length; i++) {
+            error[i] = inBand[i] - mixed[i];
+        }
+        // Exact for bin-aligned tones, odd sizes leak a little around the cutoffs
+        assertTrue(rms(error, length) < 0.01 * rms(inBand, length) * (length % 2 == 0 ? 0.01 : 1));
+    }
+
+    @Test
+    public void shouldFilterOnlyTheRequestedPrefixOfTheBuffer() {
+        double[] work = SpectralFilter.workBuffer(8000);
+        double[] samples = tones(8000, 6000);
+        System.arraycopy(samples, 0, work, 0, samples.length);
+
+        SpectralFilter.lowPass(work, 8000, SAMPLE_RATE, 3000);
+
+        assertTrue(rms(work, 8000) < 1e-6);
+        assertSame(work, SpectralFilter.workBuffer(4000));
+    }
+
+    @Test
+    public void shouldBoundTheNumberOfCachedPlans() {
+        for (int size = 100; size < 100 + 2 * SpectralFilter.MAX_CACHED_PLANS; size++) {
+            SpectralFilter.highPass(new double[size], size, SAMPLE_RATE, 300);
+        }
+
+        assertEquals(SpectralFilter.MAX_CACHED_PLANS, SpectralFilter.cachedPlans());
+        assertSame(SpectralFilter.plan(120), SpectralFilter.plan(120));
+    }
+}
@@ -0,0 +1,101 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpeculativeRecognizerTest {
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+    private static final List<Command> COMMANDS = List.of(
+            Command.parse("lock screen = run loginctl lock-session"),
+            Command.parse("volume up = key XF86AudioRaiseVolume"),
+            Command.parse("volume up a lot = run amixer set Master 20%+"));
+
+    private final List<List<String>> launched = new CopyOnWriteArrayList<>();
+    private final List<String> utterances = new CopyOnWriteArrayList<>();
+
+    private static void tone(ByteArrayOutputStream out, int millis, double amplitude) {
+        for (int i = 0; i < 16 * millis; i++) {
+            int sample = (int) (amplitude * 32767 * Math.sin(2 * Math.PI * 200 * i / 16000.0));
+            out.write(sample);
+            out.write(sample >> 8);
+        }
+    }
+
+    // Feeds the audio in real time, 20 ms at a time
+    private void listen(SpeculativeRecognizer speculative, byte[] audio) throws Exception {
+        VoiceActivityDetector vad = new VoiceActivityDetector(FORMAT, utterance -> {
+            Command early = speculative.utteranceEnded();
+            utterances.add(early != null ? "ran " + early.phrase() : "recognize");
+        });
+        vad.setPauseListener(SpeculativeRecognizer.DEFAULT_PAUSE_MILLIS, speculative);
+        for (int offset = 0; offset < audio.length; offset += 640) {
+            vad.process(audio, offset, 640);
+            Thread.sleep(20);
+        }
+        vad.flush();
+    }
+
+    @Test
+    public void shouldRunAnUnambiguousCommandBeforeTheUtteranceEnds() throws Exception {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        tone(audio, 200, 0);
+        tone(audio, 500, 0.3);
+        tone(audio, 1200, 0);
+        CommandDispatcher commands = new CommandDispatcher(launched::add);
+        commands.setCommands(COMMANDS);
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT, List.of("Lock screen."), 50)) {
+            listen(new SpeculativeRecognizer(recognizer, commands), audio.toByteArray());
+
+            assertEquals(1, recognizer.requests());
+        }
+        commands.close();
+
+        assertEquals(List.of(List.of("loginctl", "lock-session")), launched);
+        assertEquals(List.of("ran lock screen"), utterances);
+    }
+
+    @Test
+    public void shouldNotCommitToAPhraseThatMayStillGrow() throws Exception {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        tone(audio, 200, 0);
+        tone(audio, 500, 0.3);
+        tone(audio, 1200, 0);
+        CommandDispatcher commands = new CommandDispatcher(launched::add);
+        commands.setCommands(COMMANDS);
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT, List.of("volume up"), 0)) {
+            listen(new SpeculativeRecognizer(recognizer, commands), audio.toByteArray());
+        }
+        commands.close();
+
+        assertEquals(List.of(), launched);
+        assertEquals(List.of("recognize"), utterances);
+    }
+
+    @Test
+    public void shouldCancelASpeculationOnceSpeechGoesOn() throws Exception {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        tone(audio, 200, 0);
+        tone(audio, 500, 0.3);
+        tone(audio, 400, 0);
+        tone(audio, 500, 0.3);
+        tone(audio, 1200, 0);
+        CommandDispatcher commands = new CommandDispatcher(launched::add);
+        commands.setCommands(COMMANDS);
+        // Speech resumes before the answer for the first pause, which is cancelled and never answered
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT, List.of("lock screen"), 300)) {
+            listen(new SpeculativeRecognizer(recognizer, commands), audio.toByteArray());
+
+            assertEquals(1, recognizer.requests());
+        }
+        commands.close();
+
+        assertEquals(List.of(List.of("loginctl", "lock-session")), launched);
+        assertEquals(List.of("ran lock screen"), utterances);
+    }
+}
@@ -0,0 +1,72 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.RecognizeResponse;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpeechServiceTest {
+    private static final RecognitionConfig CONFIG = RecognitionConfig.newBuilder()
+            .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+            .setSampleRateHertz(16000)
+            .setLanguageCode("en-US")
+            .build();
+
+    private FakeSpeechService speechServer;
+    private SpeechService speechService;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        speechServer = FakeSpeechService.onLocalPort();
+        speechService = new SpeechService(speechServer.settings());
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        speechService.close();
+        speechServer.close();
+    }
+
+    @Test
+    public void shouldServeManyUtterancesOverOneClient() {
+        for (int i = 1; i <= 5; i++) {
+            RecognizeResponse response = speechService.recognize(CONFIG, new byte[i * 100]);
+            assertEquals("received " + i * 100 + " bytes", response.getResults(0).getAlternatives(0).getTranscript());
+        }
+
+        assertEquals(5, speechServer.recognizeRequests.size());
+        assertFalse(speechService.client().isShutdown());
+    }
+
+    @Test
+    public void shouldCompleteWarmUpEvenWhenTheProbeIsRejected() throws Exception {
+        // The fake has no operations service, the probe fails with UNIMPLEMENTED
+        speechService.warmUp().get(10, TimeUnit.SECONDS);
+
+        assertEquals(0, speechServer.recognizeRequests.size());
+    }
+
+    @Test
+    public void shouldStreamThroughTheSharedClient() throws Exception {
+        List<String> finals = new CopyOnWriteArrayList<>();
+        try (StreamingTranscriber transcriber = speechService.newStreamingTranscriber(CONFIG, false,
+                (transcript, isFinal, score) -> {
+                    if (isFinal) {
+                        finals.add(transcript);
+                    }
+                })) {
+            transcriber.start();
+            transcriber.send(new byte[320], 0, 320);
+        }
+
+        assertEquals(List.of("received 320 bytes"), finals);
+        assertFalse(speechService.client().isShutdown());
+    }
+}
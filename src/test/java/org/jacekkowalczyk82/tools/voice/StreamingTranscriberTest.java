@@ -0,0 +1,168 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+import com.google.cloud.speech.v1.SpeechClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingTranscriberTest {
+    private static final RecognitionConfig CONFIG = RecognitionConfig.newBuilder()
+            .setEncoding(RecognitionConfig.AudioEncoding.LINEAR16)
+            .setSampleRateHertz(16000)
+            .setLanguageCode("en-US")
+            .build();
+
+    private FakeSpeechService speechService;
+    private SpeechClient speechClient;
+    private final List<String> interim = new CopyOnWriteArrayList<>();
+    private final List<String> finals = new CopyOnWriteArrayList<>();
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        speechService = new FakeSpeechService();
+        speechClient = speechService.createClient();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        speechClient.close();
+        speechService.close();
+    }
+
+    private void collect(String transcript, boolean isFinal, float score) {
+        (isFinal ? finals : interim).add(transcript);
+    }
+
+    @Test
+    public void shouldStreamChunksAndReportInterimAndFinalResults() throws Exception {
+        byte[] chunk = new byte[3200];
+        try (StreamingTranscriber transcriber = new StreamingTranscriber(speechClient, CONFIG, true, this::collect)) {
+            transcriber.start();
+            for (int i = 0; i < 3; i++) {
+                transcriber.send(chunk, 0, chunk.length);
+            }
+        }
+
+        assertEquals(1, speechService.streamingConfigs.size());
+        assertTrue(speechService.streamingConfigs.get(0).getInterimResults());
+        assertEquals(List.of("chunk 1", "chunk 2", "chunk 3"), interim);
+        assertEquals(List.of("received 9600 bytes"), finals);
+    }
+
+    @Test
+    public void shouldSendOnlyTheRequestedSliceOfTheBuffer() throws Exception {
+        byte[] buffer = {1, 2, 3, 4, 5, 6};
+        try (StreamingTranscriber transcriber = new StreamingTranscriber(speechClient, CONFIG, false, this::collect)) {
+            transcriber.start();
+            transcriber.send(buffer, 2, 3);
+        }
+
+        assertArrayEquals(new byte[]{3, 4, 5}, speechService.streamedAudio.toByteArray());
+    }
+
+    @Test
+    public void shouldReopenStreamWhenLimitIsReached() throws Exception {
+        byte[] chunk = new byte[320];
+        try (StreamingTranscriber transcriber = new StreamingTranscriber(speechClient, CONFIG, true, this::collect, null, 0)) {
+            transcriber.start();
+            transcriber.send(chunk, 0, chunk.length);
+            transcriber.send(chunk, 0, chunk.length);
+        }
+
+        // The initial stream is closed empty, then every send starts a new one
+        assertEquals(3, speechService.streamingConfigs.size());
+        assertEquals(List.of("received 0 bytes", "received 320 bytes", "received 320 bytes"), finals);
+    }
+
+    @Test
+    public void shouldReopenStreamAfterLimitWorthOfAudioSentFasterThanRealTime() throws Exception {
+        // One second limit is 32000 bytes of 16 kHz audio
+        ByteBuffer chunk = ByteBuffer.allocateDirect(16000);
+        try (StreamingTranscriber transcriber = new StreamingTranscriber(speechClient, CONFIG, false, this::collect, null, 1000)) {
+            transcriber.start();
+            for (int i = 0; i < 3; i++) {
+                transcriber.send(chunk.duplicate());
+            }
+        }
+
+        assertEquals(2, speechService.streamingConfigs.size());
+        assertEquals(List.of("received 32000 bytes", "received 16000 bytes"), finals);
+    }
+
+    @Test
+    public void shouldReopenStreamAfterItFailed() throws Exception {
+        speechService.failingStreams.set(1);
+        CountDownLatch failed = new CountDownLatch(1);
+        TranscriptListener listener = new TranscriptListener() {
+            @Override
+            public void onTranscript(String transcript, boolean isFinal, float score) {
+                collect(transcript, isFinal, score);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                failed.countDown();
+            }
+        };
+        byte[] lost = {1, 2, 3};
+        byte[] chunk = {4, 5, 6};
+        try (StreamingTranscriber transcriber = new StreamingTranscriber(speechClient, CONFIG, false, listener)) {
+            transcriber.start();
+            transcriber.send(lost, 0, lost.length);
+            assertTrue(failed.await(5, TimeUnit.SECONDS), "stream did not fail");
+            transcriber.send(chunk, 0, chunk.length);
+        }
+
+        assertEquals(2, speechService.streamingConfigs.size());
+        assertArrayEquals(chunk, speechService.streamedAudio.toByteArray());
+        assertEquals(List.of("received 3 bytes"), finals);
+    }
+
+    @Test
+    public void shouldSendAndConsumeByteBuffers() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6});
+        buffer.position(1).limit(4);
+        try (StreamingTranscriber transcriber = new StreamingTranscriber(speechClient, CONFIG, false, this::collect)) {
+            transcriber.start();
+            transcriber.send(buffer);
+        }
+
+        assertFalse(buffer.hasRemaining());
+        assertArrayEquals(new byte[]{2, 3, 4}, speechService.streamedAudio.toByteArray());
+    }
+
+    @Test
+    public void shouldStreamFlacWhenGivenAnEncoder() throws Exception {
+        AudioFormat format = new AudioFormat(16000, 16, 1, true, false);
+        byte[] pcm = new byte[3200];
+        for (int i = 0; i < pcm.length / 2; i++) {
+            SampleCodec.putSample(pcm, 2 * i, (short) (8000 * Math.sin(i / 5.0)), false);
+        }
+        try (StreamingTranscriber transcriber = new StreamingTranscriber(speechClient, CONFIG, false, this::collect,
+                new FlacEncoder(format, 1600))) {
+            transcriber.start();
+            for (int i = 0; i < 3; i++) {
+                transcriber.send(pcm, 0, pcm.length);
+            }
+        }
+
+        assertEquals(RecognitionConfig.AudioEncoding.FLAC,
+                speechService.streamingConfigs.get(0).getConfig().getEncoding());
+        byte[] decoded = FlacEncoderTest.FlacDecoder.decode(speechService.streamedAudio.toByteArray(), format);
+        assertEquals(3 * pcm.length, decoded.length);
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(pcm, Arrays.copyOfRange(decoded, i * pcm.length, (i + 1) * pcm.length));
+        }
+    }
+}
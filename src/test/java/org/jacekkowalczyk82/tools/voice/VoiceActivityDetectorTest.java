@@ -0,0 +1,162 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+
+import javax.sound.sampled.AudioFormat;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VoiceActivityDetectorTest {
+    private static final int SAMPLE_RATE = 16000;
+    private static final AudioFormat FORMAT = new AudioFormat(SAMPLE_RATE, 16, 1, true, true);
+
+    private final List<byte[]> utterances = new ArrayList<>();
+
+    // Big-endian 16-bit PCM: a 200 Hz tone standing in for voiced speech, or silence when amplitude is 0
+    private static void tone(ByteArrayOutputStream out, int millis, double amplitude) {
+        int samples = SAMPLE_RATE * millis / 1000;
+        for (int i = 0; i < samples; i++) {
+            int sample = (int) (amplitude * 32767 * Math.sin(2 * Math.PI * 200 * i / SAMPLE_RATE));
+            out.write(sample >> 8);
+            out.write(sample);
+        }
+    }
+
+    private static void noise(ByteArrayOutputStream out, int millis, double amplitude, long seed) {
+        Random random = new Random(seed);
+        int samples = SAMPLE_RATE * millis / 1000;
+        for (int i = 0; i < samples; i++) {
+            int sample = (int) (amplitude * 32767 * (random.nextDouble() * 2 - 1));
+            out.write(sample >> 8);
+            out.write(sample);
+        }
+    }
+
+    private void feed(VoiceActivityDetector vad, byte[] audio, int chunk) {
+        for (int offset = 0; offset < audio.length; offset += chunk) {
+            vad.process(audio, offset, Math.min(chunk, audio.length - offset));
+        }
+    }
+
+    @Test
+    public void shouldEmitOneUtterancePerSpeechBurst() {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        tone(audio, 500, 0);
+        tone(audio, 800, 0.3);
+        tone(audio, 1500, 0);
+        tone(audio, 600, 0.3);
+        tone(audio, 1500, 0);
+
+        VoiceActivityDetector vad = new VoiceActivityDetector(FORMAT, utterances::add);
+        feed(vad, audio.toByteArray(), 4096);
+        vad.flush();
+
+        assertEquals(2, utterances.size());
+        // Speech plus up to the pre-roll, trailing hangover silence trimmed
+        int bytesPerMilli = SAMPLE_RATE * 2 / 1000;
+        assertTrue(utterances.get(0).length >= 800 * bytesPerMilli);
+        assertTrue(utterances.get(0).length <= (800 + VoiceActivityDetector.DEFAULT_PRE_ROLL_MILLIS) * bytesPerMilli);
+    }
+
+    @Test
+    public void shouldIgnoreSilenceAndShortClicks() {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        tone(audio, 1000, 0);
+        tone(audio, 20, 0.5); // shorter than the onset time
+        tone(audio, 1000, 0);
+
+        VoiceActivityDetector vad = new VoiceActivityDetector(FORMAT, utterances::add);
+        feed(vad, audio.toByteArray(), 333);
+        vad.flush();
+
+        assertTrue(utterances.isEmpty());
+    }
+
+    @Test
+    public void shouldRejectQuietBroadbandNoise() {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        // Loud enough to pass the energy threshold, but with a white-noise zero-crossing rate
+        noise(audio, 2000, 0.08, 42);
+
+        VoiceActivityDetector vad = new VoiceActivityDetector(FORMAT, utterances::add);
+        feed(vad, audio.toByteArray(), 4096);
+        vad.flush();
+
+        assertTrue(utterances.isEmpty());
+    }
+
+    @Test
+    public void shouldCloseUtteranceOnFlush() {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        tone(audio, 300, 0);
+        tone(audio, 500, 0.3);
+
+        VoiceActivityDetector vad = new VoiceActivityDetector(FORMAT, utterances::add);
+        feed(vad, audio.toByteArray(), 1000);
+        assertTrue(vad.isInSpeech());
+        vad.flush();
+
+        assertFalse(vad.isInSpeech());
+        assertEquals(1, utterances.size());
+    }
+
+    @Test
+    public void shouldTrimTrailingSilenceOnFlushWhateverTheFrameFill() {
+        ByteArrayOutputStream speech = new ByteArrayOutputStream();
+        tone(speech, 300, 0);
+        tone(speech, 500, 0.3);
+        VoiceActivityDetector vad = new VoiceActivityDetector(FORMAT, utterances::add);
+        feed(vad, speech.toByteArray(), 1000);
+        vad.flush();
+        int speechOnly = utterances.get(0).length;
+
+        // 300 ms of silence and half a frame more: nothing after the speech is kept
+        ByteArrayOutputStream silent = new ByteArrayOutputStream();
+        silent.writeBytes(speech.toByteArray());
+        tone(silent, 310, 0);
+        feed(vad, silent.toByteArray(), 1000);
+        vad.flush();
+        assertEquals(speechOnly, utterances.get(1).length);
+
+        // Half a frame of speech is kept
+        ByteArrayOutputStream spoken = new ByteArrayOutputStream();
+        spoken.writeBytes(speech.toByteArray());
+        tone(spoken, 10, 0.3);
+        feed(vad, spoken.toByteArray(), 1000);
+        vad.flush();
+        assertEquals(speechOnly + 320, utterances.get(2).length);
+    }
+
+    @Test
+    public void shouldReportPausesInsideAnUtterance() {
+        ByteArrayOutputStream audio = new ByteArrayOutputStream();
+        tone(audio, 300, 0);
+        tone(audio, 400, 0.3);
+        tone(audio, 400, 0); // a pause, but shorter than the hangover
+        tone(audio, 400, 0.3);
+        tone(audio, 1500, 0);
+
+        List<String> events = new ArrayList<>();
+        VoiceActivityDetector vad = new VoiceActivityDetector(FORMAT, utterance -> events.add("utterance"));
+        vad.setPauseListener(300, new PauseListener() {
+            @Override
+            public void onPause(byte[] speech) {
+                events.add("pause " + speech.length * 1000 / 2 / SAMPLE_RATE / 100);
+            }
+
+            @Override
+            public void onResume() {
+                events.add("resume");
+            }
+        });
+        feed(vad, audio.toByteArray(), 640);
+        vad.flush();
+
+        // The first pause carries the first word (plus pre-roll), the second everything up to it
+        assertEquals(List.of("pause 5", "resume", "pause 13", "utterance"), events);
+    }
+}
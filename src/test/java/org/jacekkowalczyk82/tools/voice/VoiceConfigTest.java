@@ -0,0 +1,145 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import com.google.cloud.speech.v1.RecognitionConfig;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFormat;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VoiceConfigTest {
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void shouldUseBuiltInProfilesWithoutAnySource() throws Exception {
+        VoiceConfig config = new VoiceConfig(null, Map.of(), List.of());
+
+        RecognitionProfile active = config.active();
+        assertEquals("default", active.name());
+        assertEquals("en-US", active.language());
+        assertEquals(5000, active.windowMillis());
+        assertEquals(300, active.lowCutHz());
+        assertEquals(3000, active.highCutHz());
+        assertEquals(16000, active.recognitionConfig().getSampleRateHertz());
+        assertEquals(List.of("default", "polish"), List.copyOf(config.profiles().keySet()));
+        // Only the language differs, the rest is inherited
+        RecognitionProfile polish = config.profiles().get("polish");
+        assertEquals("pl-PL", polish.recognitionConfig().getLanguageCode());
+        assertEquals(active.highCutHz(), polish.highCutHz());
+    }
+
+    @Test
+    public void shouldLetEnvironmentOverrideFileAndCommandLineOverrideBoth() throws Exception {
+        Path file = directory.resolve("voice.properties");
+        Files.writeString(file, """
+                profile = office
+                office.language = en-GB
+                office.high-cut-hz = 3400
+                office.vad-level = 1500
+                """);
+        Map<String, String> environment = Map.of(
+                "VOICE_OFFICE_HIGH_CUT_HZ", "3600",
+                "VOICE_OFFICE_VAD_LEVEL", "2000",
+                "PATH", "/usr/bin");
+
+        VoiceConfig config = new VoiceConfig(file, environment, List.of("office.vad-level=2500"));
+
+        RecognitionProfile office = config.active();
+        assertEquals("office", office.name());
+        assertEquals("en-GB", office.language());
+        assertEquals(3600, office.highCutHz());
+        assertEquals(2500, office.vadLevel());
+        assertEquals(300, office.lowCutHz());
+        assertEquals("VOICE_OFFICE_HIGH_CUT_HZ", VoiceConfig.environmentName("office.high-cut-hz"));
+
+        VoiceConfig polish = new VoiceConfig(file, environment, List.of("profile=polish"));
+        assertEquals("pl-PL", polish.active().language());
+    }
+
+    @Test
+    public void shouldRejectInvalidSettings() {
+        assertEquals("Unknown setting 'default.langauge'", assertThrows(IllegalArgumentException.class,
+                () -> new VoiceConfig(null, Map.of(), List.of("default.langauge=en-GB"))).getMessage());
+        assertEquals("default.high-cut-hz must be below half the sample rate, got 9000",
+                assertThrows(IllegalArgumentException.class,
+                        () -> new VoiceConfig(null, Map.of(), List.of("default.high-cut-hz=9000"))).getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> new VoiceConfig(null, Map.of(), List.of("car.language=english please")));
+        assertThrows(IllegalArgumentException.class,
+                () -> new VoiceConfig(null, Map.of("VOICE_DEFAULT_WINDOW_MILLIS", "soon"), List.of()));
+        assertThrows(IllegalArgumentException.class,
+                () -> new VoiceConfig(null, Map.of(), List.of("profile=missing")));
+    }
+
+    @Test
+    public void shouldSwitchProfilesAtRuntime() throws Exception {
+        VoiceConfig config = new VoiceConfig(null, Map.of(), List.of());
+
+        RecognitionProfile polish = config.switchTo("polish");
+        assertSame(polish, config.active());
+        assertThrows(IllegalArgumentException.class, () -> config.switchTo("klingon"));
+        assertSame(polish, config.active());
+    }
+
+    @Test
+    public void shouldSendEachUtteranceToTheActiveProfilesRecognizer() throws Exception {
+        VoiceConfig config = new VoiceConfig(null, Map.of(), List.of());
+        try (ProfileRecognizer recognizer = new ProfileRecognizer(config, (RecognitionConfig recognition) ->
+                new FakeRecognizer(FORMAT, List.of("hello " + recognition.getLanguageCode()), 0))) {
+            byte[] audio = new byte[3200];
+
+            assertEquals("hello en-US", recognizer.recognize(audio).transcript());
+            config.switchTo("polish");
+            assertEquals("hello pl-PL", recognizer.recognizeAsync(audio).get().transcript());
+            config.switchTo("default");
+            // The backend is kept, its one-line script now repeats
+            assertEquals("hello en-US", recognizer.recognize(audio).transcript());
+        }
+    }
+
+    @Test
+    public void shouldReloadEditedFileAndKeepProfilesOnErrors() throws Exception {
+        Path file = directory.resolve("voice.properties");
+        Files.writeString(file, "default.high-cut-hz = 3400\n");
+        try (VoiceConfig config = new VoiceConfig(file, Map.of(), List.of())) {
+            config.switchTo("polish");
+            config.watch();
+
+            Files.writeString(file, "default.high-cut-hz = 3600\n");
+            assertTrue(waitFor(() -> config.active().highCutHz() == 3600), "config file was not reloaded");
+            // The switched-to profile stays active with its new values
+            assertEquals("polish", config.active().name());
+
+            Files.writeString(file, "default.high-cut-hz = 12000\n");
+            Thread.sleep(10 * FileWatcher.QUIET_MILLIS);
+            assertEquals(3600, config.active().highCutHz());
+
+            // A changed profile setting wins over the runtime switch
+            Files.writeString(file, "profile = office\noffice.language = en-GB\n");
+            assertTrue(waitFor(() -> config.active().name().equals("office")), "profile change was not applied");
+            assertEquals("en-GB", config.active().language());
+            assertEquals(3000, config.active().highCutHz());
+        }
+    }
+
+    private static boolean waitFor(BooleanSupplier condition) throws InterruptedException {
+        // inotify based on Linux, polling on some other platforms
+        long deadline = System.currentTimeMillis() + 15_000;
+        while (System.currentTimeMillis() < deadline) {
+            if (condition.getAsBoolean()) {
+                return true;
+            }
+            Thread.sleep(20);
+        }
+        return false;
+    }
+}
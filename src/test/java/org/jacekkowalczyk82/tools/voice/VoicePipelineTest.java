@@ -0,0 +1,193 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.AttributeNotFoundException;
+import javax.sound.sampled.AudioFormat;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VoicePipelineTest {
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+    // 100 ms of audio per "utterance"
+    private static final int UTTERANCE_BYTES = 3200;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * Stands in for the filter chain and detector: every 100 ms of audio closes one utterance.
+     */
+    private static AudioRingBuffer.Consumer segmenter(VoicePipeline pipeline) {
+        int[] fill = new int[1];
+        return (buffer, offset, length) -> {
+            fill[0] += length;
+            while (fill[0] >= UTTERANCE_BYTES) {
+                fill[0] -= UTTERANCE_BYTES;
+                pipeline.submit(new byte[UTTERANCE_BYTES]);
+            }
+        };
+    }
+
+    @Test
+    public void shouldKeepSegmentingWhileEarlierUtterancesAreRecognized() throws Exception {
+        List<String> transcripts = new CopyOnWriteArrayList<>();
+        List<Integer> queuedAtFirstResult = new CopyOnWriteArrayList<>();
+        AudioRingBuffer ring = new AudioRingBuffer(64_000, UTTERANCE_BYTES);
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT, List.of("ok"), 200)) {
+            VoicePipeline[] holder = new VoicePipeline[1];
+            VoicePipeline pipeline = new VoicePipeline(recognizer, (utterance, result) -> {
+                if (transcripts.isEmpty()) {
+                    queuedAtFirstResult.add((int) holder[0].droppedUtterances() + holder[0].queuedUtterances());
+                }
+                transcripts.add(utterance.sequence() + ":" + result.transcript());
+            }, 8, 2);
+            holder[0] = pipeline;
+            pipeline.start(ring.newReader(), segmenter(pipeline), () -> {
+            });
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 4; i++) {
+                ring.write(new byte[UTTERANCE_BYTES], 0, UTTERANCE_BYTES);
+            }
+            ring.close();
+            pipeline.join();
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+            // Concurrent requests may finish in any order, results still come out in spoken order
+            assertEquals(List.of("0:ok", "1:ok", "2:ok", "3:ok"), transcripts);
+            // Two utterances in flight at a time: about 400 ms instead of 800 ms one after the other
+            assertTrue(elapsedMillis < 750, "took " + elapsedMillis + " ms");
+            // The later utterances were already segmented and waiting when the first result arrived
+            assertTrue(queuedAtFirstResult.get(0) >= 1);
+            assertEquals(0, pipeline.droppedUtterances());
+        }
+    }
+
+    @Test
+    public void shouldDropUtterancesInsteadOfBlockingDsp() throws Exception {
+        AtomicInteger delivered = new AtomicInteger();
+        AudioRingBuffer ring = new AudioRingBuffer(64_000, UTTERANCE_BYTES);
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT, List.of("slow"), 300)) {
+            VoicePipeline pipeline = new VoicePipeline(recognizer, (utterance, result) -> delivered.incrementAndGet(),
+                    1, 1);
+            pipeline.start(ring.newReader(), segmenter(pipeline), () -> {
+            });
+            for (int i = 0; i < 6; i++) {
+                ring.write(new byte[UTTERANCE_BYTES], 0, UTTERANCE_BYTES);
+            }
+            ring.close();
+            pipeline.join();
+
+            assertTrue(pipeline.droppedUtterances() > 0);
+            assertEquals(6, delivered.get() + pipeline.droppedUtterances());
+            assertEquals(0, pipeline.droppedBytes());
+        }
+    }
+
+    @Test
+    public void shouldFinishCapturedAudioAndFlushOnClose() throws Exception {
+        List<String> transcripts = new CopyOnWriteArrayList<>();
+        AtomicBoolean flushed = new AtomicBoolean();
+        AudioRingBuffer ring = new AudioRingBuffer(64_000, UTTERANCE_BYTES);
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT)) {
+            VoicePipeline pipeline = new VoicePipeline(recognizer,
+                    (utterance, result) -> transcripts.add(result.transcript()));
+            AudioRingBuffer.Consumer segmenter = segmenter(pipeline);
+            int[] pending = new int[1];
+            pipeline.start(ring.newReader(), (buffer, offset, length) -> {
+                pending[0] += length;
+                segmenter.accept(buffer, offset, length);
+            }, () -> {
+                // Like the detector's flush: the unfinished tail becomes a last utterance
+                flushed.set(true);
+                pipeline.submit(new byte[pending[0] % UTTERANCE_BYTES]);
+            });
+            ring.write(new byte[UTTERANCE_BYTES + 1600], 0, UTTERANCE_BYTES + 1600);
+            // The ring stays open, as it does while the microphone is live
+            pipeline.close();
+        }
+
+        assertTrue(flushed.get());
+        assertEquals(List.of("heard 100 ms", "heard 50 ms"), transcripts);
+        assertThrows(AttributeNotFoundException.class,
+                () -> Metrics.global().getAttribute("utterance_queue_depth"));
+        assertThrows(AttributeNotFoundException.class,
+                () -> Metrics.global().getAttribute("recognitions_in_flight"));
+    }
+
+    @Test
+    public void shouldReportFailuresAndKeepGoing() throws Exception {
+        List<String> events = new CopyOnWriteArrayList<>();
+        AudioRingBuffer ring = new AudioRingBuffer(64_000, UTTERANCE_BYTES);
+        AtomicInteger calls = new AtomicInteger();
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT) {
+            @Override
+            public CompletableFuture<RecognitionResult> recognizeAsync(byte[] audio) {
+                if (calls.getAndIncrement() == 0) {
+                    return CompletableFuture.failedFuture(new IllegalStateException("backend down"));
+                }
+                return super.recognizeAsync(audio);
+            }
+        }) {
+            VoicePipeline pipeline = new VoicePipeline(recognizer, new VoicePipeline.ResultListener() {
+                @Override
+                public void onResult(VoicePipeline.Utterance utterance, RecognitionResult result) {
+                    events.add(utterance.sequence() + ":" + result.transcript());
+                }
+
+                @Override
+                public void onError(VoicePipeline.Utterance utterance, Throwable error) {
+                    events.add(utterance.sequence() + ":" + error.getMessage());
+                }
+            });
+            pipeline.start(ring.newReader(), segmenter(pipeline), () -> {
+            });
+            ring.write(new byte[2 * UTTERANCE_BYTES], 0, 2 * UTTERANCE_BYTES);
+            ring.close();
+            pipeline.join();
+        }
+
+        assertEquals(List.of("0:backend down", "1:heard 100 ms"), events);
+    }
+
+    @Test
+    public void shouldRecordLatencyMetricsAndFlightRecorderEvents() throws Exception {
+        LatencyHistogram latency = Metrics.global().histogram("utterance_latency", "");
+        long before = latency.count();
+        Path file = directory.resolve("pipeline.jfr");
+        AudioRingBuffer ring = new AudioRingBuffer(64_000, UTTERANCE_BYTES);
+        try (Recording recording = new Recording();
+             FakeRecognizer recognizer = new FakeRecognizer(FORMAT, List.of("ok"), 20)) {
+            recording.enable("org.jacekkowalczyk82.voice.Recognition");
+            recording.start();
+            VoicePipeline pipeline = new VoicePipeline(recognizer, (utterance, result) -> {
+            });
+            pipeline.start(ring.newReader(), segmenter(pipeline), () -> {
+            });
+            ring.write(new byte[3 * UTTERANCE_BYTES], 0, 3 * UTTERANCE_BYTES);
+            ring.close();
+            pipeline.join();
+            recording.stop();
+            recording.dump(file);
+        }
+
+        assertEquals(before + 3, latency.count());
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                .filter(event -> event.getEventType().getName().equals("org.jacekkowalczyk82.voice.Recognition"))
+                .toList();
+        assertEquals(3, events.size());
+        assertEquals(UTTERANCE_BYTES, events.get(0).getInt("audioBytes"));
+        assertTrue(events.get(0).getDuration().toMillis() >= 15);
+    }
+}
@@ -0,0 +1,123 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.AttributeNotFoundException;
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class VoiceServerTest {
+
+    @TempDir
+    Path directory;
+
+    // Two 300 ms words over quiet noise, each after 500 ms the denoiser learns the noise from and
+    // followed by 1.2 s the detector closes it on
+    private static byte[] twoWords() {
+        Random random = new Random(1);
+        byte[] pcm = new byte[2 * 64000];
+        for (int i = 0; i < pcm.length / 2; i++) {
+            double value = random.nextGaussian() * 30;
+            int inWord = i % 32000 - 8000;
+            if (inWord >= 0 && inWord < 4800) {
+                value += 8000 * Math.sin(2 * Math.PI * 1000 * inWord / 16000.0);
+            }
+            SampleCodec.putSample(pcm, 2 * i, (short) value, false);
+        }
+        return pcm;
+    }
+
+    private static List<String> transcribe(int port, byte[] pcm) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            for (int offset = 0; offset < pcm.length; offset += 640) {
+                out.write(pcm, offset, Math.min(640, pcm.length - offset));
+            }
+            socket.shutdownOutput();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> transcripts = new ArrayList<>();
+            String line;
+            while ((line = in.readLine()) != null) {
+                String[] fields = line.split("\t", 3);
+                assertTrue(Long.parseLong(fields[1]) >= 0);
+                transcripts.add(fields[0] + ":" + fields[2]);
+            }
+            return transcripts;
+        }
+    }
+
+    @Test
+    public void shouldTranscribeEachSessionInOrder() throws Exception {
+        try (FakeRecognizer recognizer = new FakeRecognizer(VoiceServer.FORMAT, List.of("lights on"), 50);
+             VoiceServer server = new VoiceServer(recognizer, 0)) {
+            assertEquals(List.of("0:lights on", "1:lights on"), transcribe(server.port(), twoWords()));
+            // A session without speech ends without transcripts
+            assertEquals(List.of(), transcribe(server.port(), new byte[16000]));
+            assertEquals(2, recognizer.requests());
+        }
+        assertThrows(AttributeNotFoundException.class,
+                () -> Metrics.global().getAttribute("server_active_sessions"));
+        assertThrows(AttributeNotFoundException.class,
+                () -> Metrics.global().getAttribute("server_buffered_bytes"));
+    }
+
+    @Test
+    public void shouldStopReadingASessionThatFallsBehind() throws Exception {
+        byte[] pcm = twoWords();
+        byte[] longer = new byte[pcm.length * 4];
+        for (int i = 0; i < 4; i++) {
+            System.arraycopy(pcm, 0, longer, i * pcm.length, pcm.length);
+        }
+        // One utterance at a time and 200 ms per utterance: the client is paused until it catches up
+        try (FakeRecognizer recognizer = new FakeRecognizer(VoiceServer.FORMAT, List.of("ok"), 200);
+             VoiceServer server = new VoiceServer(recognizer, 0, 2, 6400, 1)) {
+            List<String> transcripts = transcribe(server.port(), longer);
+
+            assertEquals(8, transcripts.size());
+            for (int i = 0; i < 8; i++) {
+                assertEquals(i + ":ok", transcripts.get(i));
+            }
+            assertTrue(server.pausedReads() > 0);
+        }
+    }
+
+    @Test
+    public void shouldServeManyConcurrentSessions() throws Exception {
+        Path fixture = directory.resolve("two-words.wav");
+        byte[] pcm = twoWords();
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(pcm), VoiceServer.FORMAT, pcm.length / 2)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, fixture.toFile());
+        }
+        try (FakeRecognizer recognizer = new FakeRecognizer(VoiceServer.FORMAT, List.of("ok"), 20);
+             VoiceServer server = new VoiceServer(recognizer, 0, 4, VoiceServer.DEFAULT_MAX_BUFFERED_BYTES,
+                     VoiceServer.DEFAULT_IN_FLIGHT)) {
+            VoiceLoadGenerator.Report report = new VoiceLoadGenerator("localhost", server.port(), fixture, false, 1)
+                    .run(200, 500);
+
+            assertEquals(0, report.failedSessions());
+            assertEquals(400, report.utterances());
+            assertEquals(400, report.latency().count());
+            assertEquals(200 * 4000, report.audioMillis());
+            assertEquals(400, recognizer.requests());
+            long deadline = System.currentTimeMillis() + 2000;
+            while (server.activeSessions() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, server.activeSessions());
+        }
+    }
+}
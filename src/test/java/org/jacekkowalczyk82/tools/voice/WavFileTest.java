@@ -0,0 +1,102 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WavFileTest {
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+
+    @TempDir
+    Path directory;
+
+    private static byte[] ramp(int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            SampleCodec.putSample(pcm, 2 * i, (short) (i * 3 - 1000), false);
+        }
+        return pcm;
+    }
+
+    private Path write(String name, byte[] pcm) throws Exception {
+        Path file = directory.resolve(name);
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(pcm), FORMAT, pcm.length / 2)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, file.toFile());
+        }
+        return file;
+    }
+
+    private static byte[] concat(Iterable<ByteBuffer> chunks, int expectedLength) {
+        ByteBuffer all = ByteBuffer.allocate(expectedLength);
+        for (ByteBuffer chunk : chunks) {
+            all.put(chunk);
+        }
+        assertFalse(all.hasRemaining());
+        return all.array();
+    }
+
+    @Test
+    public void shouldParseHeaderAndExposeTheData() throws Exception {
+        byte[] pcm = ramp(8000);
+        try (WavFile wav = WavFile.open(write("a.wav", pcm))) {
+            assertEquals(16000, wav.getFormat().getSampleRate());
+            assertEquals(1, wav.getFormat().getChannels());
+            assertFalse(wav.getFormat().isBigEndian());
+            assertEquals(pcm.length, wav.dataLength());
+            assertEquals(500, wav.durationMillis());
+
+            ByteBuffer slice = wav.slice(200, 4);
+            assertEquals(ByteOrder.LITTLE_ENDIAN, slice.order());
+            assertEquals((short) (100 * 3 - 1000), slice.getShort(0));
+            assertArrayEquals(pcm, concat(wav.chunks(3200), pcm.length));
+        }
+    }
+
+    @Test
+    public void shouldMapLargeFilesInWindows() throws Exception {
+        byte[] pcm = ramp(10_000);
+        // Windows of 1000 bytes force chunks of 640 to straddle window boundaries
+        try (WavFile wav = new WavFile(write("b.wav", pcm), 1000)) {
+            assertArrayEquals(pcm, concat(wav.chunks(641), pcm.length));
+        }
+    }
+
+    @Test
+    public void shouldSkipUnknownChunksAndRecoverUnfinishedSizes() throws Exception {
+        byte[] pcm = ramp(100);
+        byte[] original = Files.readAllBytes(write("c.wav", pcm));
+        // Insert a LIST chunk with an odd size (padded) before data and mark data size as unknown
+        ByteBuffer patched = ByteBuffer.allocate(original.length + 8 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        patched.put(original, 0, 36);
+        patched.put("LIST".getBytes()).putInt(3).put(new byte[]{1, 2, 3, 0});
+        patched.put(original, 36, original.length - 36);
+        patched.putInt(36 + 12 + 4, -1);
+        Path file = directory.resolve("patched.wav");
+        Files.write(file, patched.array());
+
+        try (WavFile wav = WavFile.open(file)) {
+            assertEquals(pcm.length, wav.dataLength());
+            assertArrayEquals(pcm, concat(wav.chunks(64), pcm.length));
+        }
+    }
+
+    @Test
+    public void shouldRejectFilesThatAreNotWav() throws Exception {
+        Path file = directory.resolve("notes.wav");
+        Files.writeString(file, "definitely not a wav file");
+
+        assertThrows(IOException.class, () -> WavFile.open(file));
+    }
+}
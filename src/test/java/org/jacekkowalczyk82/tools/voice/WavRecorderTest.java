@@ -0,0 +1,95 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WavRecorderTest {
+    private static final AudioFormat BIG_ENDIAN = new AudioFormat(16000, 16, 1, true, true);
+
+    @TempDir
+    Path directory;
+
+    private static byte[] ramp(int samples) {
+        byte[] pcm = new byte[samples * 2];
+        for (int i = 0; i < samples; i++) {
+            SampleCodec.putSample(pcm, 2 * i, (short) (i * 7 - 3000), true);
+        }
+        return pcm;
+    }
+
+    private static short[] readSamples(File file) throws Exception {
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file)) {
+            AudioFormat format = in.getFormat();
+            byte[] pcm = in.readAllBytes();
+            short[] samples = new short[pcm.length / 2];
+            SampleCodec.decode(pcm, 0, samples, 0, samples.length, format.isBigEndian());
+            return samples;
+        }
+    }
+
+    @Test
+    public void shouldWriteReadableWavWithPatchedHeader() throws Exception {
+        byte[] pcm = ramp(50_000);
+        try (WavRecorder recorder = new WavRecorder(directory, "captured_audio", BIG_ENDIAN)) {
+            recorder.record(pcm, 0, 40_000);
+            recorder.record(pcm, 40_000, pcm.length - 40_000);
+        }
+
+        File file = directory.resolve("captured_audio.wav").toFile();
+        try (AudioInputStream in = AudioSystem.getAudioInputStream(file)) {
+            assertEquals(50_000, in.getFrameLength());
+            assertEquals(16000, in.getFormat().getSampleRate());
+        }
+        short[] expected = new short[50_000];
+        SampleCodec.decode(pcm, 0, expected, 0, expected.length, true);
+        assertArrayEquals(expected, readSamples(file));
+    }
+
+    @Test
+    public void shouldRotateFilesBySize() throws Exception {
+        byte[] pcm = ramp(1000);
+        try (WavRecorder recorder = new WavRecorder(directory, "stream", BIG_ENDIAN, 2000, 0, 1000, 16)) {
+            for (int i = 0; i < 5; i++) {
+                recorder.record(pcm);
+            }
+        }
+
+        // 2000 bytes per file, rotated before the write that would exceed it
+        assertTrue(Files.exists(directory.resolve("stream-0.wav")));
+        assertTrue(Files.exists(directory.resolve("stream-4.wav")));
+        assertEquals(1000, readSamples(directory.resolve("stream-0.wav").toFile()).length);
+    }
+
+    @Test
+    public void shouldSkipRecordingWhenDisabledOrSampledOut() throws Exception {
+        byte[] pcm = ramp(100);
+        try (WavRecorder recorder = new WavRecorder(directory, "sampled", BIG_ENDIAN)) {
+            recorder.setSampleEvery(3);
+            for (int i = 0; i < 6; i++) {
+                recorder.record(pcm);
+            }
+            recorder.setEnabled(false);
+            recorder.record(pcm);
+        }
+
+        assertEquals(200, readSamples(directory.resolve("sampled.wav").toFile()).length);
+    }
+
+    @Test
+    public void shouldDropInsteadOfBlockingWhenPoolIsExhausted() throws Exception {
+        byte[] pcm = ramp(100_000);
+        try (WavRecorder recorder = new WavRecorder(directory, "small", BIG_ENDIAN, 0, 0, 1024, 2)) {
+            recorder.record(pcm);
+            assertTrue(recorder.droppedBytes() > 0);
+        }
+    }
+}
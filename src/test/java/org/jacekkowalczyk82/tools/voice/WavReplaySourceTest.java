@@ -0,0 +1,133 @@
+package org.jacekkowalczyk82.tools.voice;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WavReplaySourceTest {
+    private static final AudioFormat FORMAT = new AudioFormat(16000, 16, 1, true, false);
+
+    @TempDir
+    Path directory;
+
+    // 300 ms of 200 Hz tone, then 300 ms of silence
+    private static byte[] word() {
+        byte[] pcm = new byte[2 * 9600];
+        for (int i = 0; i < 4800; i++) {
+            SampleCodec.putSample(pcm, 2 * i, (short) (8000 * Math.sin(2 * Math.PI * 200 * i / 16000.0)), false);
+        }
+        return pcm;
+    }
+
+    private Path write(String name, byte[] pcm) throws Exception {
+        Path file = directory.resolve(name);
+        try (AudioInputStream in = new AudioInputStream(new ByteArrayInputStream(pcm), FORMAT, pcm.length / 2)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, file.toFile());
+        }
+        return file;
+    }
+
+    private static long drain(AudioSource source) throws Exception {
+        byte[] buffer = new byte[640];
+        long total = 0;
+        int n;
+        while ((n = source.read(buffer, 0, buffer.length)) >= 0) {
+            total += n;
+        }
+        return total;
+    }
+
+    @Test
+    public void shouldRepeatTheRecordingWithSilenceInBetween() throws Exception {
+        byte[] pcm = word();
+        try (WavReplaySource source = new WavReplaySource(write("word.wav", pcm), false, 3, 500)) {
+            source.start();
+            byte[] buffer = new byte[pcm.length + 16000];
+            int n = 0;
+            int read;
+            while (n < buffer.length && (read = source.read(buffer, n, Math.min(641, buffer.length - n))) > 0) {
+                n += read;
+            }
+            // Whole frames only, the recording and then 500 ms of silence
+            assertEquals(buffer.length, n);
+            assertArrayEquals(pcm, Arrays.copyOf(buffer, pcm.length));
+            for (int i = pcm.length; i < buffer.length; i++) {
+                assertEquals(0, buffer[i]);
+            }
+
+            long rest = drain(source);
+            assertEquals(3L * pcm.length + 2 * 16000 - buffer.length, rest);
+            assertEquals(3, source.loopsCompleted());
+        }
+    }
+
+    @Test
+    public void shouldPaceRealTimeReplay() throws Exception {
+        Path file = write("word.wav", word());
+        try (WavReplaySource source = new WavReplaySource(file, true)) {
+            long start = System.nanoTime();
+            source.start();
+            assertEquals(19200, drain(source));
+            long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+            assertTrue(elapsedMillis >= 580, "took " + elapsedMillis + " ms");
+        }
+        try (WavReplaySource source = new WavReplaySource(file, false)) {
+            long start = System.nanoTime();
+            source.start();
+            assertEquals(19200, drain(source));
+            assertTrue((System.nanoTime() - start) / 1_000_000 < 300);
+        }
+    }
+
+    @Test
+    public void shouldEndABlockedReadWhenStopped() throws Exception {
+        try (WavReplaySource source = new WavReplaySource(write("word.wav", word()), true, 0, 500)) {
+            source.start();
+            CompletableFuture<Long> drained = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return drain(source);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Thread.sleep(200);
+            source.stop();
+            long bytes = drained.get(1, TimeUnit.SECONDS);
+            assertTrue(bytes > 0 && bytes < 19200, "read " + bytes);
+        }
+    }
+
+    @Test
+    public void shouldRunTheAssistantPipelineFromARecording() throws Exception {
+        List<String> transcripts = new CopyOnWriteArrayList<>();
+        Path file = write("word.wav", word());
+        try (FakeRecognizer recognizer = new FakeRecognizer(FORMAT, List.of("lights on"), 20);
+             CaptureEngine capture = new CaptureEngine(new WavReplaySource(file, false, 4,
+                     WavReplaySource.DEFAULT_GAP_MILLIS))) {
+            VoicePipeline pipeline = new VoicePipeline(recognizer,
+                    (utterance, result) -> transcripts.add(utterance.sequence() + ":" + result.transcript()));
+            VoiceActivityDetector vad = new VoiceActivityDetector(FORMAT, pipeline::submit);
+            pipeline.start(capture.newReader(), vad::process, vad::flush);
+            capture.start();
+
+            // Ends by itself once the last repetition has been played and recognized
+            pipeline.join();
+
+            assertEquals(List.of("0:lights on", "1:lights on", "2:lights on", "3:lights on"), transcripts);
+            assertEquals(4 * 19200L + 3 * 48000L, capture.capturedBytes());
+        }
+    }
+}